@@ -16,6 +16,7 @@ import timber.log.Timber;
 
 import android.text.TextUtils;
 import android.text.util.Rfc822Token;
+import android.util.LruCache;
 import android.text.util.Rfc822Tokenizer;
 
 public class Address implements Serializable {
@@ -26,9 +27,22 @@ public class Address implements Serializable {
      */
     private static final Address[] EMPTY_ADDRESS_ARRAY = new Address[0];
 
-    private String mAddress;
+    /**
+     * Maximum number of packed address lists whose unpacked form is kept in {@link #sUnpackCache}.
+     */
+    private static final int UNPACK_CACHE_SIZE = 1000;
+
+    /**
+     * Unpacked address lists keyed by their packed representation. The message list unpacks the same sender and
+     * recipient lists over and over again while scrolling. Since {@link Address} instances are immutable they can be
+     * shared; only the arrays are copied when handed out.
+     */
+    private static final LruCache<String, Address[]> sUnpackCache =
+            new LruCache<String, Address[]>(UNPACK_CACHE_SIZE);
 
-    private String mPersonal;
+    private final String mAddress;
+
+    private final String mPersonal;
 
 
     public Address(Address address) {
@@ -64,6 +78,8 @@ public class Address implements Serializable {
                 }
             } else {
                 // This should be an error
+                mAddress = null;
+                mPersonal = null;
             }
         } else {
             mAddress = address;
@@ -89,25 +105,10 @@ public class Address implements Serializable {
         return mAddress.substring(hostIdx + 1);
     }
 
-    public void setAddress(String address) {
-        this.mAddress = address;
-    }
-
     public String getPersonal() {
         return mPersonal;
     }
 
-    public void setPersonal(String newPersonal) {
-        String personal = newPersonal;
-        if ("".equals(personal)) {
-            personal = null;
-        }
-        if (personal != null) {
-            personal = personal.trim();
-        }
-        this.mPersonal = personal;
-    }
-
     /**
      * Parse a comma separated list of email addresses in human readable format and return an
      * array of Address objects, RFC-822 encoded.
@@ -238,8 +239,19 @@ public class Address implements Serializable {
      */
     public static Address[] unpack(String addressList) {
         if (addressList == null) {
-            return new Address[] { };
+            return EMPTY_ADDRESS_ARRAY;
         }
+
+        Address[] addresses = sUnpackCache.get(addressList);
+        if (addresses == null) {
+            addresses = unpackUncached(addressList);
+            sUnpackCache.put(addressList, addresses);
+        }
+
+        return addresses.clone();
+    }
+
+    private static Address[] unpackUncached(String addressList) {
         List<Address> addresses = new ArrayList<Address>();
         int length = addressList.length();
         int pairStartIndex = 0;
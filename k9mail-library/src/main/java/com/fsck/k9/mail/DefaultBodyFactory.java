@@ -1,6 +1,7 @@
 package com.fsck.k9.mail;
 
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -8,11 +9,37 @@ import java.io.OutputStream;
 import com.fsck.k9.mail.internet.BinaryTempFileBody;
 import com.fsck.k9.mail.internet.BinaryTempFileMessageBody;
 import com.fsck.k9.mail.internet.MimeUtility;
+import com.fsck.k9.mailstore.BinaryMemoryBody;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.james.mime4j.util.MimeUtil;
+import timber.log.Timber;
 
 
 public class DefaultBodyFactory implements BodyFactory {
+    /**
+     * Bodies up to this size are kept in memory by default. This matches the size up to which the local store keeps
+     * body data in the database, so these bodies never have to touch the file system.
+     */
+    public static final int DEFAULT_MAX_MEMORY_BODY_SIZE = 16 * 1024;
+
+
+    private final int maxMemoryBodySize;
+
+
+    public DefaultBodyFactory() {
+        this(DEFAULT_MAX_MEMORY_BODY_SIZE);
+    }
+
+    /**
+     * @param maxMemoryBodySize
+     *         Bodies larger than this number of bytes are written to a temporary file, smaller ones are kept in
+     *         memory. Use {@code 0} to always use temporary files.
+     */
+    public DefaultBodyFactory(int maxMemoryBodySize) {
+        this.maxMemoryBodySize = maxMemoryBodySize;
+    }
+
     public Body createBody(String contentTransferEncoding, String contentType, InputStream inputStream)
             throws IOException {
 
@@ -20,21 +47,44 @@ public class DefaultBodyFactory implements BodyFactory {
             contentTransferEncoding = MimeUtility.getHeaderParameter(contentTransferEncoding, null);
         }
 
-        final BinaryTempFileBody tempBody;
         if (MimeUtil.isMessage(contentType)) {
-            tempBody = new BinaryTempFileMessageBody(contentTransferEncoding);
-        } else {
-            tempBody = new BinaryTempFileBody(contentTransferEncoding);
+            BinaryTempFileMessageBody tempBody = new BinaryTempFileMessageBody(contentTransferEncoding);
+
+            OutputStream outputStream = tempBody.getOutputStream();
+            try {
+                copyData(inputStream, outputStream);
+            } finally {
+                outputStream.close();
+            }
+
+            return tempBody;
         }
 
-        OutputStream outputStream = tempBody.getOutputStream();
+        DeferredFileOutputStream outputStream = new DeferredFileOutputStream(maxMemoryBodySize, "body", null,
+                BinaryTempFileBody.getTempDirectory());
         try {
-            copyData(inputStream, outputStream);
-        } finally {
-            outputStream.close();
+            try {
+                copyData(inputStream, outputStream);
+            } finally {
+                outputStream.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteTemporaryFile(outputStream);
+            throw e;
+        }
+
+        if (outputStream.isInMemory()) {
+            return new BinaryMemoryBody(outputStream.getData(), contentTransferEncoding);
+        } else {
+            return new BinaryTempFileBody(contentTransferEncoding, outputStream.getFile());
         }
+    }
 
-        return tempBody;
+    private static void deleteTemporaryFile(DeferredFileOutputStream outputStream) {
+        File file = outputStream.getFile();
+        if (!outputStream.isInMemory() && file != null && file.exists() && !file.delete()) {
+            Timber.w("Couldn't delete temporary body file %s", file.getName());
+        }
     }
 
     protected void copyData(InputStream inputStream, OutputStream outputStream) throws IOException {
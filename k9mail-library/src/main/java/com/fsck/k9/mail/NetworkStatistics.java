@@ -0,0 +1,66 @@
+package com.fsck.k9.mail;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Counts the traffic of all connections of a {@link Store}.
+ *
+ * <p>
+ * The counters are never reset. To find out how much traffic an operation caused, take the difference of the values
+ * before and after the operation. This includes the traffic of other connections of the same store that were active
+ * at the same time, e.g. push connections.
+ * </p>
+ */
+public class NetworkStatistics {
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong roundTrips = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong connectTime = new AtomicLong();
+
+
+    public void addBytesSent(long count) {
+        bytesSent.addAndGet(count);
+    }
+
+    public void addBytesReceived(long count) {
+        bytesReceived.addAndGet(count);
+    }
+
+    /**
+     * Records a command that was sent to the server and has to wait for the server's response.
+     */
+    public void addRoundTrip() {
+        roundTrips.incrementAndGet();
+    }
+
+    /**
+     * Records an attempt to open a connection, including TLS handshake and authentication.
+     */
+    public void addConnection(long durationMillis) {
+        connections.incrementAndGet();
+        connectTime.addAndGet(durationMillis);
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    public long getConnections() {
+        return connections.get();
+    }
+
+    public long getConnectTimeMillis() {
+        return connectTime.get();
+    }
+}
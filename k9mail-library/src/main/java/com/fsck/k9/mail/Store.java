@@ -48,4 +48,11 @@ public abstract class Store {
     public Pusher getPusher(PushReceiver receiver) {
         return null;
     }
+
+    /**
+     * Returns the traffic counters of this store's connections, or {@code null} if the store doesn't count traffic.
+     */
+    public NetworkStatistics getNetworkStatistics() {
+        return null;
+    }
 }
@@ -0,0 +1,135 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+
+/**
+ * Decodes Base64 encoded data read from the wrapped stream.
+ *
+ * <p>
+ * Data is read and decoded in blocks of {@link #BUFFER_SIZE} bytes using a lookup table, instead of one byte at a
+ * time. For well-formed input the output is identical to that of mime4j's {@code Base64InputStream}. Decoding is
+ * lenient: characters outside the Base64 alphabet are skipped, a padding character ends the data, and an incomplete
+ * quantum at the end of the stream is dropped.
+ * </p>
+ */
+public class Base64DecoderInputStream extends InputStream {
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte PAD = '=';
+    private static final int INVALID = -1;
+    private static final int[] DECODE_TABLE = new int[256];
+
+    static {
+        Arrays.fill(DECODE_TABLE, INVALID);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE_TABLE[alphabet.charAt(i)] = i;
+        }
+    }
+
+
+    private final InputStream in;
+    private final byte[] inputBuffer = new byte[BUFFER_SIZE];
+    private final byte[] outputBuffer = new byte[BUFFER_SIZE / 4 * 3 + 3];
+    private final byte[] singleByte = new byte[1];
+    private int outputPosition;
+    private int outputLength;
+    private int data;
+    private int sextets;
+    private boolean eof;
+
+
+    public Base64DecoderInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int count = read(singleByte, 0, 1);
+        return (count == -1) ? -1 : (singleByte[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        while (outputPosition == outputLength) {
+            if (eof) {
+                return -1;
+            }
+            fillOutputBuffer();
+        }
+
+        int count = Math.min(length, outputLength - outputPosition);
+        System.arraycopy(outputBuffer, outputPosition, buffer, offset, count);
+        outputPosition += count;
+
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return outputLength - outputPosition;
+    }
+
+    /**
+     * Stops decoding. Like mime4j's decoding streams, this doesn't close the wrapped stream.
+     */
+    @Override
+    public void close() throws IOException {
+        eof = true;
+        outputPosition = outputLength;
+    }
+
+    private void fillOutputBuffer() throws IOException {
+        outputPosition = 0;
+        outputLength = 0;
+
+        int inputLength = in.read(inputBuffer, 0, inputBuffer.length);
+        if (inputLength == -1) {
+            // An incomplete quantum at the end of the stream is dropped
+            eof = true;
+            return;
+        }
+
+        int[] decodeTable = DECODE_TABLE;
+        byte[] input = inputBuffer;
+        byte[] output = outputBuffer;
+        int currentData = data;
+        int currentSextets = sextets;
+        int outputIndex = 0;
+
+        for (int i = 0; i < inputLength; i++) {
+            byte b = input[i];
+            int value = decodeTable[b & 0xFF];
+            if (value != INVALID) {
+                currentData = (currentData << 6) | value;
+                if (++currentSextets == 4) {
+                    output[outputIndex++] = (byte) (currentData >> 16);
+                    output[outputIndex++] = (byte) (currentData >> 8);
+                    output[outputIndex++] = (byte) currentData;
+                    currentData = 0;
+                    currentSextets = 0;
+                }
+            } else if (b == PAD) {
+                if (currentSextets == 2) {
+                    output[outputIndex++] = (byte) (currentData >> 4);
+                } else if (currentSextets == 3) {
+                    output[outputIndex++] = (byte) (currentData >> 10);
+                    output[outputIndex++] = (byte) (currentData >> 2);
+                }
+                eof = true;
+                break;
+            }
+        }
+
+        data = currentData;
+        sextets = currentSextets;
+        outputLength = outputIndex;
+    }
+}
@@ -0,0 +1,150 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * Base64 encodes all data written to it, wrapping lines after 76 characters.
+ *
+ * <p>
+ * Writes are encoded in blocks into a reusable buffer using a lookup table, instead of one byte at a time. The output
+ * is identical to that of {@link Base64OutputStream} with default settings, including the line break written by
+ * {@link #close()}. Like {@code Base64OutputStream}, closing this stream doesn't close the wrapped stream.
+ * </p>
+ */
+public class Base64EncoderOutputStream extends FilterOutputStream {
+    private static final int LINE_LENGTH = 76;
+    private static final int QUANTA_PER_LINE = LINE_LENGTH / 4;
+    private static final int INPUT_BYTES_PER_LINE = QUANTA_PER_LINE * 3;
+    private static final int LINES_PER_BLOCK = 128;
+    private static final int INPUT_BLOCK_SIZE = INPUT_BYTES_PER_LINE * LINES_PER_BLOCK;
+    private static final byte[] ENCODE_TABLE = {
+            'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M',
+            'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z',
+            'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm',
+            'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z',
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '+', '/'
+    };
+    private static final byte PAD = '=';
+
+
+    // Room for the encoded block, one partial line, line breaks, and the final quantum
+    private final byte[] outputBuffer = new byte[(LINES_PER_BLOCK + 2) * (LINE_LENGTH + 2)];
+    private final byte[] singleByte = new byte[1];
+    private final byte[] pending = new byte[3];
+    private int pendingLength;
+    private int lineQuanta;
+    private boolean closed;
+
+
+    public Base64EncoderOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Stream has already been closed");
+        }
+
+        int end = offset + length;
+        while (pendingLength > 0 && pendingLength < 3 && offset < end) {
+            pending[pendingLength++] = buffer[offset++];
+        }
+
+        int outputLength = 0;
+        if (pendingLength == 3) {
+            outputLength = encodeQuanta(pending, 0, 1, outputLength);
+            pendingLength = 0;
+        }
+
+        while (end - offset >= 3) {
+            int quanta = Math.min((end - offset) / 3, INPUT_BLOCK_SIZE / 3);
+            outputLength = encodeQuanta(buffer, offset, quanta, outputLength);
+            offset += quanta * 3;
+
+            out.write(outputBuffer, 0, outputLength);
+            outputLength = 0;
+        }
+
+        if (outputLength > 0) {
+            out.write(outputBuffer, 0, outputLength);
+        }
+
+        while (offset < end) {
+            pending[pendingLength++] = buffer[offset++];
+        }
+    }
+
+    private int encodeQuanta(byte[] input, int inputOffset, int quanta, int outputOffset) {
+        byte[] table = ENCODE_TABLE;
+        byte[] output = outputBuffer;
+        int inputIndex = inputOffset;
+        int outputIndex = outputOffset;
+        int currentLineQuanta = lineQuanta;
+
+        for (int i = 0; i < quanta; i++) {
+            int x = ((input[inputIndex] & 0xFF) << 16) | ((input[inputIndex + 1] & 0xFF) << 8) |
+                    (input[inputIndex + 2] & 0xFF);
+            inputIndex += 3;
+
+            output[outputIndex] = table[(x >> 18) & 0x3F];
+            output[outputIndex + 1] = table[(x >> 12) & 0x3F];
+            output[outputIndex + 2] = table[(x >> 6) & 0x3F];
+            output[outputIndex + 3] = table[x & 0x3F];
+            outputIndex += 4;
+
+            if (++currentLineQuanta == QUANTA_PER_LINE) {
+                output[outputIndex] = '\r';
+                output[outputIndex + 1] = '\n';
+                outputIndex += 2;
+                currentLineQuanta = 0;
+            }
+        }
+
+        lineQuanta = currentLineQuanta;
+        return outputIndex;
+    }
+
+    /**
+     * Writes the final quantum and a line break. The wrapped stream is flushed but not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        byte[] output = outputBuffer;
+        int outputIndex = 0;
+        if (pendingLength == 1) {
+            int x = pending[0] & 0xFF;
+            output[outputIndex++] = ENCODE_TABLE[(x >> 2) & 0x3F];
+            output[outputIndex++] = ENCODE_TABLE[(x << 4) & 0x3F];
+            output[outputIndex++] = PAD;
+            output[outputIndex++] = PAD;
+        } else if (pendingLength == 2) {
+            int x = ((pending[0] & 0xFF) << 8) | (pending[1] & 0xFF);
+            output[outputIndex++] = ENCODE_TABLE[(x >> 10) & 0x3F];
+            output[outputIndex++] = ENCODE_TABLE[(x >> 4) & 0x3F];
+            output[outputIndex++] = ENCODE_TABLE[(x << 2) & 0x3F];
+            output[outputIndex++] = PAD;
+        }
+        output[outputIndex++] = '\r';
+        output[outputIndex++] = '\n';
+        pendingLength = 0;
+
+        out.write(output, 0, outputIndex);
+        out.flush();
+    }
+}
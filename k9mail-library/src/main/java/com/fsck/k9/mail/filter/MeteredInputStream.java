@@ -0,0 +1,54 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fsck.k9.mail.NetworkStatistics;
+
+
+/**
+ * A filtering InputStream that adds the number of bytes read to {@link NetworkStatistics}.
+ */
+public class MeteredInputStream extends FilterInputStream {
+    private final NetworkStatistics networkStatistics;
+
+
+    public MeteredInputStream(InputStream in, NetworkStatistics networkStatistics) {
+        super(in);
+        this.networkStatistics = networkStatistics;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            networkStatistics.addBytesReceived(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int count = in.read(buffer, offset, length);
+        if (count > 0) {
+            networkStatistics.addBytesReceived(count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long count = in.skip(n);
+        if (count > 0) {
+            networkStatistics.addBytesReceived(count);
+        }
+        return count;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,35 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fsck.k9.mail.NetworkStatistics;
+
+
+/**
+ * A filtering OutputStream that adds the number of bytes written to {@link NetworkStatistics}.
+ */
+public class MeteredOutputStream extends FilterOutputStream {
+    private final NetworkStatistics networkStatistics;
+
+
+    public MeteredOutputStream(OutputStream out, NetworkStatistics networkStatistics) {
+        super(out);
+        this.networkStatistics = networkStatistics;
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+        out.write(oneByte);
+        networkStatistics.addBytesSent(1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        // FilterOutputStream would write the bytes one at a time
+        out.write(buffer, offset, length);
+        networkStatistics.addBytesSent(length);
+    }
+}
@@ -0,0 +1,235 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+
+/**
+ * Decodes quoted-printable encoded data read from the wrapped stream.
+ *
+ * <p>
+ * Data is read and decoded in blocks of {@link #BUFFER_SIZE} bytes. Decoding is lenient: soft line breaks may be
+ * preceded by transport padding, whitespace at the end of a line is removed, and malformed escape sequences are
+ * passed through unchanged.
+ * </p>
+ */
+public class QuotedPrintableDecoderInputStream extends InputStream {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int INVALID = -1;
+    private static final int[] HEX_TABLE = new int[256];
+
+    private static final int STATE_TEXT = 0;
+    private static final int STATE_EQUALS = 1;
+    private static final int STATE_EQUALS_HEX = 2;
+    private static final int STATE_EQUALS_WHITESPACE = 3;
+    private static final int STATE_SOFT_LINE_BREAK_CR = 4;
+
+    static {
+        Arrays.fill(HEX_TABLE, INVALID);
+        for (int i = 0; i < 10; i++) {
+            HEX_TABLE['0' + i] = i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_TABLE['A' + i] = 10 + i;
+            HEX_TABLE['a' + i] = 10 + i;
+        }
+    }
+
+
+    private final InputStream in;
+    private final byte[] inputBuffer = new byte[BUFFER_SIZE];
+    private final byte[] singleByte = new byte[1];
+    private byte[] outputBuffer = new byte[BUFFER_SIZE];
+    private int outputPosition;
+    private int outputLength;
+    private byte[] whitespace = new byte[16];
+    private int whitespaceLength;
+    private int state = STATE_TEXT;
+    private int firstHexDigit;
+    private boolean eof;
+
+
+    public QuotedPrintableDecoderInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int count = read(singleByte, 0, 1);
+        return (count == -1) ? -1 : (singleByte[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        while (outputPosition == outputLength) {
+            if (eof) {
+                return -1;
+            }
+            fillOutputBuffer();
+        }
+
+        int count = Math.min(length, outputLength - outputPosition);
+        System.arraycopy(outputBuffer, outputPosition, buffer, offset, count);
+        outputPosition += count;
+
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return outputLength - outputPosition;
+    }
+
+    /**
+     * Stops decoding. Like mime4j's decoding streams, this doesn't close the wrapped stream.
+     */
+    @Override
+    public void close() throws IOException {
+        eof = true;
+        outputPosition = outputLength;
+    }
+
+    private void fillOutputBuffer() throws IOException {
+        outputPosition = 0;
+        outputLength = 0;
+
+        int inputLength = in.read(inputBuffer, 0, inputBuffer.length);
+        if (inputLength == -1) {
+            eof = true;
+            finish();
+            return;
+        }
+
+        for (int i = 0; i < inputLength; i++) {
+            decode(inputBuffer[i]);
+        }
+    }
+
+    private void decode(byte b) {
+        switch (state) {
+            case STATE_TEXT: {
+                if (b == '=') {
+                    state = STATE_EQUALS;
+                } else if (b == ' ' || b == '\t') {
+                    appendWhitespace(b);
+                } else if (b == '\r' || b == '\n') {
+                    // Whitespace at the end of a line was added in transport
+                    whitespaceLength = 0;
+                    append(b);
+                } else {
+                    flushWhitespace();
+                    append(b);
+                }
+                break;
+            }
+            case STATE_EQUALS: {
+                flushWhitespace();
+                int value = HEX_TABLE[b & 0xFF];
+                if (value != INVALID) {
+                    firstHexDigit = b;
+                    state = STATE_EQUALS_HEX;
+                } else if (b == '\r') {
+                    state = STATE_SOFT_LINE_BREAK_CR;
+                } else if (b == '\n') {
+                    state = STATE_TEXT;
+                } else if (b == ' ' || b == '\t') {
+                    appendWhitespace(b);
+                    state = STATE_EQUALS_WHITESPACE;
+                } else {
+                    append((byte) '=');
+                    state = STATE_TEXT;
+                    decode(b);
+                }
+                break;
+            }
+            case STATE_EQUALS_HEX: {
+                int value = HEX_TABLE[b & 0xFF];
+                if (value != INVALID) {
+                    append((byte) ((HEX_TABLE[firstHexDigit & 0xFF] << 4) | value));
+                    state = STATE_TEXT;
+                } else {
+                    append((byte) '=');
+                    append((byte) firstHexDigit);
+                    state = STATE_TEXT;
+                    decode(b);
+                }
+                break;
+            }
+            case STATE_EQUALS_WHITESPACE: {
+                if (b == ' ' || b == '\t') {
+                    appendWhitespace(b);
+                } else if (b == '\r') {
+                    whitespaceLength = 0;
+                    state = STATE_SOFT_LINE_BREAK_CR;
+                } else if (b == '\n') {
+                    whitespaceLength = 0;
+                    state = STATE_TEXT;
+                } else {
+                    append((byte) '=');
+                    state = STATE_TEXT;
+                    decode(b);
+                }
+                break;
+            }
+            case STATE_SOFT_LINE_BREAK_CR: {
+                state = STATE_TEXT;
+                if (b != '\n') {
+                    decode(b);
+                }
+                break;
+            }
+        }
+    }
+
+    private void finish() {
+        switch (state) {
+            case STATE_EQUALS: {
+                flushWhitespace();
+                append((byte) '=');
+                break;
+            }
+            case STATE_EQUALS_HEX: {
+                append((byte) '=');
+                append((byte) firstHexDigit);
+                break;
+            }
+            case STATE_EQUALS_WHITESPACE: {
+                append((byte) '=');
+                flushWhitespace();
+                break;
+            }
+            default: {
+                flushWhitespace();
+                break;
+            }
+        }
+        state = STATE_TEXT;
+    }
+
+    private void appendWhitespace(byte b) {
+        if (whitespaceLength == whitespace.length) {
+            whitespace = Arrays.copyOf(whitespace, whitespace.length * 2);
+        }
+        whitespace[whitespaceLength++] = b;
+    }
+
+    private void flushWhitespace() {
+        for (int i = 0; i < whitespaceLength; i++) {
+            append(whitespace[i]);
+        }
+        whitespaceLength = 0;
+    }
+
+    private void append(byte b) {
+        if (outputLength == outputBuffer.length) {
+            outputBuffer = Arrays.copyOf(outputBuffer, outputBuffer.length * 2);
+        }
+        outputBuffer[outputLength++] = b;
+    }
+}
@@ -10,9 +10,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 import com.fsck.k9.mail.MessagingException;
-import com.fsck.k9.mail.filter.Base64OutputStream;
 import org.apache.commons.io.IOUtils;
-import org.apache.james.mime4j.codec.QuotedPrintableOutputStream;
 import org.apache.james.mime4j.util.MimeUtil;
 import timber.log.Timber;
 
@@ -57,14 +55,7 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
             File newFile = File.createTempFile("body", null, mTempDirectory);
             final OutputStream out = new FileOutputStream(newFile);
             try {
-                OutputStream wrappedOut;
-                if (MimeUtil.ENC_QUOTED_PRINTABLE.equals(encoding)) {
-                    wrappedOut = new QuotedPrintableOutputStream(out, false);
-                } else if (MimeUtil.ENC_BASE64.equals(encoding)) {
-                    wrappedOut = new Base64OutputStream(out);
-                } else {
-                    throw new RuntimeException("Target encoding not supported: " + encoding);
-                }
+                OutputStream wrappedOut = MimeUtility.getEncodingOutputStream(out, encoding);
 
                 InputStream in = getInputStream();
                 try {
@@ -92,6 +83,14 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
         mEncoding = encoding;
     }
 
+    /**
+     * Create a body backed by an existing temporary file. The file will be deleted once the body has been read.
+     */
+    public BinaryTempFileBody(String encoding, File file) {
+        this(encoding);
+        mFile = file;
+    }
+
     public OutputStream getOutputStream() throws IOException {
         mFile = File.createTempFile("body", null, mTempDirectory);
         mFile.deleteOnExit();
@@ -93,9 +93,9 @@ public class MimeBodyPart extends BodyPart {
 
     @Override
     public String getContentType() {
-        String contentType = getFirstHeader(MimeHeader.HEADER_CONTENT_TYPE);
+        String contentType = mHeader.getFirstDecodedHeader(MimeHeader.HEADER_CONTENT_TYPE, null);
         if (contentType != null) {
-            return MimeUtility.unfoldAndDecode(contentType);
+            return contentType;
         }
         Multipart parent = getParent();
         if (parent != null && "multipart/digest".equals(parent.getMimeType())) {
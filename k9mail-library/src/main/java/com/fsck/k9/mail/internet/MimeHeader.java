@@ -10,6 +10,8 @@ import java.util.*;
 
 import android.support.annotation.NonNull;
 
+import com.fsck.k9.mail.Message;
+
 
 public class MimeHeader implements Cloneable {
     public static final String HEADER_CONTENT_TYPE = "Content-Type";
@@ -18,28 +20,73 @@ public class MimeHeader implements Cloneable {
     public static final String HEADER_CONTENT_ID = "Content-ID";
 
     private List<Field> mFields = new ArrayList<Field>();
+    /** Fields by lower case name, in the order they appear in {@link #mFields}. */
+    private Map<String, List<Field>> mFieldsByName = new HashMap<String, List<Field>>();
+    /** Cached results of {@link #getFirstDecodedHeader(String, Message)}, by lower case name. */
+    private Map<String, String> mDecodedValues = new HashMap<String, String>();
     private String mCharset = null;
 
     public void clear() {
         mFields.clear();
+        mFieldsByName.clear();
+        mDecodedValues.clear();
     }
 
     public String getFirstHeader(String name) {
-        String[] header = getHeader(name);
-        if (header.length == 0) {
+        List<Field> fields = mFieldsByName.get(getKey(name));
+        if (fields == null) {
             return null;
         }
-        return header[0];
+        return fields.get(0).getValue();
+    }
+
+    /**
+     * Returns the unfolded and decoded value of the first header field with the given name.
+     *
+     * <p>
+     * Decoded values are cached until the header is modified. All calls for the same header have to pass the same
+     * {@code message}.
+     * </p>
+     *
+     * @param message
+     *         The message this header belongs to, used to find the charset variant of encoded words. May be
+     *         {@code null}.
+     *
+     * @see MimeUtility#unfoldAndDecode(String, Message)
+     */
+    public String getFirstDecodedHeader(String name, Message message) {
+        String key = getKey(name);
+        if (mDecodedValues.containsKey(key)) {
+            return mDecodedValues.get(key);
+        }
+
+        String decodedValue = MimeUtility.unfoldAndDecode(getFirstHeader(name), message);
+        mDecodedValues.put(key, decodedValue);
+        return decodedValue;
     }
 
     public void addHeader(String name, String value) {
         Field field = Field.newNameValueField(name, MimeUtility.foldAndEncode(value));
-        mFields.add(field);
+        addField(field);
     }
 
     void addRawHeader(String name, String raw) {
         Field field = Field.newRawField(name, raw);
+        addField(field);
+    }
+
+    private void addField(Field field) {
         mFields.add(field);
+
+        String key = getKey(field.getName());
+        List<Field> fields = mFieldsByName.get(key);
+        if (fields == null) {
+            fields = new ArrayList<Field>(1);
+            mFieldsByName.put(key, fields);
+        }
+        fields.add(field);
+
+        mDecodedValues.clear();
     }
 
     public void setHeader(String name, String value) {
@@ -61,23 +108,34 @@ public class MimeHeader implements Cloneable {
 
     @NonNull
     public String[] getHeader(String name) {
-        List<String> values = new ArrayList<String>();
-        for (Field field : mFields) {
-            if (field.getName().equalsIgnoreCase(name)) {
-                values.add(field.getValue());
-            }
+        List<Field> fields = mFieldsByName.get(getKey(name));
+        if (fields == null) {
+            return new String[0];
+        }
+
+        String[] values = new String[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = fields.get(i).getValue();
         }
-        return values.toArray(new String[values.size()]);
+        return values;
     }
 
     public void removeHeader(String name) {
-        List<Field> removeFields = new ArrayList<Field>();
-        for (Field field : mFields) {
-            if (field.getName().equalsIgnoreCase(name)) {
-                removeFields.add(field);
-            }
+        List<Field> removeFields = mFieldsByName.remove(getKey(name));
+        if (removeFields == null) {
+            return;
         }
-        mFields.removeAll(removeFields);
+
+        if (removeFields.size() == 1) {
+            mFields.remove(removeFields.get(0));
+        } else {
+            mFields.removeAll(new HashSet<Field>(removeFields));
+        }
+        mDecodedValues.clear();
+    }
+
+    private static String getKey(String name) {
+        return name.toLowerCase(Locale.US);
     }
 
     public String toString() {
@@ -155,8 +213,8 @@ public class MimeHeader implements Cloneable {
 
     private static class Field {
         private final String name;
-        private final String value;
         private final String raw;
+        private String value;
 
         public static Field newNameValueField(String name, String value) {
             if (value == null) {
@@ -195,10 +253,12 @@ public class MimeHeader implements Cloneable {
 
             int delimiterIndex = raw.indexOf(':');
             if (delimiterIndex == raw.length() - 1) {
-                return "";
+                value = "";
+            } else {
+                value = raw.substring(delimiterIndex + 1).trim();
             }
 
-            return raw.substring(delimiterIndex + 1).trim();
+            return value;
         }
 
         public String getRaw() {
@@ -224,6 +284,11 @@ public class MimeHeader implements Cloneable {
         try {
             MimeHeader header = (MimeHeader) super.clone();
             header.mFields = new ArrayList<Field>(mFields);
+            header.mFieldsByName = new HashMap<String, List<Field>>(mFieldsByName.size());
+            for (Map.Entry<String, List<Field>> entry : mFieldsByName.entrySet()) {
+                header.mFieldsByName.put(entry.getKey(), new ArrayList<Field>(entry.getValue()));
+            }
+            header.mDecodedValues = new HashMap<String, String>(mDecodedValues);
             return header;
         } catch(CloneNotSupportedException e) {
             throw new AssertionError(e);
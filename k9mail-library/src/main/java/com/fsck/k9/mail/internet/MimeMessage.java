@@ -166,13 +166,13 @@ public class MimeMessage extends Message {
 
     @Override
     public String getContentType() {
-        String contentType = getFirstHeader(MimeHeader.HEADER_CONTENT_TYPE);
-        return (contentType == null) ? "text/plain" : MimeUtility.unfoldAndDecode(contentType);
+        String contentType = mHeader.getFirstDecodedHeader(MimeHeader.HEADER_CONTENT_TYPE, null);
+        return (contentType == null) ? "text/plain" : contentType;
     }
 
     @Override
     public String getDisposition() {
-        return MimeUtility.unfoldAndDecode(getFirstHeader(MimeHeader.HEADER_CONTENT_DISPOSITION));
+        return mHeader.getFirstDecodedHeader(MimeHeader.HEADER_CONTENT_DISPOSITION, null);
     }
 
     @Override
@@ -303,7 +303,7 @@ public class MimeMessage extends Message {
      */
     @Override
     public String getSubject() {
-        return MimeUtility.unfoldAndDecode(getFirstHeader("Subject"), this);
+        return mHeader.getFirstDecodedHeader("Subject", this);
     }
 
     @Override
@@ -4,6 +4,7 @@ package com.fsck.k9.mail.internet;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Locale;
 import java.util.regex.Pattern;
 
@@ -15,9 +16,11 @@ import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Multipart;
 import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.filter.Base64DecoderInputStream;
+import com.fsck.k9.mail.filter.Base64EncoderOutputStream;
+import com.fsck.k9.mail.filter.QuotedPrintableDecoderInputStream;
 
-import org.apache.james.mime4j.codec.Base64InputStream;
-import org.apache.james.mime4j.codec.QuotedPrintableInputStream;
+import org.apache.james.mime4j.codec.QuotedPrintableOutputStream;
 import org.apache.james.mime4j.util.MimeUtil;
 import timber.log.Timber;
 
@@ -1004,7 +1007,7 @@ public class MimeUtility {
                     || MimeUtil.ENC_BINARY.equalsIgnoreCase(encoding)) {
                 inputStream = rawInputStream;
             } else if (MimeUtil.ENC_BASE64.equalsIgnoreCase(encoding)) {
-                inputStream = new Base64InputStream(rawInputStream, false) {
+                inputStream = new Base64DecoderInputStream(rawInputStream) {
                     @Override
                     public void close() throws IOException {
                         super.close();
@@ -1012,7 +1015,7 @@ public class MimeUtility {
                     }
                 };
             } else if (MimeUtil.ENC_QUOTED_PRINTABLE.equalsIgnoreCase(encoding)) {
-                inputStream = new QuotedPrintableInputStream(rawInputStream) {
+                inputStream = new QuotedPrintableDecoderInputStream(rawInputStream) {
                     @Override
                     public void close() throws IOException {
                         super.close();
@@ -1030,6 +1033,22 @@ public class MimeUtility {
         return inputStream;
     }
 
+    /**
+     * Wrap an {@link OutputStream} so the data written to it is encoded with the given content transfer encoding.
+     * <p/>
+     * This is used by {@link RawDataBody} implementations to convert their data in {@link Body#setEncoding(String)}.
+     * Only quoted-printable and base64 are supported as target encodings.
+     */
+    public static OutputStream getEncodingOutputStream(OutputStream out, String encoding) {
+        if (MimeUtil.ENC_QUOTED_PRINTABLE.equals(encoding)) {
+            return new QuotedPrintableOutputStream(out, false);
+        } else if (MimeUtil.ENC_BASE64.equals(encoding)) {
+            return new Base64EncoderOutputStream(out);
+        } else {
+            throw new RuntimeException("Target encoding not supported: " + encoding);
+        }
+    }
+
     public static void closeInputStreamWithoutDeletingTemporaryFiles(InputStream rawInputStream) throws IOException {
         if (rawInputStream instanceof BinaryTempFileBody.BinaryTempFileBodyInputStream) {
             ((BinaryTempFileBody.BinaryTempFileBodyInputStream) rawInputStream).closeWithoutDeleting();
@@ -28,6 +28,7 @@ import java.util.zip.InflaterInputStream;
 
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.SystemClock;
 
 import com.fsck.k9.mail.Authentication;
 import com.fsck.k9.mail.AuthenticationFailedException;
@@ -35,8 +36,11 @@ import com.fsck.k9.mail.CertificateValidationException;
 import com.fsck.k9.mail.ConnectionSecurity;
 import com.fsck.k9.mail.K9MailLib;
 import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.NetworkStatistics;
 import com.fsck.k9.mail.NetworkType;
 import com.fsck.k9.mail.filter.Base64;
+import com.fsck.k9.mail.filter.MeteredInputStream;
+import com.fsck.k9.mail.filter.MeteredOutputStream;
 import com.fsck.k9.mail.filter.PeekableInputStream;
 import com.fsck.k9.mail.oauth.OAuth2TokenProvider;
 import com.fsck.k9.mail.oauth.XOAuth2ChallengeParser;
@@ -64,6 +68,7 @@ class ImapConnection {
     private final ConnectivityManager connectivityManager;
     private final OAuth2TokenProvider oauthTokenProvider;
     private final TrustedSocketFactory socketFactory;
+    private final NetworkStatistics networkStatistics;
     private final int socketConnectTimeout;
     private final int socketReadTimeout;
 
@@ -80,22 +85,25 @@ class ImapConnection {
 
 
     public ImapConnection(ImapSettings settings, TrustedSocketFactory socketFactory,
-            ConnectivityManager connectivityManager, OAuth2TokenProvider oauthTokenProvider) {
+            ConnectivityManager connectivityManager, OAuth2TokenProvider oauthTokenProvider,
+            NetworkStatistics networkStatistics) {
         this.settings = settings;
         this.socketFactory = socketFactory;
         this.connectivityManager = connectivityManager;
         this.oauthTokenProvider = oauthTokenProvider;
+        this.networkStatistics = networkStatistics;
         this.socketConnectTimeout = SOCKET_CONNECT_TIMEOUT;
         this.socketReadTimeout = SOCKET_READ_TIMEOUT;
     }
 
     ImapConnection(ImapSettings settings, TrustedSocketFactory socketFactory,
             ConnectivityManager connectivityManager, OAuth2TokenProvider oauthTokenProvider,
-            int socketConnectTimeout, int socketReadTimeout) {
+            NetworkStatistics networkStatistics, int socketConnectTimeout, int socketReadTimeout) {
         this.settings = settings;
         this.socketFactory = socketFactory;
         this.connectivityManager = connectivityManager;
         this.oauthTokenProvider = oauthTokenProvider;
+        this.networkStatistics = networkStatistics;
         this.socketConnectTimeout = socketConnectTimeout;
         this.socketReadTimeout = socketReadTimeout;
     }
@@ -111,6 +119,7 @@ class ImapConnection {
         open = true;
         boolean authSuccess = false;
         nextCommandTag = 1;
+        long startTime = SystemClock.elapsedRealtime();
 
         adjustDNSCacheTTL();
 
@@ -141,6 +150,8 @@ class ImapConnection {
         } catch (GeneralSecurityException e) {
             throw new MessagingException("Unable to open connection to IMAP server due to security error.", e);
         } finally {
+            networkStatistics.addConnection(SystemClock.elapsedRealtime() - startTime);
+
             if (!authSuccess) {
                 Timber.e("Failed to login, closing connection for %s", getLogId());
                 close();
@@ -233,7 +244,15 @@ class ImapConnection {
     }
 
     private void setUpStreamsAndParserFromSocket() throws IOException {
-        setUpStreamsAndParser(socket.getInputStream(), socket.getOutputStream());
+        setUpStreamsAndParser(getSocketInputStream(), getSocketOutputStream());
+    }
+
+    private InputStream getSocketInputStream() throws IOException {
+        return new MeteredInputStream(socket.getInputStream(), networkStatistics);
+    }
+
+    private OutputStream getSocketOutputStream() throws IOException {
+        return new MeteredOutputStream(socket.getOutputStream(), networkStatistics);
     }
 
     private void setUpStreamsAndParser(InputStream input, OutputStream output) {
@@ -586,8 +605,8 @@ class ImapConnection {
         }
 
         try {
-            InflaterInputStream input = new InflaterInputStream(socket.getInputStream(), new Inflater(true));
-            ZOutputStream output = new ZOutputStream(socket.getOutputStream(), JZlib.Z_BEST_SPEED, true);
+            InflaterInputStream input = new InflaterInputStream(getSocketInputStream(), new Inflater(true));
+            ZOutputStream output = new ZOutputStream(getSocketOutputStream(), JZlib.Z_BEST_SPEED, true);
             output.setFlushMode(JZlib.Z_PARTIAL_FLUSH);
 
             setUpStreamsAndParser(input, output);
@@ -748,6 +767,7 @@ class ImapConnection {
             String commandToSend = tag + " " + command + " " + initialClientResponse + "\r\n";
             outputStream.write(commandToSend.getBytes());
             outputStream.flush();
+            networkStatistics.addRoundTrip();
 
             if (K9MailLib.isDebug() && DEBUG_PROTOCOL_IMAP) {
                 if (sensitive && !K9MailLib.isDebugSensitive()) {
@@ -772,6 +792,7 @@ class ImapConnection {
             String commandToSend = tag + " " + command + "\r\n";
             outputStream.write(commandToSend.getBytes());
             outputStream.flush();
+            networkStatistics.addRoundTrip();
 
             if (K9MailLib.isDebug() && DEBUG_PROTOCOL_IMAP) {
                 if (sensitive && !K9MailLib.isDebugSensitive()) {
@@ -793,6 +814,7 @@ class ImapConnection {
         outputStream.write('\r');
         outputStream.write('\n');
         outputStream.flush();
+        networkStatistics.addRoundTrip();
 
         if (K9MailLib.isDebug() && DEBUG_PROTOCOL_IMAP) {
             Timber.v("%s>>> %s", getLogId(), continuation);
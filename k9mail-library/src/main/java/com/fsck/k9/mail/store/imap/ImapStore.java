@@ -21,6 +21,7 @@ import com.fsck.k9.mail.ConnectionSecurity;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.K9MailLib;
 import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.NetworkStatistics;
 import com.fsck.k9.mail.NetworkType;
 import com.fsck.k9.mail.PushReceiver;
 import com.fsck.k9.mail.Pusher;
@@ -54,6 +55,7 @@ public class ImapStore extends RemoteStore {
     private String combinedPrefix = null;
     private String pathDelimiter = null;
     private final Deque<ImapConnection> connections = new LinkedList<ImapConnection>();
+    private final NetworkStatistics networkStatistics = new NetworkStatistics();
     private FolderNameCodec folderNameCodec;
 
     /**
@@ -346,7 +348,8 @@ public class ImapStore extends RemoteStore {
                 new StoreImapSettings(),
                 mTrustedSocketFactory,
                 connectivityManager,
-                oauthTokenProvider);
+                oauthTokenProvider,
+                networkStatistics);
     }
 
     FolderNameCodec getFolderNameCodec() {
@@ -392,6 +395,11 @@ public class ImapStore extends RemoteStore {
         return permanentFlagsIndex;
     }
 
+    @Override
+    public NetworkStatistics getNetworkStatistics() {
+        return networkStatistics;
+    }
+
     @Override
     public Pusher getPusher(PushReceiver receiver) {
         return new ImapPusher(this, receiver);
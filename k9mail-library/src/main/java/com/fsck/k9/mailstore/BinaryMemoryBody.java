@@ -2,19 +2,22 @@ package com.fsck.k9.mailstore;
 
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 import com.fsck.k9.mail.Body;
 import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.internet.MimeUtility;
 import com.fsck.k9.mail.internet.RawDataBody;
 import com.fsck.k9.mail.internet.SizeAware;
+import org.apache.james.mime4j.util.MimeUtil;
 
 
 public class BinaryMemoryBody implements Body, RawDataBody, SizeAware {
-    private final byte[] data;
-    private final String encoding;
+    private byte[] data;
+    private String encoding;
 
     public BinaryMemoryBody(byte[] data, String encoding) {
         this.data = data;
@@ -33,7 +36,26 @@ public class BinaryMemoryBody implements Body, RawDataBody, SizeAware {
 
     @Override
     public void setEncoding(String encoding) throws MessagingException {
-        throw new RuntimeException("nope"); //FIXME
+        if (this.encoding != null && this.encoding.equalsIgnoreCase(encoding)) {
+            return;
+        }
+
+        // The encoding changed, so we need to convert the data
+        if (!MimeUtil.ENC_8BIT.equalsIgnoreCase(this.encoding)) {
+            throw new RuntimeException("Can't convert from encoding: " + this.encoding);
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+            OutputStream wrappedOut = MimeUtility.getEncodingOutputStream(out, encoding);
+            wrappedOut.write(data);
+            wrappedOut.close();
+
+            data = out.toByteArray();
+            this.encoding = encoding;
+        } catch (IOException e) {
+            throw new MessagingException("Unable to convert body", e);
+        }
     }
 
     @Override
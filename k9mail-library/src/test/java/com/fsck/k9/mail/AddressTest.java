@@ -4,8 +4,10 @@ package com.fsck.k9.mail;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
@@ -180,4 +182,36 @@ public class AddressTest {
 
         assertNull(result);
     }
+
+    @Test
+    public void unpack_withPackedList_shouldReturnOriginalAddresses() throws Exception {
+        Address[] addresses = new Address[] {
+                new Address("alice@example.org", "Alice"),
+                new Address("bob@example.org")
+        };
+
+        Address[] result = Address.unpack(Address.pack(addresses));
+
+        assertArrayEquals(addresses, result);
+    }
+
+    @Test
+    public void unpack_withNull_shouldReturnEmptyArray() throws Exception {
+        Address[] result = Address.unpack(null);
+
+        assertEquals(0, result.length);
+    }
+
+    @Test
+    public void unpack_calledTwice_shouldReturnDistinctArrays() throws Exception {
+        String packed = Address.pack(new Address[] { new Address("alice@example.org", "Alice") });
+
+        Address[] first = Address.unpack(packed);
+        first[0] = new Address("mallory@example.org");
+        Address[] second = Address.unpack(packed);
+
+        assertNotSame(first, second);
+        assertEquals("alice@example.org", second[0].getAddress());
+        assertEquals("Alice", second[0].getPersonal());
+    }
 }
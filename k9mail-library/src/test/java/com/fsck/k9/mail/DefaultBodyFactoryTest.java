@@ -0,0 +1,112 @@
+package com.fsck.k9.mail;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import com.fsck.k9.mail.internet.BinaryTempFileMessageBody;
+import com.fsck.k9.mail.internet.MimeUtility;
+import com.fsck.k9.mailstore.BinaryMemoryBody;
+import okio.Buffer;
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.util.MimeUtil;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class DefaultBodyFactoryTest {
+    private static final int MAX_MEMORY_BODY_SIZE = 10;
+
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private DefaultBodyFactory bodyFactory;
+
+
+    @Before
+    public void setUp() throws Exception {
+        BinaryTempFileBody.setTempDirectory(temporaryFolder.getRoot());
+        bodyFactory = new DefaultBodyFactory(MAX_MEMORY_BODY_SIZE);
+    }
+
+    @Test
+    public void createBody_withSmallBody_shouldKeepDataInMemory() throws Exception {
+        Body body = bodyFactory.createBody(MimeUtil.ENC_7BIT, "text/plain", stream("small"));
+
+        assertTrue(body instanceof BinaryMemoryBody);
+        assertEquals(MimeUtil.ENC_7BIT, ((BinaryMemoryBody) body).getEncoding());
+        assertEquals("small", readBody(body));
+        assertEquals(0, temporaryFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void createBody_withLargeBody_shouldUseTemporaryFile() throws Exception {
+        Body body = bodyFactory.createBody(MimeUtil.ENC_8BIT, "text/plain", stream("larger than ten bytes"));
+
+        assertTrue(body instanceof BinaryTempFileBody);
+        assertEquals(MimeUtil.ENC_8BIT, ((BinaryTempFileBody) body).getEncoding());
+        assertEquals("larger than ten bytes", readBody(body));
+    }
+
+    @Test
+    public void createBody_withMessage_shouldUseTemporaryFile() throws Exception {
+        Body body = bodyFactory.createBody(MimeUtil.ENC_7BIT, "message/rfc822", stream("Subject: x\r\n\r\n"));
+
+        assertTrue(body instanceof BinaryTempFileMessageBody);
+    }
+
+    @Test
+    public void createBody_withEncodingParameters_shouldStripParameters() throws Exception {
+        Body body = bodyFactory.createBody("base64; foo=bar", "application/octet-stream", stream("AAAA"));
+
+        assertEquals("base64", ((BinaryMemoryBody) body).getEncoding());
+    }
+
+    @Test
+    public void setEncoding_onMemoryBodyFrom8bitToBase64_shouldEncodeData() throws Exception {
+        Body body = bodyFactory.createBody(MimeUtil.ENC_8BIT, "text/plain", stream("abc"));
+
+        body.setEncoding(MimeUtil.ENC_BASE64);
+
+        assertEquals(MimeUtil.ENC_BASE64, ((BinaryMemoryBody) body).getEncoding());
+        assertEquals("abc", IOUtils.toString(MimeUtility.decodeBody(body)));
+    }
+
+    @Test
+    public void createBody_withErrorAfterSpillingToFile_shouldDeleteTemporaryFile() throws Exception {
+        DefaultBodyFactory failingBodyFactory = new DefaultBodyFactory(MAX_MEMORY_BODY_SIZE) {
+            @Override
+            protected void copyData(InputStream inputStream, OutputStream outputStream) throws IOException {
+                outputStream.write("larger than ten bytes".getBytes());
+                throw new IOException("connection lost");
+            }
+        };
+
+        try {
+            failingBodyFactory.createBody(MimeUtil.ENC_8BIT, "text/plain", stream(""));
+            fail("Expected exception");
+        } catch (IOException e) {
+            assertEquals(0, temporaryFolder.getRoot().list().length);
+        }
+    }
+
+    private static ByteArrayInputStream stream(String data) {
+        return new ByteArrayInputStream(data.getBytes());
+    }
+
+    private static String readBody(Body body) throws Exception {
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer.outputStream());
+        return buffer.readUtf8();
+    }
+}
@@ -0,0 +1,94 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.codec.Base64InputStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+public class Base64DecoderInputStreamTest {
+    @Test
+    public void read_withEncodedData_shouldMatchMime4jDecoder() throws Exception {
+        Random random = new Random(42);
+        for (int length = 0; length < 1000; length++) {
+            byte[] encoded = encode(randomBytes(random, length));
+
+            byte[] decoded = decode(encoded);
+
+            assertArrayEquals("length " + length, decodeWithMime4j(encoded), decoded);
+        }
+    }
+
+    @Test
+    public void read_withLargePayload_shouldMatchMime4jDecoder() throws Exception {
+        byte[] encoded = encode(randomBytes(new Random(42), 1024 * 1024 + 1));
+
+        byte[] decoded = decode(encoded);
+
+        assertArrayEquals(decodeWithMime4j(encoded), decoded);
+    }
+
+    @Test
+    public void read_withCharactersOutsideAlphabet_shouldSkipThem() throws Exception {
+        byte[] encoded = "SG*Vs\r\nbG 8g\td29y-bGQ=".getBytes("US-ASCII");
+
+        byte[] decoded = decode(encoded);
+
+        assertEquals("Hello world", new String(decoded, "US-ASCII"));
+        assertArrayEquals(decodeWithMime4j(encoded), decoded);
+    }
+
+    @Test
+    public void read_withDataAfterPadding_shouldIgnoreRemainingData() throws Exception {
+        byte[] decoded = decode("SGk=SGVsbG8=".getBytes("US-ASCII"));
+
+        assertEquals("Hi", new String(decoded, "US-ASCII"));
+    }
+
+    @Test
+    public void read_singleBytes_shouldReturnDecodedData() throws Exception {
+        Base64DecoderInputStream inputStream = new Base64DecoderInputStream(
+                new ByteArrayInputStream("SGVsbG8=".getBytes("US-ASCII")));
+
+        StringBuilder result = new StringBuilder();
+        int b;
+        while ((b = inputStream.read()) != -1) {
+            result.append((char) b);
+        }
+
+        assertEquals("Hello", result.toString());
+    }
+
+
+    static byte[] randomBytes(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private static byte[] encode(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Base64OutputStream base64OutputStream = new Base64OutputStream(out);
+        base64OutputStream.write(data);
+        base64OutputStream.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] decode(byte[] encoded) throws IOException {
+        return IOUtils.toByteArray(new Base64DecoderInputStream(new ByteArrayInputStream(encoded)));
+    }
+
+    private static byte[] decodeWithMime4j(byte[] encoded) throws IOException {
+        InputStream inputStream = new Base64InputStream(new ByteArrayInputStream(encoded), false);
+        return IOUtils.toByteArray(inputStream);
+    }
+}
@@ -0,0 +1,77 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+public class Base64EncoderOutputStreamTest {
+    @Test
+    public void write_shouldMatchBase64OutputStream() throws Exception {
+        Random random = new Random(42);
+        for (int length = 0; length < 1000; length++) {
+            byte[] data = Base64DecoderInputStreamTest.randomBytes(random, length);
+
+            byte[] encoded = encode(data, length);
+
+            assertArrayEquals("length " + length, encodeWithBase64OutputStream(data), encoded);
+        }
+    }
+
+    @Test
+    public void write_inSmallChunks_shouldMatchBase64OutputStream() throws Exception {
+        byte[] data = Base64DecoderInputStreamTest.randomBytes(new Random(42), 10000);
+
+        for (int chunkSize : new int[] { 1, 2, 5, 57, 100 }) {
+            byte[] encoded = encode(data, chunkSize);
+
+            assertArrayEquals("chunk size " + chunkSize, encodeWithBase64OutputStream(data), encoded);
+        }
+    }
+
+    @Test
+    public void write_withLargePayload_shouldMatchBase64OutputStream() throws Exception {
+        byte[] data = Base64DecoderInputStreamTest.randomBytes(new Random(42), 1024 * 1024 + 2);
+
+        byte[] encoded = encode(data, data.length);
+
+        assertArrayEquals(encodeWithBase64OutputStream(data), encoded);
+    }
+
+    @Test
+    public void close_shouldAppendLineBreak() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Base64EncoderOutputStream base64EncoderOutputStream = new Base64EncoderOutputStream(out);
+
+        base64EncoderOutputStream.write("Hello".getBytes("US-ASCII"));
+        base64EncoderOutputStream.close();
+
+        assertEquals("SGVsbG8=\r\n", out.toString("US-ASCII"));
+    }
+
+
+    private static byte[] encode(byte[] data, int chunkSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Base64EncoderOutputStream encoder = new Base64EncoderOutputStream(out);
+        for (int offset = 0; offset < data.length; offset += chunkSize) {
+            encoder.write(data, offset, Math.min(chunkSize, data.length - offset));
+        }
+        encoder.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeWithBase64OutputStream(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream base64OutputStream = new Base64OutputStream(out);
+        base64OutputStream.write(data);
+        base64OutputStream.close();
+        return out.toByteArray();
+    }
+}
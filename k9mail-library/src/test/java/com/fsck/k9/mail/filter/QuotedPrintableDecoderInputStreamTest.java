@@ -0,0 +1,99 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.codec.QuotedPrintableInputStream;
+import org.apache.james.mime4j.codec.QuotedPrintableOutputStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+public class QuotedPrintableDecoderInputStreamTest {
+    @Test
+    public void read_withEncodedBinaryData_shouldMatchMime4jDecoder() throws Exception {
+        Random random = new Random(42);
+        for (int length = 0; length < 500; length++) {
+            byte[] encoded = encode(Base64DecoderInputStreamTest.randomBytes(random, length), true);
+
+            byte[] decoded = decode(encoded);
+
+            assertArrayEquals("length " + length, decodeWithMime4j(encoded), decoded);
+        }
+    }
+
+    @Test
+    public void read_withLargePayload_shouldMatchMime4jDecoder() throws Exception {
+        byte[] encoded = encode(Base64DecoderInputStreamTest.randomBytes(new Random(42), 1024 * 1024 + 1), true);
+
+        byte[] decoded = decode(encoded);
+
+        assertArrayEquals(decodeWithMime4j(encoded), decoded);
+    }
+
+    @Test
+    public void read_withEncodedText_shouldMatchMime4jDecoder() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("Line ").append(i).append(" with trailing space \r\nä=ö\ttab ");
+        }
+        byte[] encoded = encode(text.toString().getBytes("UTF-8"), false);
+
+        byte[] decoded = decode(encoded);
+
+        assertArrayEquals(decodeWithMime4j(encoded), decoded);
+        assertEquals(text.toString(), new String(decoded, "UTF-8"));
+    }
+
+    @Test
+    public void read_withSoftLineBreaks_shouldJoinLines() throws Exception {
+        assertEquals("Hello world", decodeString("Hello =\r\nwor=\nld"));
+    }
+
+    @Test
+    public void read_withTransportPaddingAfterSoftLineBreak_shouldJoinLines() throws Exception {
+        assertEquals("Hello world", decodeString("Hello = \t\r\nworld"));
+    }
+
+    @Test
+    public void read_withWhitespaceAtEndOfLine_shouldRemoveWhitespace() throws Exception {
+        assertEquals("Hello\r\nworld", decodeString("Hello \t \r\nworld"));
+    }
+
+    @Test
+    public void read_withLowerCaseHexDigits_shouldDecode() throws Exception {
+        assertEquals("a=b", decodeString("a=3db"));
+    }
+
+    @Test
+    public void read_withMalformedEscapeSequences_shouldPassThroughUnchanged() throws Exception {
+        assertEquals("=G1 =4x a=", decodeString("=G1 =4x a="));
+    }
+
+
+    private static byte[] encode(byte[] data, boolean binary) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        QuotedPrintableOutputStream quotedPrintableOutputStream = new QuotedPrintableOutputStream(out, binary);
+        quotedPrintableOutputStream.write(data);
+        quotedPrintableOutputStream.close();
+        return out.toByteArray();
+    }
+
+    private static String decodeString(String encoded) throws IOException {
+        return new String(decode(encoded.getBytes("US-ASCII")), "US-ASCII");
+    }
+
+    private static byte[] decode(byte[] encoded) throws IOException {
+        return IOUtils.toByteArray(new QuotedPrintableDecoderInputStream(new ByteArrayInputStream(encoded)));
+    }
+
+    private static byte[] decodeWithMime4j(byte[] encoded) throws IOException {
+        return IOUtils.toByteArray(new QuotedPrintableInputStream(new ByteArrayInputStream(encoded)));
+    }
+}
@@ -0,0 +1,111 @@
+package com.fsck.k9.mail.internet;
+
+
+import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class MimeHeaderTest {
+    private MimeHeader header = new MimeHeader();
+
+
+    @Test
+    public void getHeader_shouldIgnoreCaseOfName() throws Exception {
+        header.addHeader("Received", "one");
+        header.addHeader("RECEIVED", "two");
+
+        assertArrayEquals(new String[] { "one", "two" }, header.getHeader("received"));
+        assertEquals("one", header.getFirstHeader("ReCeIvEd"));
+    }
+
+    @Test
+    public void getHeader_withUnknownName_shouldReturnEmptyArray() throws Exception {
+        header.addHeader("Subject", "Hello");
+
+        assertEquals(0, header.getHeader("From").length);
+        assertNull(header.getFirstHeader("From"));
+    }
+
+    @Test
+    public void getHeader_withRawHeader_shouldReturnValue() throws Exception {
+        header.addRawHeader("Subject", "Subject:  Hello ");
+
+        assertEquals("Hello", header.getFirstHeader("subject"));
+    }
+
+    @Test
+    public void removeHeader_shouldKeepOrderOfRemainingFields() throws Exception {
+        header.addHeader("Received", "one");
+        header.addHeader("Subject", "Hello");
+        header.addHeader("Received", "two");
+        header.addHeader("From", "alice@example.org");
+
+        header.removeHeader("received");
+
+        assertEquals("Subject: Hello\r\nFrom: alice@example.org\r\n", header.toString());
+    }
+
+    @Test
+    public void setHeader_shouldMoveFieldToEnd() throws Exception {
+        header.addHeader("Subject", "Hello");
+        header.addHeader("From", "alice@example.org");
+
+        header.setHeader("subject", "Bye");
+
+        assertEquals("From: alice@example.org\r\nsubject: Bye\r\n", header.toString());
+    }
+
+    @Test
+    public void toString_withRawHeaders_shouldPreserveRawData() throws Exception {
+        header.addRawHeader("Received", "Received: from example.org\r\n\tby example.com");
+        header.addRawHeader("Subject", "Subject: Hello");
+
+        assertEquals("Received: from example.org\r\n\tby example.com\r\nSubject: Hello\r\n", header.toString());
+    }
+
+    @Test
+    public void getFirstDecodedHeader_shouldUnfoldAndDecode() throws Exception {
+        header.addRawHeader("Subject", "Subject: =?UTF-8?Q?Gr=C3=BC=C3=9Fe?=\r\n from home");
+
+        assertEquals("Grüße from home", header.getFirstDecodedHeader("Subject", null));
+    }
+
+    @Test
+    public void getFirstDecodedHeader_afterSetHeader_shouldReturnNewValue() throws Exception {
+        header.addHeader("Subject", "Hello");
+        header.getFirstDecodedHeader("Subject", null);
+
+        header.setHeader("Subject", "Bye");
+
+        assertEquals("Bye", header.getFirstDecodedHeader("Subject", null));
+    }
+
+    @Test
+    public void getFirstDecodedHeader_afterRemoveHeader_shouldReturnNull() throws Exception {
+        header.addHeader("Subject", "Hello");
+        header.getFirstDecodedHeader("Subject", null);
+
+        header.removeHeader("Subject");
+
+        assertNull(header.getFirstDecodedHeader("Subject", null));
+    }
+
+    @Test
+    public void clone_shouldNotShareFields() throws Exception {
+        header.addHeader("Subject", "Hello");
+        MimeHeader clone = header.clone();
+
+        clone.setHeader("Subject", "Bye");
+        clone.addHeader("Received", "one");
+
+        assertEquals("Hello", header.getFirstDecodedHeader("Subject", null));
+        assertEquals(0, header.getHeader("Received").length);
+        assertEquals("Bye", clone.getFirstHeader("Subject"));
+    }
+}
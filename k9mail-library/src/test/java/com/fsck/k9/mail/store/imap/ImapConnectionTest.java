@@ -16,6 +16,7 @@ import com.fsck.k9.mail.ConnectionSecurity;
 import com.fsck.k9.mail.K9LibRobolectricTestRunner;
 import com.fsck.k9.mail.K9MailLib;
 import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.NetworkStatistics;
 import com.fsck.k9.mail.XOAuth2ChallengeParserTest;
 import com.fsck.k9.mail.helpers.TestTrustedSocketFactory;
 import com.fsck.k9.mail.oauth.OAuth2TokenProvider;
@@ -56,6 +57,7 @@ public class ImapConnectionTest {
     private ConnectivityManager connectivityManager;
     private OAuth2TokenProvider oAuth2TokenProvider;
     private SimpleImapSettings settings;
+    private NetworkStatistics networkStatistics;
 
 
     @Before
@@ -63,6 +65,7 @@ public class ImapConnectionTest {
         connectivityManager = mock(ConnectivityManager.class);
         oAuth2TokenProvider = createOAuth2TokenProvider();
         socketFactory = new TestTrustedSocketFactory();
+        networkStatistics = new NetworkStatistics();
 
         settings = new SimpleImapSettings();
         settings.setUsername(USERNAME);
@@ -902,10 +905,43 @@ public class ImapConnectionTest {
     }
 
 
+    @Test
+    public void open_shouldCountRoundTrips() throws Exception {
+        MockImapServer server = new MockImapServer();
+
+        simpleOpen(server);
+
+        assertEquals(3, networkStatistics.getRoundTrips());
+
+        server.shutdown();
+    }
+
+    @Test
+    public void executeSimpleCommand_shouldCountBytesAndRoundTrip() throws Exception {
+        MockImapServer server = new MockImapServer();
+        simpleOpenDialog(server, "");
+        server.expect("4 NOOP");
+        server.output("4 OK NOOP completed");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+        imapConnection.open();
+        long bytesSent = networkStatistics.getBytesSent();
+        long bytesReceived = networkStatistics.getBytesReceived();
+        long roundTrips = networkStatistics.getRoundTrips();
+
+        imapConnection.executeSimpleCommand("NOOP");
+
+        assertEquals("4 NOOP\r\n".length(), networkStatistics.getBytesSent() - bytesSent);
+        assertEquals("4 OK NOOP completed\r\n".length(), networkStatistics.getBytesReceived() - bytesReceived);
+        assertEquals(1, networkStatistics.getRoundTrips() - roundTrips);
+
+        server.shutdown();
+    }
+
+
     private ImapConnection createImapConnection(ImapSettings settings, TrustedSocketFactory socketFactory,
             ConnectivityManager connectivityManager, OAuth2TokenProvider oAuth2TokenProvider) {
         return new ImapConnection(settings, socketFactory, connectivityManager, oAuth2TokenProvider,
-                SOCKET_CONNECT_TIMEOUT, SOCKET_READ_TIMEOUT);
+                networkStatistics, SOCKET_CONNECT_TIMEOUT, SOCKET_READ_TIMEOUT);
     }
 
     private ImapConnection startServerAndCreateImapConnection(MockImapServer server) throws IOException {
@@ -106,6 +106,9 @@ public class Account implements BaseAccount, StoreConfig {
     public static final boolean DEFAULT_REPLY_AFTER_QUOTE = false;
     public static final boolean DEFAULT_STRIP_SIGNATURE = true;
     public static final int DEFAULT_REMOTE_SEARCH_NUM_RESULTS = 25;
+    public static final int DEFAULT_MAX_FOLDER_CHECK_INTERVAL_MINUTES = 360;
+    public static final AttachmentPrefetch DEFAULT_ATTACHMENT_PREFETCH = AttachmentPrefetch.NEVER;
+    public static final int DEFAULT_ATTACHMENT_PREFETCH_BUDGET_MB = 100;
 
     public static final String ACCOUNT_DESCRIPTION_KEY = "description";
     public static final String STORE_URI_KEY = "storeUri";
@@ -173,6 +176,9 @@ public class Account implements BaseAccount, StoreConfig {
     private String description;
     private String alwaysBcc;
     private int automaticCheckIntervalMinutes;
+    private int maxFolderCheckIntervalMinutes;
+    private AttachmentPrefetch attachmentPrefetch;
+    private int attachmentPrefetchBudgetMb;
     private int displayCount;
     private int chipColor;
     private long latestOldMessageSeenTime;
@@ -263,6 +269,10 @@ public class Account implements BaseAccount, StoreConfig {
         NEVER, ALWAYS, ONLY_FROM_CONTACTS
     }
 
+    public enum AttachmentPrefetch {
+        NEVER, UNMETERED_ONLY, ALWAYS
+    }
+
     public enum Searchable {
         ALL, DISPLAYABLE, NONE
     }
@@ -279,6 +289,9 @@ public class Account implements BaseAccount, StoreConfig {
         accountUuid = UUID.randomUUID().toString();
         localStorageProviderId = StorageManager.getInstance(context).getDefaultProviderId();
         automaticCheckIntervalMinutes = -1;
+        maxFolderCheckIntervalMinutes = DEFAULT_MAX_FOLDER_CHECK_INTERVAL_MINUTES;
+        attachmentPrefetch = DEFAULT_ATTACHMENT_PREFETCH;
+        attachmentPrefetchBudgetMb = DEFAULT_ATTACHMENT_PREFETCH_BUDGET_MB;
         idleRefreshMinutes = 24;
         pushPollOnConnect = true;
         displayCount = K9.DEFAULT_VISIBLE_LIMIT;
@@ -384,6 +397,12 @@ public class Account implements BaseAccount, StoreConfig {
         description = storage.getString(accountUuid + ".description", null);
         alwaysBcc = storage.getString(accountUuid + ".alwaysBcc", alwaysBcc);
         automaticCheckIntervalMinutes = storage.getInt(accountUuid + ".automaticCheckIntervalMinutes", -1);
+        maxFolderCheckIntervalMinutes = storage.getInt(accountUuid + ".maxFolderCheckIntervalMinutes",
+                DEFAULT_MAX_FOLDER_CHECK_INTERVAL_MINUTES);
+        attachmentPrefetch = getEnumStringPref(storage, accountUuid + ".attachmentPrefetch",
+                DEFAULT_ATTACHMENT_PREFETCH);
+        attachmentPrefetchBudgetMb = storage.getInt(accountUuid + ".attachmentPrefetchBudgetMb",
+                DEFAULT_ATTACHMENT_PREFETCH_BUDGET_MB);
         idleRefreshMinutes = storage.getInt(accountUuid + ".idleRefreshMinutes", 24);
         pushPollOnConnect = storage.getBoolean(accountUuid + ".pushPollOnConnect", true);
         displayCount = storage.getInt(accountUuid + ".displayCount", K9.DEFAULT_VISIBLE_LIMIT);
@@ -509,6 +528,9 @@ public class Account implements BaseAccount, StoreConfig {
         editor.remove(accountUuid + ".email");
         editor.remove(accountUuid + ".alwaysBcc");
         editor.remove(accountUuid + ".automaticCheckIntervalMinutes");
+        editor.remove(accountUuid + ".maxFolderCheckIntervalMinutes");
+        editor.remove(accountUuid + ".attachmentPrefetch");
+        editor.remove(accountUuid + ".attachmentPrefetchBudgetMb");
         editor.remove(accountUuid + ".pushPollOnConnect");
         editor.remove(accountUuid + ".idleRefreshMinutes");
         editor.remove(accountUuid + ".lastAutomaticCheckTime");
@@ -580,7 +602,7 @@ public class Account implements BaseAccount, StoreConfig {
         editor.commit();
     }
 
-    private static int findNewAccountNumber(List<Integer> accountNumbers) {
+    public static int findNewAccountNumber(List<Integer> accountNumbers) {
         int newAccountNumber = -1;
         Collections.sort(accountNumbers);
         for (int accountNumber : accountNumbers) {
@@ -678,6 +700,9 @@ public class Account implements BaseAccount, StoreConfig {
         editor.putString(accountUuid + ".description", description);
         editor.putString(accountUuid + ".alwaysBcc", alwaysBcc);
         editor.putInt(accountUuid + ".automaticCheckIntervalMinutes", automaticCheckIntervalMinutes);
+        editor.putInt(accountUuid + ".maxFolderCheckIntervalMinutes", maxFolderCheckIntervalMinutes);
+        editor.putString(accountUuid + ".attachmentPrefetch", attachmentPrefetch.name());
+        editor.putInt(accountUuid + ".attachmentPrefetchBudgetMb", attachmentPrefetchBudgetMb);
         editor.putInt(accountUuid + ".idleRefreshMinutes", idleRefreshMinutes);
         editor.putBoolean(accountUuid + ".pushPollOnConnect", pushPollOnConnect);
         editor.putInt(accountUuid + ".displayCount", displayCount);
@@ -984,6 +1009,48 @@ public class Account implements BaseAccount, StoreConfig {
         return (oldInterval != automaticCheckIntervalMinutes);
     }
 
+    /**
+     * Get the longest interval folders without new mail are checked at.
+     *
+     * <p>
+     * Folders that didn't receive mail for a while are checked less often than configured by
+     * {@link #getAutomaticCheckIntervalMinutes()}, but at least this often. Returns -1 if all folders should be
+     * checked at the configured interval.
+     * </p>
+     */
+    public synchronized int getMaxFolderCheckIntervalMinutes() {
+        return maxFolderCheckIntervalMinutes;
+    }
+
+    public synchronized void setMaxFolderCheckIntervalMinutes(int maxFolderCheckIntervalMinutes) {
+        this.maxFolderCheckIntervalMinutes = maxFolderCheckIntervalMinutes;
+    }
+
+    /**
+     * Get the network policy for downloading missing attachments of recent messages in the background.
+     */
+    public synchronized AttachmentPrefetch getAttachmentPrefetch() {
+        return attachmentPrefetch;
+    }
+
+    public synchronized void setAttachmentPrefetch(AttachmentPrefetch attachmentPrefetch) {
+        this.attachmentPrefetch = attachmentPrefetch;
+    }
+
+    /**
+     * Get the size (in MB) of downloaded attachments of this account above which attachments are no longer
+     * prefetched.
+     *
+     * @see LocalStore#getDownloadedAttachmentSize()
+     */
+    public synchronized int getAttachmentPrefetchBudgetMb() {
+        return attachmentPrefetchBudgetMb;
+    }
+
+    public synchronized void setAttachmentPrefetchBudgetMb(int attachmentPrefetchBudgetMb) {
+        this.attachmentPrefetchBudgetMb = attachmentPrefetchBudgetMb;
+    }
+
     public synchronized int getDisplayCount() {
         return displayCount;
     }
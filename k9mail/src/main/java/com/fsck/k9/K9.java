@@ -43,6 +43,7 @@ import com.fsck.k9.preferences.Storage;
 import com.fsck.k9.preferences.StorageEditor;
 import com.fsck.k9.provider.UnreadWidgetProvider;
 import com.fsck.k9.service.BootReceiver;
+import com.fsck.k9.service.DatabaseMaintenanceService;
 import com.fsck.k9.service.MailService;
 import com.fsck.k9.service.ShutdownReceiver;
 import com.fsck.k9.service.StorageGoneReceiver;
@@ -384,6 +385,12 @@ public class K9 extends Application {
              */
             MailService.actionReset(context, wakeLockId);
         }
+
+        if (!enabled) {
+            // Has to happen before BootReceiver is disabled, because BootReceiver cancels the alarm
+            DatabaseMaintenanceService.cancelMaintenance(context);
+        }
+
         Class<?>[] classes = { MessageCompose.class, BootReceiver.class, MailService.class };
 
         for (Class<?> clazz : classes) {
@@ -409,6 +416,9 @@ public class K9 extends Application {
             MailService.actionReset(context, wakeLockId);
         }
 
+        if (enabled) {
+            DatabaseMaintenanceService.scheduleMaintenance(context);
+        }
     }
 
     /**
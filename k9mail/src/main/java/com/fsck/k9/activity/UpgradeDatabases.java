@@ -204,9 +204,18 @@ public class UpgradeDatabases extends K9Activity {
 
                 Account account = mPreferences.getAccount(accountUuid);
 
+                int accountProgress = intent.getIntExtra(DatabaseUpgradeService.EXTRA_ACCOUNT_PROGRESS, 0);
+                int accountProgressEnd = intent.getIntExtra(DatabaseUpgradeService.EXTRA_ACCOUNT_PROGRESS_END, 0);
+
                 if (account != null) {
-                    String formatString = getString(R.string.upgrade_database_format);
-                    String upgradeStatus = String.format(formatString, account.getDescription());
+                    String upgradeStatus;
+                    if (accountProgressEnd > 0) {
+                        upgradeStatus = getString(R.string.upgrade_database_progress_format,
+                                account.getDescription(), accountProgress * 100 / accountProgressEnd);
+                    } else {
+                        String formatString = getString(R.string.upgrade_database_format);
+                        upgradeStatus = String.format(formatString, account.getDescription());
+                    }
                     mUpgradeText.setText(upgradeStatus);
                 }
 
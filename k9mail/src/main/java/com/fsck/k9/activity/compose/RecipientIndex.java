@@ -0,0 +1,319 @@
+package com.fsck.k9.activity.compose;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Nickname;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import com.fsck.k9.R;
+import com.fsck.k9.view.RecipientSelectView.Recipient;
+import timber.log.Timber;
+
+
+/**
+ * In-memory index of the email addresses stored in the device's contacts.
+ *
+ * <p>
+ * The index is loaded with one query to the contacts provider and then used to answer the recipient autocompletion
+ * queries of {@link RecipientLoader} without hitting the contacts provider on every keystroke. It is dropped and
+ * reloaded on demand whenever the contacts provider reports a change.
+ * </p>
+ */
+public class RecipientIndex {
+    private static final String[] PROJECTION = {
+            Email._ID,
+            ContactsContract.Contacts.DISPLAY_NAME_PRIMARY,
+            ContactsContract.Contacts.LOOKUP_KEY,
+            Email.DATA,
+            Email.TYPE,
+            Email.LABEL,
+            Email.CONTACT_ID,
+            ContactsContract.Contacts.PHOTO_THUMBNAIL_URI
+    };
+
+    private static final int INDEX_NAME = 1;
+    private static final int INDEX_LOOKUP_KEY = 2;
+    private static final int INDEX_EMAIL = 3;
+    private static final int INDEX_EMAIL_TYPE = 4;
+    private static final int INDEX_EMAIL_CUSTOM_LABEL = 5;
+    private static final int INDEX_CONTACT_ID = 6;
+    private static final int INDEX_PHOTO_URI = 7;
+
+    private static final String SORT_ORDER = "" +
+            Email.TIMES_CONTACTED + " DESC, " +
+            ContactsContract.Contacts.SORT_KEY_PRIMARY;
+
+    private static final String[] PROJECTION_NICKNAME = {
+            ContactsContract.Data.CONTACT_ID,
+            Nickname.NAME
+    };
+
+    private static final int INDEX_CONTACT_ID_FOR_NICKNAME = 0;
+    private static final int INDEX_NICKNAME = 1;
+
+
+    private static RecipientIndex sInstance;
+
+    public static synchronized RecipientIndex getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new RecipientIndex(appContext);
+            sInstance.registerContentObserver();
+        }
+        return sInstance;
+    }
+
+
+    private final Context context;
+    private Index index;
+
+
+    @VisibleForTesting
+    RecipientIndex(Context context) {
+        this.context = context;
+    }
+
+    private void registerContentObserver() {
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidate();
+            }
+        };
+        context.getContentResolver().registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true, observer);
+    }
+
+    synchronized void invalidate() {
+        index = null;
+    }
+
+    /**
+     * Load the index on a background thread so it's ready by the time the user starts typing.
+     */
+    public void preloadInBackground() {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getIndex();
+                } catch (Exception e) {
+                    // Not fatal, the index is loaded again on the first search
+                    Timber.e(e, "Error preloading recipient index");
+                }
+            }
+        });
+    }
+
+    /**
+     * Find all contact email addresses matching the given query.
+     *
+     * <p>
+     * Matches against nicknames come first and use the nickname as display name. They are followed by matches against
+     * the contact's display name or the email address. Within these groups the order is the same as the contacts
+     * provider's, i.e. most contacted first. This is the same result the separate contacts provider queries used to
+     * return.
+     * </p>
+     *
+     * @return A new list of {@link Recipient} instances that can be modified by the caller.
+     */
+    @WorkerThread
+    public List<Recipient> search(String query) {
+        Index index = getIndex();
+        String lowerCaseQuery = query.toLowerCase(Locale.ROOT);
+
+        List<Recipient> recipients = new ArrayList<>();
+        Map<String, Recipient> recipientMap = new HashMap<>();
+
+        for (NicknameEntry nicknameEntry : index.nicknames) {
+            if (!nicknameEntry.lowerCaseNickname.contains(lowerCaseQuery)) {
+                continue;
+            }
+
+            List<Entry> contactEntries = index.entriesByContact.get(nicknameEntry.contactId);
+            if (contactEntries == null) {
+                continue;
+            }
+
+            for (Entry entry : contactEntries) {
+                addRecipient(recipients, recipientMap, entry, nicknameEntry.nickname);
+            }
+        }
+
+        for (Entry entry : index.entries) {
+            if (entry.lowerCaseName.contains(lowerCaseQuery) || entry.lowerCaseEmail.contains(lowerCaseQuery)) {
+                addRecipient(recipients, recipientMap, entry, entry.name);
+            }
+        }
+
+        return recipients;
+    }
+
+    private static void addRecipient(List<Recipient> recipients, Map<String, Recipient> recipientMap, Entry entry,
+            String name) {
+        if (recipientMap.containsKey(entry.email)) {
+            return;
+        }
+
+        Recipient recipient = new Recipient(name, entry.email, entry.addressLabel, entry.contactId, entry.lookupKey);
+        if (recipient.isValidEmailAddress()) {
+            recipient.photoThumbnailUri = entry.photoThumbnailUri;
+            recipientMap.put(entry.email, recipient);
+            recipients.add(recipient);
+        }
+    }
+
+    private synchronized Index getIndex() {
+        if (index == null) {
+            long start = System.currentTimeMillis();
+            index = loadIndex();
+            Timber.d("Loaded recipient index with %d addresses in %d ms", index.entries.size(),
+                    System.currentTimeMillis() - start);
+        }
+        return index;
+    }
+
+    private Index loadIndex() {
+        ContentResolver contentResolver = context.getContentResolver();
+        Index index = new Index();
+
+        Cursor cursor = contentResolver.query(Email.CONTENT_URI, PROJECTION, null, null, SORT_ORDER);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    String email = cursor.getString(INDEX_EMAIL);
+                    if (email == null) {
+                        continue;
+                    }
+
+                    Entry entry = new Entry(
+                            cursor.getString(INDEX_NAME),
+                            email,
+                            getAddressLabel(context, cursor.getInt(INDEX_EMAIL_TYPE),
+                                    cursor.getString(INDEX_EMAIL_CUSTOM_LABEL)),
+                            cursor.getLong(INDEX_CONTACT_ID),
+                            cursor.getString(INDEX_LOOKUP_KEY),
+                            cursor.isNull(INDEX_PHOTO_URI) ? null : Uri.parse(cursor.getString(INDEX_PHOTO_URI)));
+                    index.add(entry);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        Cursor nicknameCursor = contentResolver.query(ContactsContract.Data.CONTENT_URI, PROJECTION_NICKNAME,
+                ContactsContract.Data.MIMETYPE + " = ?", new String[] { Nickname.CONTENT_ITEM_TYPE }, null);
+        if (nicknameCursor != null) {
+            try {
+                while (nicknameCursor.moveToNext()) {
+                    String nickname = nicknameCursor.getString(INDEX_NICKNAME);
+                    if (nickname != null) {
+                        long contactId = nicknameCursor.getLong(INDEX_CONTACT_ID_FOR_NICKNAME);
+                        index.nicknames.add(new NicknameEntry(contactId, nickname));
+                    }
+                }
+            } finally {
+                nicknameCursor.close();
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns the label to display for a contact's email address, e.g. "Home".
+     *
+     * @param addressType
+     *         The value of {@link Email#TYPE}.
+     * @param customLabel
+     *         The value of {@link Email#LABEL}. Only used for {@link Email#TYPE_CUSTOM}.
+     */
+    static String getAddressLabel(Context context, int addressType, String customLabel) {
+        switch (addressType) {
+            case Email.TYPE_HOME: {
+                return context.getString(R.string.address_type_home);
+            }
+            case Email.TYPE_WORK: {
+                return context.getString(R.string.address_type_work);
+            }
+            case Email.TYPE_OTHER: {
+                return context.getString(R.string.address_type_other);
+            }
+            case Email.TYPE_MOBILE: {
+                // mobile isn't listed as an option contacts app, but it has a constant so we better support it
+                return context.getString(R.string.address_type_mobile);
+            }
+            case Email.TYPE_CUSTOM: {
+                return customLabel;
+            }
+        }
+
+        return null;
+    }
+
+
+    private static class Index {
+        final List<Entry> entries = new ArrayList<>();
+        final Map<Long, List<Entry>> entriesByContact = new HashMap<>();
+        final List<NicknameEntry> nicknames = new ArrayList<>();
+
+        void add(Entry entry) {
+            entries.add(entry);
+
+            List<Entry> contactEntries = entriesByContact.get(entry.contactId);
+            if (contactEntries == null) {
+                contactEntries = new ArrayList<>(1);
+                entriesByContact.put(entry.contactId, contactEntries);
+            }
+            contactEntries.add(entry);
+        }
+    }
+
+    private static class Entry {
+        final String name;
+        final String email;
+        final String addressLabel;
+        final long contactId;
+        final String lookupKey;
+        final Uri photoThumbnailUri;
+        final String lowerCaseName;
+        final String lowerCaseEmail;
+
+        Entry(String name, String email, String addressLabel, long contactId, String lookupKey,
+                Uri photoThumbnailUri) {
+            this.name = name;
+            this.email = email;
+            this.addressLabel = addressLabel;
+            this.contactId = contactId;
+            this.lookupKey = lookupKey;
+            this.photoThumbnailUri = photoThumbnailUri;
+            lowerCaseName = (name == null) ? "" : name.toLowerCase(Locale.ROOT);
+            lowerCaseEmail = email.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static class NicknameEntry {
+        final long contactId;
+        final String nickname;
+        final String lowerCaseNickname;
+
+        NicknameEntry(long contactId, String nickname) {
+            this.contactId = contactId;
+            this.nickname = nickname;
+            lowerCaseNickname = nickname.toLowerCase(Locale.ROOT);
+        }
+    }
+}
@@ -7,17 +7,13 @@ import java.util.List;
 import java.util.Map;
 
 import android.content.AsyncTaskLoader;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.provider.ContactsContract;
-import android.provider.ContactsContract.CommonDataKinds.Email;
 import android.provider.ContactsContract.Contacts;
-import android.provider.ContactsContract.Contacts.Data;
 import android.support.annotation.Nullable;
 
-import com.fsck.k9.R;
 import com.fsck.k9.mail.Address;
 import com.fsck.k9.view.RecipientSelectView.Recipient;
 import com.fsck.k9.view.RecipientSelectView.RecipientCryptoStatus;
@@ -53,14 +49,6 @@ public class RecipientLoader extends AsyncTaskLoader<List<Recipient>> {
     private static final int INDEX_EMAIL_ADDRESS = 0;
     private static final int INDEX_EMAIL_STATUS = 1;
 
-    private static final String[] PROJECTION_NICKNAME = {
-            ContactsContract.Data.CONTACT_ID,
-            ContactsContract.CommonDataKinds.Nickname.NAME
-    };
-
-    private static final int INDEX_CONTACT_ID_FOR_NICKNAME = 0;
-    private static final int INDEX_NICKNAME = 1;
-
     private static final String[] PROJECTION_CRYPTO_STATUS = {
             "email_address",
             "email_status"
@@ -77,7 +65,7 @@ public class RecipientLoader extends AsyncTaskLoader<List<Recipient>> {
     private final String cryptoProvider;
 
     private List<Recipient> cachedRecipients;
-    private ForceLoadContentObserver observerContact, observerKey;
+    private ForceLoadContentObserver observerKey;
 
 
     public RecipientLoader(Context context, String cryptoProvider, String query) {
@@ -183,97 +171,12 @@ public class RecipientLoader extends AsyncTaskLoader<List<Recipient>> {
     }
 
 
-    private Cursor getNicknameCursor(String nickname) {
-        nickname = "%" + nickname + "%";
-
-        Uri queryUriForNickname = ContactsContract.Data.CONTENT_URI;
-
-        return getContext().getContentResolver().query(queryUriForNickname,
-                PROJECTION_NICKNAME,
-                ContactsContract.CommonDataKinds.Nickname.NAME + " LIKE ? AND " +
-                        Data.MIMETYPE + " = ?",
-                new String[] { nickname, ContactsContract.CommonDataKinds.Nickname.CONTENT_ITEM_TYPE },
-                null);
-    }
-
-    @SuppressWarnings("ConstantConditions")
     private void fillContactDataFromQuery(String query, List<Recipient> recipients,
             Map<String, Recipient> recipientMap) {
-
-        boolean foundValidCursor = false;
-        foundValidCursor |= fillContactDataFromNickname(query, recipients, recipientMap);
-        foundValidCursor |= fillContactDataFromNameAndEmail(query, recipients, recipientMap);
-
-        if (foundValidCursor) {
-            registerContentObserver();
-        }
-
-    }
-
-    private void registerContentObserver() {
-        if (observerContact != null) {
-            observerContact = new ForceLoadContentObserver();
-            getContext().getContentResolver().registerContentObserver(Email.CONTENT_URI, false, observerContact);
-        }
-    }
-
-    @SuppressWarnings("ConstantConditions")
-    private boolean fillContactDataFromNickname(String nickname, List<Recipient> recipients,
-            Map<String, Recipient> recipientMap) {
-
-        boolean hasContact = false;
-
-        final ContentResolver contentResolver = getContext().getContentResolver();
-
-        Uri queryUri = Email.CONTENT_URI;
-
-        Cursor nicknameCursor = getNicknameCursor(nickname);
-
-        if (nicknameCursor == null) {
-            return hasContact;
-        }
-
-        try {
-            while (nicknameCursor.moveToNext()) {
-                String id = nicknameCursor.getString(INDEX_CONTACT_ID_FOR_NICKNAME);
-                String selection = ContactsContract.Data.CONTACT_ID + " = ?";
-                Cursor cursor = contentResolver
-                        .query(queryUri, PROJECTION, selection, new String[] { id }, SORT_ORDER);
-
-                String contactNickname = nicknameCursor.getString(INDEX_NICKNAME);
-                fillContactDataFromCursor(cursor, recipients, recipientMap, contactNickname);
-
-                hasContact = true;
-            }
-        } finally {
-            nicknameCursor.close();
-        }
-
-        return hasContact;
-    }
-
-
-    private boolean fillContactDataFromNameAndEmail(String query, List<Recipient> recipients,
-            Map<String, Recipient> recipientMap) {
-
-        ContentResolver contentResolver = getContext().getContentResolver();
-        query = "%" + query + "%";
-
-        Uri queryUri = Email.CONTENT_URI;
-
-        String selection = Contacts.DISPLAY_NAME_PRIMARY + " LIKE ? " +
-                " OR (" + Email.ADDRESS + " LIKE ? AND " + Data.MIMETYPE + " = '" + Email.CONTENT_ITEM_TYPE + "')";
-        String[] selectionArgs = { query, query };
-        Cursor cursor = contentResolver.query(queryUri, PROJECTION, selection, selectionArgs, SORT_ORDER);
-
-        if (cursor == null) {
-            return false;
+        for (Recipient recipient : RecipientIndex.getInstance(getContext()).search(query)) {
+            recipients.add(recipient);
+            recipientMap.put(recipient.address.getAddress(), recipient);
         }
-
-        fillContactDataFromCursor(cursor, recipients, recipientMap);
-
-        return true;
-
     }
 
     private void fillContactDataFromCursor(Cursor cursor, List<Recipient> recipients,
@@ -297,31 +200,8 @@ public class RecipientLoader extends AsyncTaskLoader<List<Recipient>> {
                 continue;
             }
 
-            int addressType = cursor.getInt(INDEX_EMAIL_TYPE);
-            String addressLabel = null;
-            switch (addressType) {
-                case ContactsContract.CommonDataKinds.Email.TYPE_HOME: {
-                    addressLabel = getContext().getString(R.string.address_type_home);
-                    break;
-                }
-                case ContactsContract.CommonDataKinds.Email.TYPE_WORK: {
-                    addressLabel = getContext().getString(R.string.address_type_work);
-                    break;
-                }
-                case ContactsContract.CommonDataKinds.Email.TYPE_OTHER: {
-                    addressLabel = getContext().getString(R.string.address_type_other);
-                    break;
-                }
-                case ContactsContract.CommonDataKinds.Email.TYPE_MOBILE: {
-                    // mobile isn't listed as an option contacts app, but it has a constant so we better support it
-                    addressLabel = getContext().getString(R.string.address_type_mobile);
-                    break;
-                }
-                case ContactsContract.CommonDataKinds.Email.TYPE_CUSTOM: {
-                    addressLabel = cursor.getString(INDEX_EMAIL_CUSTOM_LABEL);
-                    break;
-                }
-            }
+            String addressLabel = RecipientIndex.getAddressLabel(getContext(), cursor.getInt(INDEX_EMAIL_TYPE),
+                    cursor.getString(INDEX_EMAIL_CUSTOM_LABEL));
 
             Recipient recipient = new Recipient(name, email, addressLabel, contactId, lookupKey);
             if (recipient.isValidEmailAddress()) {
@@ -423,8 +303,5 @@ public class RecipientLoader extends AsyncTaskLoader<List<Recipient>> {
         if (observerKey != null) {
             getContext().getContentResolver().unregisterContentObserver(observerKey);
         }
-        if (observerContact != null) {
-            getContext().getContentResolver().unregisterContentObserver(observerContact);
-        }
     }
 }
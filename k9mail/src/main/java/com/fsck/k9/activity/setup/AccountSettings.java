@@ -71,6 +71,9 @@ public class AccountSettings extends K9PreferenceActivity {
     private static final String PREFERENCE_COMPOSITION = "composition";
     private static final String PREFERENCE_MANAGE_IDENTITIES = "manage_identities";
     private static final String PREFERENCE_FREQUENCY = "account_check_frequency";
+    private static final String PREFERENCE_MAX_FOLDER_CHECK_INTERVAL = "account_max_folder_check_interval";
+    private static final String PREFERENCE_ATTACHMENT_PREFETCH = "account_attachment_prefetch";
+    private static final String PREFERENCE_ATTACHMENT_PREFETCH_BUDGET = "account_attachment_prefetch_budget";
     private static final String PREFERENCE_DISPLAY_COUNT = "account_display_count";
     private static final String PREFERENCE_DEFAULT = "account_default";
     private static final String PREFERENCE_SHOW_PICTURES = "show_pictures_enum";
@@ -138,6 +141,9 @@ public class AccountSettings extends K9PreferenceActivity {
     private EditTextPreference accountDescription;
     private CheckBoxPreference markMessageAsReadOnView;
     private ListPreference checkFrequency;
+    private ListPreference maxFolderCheckInterval;
+    private ListPreference attachmentPrefetch;
+    private ListPreference attachmentPrefetchBudget;
     private ListPreference displayCount;
     private ListPreference messageAge;
     private ListPreference messageSize;
@@ -321,6 +327,45 @@ public class AccountSettings extends K9PreferenceActivity {
             }
         });
 
+        maxFolderCheckInterval = (ListPreference) findPreference(PREFERENCE_MAX_FOLDER_CHECK_INTERVAL);
+        maxFolderCheckInterval.setValue(String.valueOf(account.getMaxFolderCheckIntervalMinutes()));
+        maxFolderCheckInterval.setSummary(maxFolderCheckInterval.getEntry());
+        maxFolderCheckInterval.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                final String summary = newValue.toString();
+                int index = maxFolderCheckInterval.findIndexOfValue(summary);
+                maxFolderCheckInterval.setSummary(maxFolderCheckInterval.getEntries()[index]);
+                maxFolderCheckInterval.setValue(summary);
+                return false;
+            }
+        });
+
+        attachmentPrefetch = (ListPreference) findPreference(PREFERENCE_ATTACHMENT_PREFETCH);
+        attachmentPrefetch.setValue(account.getAttachmentPrefetch().name());
+        attachmentPrefetch.setSummary(attachmentPrefetch.getEntry());
+        attachmentPrefetch.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                final String summary = newValue.toString();
+                int index = attachmentPrefetch.findIndexOfValue(summary);
+                attachmentPrefetch.setSummary(attachmentPrefetch.getEntries()[index]);
+                attachmentPrefetch.setValue(summary);
+                return false;
+            }
+        });
+
+        attachmentPrefetchBudget = (ListPreference) findPreference(PREFERENCE_ATTACHMENT_PREFETCH_BUDGET);
+        attachmentPrefetchBudget.setValue(String.valueOf(account.getAttachmentPrefetchBudgetMb()));
+        attachmentPrefetchBudget.setSummary(attachmentPrefetchBudget.getEntry());
+        attachmentPrefetchBudget.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                final String summary = newValue.toString();
+                int index = attachmentPrefetchBudget.findIndexOfValue(summary);
+                attachmentPrefetchBudget.setSummary(attachmentPrefetchBudget.getEntries()[index]);
+                attachmentPrefetchBudget.setValue(summary);
+                return false;
+            }
+        });
+
         displayMode = (ListPreference) findPreference(PREFERENCE_DISPLAY_MODE);
         displayMode.setValue(account.getFolderDisplayMode().name());
         displayMode.setSummary(displayMode.getEntry());
@@ -817,6 +862,9 @@ public class AccountSettings extends K9PreferenceActivity {
             //account.setRemoteSearchFullText(mRemoteSearchFullText.isChecked());
         }
 
+        account.setMaxFolderCheckIntervalMinutes(Integer.parseInt(maxFolderCheckInterval.getValue()));
+        account.setAttachmentPrefetch(Account.AttachmentPrefetch.valueOf(attachmentPrefetch.getValue()));
+        account.setAttachmentPrefetchBudgetMb(Integer.parseInt(attachmentPrefetchBudget.getValue()));
         boolean needsRefresh = account.setAutomaticCheckIntervalMinutes(Integer.parseInt(checkFrequency.getValue()));
         needsRefresh |= account.setFolderSyncMode(FolderMode.valueOf(syncMode.getValue()));
 
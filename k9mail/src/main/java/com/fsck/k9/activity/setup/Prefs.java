@@ -26,6 +26,7 @@ import com.fsck.k9.Preferences;
 import com.fsck.k9.R;
 import com.fsck.k9.activity.ColorPickerDialog;
 import com.fsck.k9.activity.K9PreferenceActivity;
+import com.fsck.k9.controller.MessagingController;
 import com.fsck.k9.helper.FileBrowserHelper;
 import com.fsck.k9.helper.FileBrowserHelper.FileBrowserFailOverCallback;
 import com.fsck.k9.notification.NotificationController;
@@ -94,6 +95,7 @@ public class Prefs extends K9PreferenceActivity {
     private static final String PREFERENCE_BACKGROUND_OPS = "background_ops";
     private static final String PREFERENCE_DEBUG_LOGGING = "debug_logging";
     private static final String PREFERENCE_SENSITIVE_LOGGING = "sensitive_logging";
+    private static final String PREFERENCE_SHARE_SYNC_STATISTICS = "share_sync_statistics";
 
     private static final String PREFERENCE_ATTACHMENT_DEF_PATH = "attachment_default_path";
     private static final String PREFERENCE_BACKGROUND_AS_UNREAD_INDICATOR = "messagelist_background_as_unread_indicator";
@@ -357,6 +359,15 @@ public class Prefs extends K9PreferenceActivity {
         mHideUserAgent = (CheckBoxPreference)findPreference(PREFERENCE_HIDE_USERAGENT);
         mHideTimeZone = (CheckBoxPreference)findPreference(PREFERENCE_HIDE_TIMEZONE);
 
+        findPreference(PREFERENCE_SHARE_SYNC_STATISTICS).setOnPreferenceClickListener(
+                new OnPreferenceClickListener() {
+                    @Override
+                    public boolean onPreferenceClick(Preference preference) {
+                        shareSyncStatistics();
+                        return true;
+                    }
+                });
+
         mDebugLogging.setChecked(K9.isDebug());
         mSensitiveLogging.setChecked(K9.DEBUG_SENSITIVE);
         mHideUserAgent.setChecked(K9.hideUserAgent());
@@ -555,6 +566,20 @@ public class Prefs extends K9PreferenceActivity {
         super.onPause();
     }
 
+    private void shareSyncStatistics() {
+        String report = MessagingController.getInstance(this).getSyncStatisticsReport().getReport();
+        if (report.isEmpty()) {
+            Toast.makeText(this, R.string.debug_sync_statistics_empty, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("text/plain");
+        intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.debug_sync_statistics_subject));
+        intent.putExtra(Intent.EXTRA_TEXT, report);
+        startActivity(Intent.createChooser(intent, getString(R.string.debug_share_sync_statistics_title)));
+    }
+
     private void onFontSizeSettings() {
         FontSizeSettings.actionEditSettings(this);
     }
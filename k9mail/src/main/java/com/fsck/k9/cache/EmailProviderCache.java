@@ -1,12 +1,15 @@
 package com.fsck.k9.cache;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.support.annotation.VisibleForTesting;
 import android.support.v4.content.LocalBroadcastManager;
 
 import com.fsck.k9.fragment.MessageListFragment;
@@ -17,6 +20,13 @@ import com.fsck.k9.provider.EmailProvider;
 
 /**
  * Cache to bridge the time needed to write (user-initiated) changes to the database.
+ *
+ * <p>
+ * The cached values are kept in an immutable {@link Snapshot}. Writers replace the snapshot with an updated copy, so
+ * readers like {@link EmailProviderCacheCursor} never have to wait for a writer. Every change gets a new version.
+ * Once the change has been written to the database it can be removed by passing that version to
+ * {@link #removeValueForMessages(List, String, long)}, which leaves values set by later changes alone.
+ * </p>
  */
 public class EmailProviderCache {
     public static final String ACTION_CACHE_UPDATED = "EmailProviderCache.ACTION_CACHE_UPDATED";
@@ -42,118 +52,216 @@ public class EmailProviderCache {
 
 
     private String mAccountUuid;
-    private final Map<Long, Map<String, String>> mMessageCache = new HashMap<Long, Map<String, String>>();
-    private final Map<Long, Map<String, String>> mThreadCache = new HashMap<Long, Map<String, String>>();
-    private final Map<Long, Long> mHiddenMessageCache = new HashMap<Long, Long>();
+    private final AtomicReference<Snapshot> mSnapshot = new AtomicReference<Snapshot>(Snapshot.EMPTY);
 
 
-    private EmailProviderCache(String accountUuid) {
+    @VisibleForTesting
+    EmailProviderCache(String accountUuid) {
         mAccountUuid = accountUuid;
     }
 
+    /**
+     * Returns the current state of the cache. The returned snapshot doesn't change.
+     */
+    public Snapshot getSnapshot() {
+        return mSnapshot.get();
+    }
+
     public String getValueForMessage(Long messageId, String columnName) {
-        synchronized (mMessageCache) {
-            Map<String, String> map = mMessageCache.get(messageId);
-            return (map == null) ? null : map.get(columnName);
-        }
+        return mSnapshot.get().getValueForMessage(messageId, columnName);
     }
 
     public String getValueForThread(Long threadRootId, String columnName) {
-        synchronized (mThreadCache) {
-            Map<String, String> map = mThreadCache.get(threadRootId);
-            return (map == null) ? null : map.get(columnName);
-        }
+        return mSnapshot.get().getValueForThread(threadRootId, columnName);
     }
 
-    public void setValueForMessages(List<Long> messageIds, String columnName, String value) {
-        synchronized (mMessageCache) {
-            for (Long messageId : messageIds) {
-                Map<String, String> map = mMessageCache.get(messageId);
-                if (map == null) {
-                    map = new HashMap<String, String>();
-                    mMessageCache.put(messageId, map);
-                }
-                map.put(columnName, value);
-            }
-        }
+    /**
+     * Sets a column value for messages.
+     *
+     * @return The version of this change. See {@link #removeValueForMessages(List, String, long)}.
+     */
+    public long setValueForMessages(List<Long> messageIds, String columnName, String value) {
+        Snapshot snapshot;
+        Snapshot newSnapshot;
+        do {
+            snapshot = mSnapshot.get();
+            long version = snapshot.version + 1;
+            newSnapshot = new Snapshot(version,
+                    setValues(snapshot.messageValues, messageIds, columnName, value, version),
+                    snapshot.threadValues, snapshot.hiddenMessages);
+        } while (!mSnapshot.compareAndSet(snapshot, newSnapshot));
 
         notifyChange();
+
+        return newSnapshot.version;
     }
 
-    public void setValueForThreads(List<Long> threadRootIds, String columnName, String value) {
-        synchronized (mThreadCache) {
-            for (Long threadRootId : threadRootIds) {
-                Map<String, String> map = mThreadCache.get(threadRootId);
-                if (map == null) {
-                    map = new HashMap<String, String>();
-                    mThreadCache.put(threadRootId, map);
-                }
-                map.put(columnName, value);
-            }
-        }
+    /**
+     * Sets a column value for threads.
+     *
+     * @return The version of this change. See {@link #removeValueForThreads(List, String, long)}.
+     */
+    public long setValueForThreads(List<Long> threadRootIds, String columnName, String value) {
+        Snapshot snapshot;
+        Snapshot newSnapshot;
+        do {
+            snapshot = mSnapshot.get();
+            long version = snapshot.version + 1;
+            newSnapshot = new Snapshot(version, snapshot.messageValues,
+                    setValues(snapshot.threadValues, threadRootIds, columnName, value, version),
+                    snapshot.hiddenMessages);
+        } while (!mSnapshot.compareAndSet(snapshot, newSnapshot));
 
         notifyChange();
+
+        return newSnapshot.version;
     }
 
     public void removeValueForMessages(List<Long> messageIds, String columnName) {
-        synchronized (mMessageCache) {
-            for (Long messageId : messageIds) {
-                Map<String, String> map = mMessageCache.get(messageId);
-                if (map != null) {
-                    map.remove(columnName);
-                    if (map.isEmpty()) {
-                        mMessageCache.remove(messageId);
-                    }
-                }
+        removeValueForMessages(messageIds, columnName, Long.MAX_VALUE);
+    }
+
+    /**
+     * Removes column values for messages once the database reflects the change with the given version.
+     *
+     * <p>
+     * Values set by a later change are kept, because the database doesn't contain them yet.
+     * </p>
+     */
+    public void removeValueForMessages(List<Long> messageIds, String columnName, long version) {
+        Snapshot snapshot;
+        Snapshot newSnapshot;
+        do {
+            snapshot = mSnapshot.get();
+            Map<Long, Map<String, CachedValue>> messageValues =
+                    removeValues(snapshot.messageValues, messageIds, columnName, version);
+            if (messageValues == snapshot.messageValues) {
+                return;
             }
-        }
+
+            newSnapshot = new Snapshot(snapshot.version, messageValues, snapshot.threadValues,
+                    snapshot.hiddenMessages);
+        } while (!mSnapshot.compareAndSet(snapshot, newSnapshot));
     }
 
     public void removeValueForThreads(List<Long> threadRootIds, String columnName) {
-        synchronized (mThreadCache) {
-            for (Long threadRootId : threadRootIds) {
-                Map<String, String> map = mThreadCache.get(threadRootId);
-                if (map != null) {
-                    map.remove(columnName);
-                    if (map.isEmpty()) {
-                        mThreadCache.remove(threadRootId);
-                    }
-                }
+        removeValueForThreads(threadRootIds, columnName, Long.MAX_VALUE);
+    }
+
+    /**
+     * Removes column values for threads once the database reflects the change with the given version.
+     *
+     * @see #removeValueForMessages(List, String, long)
+     */
+    public void removeValueForThreads(List<Long> threadRootIds, String columnName, long version) {
+        Snapshot snapshot;
+        Snapshot newSnapshot;
+        do {
+            snapshot = mSnapshot.get();
+            Map<Long, Map<String, CachedValue>> threadValues =
+                    removeValues(snapshot.threadValues, threadRootIds, columnName, version);
+            if (threadValues == snapshot.threadValues) {
+                return;
             }
-        }
+
+            newSnapshot = new Snapshot(snapshot.version, snapshot.messageValues, threadValues,
+                    snapshot.hiddenMessages);
+        } while (!mSnapshot.compareAndSet(snapshot, newSnapshot));
     }
 
     public void hideMessages(List<LocalMessage> messages) {
-        synchronized (mHiddenMessageCache) {
+        Snapshot snapshot;
+        Snapshot newSnapshot;
+        do {
+            snapshot = mSnapshot.get();
+            Map<Long, Long> hiddenMessages = new HashMap<Long, Long>(snapshot.hiddenMessages);
             for (LocalMessage message : messages) {
                 long messageId = message.getId();
-                mHiddenMessageCache.put(messageId, message.getFolder().getId());
+                hiddenMessages.put(messageId, message.getFolder().getId());
             }
-        }
+
+            newSnapshot = new Snapshot(snapshot.version, snapshot.messageValues, snapshot.threadValues,
+                    hiddenMessages);
+        } while (!mSnapshot.compareAndSet(snapshot, newSnapshot));
 
         notifyChange();
     }
 
     public boolean isMessageHidden(Long messageId, long folderId) {
-        synchronized (mHiddenMessageCache) {
-            Long hiddenInFolder = mHiddenMessageCache.get(messageId);
-            return (hiddenInFolder != null && hiddenInFolder.longValue() == folderId);
-        }
+        return mSnapshot.get().isMessageHidden(messageId, folderId);
     }
 
     public void unhideMessages(List<? extends Message> messages) {
-        synchronized (mHiddenMessageCache) {
+        Snapshot snapshot;
+        Snapshot newSnapshot;
+        do {
+            snapshot = mSnapshot.get();
+            if (snapshot.hiddenMessages.isEmpty()) {
+                return;
+            }
+
+            Map<Long, Long> hiddenMessages = new HashMap<Long, Long>(snapshot.hiddenMessages);
             for (Message message : messages) {
                 LocalMessage localMessage = (LocalMessage) message;
                 long messageId = localMessage.getId();
                 long folderId = ((LocalFolder) localMessage.getFolder()).getId();
-                Long hiddenInFolder = mHiddenMessageCache.get(messageId);
+                Long hiddenInFolder = hiddenMessages.get(messageId);
 
                 if (hiddenInFolder != null && hiddenInFolder.longValue() == folderId) {
-                    mHiddenMessageCache.remove(messageId);
+                    hiddenMessages.remove(messageId);
                 }
             }
+
+            newSnapshot = new Snapshot(snapshot.version, snapshot.messageValues, snapshot.threadValues,
+                    hiddenMessages);
+        } while (!mSnapshot.compareAndSet(snapshot, newSnapshot));
+    }
+
+    private static Map<Long, Map<String, CachedValue>> setValues(Map<Long, Map<String, CachedValue>> values,
+            List<Long> ids, String columnName, String value, long version) {
+
+        CachedValue cachedValue = new CachedValue(value, version);
+        Map<Long, Map<String, CachedValue>> newValues = new HashMap<Long, Map<String, CachedValue>>(values);
+        for (Long id : ids) {
+            Map<String, CachedValue> map = newValues.get(id);
+            Map<String, CachedValue> newMap = (map == null) ?
+                    new HashMap<String, CachedValue>() : new HashMap<String, CachedValue>(map);
+            newMap.put(columnName, cachedValue);
+            newValues.put(id, newMap);
+        }
+
+        return newValues;
+    }
+
+    /**
+     * Returns a copy of {@code values} without the given column values that are no newer than {@code version}, or
+     * {@code values} itself if there is nothing to remove.
+     */
+    private static Map<Long, Map<String, CachedValue>> removeValues(Map<Long, Map<String, CachedValue>> values,
+            List<Long> ids, String columnName, long version) {
+
+        Map<Long, Map<String, CachedValue>> newValues = null;
+        for (Long id : ids) {
+            Map<String, CachedValue> map = values.get(id);
+            CachedValue cachedValue = (map == null) ? null : map.get(columnName);
+            if (cachedValue == null || cachedValue.version > version) {
+                continue;
+            }
+
+            if (newValues == null) {
+                newValues = new HashMap<Long, Map<String, CachedValue>>(values);
+            }
+
+            if (map.size() == 1) {
+                newValues.remove(id);
+            } else {
+                Map<String, CachedValue> newMap = new HashMap<String, CachedValue>(map);
+                newMap.remove(columnName);
+                newValues.put(id, newMap);
+            }
         }
+
+        return (newValues == null) ? values : newValues;
     }
 
     /**
@@ -167,11 +275,79 @@ public class EmailProviderCache {
      * {@code MessageListFragment} can update the view without reloading the cursor.
      * </p>
      */
-    private void notifyChange() {
+    @VisibleForTesting
+    void notifyChange() {
         LocalBroadcastManager.getInstance(sContext).sendBroadcast(new Intent(ACTION_CACHE_UPDATED));
 
         Uri uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI, "account/" + mAccountUuid +
                 "/messages");
         sContext.getContentResolver().notifyChange(uri, null);
     }
+
+
+    /**
+     * An immutable state of the cache.
+     */
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(0,
+                Collections.<Long, Map<String, CachedValue>>emptyMap(),
+                Collections.<Long, Map<String, CachedValue>>emptyMap(),
+                Collections.<Long, Long>emptyMap());
+
+
+        final long version;
+        final Map<Long, Map<String, CachedValue>> messageValues;
+        final Map<Long, Map<String, CachedValue>> threadValues;
+        final Map<Long, Long> hiddenMessages;
+
+
+        Snapshot(long version, Map<Long, Map<String, CachedValue>> messageValues,
+                Map<Long, Map<String, CachedValue>> threadValues, Map<Long, Long> hiddenMessages) {
+            this.version = version;
+            this.messageValues = messageValues;
+            this.threadValues = threadValues;
+            this.hiddenMessages = hiddenMessages;
+        }
+
+        /**
+         * Returns {@code true} if there are values for messages or threads that override the database.
+         */
+        public boolean hasValues() {
+            return !messageValues.isEmpty() || !threadValues.isEmpty();
+        }
+
+        public boolean hasHiddenMessages() {
+            return !hiddenMessages.isEmpty();
+        }
+
+        public String getValueForMessage(Long messageId, String columnName) {
+            return getValue(messageValues, messageId, columnName);
+        }
+
+        public String getValueForThread(Long threadRootId, String columnName) {
+            return getValue(threadValues, threadRootId, columnName);
+        }
+
+        public boolean isMessageHidden(Long messageId, long folderId) {
+            Long hiddenInFolder = hiddenMessages.get(messageId);
+            return (hiddenInFolder != null && hiddenInFolder.longValue() == folderId);
+        }
+
+        private static String getValue(Map<Long, Map<String, CachedValue>> values, Long id, String columnName) {
+            Map<String, CachedValue> map = values.get(id);
+            CachedValue cachedValue = (map == null) ? null : map.get(columnName);
+            return (cachedValue == null) ? null : cachedValue.value;
+        }
+    }
+
+    static final class CachedValue {
+        final String value;
+        final long version;
+
+
+        CachedValue(String value, long version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
 }
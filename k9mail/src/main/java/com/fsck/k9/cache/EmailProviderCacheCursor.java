@@ -3,18 +3,26 @@ package com.fsck.k9.cache;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.fsck.k9.cache.EmailProviderCache.Snapshot;
 import com.fsck.k9.provider.EmailProvider.MessageColumns;
 import com.fsck.k9.provider.EmailProvider.ThreadColumns;
 
 import android.content.Context;
 import android.database.Cursor;
 import android.database.CursorWrapper;
+import android.support.annotation.VisibleForTesting;
 
 /**
  * A {@link CursorWrapper} that utilizes {@link EmailProviderCache}.
+ *
+ * <p>
+ * The rows hidden by the cache are determined once, when the cursor is created. Cached values are read from a
+ * snapshot of the cache that is taken whenever the cursor is moved, so all columns of a row see the same state.
+ * </p>
  */
 public class EmailProviderCacheCursor extends CursorWrapper {
     private EmailProviderCache mCache;
+    private Snapshot mSnapshot;
     private List<Integer> mHiddenRows = new ArrayList<Integer>();
     private int mMessageIdColumn;
     private int mFolderIdColumn;
@@ -29,9 +37,14 @@ public class EmailProviderCacheCursor extends CursorWrapper {
 
 
     public EmailProviderCacheCursor(String accountUuid, Cursor cursor, Context context) {
+        this(cursor, EmailProviderCache.getCache(accountUuid, context));
+    }
+
+    @VisibleForTesting
+    EmailProviderCacheCursor(Cursor cursor, EmailProviderCache cache) {
         super(cursor);
 
-        mCache = EmailProviderCache.getCache(accountUuid, context);
+        mCache = cache;
 
         mMessageIdColumn = cursor.getColumnIndex(MessageColumns.ID);
         mFolderIdColumn = cursor.getColumnIndex(MessageColumns.FOLDER_ID);
@@ -43,11 +56,14 @@ public class EmailProviderCacheCursor extends CursorWrapper {
                     ", " + ThreadColumns.ROOT);
         }
 
-        while (cursor.moveToNext()) {
-            long messageId = cursor.getLong(mMessageIdColumn);
-            long folderId = cursor.getLong(mFolderIdColumn);
-            if (mCache.isMessageHidden(messageId, folderId)) {
-                mHiddenRows.add(cursor.getPosition());
+        mSnapshot = mCache.getSnapshot();
+        if (mSnapshot.hasHiddenMessages()) {
+            while (cursor.moveToNext()) {
+                long messageId = cursor.getLong(mMessageIdColumn);
+                long folderId = cursor.getLong(mFolderIdColumn);
+                if (mSnapshot.isMessageHidden(messageId, folderId)) {
+                    mHiddenRows.add(cursor.getPosition());
+                }
             }
         }
 
@@ -58,17 +74,22 @@ public class EmailProviderCacheCursor extends CursorWrapper {
 
     @Override
     public int getInt(int columnIndex) {
+        Snapshot snapshot = mSnapshot;
+        if (!snapshot.hasValues()) {
+            return super.getInt(columnIndex);
+        }
+
         long messageId = getLong(mMessageIdColumn);
         long threadRootId = getLong(mThreadRootColumn);
 
         String columnName = getColumnName(columnIndex);
-        String value = mCache.getValueForMessage(messageId, columnName);
+        String value = snapshot.getValueForMessage(messageId, columnName);
 
         if (value != null) {
             return Integer.parseInt(value);
         }
 
-        value = mCache.getValueForThread(threadRootId, columnName);
+        value = snapshot.getValueForThread(threadRootId, columnName);
         if (value != null) {
             return Integer.parseInt(value);
         }
@@ -108,6 +129,8 @@ public class EmailProviderCacheCursor extends CursorWrapper {
 
     @Override
     public boolean moveToPosition(int position) {
+        mSnapshot = mCache.getSnapshot();
+
         if (mHiddenRows.isEmpty()) {
             return super.moveToPosition(position);
         }
@@ -0,0 +1,358 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.os.Process;
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.net.ConnectivityManagerCompat;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.Account.AttachmentPrefetch;
+import com.fsck.k9.K9;
+import com.fsck.k9.helper.Utility;
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.BodyPart;
+import com.fsck.k9.mail.DefaultBodyFactory;
+import com.fsck.k9.mail.FetchProfile;
+import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.Multipart;
+import com.fsck.k9.mail.Part;
+import com.fsck.k9.mailstore.LocalFolder;
+import com.fsck.k9.mailstore.LocalMessage;
+import com.fsck.k9.mailstore.LocalPart;
+import com.fsck.k9.mailstore.LocalStore;
+import timber.log.Timber;
+
+
+/**
+ * Downloads the attachments of recent messages in the background after a folder has been synchronized.
+ *
+ * <p>
+ * Prefetching runs on its own small thread pool so it never delays the commands queued in {@link MessagingController}.
+ * Each worker uses its own connection from the store's connection pool. Newer messages are fetched first. The
+ * account's {@link Account#getAttachmentPrefetch() network policy} and the background operations setting are checked
+ * before every message and the {@link Account#getAttachmentPrefetchBudgetMb() storage budget} before every part.
+ * There's one budget per account, shared by all folders. It is read from the database when prefetching for the
+ * account starts and kept in memory until no more tasks of the account are pending.
+ * Listeners of {@link MessagingController} are notified of every downloaded part, just like for parts the user
+ * downloaded.
+ * </p>
+ */
+class AttachmentPrefetcher {
+    private static final int THREAD_COUNT = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final int MAX_MESSAGES_PER_FOLDER = 25;
+    private static final long BYTES_PER_MB = 1024L * 1024L;
+
+
+    private final Context context;
+    private final MessagingController controller;
+    private final ThreadPoolExecutor executor;
+    private final Set<String> pendingTasks = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentHashMap<String, AtomicLong> budgets = new ConcurrentHashMap<>();
+
+
+    AttachmentPrefetcher(Context context, MessagingController controller) {
+        this.context = context;
+        this.controller = controller;
+
+        executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new PrefetchThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    void prefetchAttachments(Account account, String folderName) {
+        if (!isPrefetchAllowed(account) || !isStoreSupported(account)) {
+            return;
+        }
+
+        enqueue(new FolderScanTask(account, folderName));
+    }
+
+    @VisibleForTesting
+    boolean isPrefetchAllowed(Account account) {
+        AttachmentPrefetch policy = account.getAttachmentPrefetch();
+        if (policy != AttachmentPrefetch.ALWAYS && policy != AttachmentPrefetch.UNMETERED_ONLY) {
+            return false;
+        }
+
+        if (!isBackgroundDataAllowed() || !hasConnectivity()) {
+            return false;
+        }
+
+        if (policy == AttachmentPrefetch.UNMETERED_ONLY) {
+            return !isActiveNetworkMetered();
+        }
+
+        return true;
+    }
+
+    /**
+     * Same rules as {@link com.fsck.k9.service.MailService} uses for scheduling mail checks.
+     */
+    @VisibleForTesting
+    boolean isBackgroundDataAllowed() {
+        switch (K9.getBackgroundOps()) {
+            case NEVER: {
+                return false;
+            }
+            case WHEN_CHECKED_AUTO_SYNC: {
+                return ContentResolver.getMasterSyncAutomatically();
+            }
+            default: {
+                return true;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    boolean hasConnectivity() {
+        return Utility.hasConnectivity(context);
+    }
+
+    @VisibleForTesting
+    boolean isActiveNetworkMetered() {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return ConnectivityManagerCompat.isActiveNetworkMetered(connectivityManager);
+    }
+
+    private boolean isStoreSupported(Account account) {
+        // Only IMAP supports fetching individual parts of a message
+        String storeUri = account.getStoreUri();
+        return storeUri != null && storeUri.startsWith("imap");
+    }
+
+    private void enqueue(PrefetchTask task) {
+        if (pendingTasks.add(task.key)) {
+            executor.execute(task);
+        }
+    }
+
+    private void scanFolder(Account account, String folderName) throws MessagingException {
+        if (getBudget(account).get() <= 0) {
+            Timber.d("Storage budget for attachments of %s exhausted", account.getDescription());
+            return;
+        }
+
+        LocalStore localStore = account.getLocalStore();
+        LocalFolder localFolder = localStore.getFolder(folderName);
+        try {
+            List<LocalMessage> messages = localFolder.getMessagesWithMissingParts(MAX_MESSAGES_PER_FOLDER);
+            for (LocalMessage message : messages) {
+                enqueue(new MessageTask(account, folderName, message.getUid(), message.getSentDate()));
+            }
+        } finally {
+            localFolder.close();
+        }
+    }
+
+    /**
+     * Returns the budget shared by all prefetch tasks of the account.
+     *
+     * <p>
+     * Only called from pending tasks, so the budget can't be dropped by {@link #releaseBudgetIfIdle(Account)} while
+     * part of it is reserved for a download.
+     * </p>
+     */
+    @VisibleForTesting
+    AtomicLong getBudget(Account account) throws MessagingException {
+        synchronized (budgets) {
+            AtomicLong budget = budgets.get(account.getUuid());
+            if (budget == null) {
+                budget = new AtomicLong(getRemainingBudget(account));
+                budgets.put(account.getUuid(), budget);
+            }
+            return budget;
+        }
+    }
+
+    /**
+     * Drops the budget of the account once none of its tasks are pending, so the next run starts from the size of
+     * the attachments in the database again, e.g. after messages were deleted.
+     */
+    private void releaseBudgetIfIdle(Account account) {
+        synchronized (budgets) {
+            String keyPrefix = account.getUuid() + ":";
+            for (String key : pendingTasks) {
+                if (key.startsWith(keyPrefix)) {
+                    return;
+                }
+            }
+            budgets.remove(account.getUuid());
+        }
+    }
+
+    /**
+     * Returns how many bytes of attachments may still be downloaded. Only attachments count against the budget, not
+     * message text or the database overhead.
+     */
+    @VisibleForTesting
+    long getRemainingBudget(Account account) throws MessagingException {
+        long downloadedBytes = account.getLocalStore().getDownloadedAttachmentSize();
+        return account.getAttachmentPrefetchBudgetMb() * BYTES_PER_MB - downloadedBytes;
+    }
+
+    private void prefetchMessage(Account account, String folderName, String uid) throws MessagingException {
+        if (!isPrefetchAllowed(account)) {
+            return;
+        }
+
+        AtomicLong budget = getBudget(account);
+
+        LocalFolder localFolder = account.getLocalStore().getFolder(folderName);
+        Folder remoteFolder = null;
+        try {
+            localFolder.open(Folder.OPEN_MODE_RW);
+            LocalMessage message = localFolder.getMessage(uid);
+            if (message == null) {
+                return;
+            }
+
+            FetchProfile fp = new FetchProfile();
+            fp.add(FetchProfile.Item.BODY);
+            localFolder.fetch(Collections.singletonList(message), fp, null);
+
+            Message remoteMessage = null;
+            for (Part part : collectMissingParts(message)) {
+                long size = (part instanceof LocalPart) ? ((LocalPart) part).getSize() : 0;
+                if (budget.addAndGet(-size) < 0) {
+                    budget.addAndGet(size);
+                    continue;
+                }
+
+                if (remoteFolder == null) {
+                    remoteFolder = account.getRemoteStore().getFolder(folderName);
+                    remoteFolder.open(Folder.OPEN_MODE_RO);
+                    remoteMessage = remoteFolder.getMessage(uid);
+                }
+
+                remoteFolder.fetchPart(remoteMessage, part, null, new DefaultBodyFactory());
+                localFolder.addPartToMessage(message, part);
+
+                for (MessagingListener l : controller.getListeners()) {
+                    l.loadAttachmentFinished(account, message, part);
+                }
+            }
+        } finally {
+            localFolder.close();
+            if (remoteFolder != null) {
+                remoteFolder.close();
+            }
+        }
+    }
+
+    @VisibleForTesting
+    static List<Part> collectMissingParts(Part part) {
+        List<Part> missingParts = new ArrayList<>();
+        collectMissingParts(part, missingParts);
+        return missingParts;
+    }
+
+    private static void collectMissingParts(Part part, List<Part> missingParts) {
+        Body body = part.getBody();
+        if (body instanceof Multipart) {
+            for (BodyPart bodyPart : ((Multipart) body).getBodyParts()) {
+                collectMissingParts(bodyPart, missingParts);
+            }
+        } else if (body instanceof Message) {
+            collectMissingParts((Message) body, missingParts);
+        } else if (body == null && part.getServerExtra() != null) {
+            missingParts.add(part);
+        }
+    }
+
+
+    private abstract class PrefetchTask implements Runnable, Comparable<PrefetchTask> {
+        final Account account;
+        final String folderName;
+        final String key;
+        final long date;
+
+
+        PrefetchTask(Account account, String folderName, String key, long date) {
+            this.account = account;
+            this.folderName = folderName;
+            this.key = key;
+            this.date = date;
+        }
+
+        @Override
+        public void run() {
+            try {
+                execute();
+            } catch (Exception e) {
+                Timber.e(e, "Error prefetching attachments in %s:%s", account.getDescription(), folderName);
+            } finally {
+                pendingTasks.remove(key);
+                releaseBudgetIfIdle(account);
+            }
+        }
+
+        abstract void execute() throws MessagingException;
+
+        @Override
+        public int compareTo(PrefetchTask other) {
+            // Newest first
+            return (date < other.date) ? 1 : ((date == other.date) ? 0 : -1);
+        }
+    }
+
+    private class FolderScanTask extends PrefetchTask {
+        FolderScanTask(Account account, String folderName) {
+            super(account, folderName, account.getUuid() + ":" + folderName, Long.MAX_VALUE);
+        }
+
+        @Override
+        void execute() throws MessagingException {
+            scanFolder(account, folderName);
+        }
+    }
+
+    private class MessageTask extends PrefetchTask {
+        private final String uid;
+
+
+        MessageTask(Account account, String folderName, String uid, Date date) {
+            super(account, folderName, account.getUuid() + ":" + folderName + ":" + uid,
+                    (date != null) ? date.getTime() : 0);
+            this.uid = uid;
+        }
+
+        @Override
+        void execute() throws MessagingException {
+            prefetchMessage(account, folderName, uid);
+        }
+    }
+
+    private static class PrefetchThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            });
+            thread.setName("AttachmentPrefetcher");
+            return thread;
+        }
+    }
+}
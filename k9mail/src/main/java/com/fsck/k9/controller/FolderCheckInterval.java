@@ -0,0 +1,52 @@
+package com.fsck.k9.controller;
+
+
+import android.support.annotation.VisibleForTesting;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.mailstore.LocalFolder;
+
+
+/**
+ * Calculates how often a folder should be checked for new mail during automatic mail checks.
+ *
+ * <p>
+ * Folders that received mail recently are checked at the interval configured for the account. Every synchronization
+ * that doesn't find new mail (after a few grace checks) doubles the folder's interval until it reaches
+ * {@link Account#getMaxFolderCheckIntervalMinutes()}. The first new message resets the folder to the account's
+ * interval. The Inbox is always checked at the account's interval.
+ * </p>
+ */
+class FolderCheckInterval {
+    /**
+     * Number of empty synchronizations before a folder's check interval is increased.
+     */
+    private static final int GRACE_EMPTY_SYNC_COUNT = 2;
+
+
+    private FolderCheckInterval() {
+    }
+
+    static long getCheckInterval(Account account, LocalFolder folder, long accountInterval) {
+        if (folder.getName().equalsIgnoreCase(account.getInboxFolderName())) {
+            return accountInterval;
+        }
+
+        long maxInterval = account.getMaxFolderCheckIntervalMinutes() * 60L * 1000L;
+        return calculateCheckInterval(accountInterval, maxInterval, folder.getEmptySyncCount());
+    }
+
+    @VisibleForTesting
+    static long calculateCheckInterval(long accountInterval, long maxInterval, int emptySyncCount) {
+        if (accountInterval <= 0 || maxInterval <= accountInterval) {
+            return accountInterval;
+        }
+
+        long interval = accountInterval;
+        for (int i = GRACE_EMPTY_SYNC_COUNT; i < emptySyncCount && interval < maxInterval; i++) {
+            interval *= 2;
+        }
+
+        return Math.min(interval, maxInterval);
+    }
+}
@@ -5,7 +5,6 @@ import java.io.CharArrayWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -64,6 +63,7 @@ import com.fsck.k9.controller.MessagingControllerCommands.PendingMarkAllAsRead;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingMoveOrCopy;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingSetFlag;
 import com.fsck.k9.controller.ProgressBodyFactory.ProgressListener;
+import com.fsck.k9.controller.SyncStatistics.Phase;
 import com.fsck.k9.helper.Contacts;
 import com.fsck.k9.mail.Address;
 import com.fsck.k9.mail.AuthenticationFailedException;
@@ -79,6 +79,7 @@ import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.Message.RecipientType;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.NetworkStatistics;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.PushReceiver;
 import com.fsck.k9.mail.Pusher;
@@ -93,19 +94,20 @@ import com.fsck.k9.mail.internet.TextBody;
 import com.fsck.k9.mail.power.TracingPowerManager;
 import com.fsck.k9.mail.power.TracingPowerManager.TracingWakeLock;
 import com.fsck.k9.mail.store.pop3.Pop3Store;
+import com.fsck.k9.mailstore.DatabaseMaintenance;
 import com.fsck.k9.mailstore.LocalFolder;
 import com.fsck.k9.mailstore.LocalFolder.MoreMessages;
 import com.fsck.k9.mailstore.LocalMessage;
 import com.fsck.k9.mailstore.LocalStore;
 import com.fsck.k9.mailstore.MessageRemovalListener;
 import com.fsck.k9.mailstore.UnavailableStorageException;
+import com.fsck.k9.notification.NewMailNotificationBatch;
 import com.fsck.k9.notification.NotificationController;
 import com.fsck.k9.provider.EmailProvider;
 import com.fsck.k9.provider.EmailProvider.StatsColumns;
 import com.fsck.k9.search.ConditionsTreeNode;
 import com.fsck.k9.search.LocalSearch;
 import com.fsck.k9.search.SearchAccount;
-import com.fsck.k9.search.SearchSpecification;
 import com.fsck.k9.search.SqlQueryBuilder;
 import timber.log.Timber;
 
@@ -147,7 +149,9 @@ public class MessagingController {
     private final ConcurrentHashMap<Account, Pusher> pushers = new ConcurrentHashMap<>();
     private final ExecutorService threadPool = Executors.newCachedThreadPool();
     private final MemorizingMessagingListener memorizingMessagingListener = new MemorizingMessagingListener();
+    private final SyncStatisticsReport syncStatisticsReport = new SyncStatisticsReport();
     private final TransportProvider transportProvider;
+    private final AttachmentPrefetcher attachmentPrefetcher;
 
 
     private MessagingListener checkMailListener = null;
@@ -173,6 +177,7 @@ public class MessagingController {
         this.notificationController = notificationController;
         this.contacts = contacts;
         this.transportProvider = transportProvider;
+        attachmentPrefetcher = new AttachmentPrefetcher(context, this);
 
         controllerThread = new Thread(new Runnable() {
             @Override
@@ -183,6 +188,7 @@ public class MessagingController {
         controllerThread.setName("MessagingController");
         controllerThread.start();
         addListener(memorizingMessagingListener);
+        addListener(syncStatisticsReport);
     }
 
     @VisibleForTesting
@@ -312,38 +318,38 @@ public class MessagingController {
         return cache.isMessageHidden(messageId, folderId);
     }
 
-    private void setFlagInCache(final Account account, final List<Long> messageIds,
+    private long setFlagInCache(final Account account, final List<Long> messageIds,
             final Flag flag, final boolean newState) {
 
         EmailProviderCache cache = EmailProviderCache.getCache(account.getUuid(), context);
         String columnName = LocalStore.getColumnNameForFlag(flag);
         String value = Integer.toString((newState) ? 1 : 0);
-        cache.setValueForMessages(messageIds, columnName, value);
+        return cache.setValueForMessages(messageIds, columnName, value);
     }
 
     private void removeFlagFromCache(final Account account, final List<Long> messageIds,
-            final Flag flag) {
+            final Flag flag, long cacheVersion) {
 
         EmailProviderCache cache = EmailProviderCache.getCache(account.getUuid(), context);
         String columnName = LocalStore.getColumnNameForFlag(flag);
-        cache.removeValueForMessages(messageIds, columnName);
+        cache.removeValueForMessages(messageIds, columnName, cacheVersion);
     }
 
-    private void setFlagForThreadsInCache(final Account account, final List<Long> threadRootIds,
+    private long setFlagForThreadsInCache(final Account account, final List<Long> threadRootIds,
             final Flag flag, final boolean newState) {
 
         EmailProviderCache cache = EmailProviderCache.getCache(account.getUuid(), context);
         String columnName = LocalStore.getColumnNameForFlag(flag);
         String value = Integer.toString((newState) ? 1 : 0);
-        cache.setValueForThreads(threadRootIds, columnName, value);
+        return cache.setValueForThreads(threadRootIds, columnName, value);
     }
 
     private void removeFlagForThreadsFromCache(final Account account, final List<Long> messageIds,
-            final Flag flag) {
+            final Flag flag, long cacheVersion) {
 
         EmailProviderCache cache = EmailProviderCache.getCache(account.getUuid(), context);
         String columnName = LocalStore.getColumnNameForFlag(flag);
-        cache.removeValueForThreads(messageIds, columnName);
+        cache.removeValueForThreads(messageIds, columnName, cacheVersion);
     }
 
 
@@ -492,72 +498,6 @@ public class MessagingController {
         }
     }
 
-    /**
-     * Find all messages in any local account which match the query 'query'
-     */
-    public void searchLocalMessages(final LocalSearch search, final MessagingListener listener) {
-        threadPool.execute(new Runnable() {
-            @Override
-            public void run() {
-                searchLocalMessagesSynchronous(search, listener);
-            }
-        });
-    }
-
-    @VisibleForTesting
-    void searchLocalMessagesSynchronous(final LocalSearch search, final MessagingListener listener) {
-        final AccountStats stats = new AccountStats();
-        final Set<String> uuidSet = new HashSet<>(Arrays.asList(search.getAccountUuids()));
-        List<Account> accounts = Preferences.getPreferences(context).getAccounts();
-        boolean allAccounts = uuidSet.contains(SearchSpecification.ALL_ACCOUNTS);
-
-        // for every account we want to search do the query in the localstore
-        for (final Account account : accounts) {
-
-            if (!allAccounts && !uuidSet.contains(account.getUuid())) {
-                continue;
-            }
-
-            // Collecting statistics of the search result
-            MessageRetrievalListener<LocalMessage> retrievalListener = new MessageRetrievalListener<LocalMessage>() {
-                @Override
-                public void messageStarted(String message, int number, int ofTotal) {
-                }
-
-                @Override
-                public void messagesFinished(int number) {
-                }
-
-                @Override
-                public void messageFinished(LocalMessage message, int number, int ofTotal) {
-                    if (!isMessageSuppressed(message)) {
-                        List<LocalMessage> messages = new ArrayList<>();
-
-                        messages.add(message);
-                        stats.unreadMessageCount += (!message.isSet(Flag.SEEN)) ? 1 : 0;
-                        stats.flaggedMessageCount += (message.isSet(Flag.FLAGGED)) ? 1 : 0;
-                        if (listener != null) {
-                            listener.listLocalMessagesAddMessages(account, null, messages);
-                        }
-                    }
-                }
-            };
-
-            // build and do the query in the localstore
-            try {
-                LocalStore localStore = account.getLocalStore();
-                localStore.searchForMessages(retrievalListener, search);
-            } catch (Exception e) {
-                addErrorMessage(account, null, e);
-            }
-        }
-
-        // publish the total search statistics
-        if (listener != null) {
-            listener.searchStats(stats);
-        }
-    }
-
     public Future<?> searchRemoteMessages(final String acctUuid, final String folderName, final String query,
             final Set<Flag> requiredFlags, final Set<Flag> forbiddenFlags, final MessagingListener listener) {
         Timber.i("searchRemoteMessages (acct = %s, folderName = %s, query = %s)", acctUuid, folderName, query);
@@ -751,10 +691,13 @@ public class MessagingController {
             return;
         }
 
+        SyncStatistics statistics = startSyncStatistics(account, folder);
+
         Exception commandException = null;
         try {
             Timber.d("SYNC: About to process pending commands for account %s", account.getDescription());
 
+            statistics.startPhase(Phase.PENDING_COMMANDS);
             try {
                 processPendingCommandsSynchronous(account);
             } catch (Exception e) {
@@ -762,6 +705,8 @@ public class MessagingController {
 
                 Timber.e(e, "Failure processing command, but allow message sync attempt");
                 commandException = e;
+            } finally {
+                statistics.endPhase(Phase.PENDING_COMMANDS);
             }
 
             /*
@@ -770,12 +715,14 @@ public class MessagingController {
              */
             Timber.v("SYNC: About to get local folder %s", folder);
 
+            statistics.startPhase(Phase.LOCAL_LOOKUP);
             final LocalStore localStore = account.getLocalStore();
             tLocalFolder = localStore.getFolder(folder);
             final LocalFolder localFolder = tLocalFolder;
             localFolder.open(Folder.OPEN_MODE_RW);
             localFolder.updateLastUid();
             Map<String, Long> localUidMap = localFolder.getAllMessagesAndEffectiveDates();
+            statistics.endPhase(Phase.LOCAL_LOOKUP);
 
             if (providedRemoteFolder != null) {
                 Timber.v("SYNC: using providedRemoteFolder %s", folder);
@@ -814,11 +761,13 @@ public class MessagingController {
                  */
                 Timber.v("SYNC: About to open remote folder %s", folder);
 
+                statistics.startPhase(Phase.OPEN_FOLDER);
                 remoteFolder.open(Folder.OPEN_MODE_RW);
                 if (Expunge.EXPUNGE_ON_POLL == account.getExpungePolicy()) {
                     Timber.d("SYNC: Expunging folder %s:%s", account.getDescription(), folder);
                     remoteFolder.expunge();
                 }
+                statistics.endPhase(Phase.OPEN_FOLDER);
 
             }
 
@@ -862,8 +811,10 @@ public class MessagingController {
                 }
 
 
+                statistics.startPhase(Phase.UID_LIST);
                 List<? extends Message> remoteMessageArray =
                         remoteFolder.getMessages(remoteStart, remoteMessageCount, earliestDate, null);
+                statistics.endPhase(Phase.UID_LIST);
 
                 int messageCount = remoteMessageArray.size();
 
@@ -901,6 +852,7 @@ public class MessagingController {
                     }
                 }
 
+                statistics.startPhase(Phase.LOCAL_DELETE);
                 List<LocalMessage> destroyMessages = localFolder.getMessagesByUids(destroyMessageUids);
                 if (!destroyMessageUids.isEmpty()) {
                     moreMessages = MoreMessages.UNKNOWN;
@@ -913,18 +865,22 @@ public class MessagingController {
                         }
                     }
                 }
+                statistics.endPhase(Phase.LOCAL_DELETE);
             }
             // noinspection UnusedAssignment, free memory early? (better break up the method!)
             localUidMap = null;
 
             if (moreMessages == MoreMessages.UNKNOWN) {
+                statistics.startPhase(Phase.UID_LIST);
                 updateMoreMessages(remoteFolder, localFolder, earliestDate, remoteStart);
+                statistics.endPhase(Phase.UID_LIST);
             }
 
             /*
              * Now we download the actual content of messages.
              */
-            int newMessages = downloadMessages(account, remoteFolder, localFolder, remoteMessages, false, true);
+            int newMessages = downloadMessages(account, remoteFolder, localFolder, remoteMessages, false, true,
+                    statistics);
 
             int unreadMessageCount = localFolder.getUnreadMessageCount();
             for (MessagingListener l : getListeners()) {
@@ -935,6 +891,8 @@ public class MessagingController {
 
             localFolder.setLastChecked(System.currentTimeMillis());
             localFolder.setStatus(null);
+            // Messages that arrive already read, e.g. in the Sent folder, count as activity, too
+            localFolder.recordSyncResult(statistics.getDownloadedMessages());
 
             Timber.d("Done synchronizing folder %s:%s @ %tc with %d new messages",
                     account.getDescription(),
@@ -946,6 +904,8 @@ public class MessagingController {
                 l.synchronizeMailboxFinished(account, folder, remoteMessageCount, newMessages);
             }
 
+            attachmentPrefetcher.prefetchAttachments(account, folder);
+
 
             if (commandException != null) {
                 String rootMessage = getRootCauseMessage(commandException);
@@ -994,10 +954,46 @@ public class MessagingController {
             }
 
             closeFolder(tLocalFolder);
+
+            reportSyncStatistics(account, folder, statistics, listener);
         }
 
     }
 
+    private SyncStatistics startSyncStatistics(Account account, String folder) {
+        SyncStatistics statistics = new SyncStatistics(folder);
+        statistics.startSync();
+        statistics.setNetworkStatistics(getNetworkStatistics(account));
+        return statistics;
+    }
+
+    /**
+     * Finishes the statistics of a download and hands them to the listeners, so downloads of pushed messages and
+     * search results show up in the {@link SyncStatisticsReport} next to the regular synchronizations.
+     */
+    private void reportSyncStatistics(Account account, String folder, SyncStatistics statistics,
+            MessagingListener listener) {
+        statistics.finishSync();
+        Timber.d("SYNC: Statistics for %s:%s", account.getDescription(), statistics);
+        for (MessagingListener l : getListeners(listener)) {
+            l.synchronizeMailboxStatistics(account, folder, statistics);
+        }
+    }
+
+    public SyncStatisticsReport getSyncStatisticsReport() {
+        return syncStatisticsReport;
+    }
+
+    private NetworkStatistics getNetworkStatistics(Account account) {
+        try {
+            Store remoteStore = account.getRemoteStore();
+            return remoteStore != null ? remoteStore.getNetworkStatistics() : null;
+        } catch (MessagingException e) {
+            Timber.w(e, "Couldn't get remote store for sync statistics");
+            return null;
+        }
+    }
+
     void handleAuthenticationFailure(Account account, boolean incoming) {
         notificationController.showAuthenticationErrorNotification(account, incoming);
     }
@@ -1063,6 +1059,8 @@ public class MessagingController {
      *         Only flags will be fetched from the remote store if this is {@code true}.
      * @param purgeToVisibleLimit
      *         If true, local messages will be purged down to the limit of visible messages.
+     * @param statistics
+     *         Records the time spent in the different phases of the download.
      *
      * @return The number of downloaded messages that are not flagged as {@link Flag#SEEN}.
      *
@@ -1070,7 +1068,7 @@ public class MessagingController {
      */
     private int downloadMessages(final Account account, final Folder remoteFolder,
             final LocalFolder localFolder, List<Message> inputMessages,
-            boolean flagSyncOnly, boolean purgeToVisibleLimit) throws MessagingException {
+            boolean flagSyncOnly, boolean purgeToVisibleLimit, SyncStatistics statistics) throws MessagingException {
 
         final Date earliestDate = account.getEarliestPollDate();
         Date downloadStarted = new Date(); // now
@@ -1081,13 +1079,17 @@ public class MessagingController {
         final String folder = remoteFolder.getName();
 
         int unreadBeforeStart = 0;
-        try {
-            AccountStats stats = account.getStats(context);
-            unreadBeforeStart = stats.unreadMessageCount;
+        if (isNewMailNotificationPossible(account, localFolder)) {
+            try {
+                AccountStats stats = account.getStats(context);
+                unreadBeforeStart = stats.unreadMessageCount;
 
-        } catch (MessagingException e) {
-            Timber.e(e, "Unable to getUnreadMessageCount for account: %s", account);
+            } catch (MessagingException e) {
+                Timber.e(e, "Unable to getUnreadMessageCount for account: %s", account);
+            }
         }
+        NewMailNotificationBatch notificationBatch =
+                new NewMailNotificationBatch(notificationController, account, unreadBeforeStart);
 
         List<Message> syncFlagMessages = new ArrayList<>();
         List<Message> unsyncedMessages = new ArrayList<>();
@@ -1095,10 +1097,12 @@ public class MessagingController {
 
         List<Message> messages = new ArrayList<>(inputMessages);
 
+        statistics.startPhase(Phase.LOCAL_LOOKUP);
         for (Message message : messages) {
             evaluateMessageForDownload(message, folder, localFolder, remoteFolder, account, unsyncedMessages,
                     syncFlagMessages, flagSyncOnly);
         }
+        statistics.endPhase(Phase.LOCAL_LOOKUP);
 
         final AtomicInteger progress = new AtomicInteger(0);
         final int todo = unsyncedMessages.size() + syncFlagMessages.size();
@@ -1133,8 +1137,10 @@ public class MessagingController {
 
             Timber.d("SYNC: About to fetch %d unsynced messages for folder %s", unsyncedMessages.size(), folder);
 
+            statistics.startPhase(Phase.ENVELOPE_FETCH);
             fetchUnsyncedMessages(account, remoteFolder, unsyncedMessages, smallMessages, largeMessages, progress, todo,
                     fp);
+            statistics.endPhase(Phase.ENVELOPE_FETCH);
 
             String updatedPushState = localFolder.getPushState();
             for (Message message : unsyncedMessages) {
@@ -1162,28 +1168,37 @@ public class MessagingController {
         fp.add(FetchProfile.Item.BODY);
         //        fp.add(FetchProfile.Item.FLAGS);
         //        fp.add(FetchProfile.Item.ENVELOPE);
-        downloadSmallMessages(account, remoteFolder, localFolder, smallMessages, progress, unreadBeforeStart,
-                newMessages, todo, fp);
-        smallMessages.clear();
-        /*
-         * Now do the large messages that require more round trips.
-         */
-        fp = new FetchProfile();
-        fp.add(FetchProfile.Item.STRUCTURE);
-        downloadLargeMessages(account, remoteFolder, localFolder, largeMessages, progress, unreadBeforeStart,
-                newMessages, todo, fp);
-        largeMessages.clear();
+        try {
+            statistics.startPhase(Phase.BODY_FETCH);
+            downloadSmallMessages(account, remoteFolder, localFolder, smallMessages, progress, notificationBatch,
+                    newMessages, todo, fp, statistics);
+            smallMessages.clear();
+            /*
+             * Now do the large messages that require more round trips.
+             */
+            fp = new FetchProfile();
+            fp.add(FetchProfile.Item.STRUCTURE);
+            downloadLargeMessages(account, remoteFolder, localFolder, largeMessages, progress, notificationBatch,
+                    newMessages, todo, fp, statistics);
+            largeMessages.clear();
+            statistics.endPhase(Phase.BODY_FETCH);
+        } finally {
+            notificationBatch.flush();
+        }
 
         /*
          * Refresh the flags for any messages in the local store that we didn't just
          * download.
          */
 
+        statistics.startPhase(Phase.FLAG_REFRESH);
         refreshLocalMessageFlags(account, remoteFolder, localFolder, syncFlagMessages, progress, todo);
+        statistics.endPhase(Phase.FLAG_REFRESH);
 
         Timber.d("SYNC: Synced remote messages for folder %s, %d new messages", folder, newMessages.get());
 
         if (purgeToVisibleLimit) {
+            statistics.startPhase(Phase.LOCAL_DELETE);
             localFolder.purgeToVisibleLimit(new MessageRemovalListener() {
                 @Override
                 public void messageRemoved(Message message) {
@@ -1193,6 +1208,7 @@ public class MessagingController {
                 }
 
             });
+            statistics.endPhase(Phase.LOCAL_DELETE);
         }
 
         // If the oldest message seen on this sync is newer than
@@ -1345,10 +1361,11 @@ public class MessagingController {
             final LocalFolder localFolder,
             List<T> smallMessages,
             final AtomicInteger progress,
-            final int unreadBeforeStart,
+            final NewMailNotificationBatch notificationBatch,
             final AtomicInteger newMessages,
             final int todo,
-            FetchProfile fp) throws MessagingException {
+            FetchProfile fp,
+            final SyncStatistics statistics) throws MessagingException {
         final String folder = remoteFolder.getName();
 
         final Date earliestDate = account.getEarliestPollDate();
@@ -1368,12 +1385,19 @@ public class MessagingController {
                             }
 
                             // Store the updated message locally
-                            final LocalMessage localMessage = localFolder.storeSmallMessage(message, new Runnable() {
-                                @Override
-                                public void run() {
-                                    progress.incrementAndGet();
-                                }
-                            });
+                            final LocalMessage localMessage;
+                            statistics.startPhase(Phase.LOCAL_SAVE);
+                            try {
+                                localMessage = localFolder.storeSmallMessage(message, new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        progress.incrementAndGet();
+                                    }
+                                });
+                            } finally {
+                                statistics.endPhase(Phase.LOCAL_SAVE);
+                            }
+                            statistics.addDownloadedMessage();
 
                             // Increment the number of "new messages" if the newly downloaded message is
                             // not marked as read.
@@ -1395,7 +1419,7 @@ public class MessagingController {
 
                             if (shouldNotifyForMessage(account, localFolder, message)) {
                                 // Notify with the localMessage so that we don't have to recalculate the content preview.
-                                notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
+                                notificationBatch.add(localMessage);
                             }
 
                         } catch (MessagingException me) {
@@ -1420,10 +1444,11 @@ public class MessagingController {
             final LocalFolder localFolder,
             List<T> largeMessages,
             final AtomicInteger progress,
-            final int unreadBeforeStart,
+            final NewMailNotificationBatch notificationBatch,
             final AtomicInteger newMessages,
             final int todo,
-            FetchProfile fp) throws MessagingException {
+            FetchProfile fp,
+            SyncStatistics statistics) throws MessagingException {
         final String folder = remoteFolder.getName();
         final Date earliestDate = account.getEarliestPollDate();
 
@@ -1438,10 +1463,11 @@ public class MessagingController {
             }
 
             if (message.getBody() == null) {
-                downloadSaneBody(account, remoteFolder, localFolder, message);
+                downloadSaneBody(account, remoteFolder, localFolder, message, statistics);
             } else {
-                downloadPartial(remoteFolder, localFolder, message);
+                downloadPartial(remoteFolder, localFolder, message, statistics);
             }
+            statistics.addDownloadedMessage();
 
             Timber.v("About to notify listeners that we got a new large message %s:%s:%s",
                     account, folder, message.getUid());
@@ -1464,15 +1490,15 @@ public class MessagingController {
             // Send a notification of this message
             if (shouldNotifyForMessage(account, localFolder, message)) {
                 // Notify with the localMessage so that we don't have to recalculate the content preview.
-                notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
+                notificationBatch.add(localMessage);
             }
         }
 
         Timber.d("SYNC: Done fetching large messages for folder %s", folder);
     }
 
-    private void downloadPartial(Folder remoteFolder, LocalFolder localFolder, Message message)
-            throws MessagingException {
+    private void downloadPartial(Folder remoteFolder, LocalFolder localFolder, Message message,
+            SyncStatistics statistics) throws MessagingException {
         /*
          * We have a structure to deal with, from which
          * we can pull down the parts we want to actually store.
@@ -1490,6 +1516,7 @@ public class MessagingController {
             remoteFolder.fetchPart(message, part, null, bodyFactory);
         }
         // Store the updated message locally
+        statistics.startPhase(Phase.LOCAL_SAVE);
         localFolder.appendMessages(Collections.singletonList(message));
 
         Message localMessage = localFolder.getMessage(message.getUid());
@@ -1497,10 +1524,11 @@ public class MessagingController {
         // Set a flag indicating this message has been fully downloaded and can be
         // viewed.
         localMessage.setFlag(Flag.X_DOWNLOADED_PARTIAL, true);
+        statistics.endPhase(Phase.LOCAL_SAVE);
     }
 
-    private void downloadSaneBody(Account account, Folder remoteFolder, LocalFolder localFolder, Message message)
-            throws MessagingException {
+    private void downloadSaneBody(Account account, Folder remoteFolder, LocalFolder localFolder, Message message,
+            SyncStatistics statistics) throws MessagingException {
         /*
          * The provider was unable to get the structure of the message, so
          * we'll download a reasonable portion of the messge and mark it as
@@ -1518,6 +1546,7 @@ public class MessagingController {
         remoteFolder.fetch(Collections.singletonList(message), fp, null);
 
         // Store the updated message locally
+        statistics.startPhase(Phase.LOCAL_SAVE);
         localFolder.appendMessages(Collections.singletonList(message));
 
         Message localMessage = localFolder.getMessage(message.getUid());
@@ -1543,6 +1572,7 @@ public class MessagingController {
                 localMessage.setFlag(Flag.X_DOWNLOADED_PARTIAL, true);
             }
         }
+        statistics.endPhase(Phase.LOCAL_SAVE);
 
     }
 
@@ -2198,12 +2228,12 @@ public class MessagingController {
     public void setFlag(final Account account, final List<Long> messageIds, final Flag flag,
             final boolean newState) {
 
-        setFlagInCache(account, messageIds, flag, newState);
+        final long cacheVersion = setFlagInCache(account, messageIds, flag, newState);
 
         threadPool.execute(new Runnable() {
             @Override
             public void run() {
-                setFlagSynchronous(account, messageIds, flag, newState, false);
+                setFlagSynchronous(account, messageIds, flag, newState, false, cacheVersion);
             }
         });
     }
@@ -2211,18 +2241,18 @@ public class MessagingController {
     public void setFlagForThreads(final Account account, final List<Long> threadRootIds,
             final Flag flag, final boolean newState) {
 
-        setFlagForThreadsInCache(account, threadRootIds, flag, newState);
+        final long cacheVersion = setFlagForThreadsInCache(account, threadRootIds, flag, newState);
 
         threadPool.execute(new Runnable() {
             @Override
             public void run() {
-                setFlagSynchronous(account, threadRootIds, flag, newState, true);
+                setFlagSynchronous(account, threadRootIds, flag, newState, true, cacheVersion);
             }
         });
     }
 
     private void setFlagSynchronous(final Account account, final List<Long> ids,
-            final Flag flag, final boolean newState, final boolean threadedList) {
+            final Flag flag, final boolean newState, final boolean threadedList, long cacheVersion) {
 
         LocalStore localStore;
         try {
@@ -2237,10 +2267,10 @@ public class MessagingController {
         try {
             if (threadedList) {
                 localStore.setFlagForThreads(ids, flag, newState);
-                removeFlagForThreadsFromCache(account, ids, flag);
+                removeFlagForThreadsFromCache(account, ids, flag, cacheVersion);
             } else {
                 localStore.setFlag(ids, flag, newState);
-                removeFlagFromCache(account, ids, flag);
+                removeFlagFromCache(account, ids, flag, cacheVersion);
             }
         } catch (MessagingException e) {
             Timber.e(e, "Couldn't set flags in local database");
@@ -2465,8 +2495,13 @@ public class MessagingController {
                 Message remoteMessage = remoteFolder.getMessage(uid);
 
                 if (loadPartialFromSearch) {
-                    downloadMessages(account, remoteFolder, localFolder,
-                            Collections.singletonList(remoteMessage), false, false);
+                    SyncStatistics statistics = startSyncStatistics(account, folder);
+                    try {
+                        downloadMessages(account, remoteFolder, localFolder,
+                                Collections.singletonList(remoteMessage), false, false, statistics);
+                    } finally {
+                        reportSyncStatistics(account, folder, statistics, listener);
+                    }
                 } else {
                     FetchProfile fp = new FetchProfile();
                     fp.add(FetchProfile.Item.BODY);
@@ -3668,8 +3703,8 @@ public class MessagingController {
             Account.FolderMode aDisplayMode = account.getFolderDisplayMode();
             Account.FolderMode aSyncMode = account.getFolderSyncMode();
 
-            Store localStore = account.getLocalStore();
-            for (final Folder folder : localStore.getPersonalNamespaces(false)) {
+            LocalStore localStore = account.getLocalStore();
+            for (final LocalFolder folder : localStore.getPersonalNamespaces(false)) {
                 folder.open(Folder.OPEN_MODE_RW);
 
                 Folder.FolderClass fDisplayClass = folder.getDisplayClass();
@@ -3698,7 +3733,8 @@ public class MessagingController {
 
                     continue;
                 }
-                synchronizeFolder(account, folder, ignoreLastCheckedTime, accountInterval, listener);
+                long folderInterval = FolderCheckInterval.getCheckInterval(account, folder, accountInterval);
+                synchronizeFolder(account, folder, ignoreLastCheckedTime, folderInterval, listener);
             }
         } catch (MessagingException e) {
             Timber.e(e, "Unable to synchronize account %s", account.getName());
@@ -3731,14 +3767,14 @@ public class MessagingController {
             final Account account,
             final Folder folder,
             final boolean ignoreLastCheckedTime,
-            final long accountInterval,
+            final long folderInterval,
             final MessagingListener listener) {
 
         Timber.v("Folder %s was last synced @ %tc", folder.getName(), folder.getLastChecked());
 
-        if (!ignoreLastCheckedTime && folder.getLastChecked() > System.currentTimeMillis() - accountInterval) {
-            Timber.v("Not syncing folder %s, previously synced @ %tc which would be too recent for the account " +
-                    "period", folder.getName(), folder.getLastChecked());
+        if (!ignoreLastCheckedTime && folder.getLastChecked() > System.currentTimeMillis() - folderInterval) {
+            Timber.v("Not syncing folder %s, previously synced @ %tc which would be too recent for the folder " +
+                    "period of %d minutes", folder.getName(), folder.getLastChecked(), folderInterval / (60 * 1000));
             return;
         }
 
@@ -3754,9 +3790,9 @@ public class MessagingController {
                             tLocalFolder.open(Folder.OPEN_MODE_RW);
 
                             if (!ignoreLastCheckedTime && tLocalFolder.getLastChecked() >
-                                    (System.currentTimeMillis() - accountInterval)) {
+                                    (System.currentTimeMillis() - folderInterval)) {
                                 Timber.v("Not running Command for folder %s, previously synced @ %tc which would " +
-                                        "be too recent for the account period",
+                                        "be too recent for the folder period",
                                         folder.getName(), folder.getLastChecked());
                                 return;
                             }
@@ -3815,6 +3851,28 @@ public class MessagingController {
         });
     }
 
+    /**
+     * Performs database maintenance for an account in the calling thread.
+     *
+     * @see LocalStore#performMaintenance()
+     */
+    public void performDatabaseMaintenanceSynchronous(Account account) {
+        try {
+            LocalStore localStore = account.getLocalStore();
+            long oldSize = localStore.getSize();
+            DatabaseMaintenance.Result result = localStore.performMaintenance();
+            long newSize = localStore.getSize();
+            Timber.i("Database maintenance for account %s: %s", account.getDescription(), result);
+            for (MessagingListener l : getListeners()) {
+                l.accountSizeChanged(account, oldSize, newSize);
+            }
+        } catch (UnavailableStorageException e) {
+            Timber.i("Failed to perform database maintenance because storage is not available - trying again later.");
+        } catch (Exception e) {
+            Timber.e(e, "Failed to perform database maintenance for account %s", account.getDescription());
+        }
+    }
+
     public void clear(final Account account, final MessagingListener ml) {
         putBackground("clear:" + account.getDescription(), ml, new Runnable() {
             @Override
@@ -3872,16 +3930,18 @@ public class MessagingController {
     }
 
 
-    private boolean shouldNotifyForMessage(Account account, LocalFolder localFolder, Message message) {
+    /**
+     * Check the account and folder settings that are required for any new message notification in this folder.
+     */
+    private boolean isNewMailNotificationPossible(Account account, LocalFolder localFolder) {
         // If we don't even have an account name, don't show the notification.
         // (This happens during initial account setup)
         if (account.getName() == null) {
             return false;
         }
 
-        // Do not notify if the user does not have notifications enabled or if the message has
-        // been read.
-        if (!account.isNotifyNewMail() || message.isSet(Flag.SEEN)) {
+        // Do not notify if the user does not have notifications enabled
+        if (!account.isNotifyNewMail()) {
             return false;
         }
 
@@ -3900,6 +3960,19 @@ public class MessagingController {
             return false;
         }
 
+        return true;
+    }
+
+    private boolean shouldNotifyForMessage(Account account, LocalFolder localFolder, Message message) {
+        if (!isNewMailNotificationPossible(account, localFolder)) {
+            return false;
+        }
+
+        // Do not notify if the message has been read.
+        if (message.isSet(Flag.SEEN)) {
+            return false;
+        }
+
         // If the account is a POP3 account and the message is older than the oldest message we've
         // previously seen, then don't notify about it.
         if (account.getStoreUri().startsWith("pop3") &&
@@ -3981,8 +4054,7 @@ public class MessagingController {
             localMessage.setFlag(Flag.X_DOWNLOADED_FULL, true);
 
             if (saveRemotely) {
-                PendingCommand command = PendingAppend.create(localFolder.getName(), localMessage.getUid());
-                queuePendingCommand(account, command);
+                queueDraftAppend(account, localFolder.getName(), localMessage.getUid());
                 processPendingCommands(account);
             }
 
@@ -3993,6 +4065,32 @@ public class MessagingController {
         return localMessage;
     }
 
+    /**
+     * Queue the upload of a draft, replacing uploads of earlier versions of the same draft that are still waiting in
+     * the queue.
+     *
+     * <p>
+     * {@link #processPendingAppend(PendingAppend, Account)} always uploads the current local version of the message.
+     * So when a draft is saved repeatedly while offline or while the queue is busy, only the latest queued command
+     * needs to be kept; the earlier ones would just upload the same message again and delete the previous copy.
+     * </p>
+     */
+    private void queueDraftAppend(Account account, String folderName, String uid) throws MessagingException {
+        LocalStore localStore = account.getLocalStore();
+        for (PendingCommand pendingCommand : localStore.getPendingCommands()) {
+            if (pendingCommand instanceof PendingAppend) {
+                PendingAppend pendingAppend = (PendingAppend) pendingCommand;
+                if (folderName.equals(pendingAppend.folder) && uid.equals(pendingAppend.uid)) {
+                    Timber.d("Superseding pending append of draft %s", uid);
+                    localStore.removePendingCommand(pendingAppend);
+                }
+            }
+        }
+
+        PendingCommand command = PendingAppend.create(folderName, uid);
+        queuePendingCommand(account, command);
+    }
+
     public long getId(Message message) {
         long id;
         if (message instanceof LocalMessage) {
@@ -4183,13 +4281,15 @@ public class MessagingController {
             @Override
             public void run() {
                 LocalFolder localFolder = null;
+                SyncStatistics statistics = startSyncStatistics(account, remoteFolder.getName());
                 try {
                     LocalStore localStore = account.getLocalStore();
                     localFolder = localStore.getFolder(remoteFolder.getName());
                     localFolder.open(Folder.OPEN_MODE_RW);
 
                     account.setRingNotified(false);
-                    int newCount = downloadMessages(account, remoteFolder, localFolder, messages, flagSyncOnly, true);
+                    int newCount = downloadMessages(account, remoteFolder, localFolder, messages, flagSyncOnly, true,
+                            statistics);
 
                     int unreadMessageCount = localFolder.getUnreadMessageCount();
 
@@ -4220,6 +4320,7 @@ public class MessagingController {
                     addErrorMessage(account, null, e);
                 } finally {
                     closeFolder(localFolder);
+                    reportSyncStatistics(account, remoteFolder.getName(), statistics, null);
                     latch.countDown();
                 }
 
@@ -38,6 +38,7 @@ public interface MessagingListener {
     void synchronizeMailboxRemovedMessage(Account account, String folder, Message message);
     void synchronizeMailboxFinished(Account account, String folder, int totalMessagesInMailbox, int numNewMessages);
     void synchronizeMailboxFailed(Account account, String folder, String message);
+    void synchronizeMailboxStatistics(Account account, String folder, SyncStatistics statistics);
 
     void loadMessageRemoteFinished(Account account, String folder, String uid);
     void loadMessageRemoteFailed(Account account, String folder, String uid, Throwable t);
@@ -86,6 +86,10 @@ public abstract class SimpleMessagingListener implements MessagingListener {
     public void synchronizeMailboxFailed(Account account, String folder, String message) {
     }
 
+    @Override
+    public void synchronizeMailboxStatistics(Account account, String folder, SyncStatistics statistics) {
+    }
+
     @Override
     public void loadMessageRemoteFinished(Account account, String folder, String uid) {
     }
@@ -0,0 +1,210 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+
+import com.fsck.k9.mail.NetworkStatistics;
+
+
+/**
+ * Where the time of a folder synchronization went.
+ *
+ * <p>
+ * Phases are timed exclusively. When a phase is started while another one is running, e.g. saving a message to the
+ * local store while message bodies are being fetched, the time until the inner phase ends only counts for the inner
+ * phase. So the durations of all phases add up to at most the total duration of the synchronization.
+ * </p><p>
+ * Network traffic is taken from the {@link NetworkStatistics} of the remote store, if the store counts its traffic.
+ * </p>
+ */
+public class SyncStatistics {
+    public enum Phase {
+        PENDING_COMMANDS("pending commands"),
+        OPEN_FOLDER("connect and select"),
+        UID_LIST("UID list"),
+        LOCAL_LOOKUP("local lookup"),
+        LOCAL_DELETE("local delete"),
+        ENVELOPE_FETCH("envelope fetch"),
+        BODY_FETCH("body fetch"),
+        LOCAL_SAVE("local save"),
+        FLAG_REFRESH("flag refresh");
+
+        private final String description;
+
+        Phase(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+
+    private final String folderName;
+    private final long[] durations = new long[Phase.values().length];
+    private final Deque<Phase> runningPhases = new ArrayDeque<>();
+    private NetworkStatistics networkStatistics;
+    private long startTime;
+    private long syncStartTime;
+    private long phaseStartTime;
+    private long totalDuration;
+    private long bytesSent;
+    private long bytesReceived;
+    private long roundTrips;
+    private long connections;
+    private long connectTime;
+    private int downloadedMessages;
+
+
+    SyncStatistics(String folderName) {
+        this.folderName = folderName;
+    }
+
+    void startSync() {
+        startTime = System.currentTimeMillis();
+        syncStartTime = getTime();
+        phaseStartTime = syncStartTime;
+    }
+
+    /**
+     * Starts counting the traffic of the remote store.
+     *
+     * <p>
+     * Traffic that happened before this is called isn't included.
+     * </p>
+     *
+     * @param networkStatistics
+     *         The traffic counters of the remote store. May be {@code null}.
+     */
+    void setNetworkStatistics(NetworkStatistics networkStatistics) {
+        if (networkStatistics == null || this.networkStatistics != null) {
+            return;
+        }
+
+        this.networkStatistics = networkStatistics;
+        bytesSent = -networkStatistics.getBytesSent();
+        bytesReceived = -networkStatistics.getBytesReceived();
+        roundTrips = -networkStatistics.getRoundTrips();
+        connections = -networkStatistics.getConnections();
+        connectTime = -networkStatistics.getConnectTimeMillis();
+    }
+
+    void finishSync() {
+        while (!runningPhases.isEmpty()) {
+            endPhase(runningPhases.peek());
+        }
+        totalDuration = getTime() - syncStartTime;
+
+        if (networkStatistics != null) {
+            bytesSent += networkStatistics.getBytesSent();
+            bytesReceived += networkStatistics.getBytesReceived();
+            roundTrips += networkStatistics.getRoundTrips();
+            connections += networkStatistics.getConnections();
+            connectTime += networkStatistics.getConnectTimeMillis();
+            networkStatistics = null;
+        }
+    }
+
+    void startPhase(Phase phase) {
+        addElapsedTime(getTime());
+        runningPhases.push(phase);
+    }
+
+    void endPhase(Phase phase) {
+        if (runningPhases.peek() != phase) {
+            throw new IllegalStateException("Phase " + phase + " isn't the innermost running phase");
+        }
+
+        addElapsedTime(getTime());
+        runningPhases.pop();
+    }
+
+    private void addElapsedTime(long now) {
+        Phase runningPhase = runningPhases.peek();
+        if (runningPhase != null) {
+            durations[runningPhase.ordinal()] += now - phaseStartTime;
+        }
+        phaseStartTime = now;
+    }
+
+    /**
+     * Counts a message that was downloaded and stored in the local store, no matter what flags it has.
+     */
+    void addDownloadedMessage() {
+        downloadedMessages++;
+    }
+
+    @VisibleForTesting
+    long getTime() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    public String getFolderName() {
+        return folderName;
+    }
+
+    /**
+     * Returns the wall clock time the synchronization was started at.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getDuration(Phase phase) {
+        return durations[phase.ordinal()];
+    }
+
+    public long getTotalDuration() {
+        return totalDuration;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getRoundTrips() {
+        return roundTrips;
+    }
+
+    public long getConnections() {
+        return connections;
+    }
+
+    public int getDownloadedMessages() {
+        return downloadedMessages;
+    }
+
+    /**
+     * Returns the time spent opening connections to the server. This is part of the time of the phase that needed
+     * the connection, usually {@link Phase#OPEN_FOLDER}.
+     */
+    public long getConnectTime() {
+        return connectTime;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(folderName).append(": ").append(totalDuration).append(" ms");
+        long otherDuration = totalDuration;
+        for (Phase phase : Phase.values()) {
+            sb.append(", ").append(phase.getDescription()).append(' ').append(getDuration(phase)).append(" ms");
+            otherDuration -= getDuration(phase);
+        }
+        sb.append(", other ").append(otherDuration).append(" ms");
+        sb.append("; ").append(downloadedMessages).append(" messages downloaded");
+        sb.append(String.format(Locale.US, "; %d connections in %d ms, %d round trips, %d bytes sent, " +
+                "%d bytes received", connections, connectTime, roundTrips, bytesSent, bytesReceived));
+        return sb.toString();
+    }
+}
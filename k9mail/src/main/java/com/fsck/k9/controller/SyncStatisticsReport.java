@@ -0,0 +1,41 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+import com.fsck.k9.Account;
+
+
+/**
+ * Keeps the statistics of the most recent folder synchronizations, so they can be exported as a plain text report.
+ */
+public class SyncStatisticsReport extends SimpleMessagingListener {
+    private static final int MAX_ENTRIES = 200;
+
+
+    private final Deque<String> entries = new ArrayDeque<>(MAX_ENTRIES);
+
+
+    @Override
+    public synchronized void synchronizeMailboxStatistics(Account account, String folder, SyncStatistics statistics) {
+        if (entries.size() == MAX_ENTRIES) {
+            entries.removeFirst();
+        }
+
+        entries.addLast(String.format(Locale.US, "%tF %<tT %s:%s", statistics.getStartTime(),
+                account.getDescription(), statistics));
+    }
+
+    /**
+     * Returns the statistics of the recent synchronizations, oldest first, one per line.
+     */
+    public synchronized String getReport() {
+        StringBuilder report = new StringBuilder();
+        for (String entry : entries) {
+            report.append(entry).append('\n');
+        }
+        return report.toString();
+    }
+}
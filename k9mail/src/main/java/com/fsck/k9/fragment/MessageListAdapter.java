@@ -1,6 +1,9 @@
 package com.fsck.k9.fragment;
 
 
+import java.util.ArrayList;
+import java.util.List;
+
 import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Color;
@@ -22,6 +25,7 @@ import com.fsck.k9.Account;
 import com.fsck.k9.FontSizes;
 import com.fsck.k9.K9;
 import com.fsck.k9.R;
+import com.fsck.k9.helper.Contacts;
 import com.fsck.k9.helper.Utility;
 import com.fsck.k9.mail.Address;
 import com.fsck.k9.mailstore.DatabasePreviewType;
@@ -46,7 +50,16 @@ import static com.fsck.k9.fragment.MLFProjectionInfo.UID_COLUMN;
 
 public class MessageListAdapter extends CursorAdapter {
 
+    /**
+     * Number of rows whose contact names are looked up with a single query when binding a row outside of the
+     * previously prefetched range.
+     */
+    private static final int CONTACT_NAME_PREFETCH_WINDOW = 40;
+
     private final MessageListFragment fragment;
+    private final Contacts contacts;
+    private int prefetchedStart = 0;
+    private int prefetchedEnd = 0;
     private Drawable mAttachmentIcon;
     private Drawable mForwardedIcon;
     private Drawable mAnsweredIcon;
@@ -56,6 +69,7 @@ public class MessageListAdapter extends CursorAdapter {
     MessageListAdapter(MessageListFragment fragment) {
         super(fragment.getActivity(), null, 0);
         this.fragment = fragment;
+        contacts = Contacts.getInstance(fragment.getActivity());
         mAttachmentIcon = fragment.getResources().getDrawable(R.drawable.ic_email_attachment_small);
         mAnsweredIcon = fragment.getResources().getDrawable(R.drawable.ic_email_answered_small);
         mForwardedIcon = fragment.getResources().getDrawable(R.drawable.ic_email_forwarded_small);
@@ -138,8 +152,19 @@ public class MessageListAdapter extends CursorAdapter {
         return view;
     }
 
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        prefetchedStart = 0;
+        prefetchedEnd = 0;
+        return super.swapCursor(newCursor);
+    }
+
     @Override
     public void bindView(View view, Context context, Cursor cursor) {
+        if (K9.showContactName() && K9.showCorrespondentNames()) {
+            prefetchContactNames(cursor);
+        }
+
         Account account = fragment.getAccountFromCursor(cursor);
 
         String fromList = cursor.getString(SENDER_LIST_COLUMN);
@@ -236,6 +261,38 @@ public class MessageListAdapter extends CursorAdapter {
         holder.date.setText(displayDate);
     }
 
+    /**
+     * Look up the contact names for a window of rows around the current cursor position with a single query, so
+     * binding these rows doesn't query the contacts provider once per address.
+     */
+    private void prefetchContactNames(Cursor cursor) {
+        int position = cursor.getPosition();
+        if (position >= prefetchedStart && position < prefetchedEnd) {
+            return;
+        }
+
+        int start = Math.max(0, position - CONTACT_NAME_PREFETCH_WINDOW / 4);
+        int end = Math.min(cursor.getCount(), start + CONTACT_NAME_PREFETCH_WINDOW);
+
+        List<String> addresses = new ArrayList<>();
+        for (int i = start; i < end && cursor.moveToPosition(i); i++) {
+            addAddresses(addresses, cursor.getString(SENDER_LIST_COLUMN));
+            addAddresses(addresses, cursor.getString(TO_LIST_COLUMN));
+        }
+        cursor.moveToPosition(position);
+
+        contacts.prefetchNamesForAddresses(addresses);
+
+        prefetchedStart = start;
+        prefetchedEnd = end;
+    }
+
+    private static void addAddresses(List<String> addresses, String addressList) {
+        for (Address address : Address.unpack(addressList)) {
+            addresses.add(address.getAddress());
+        }
+    }
+
     private void formatPreviewText(TextView preview, CharSequence beforePreviewText, String sigil) {
         Spannable previewText = (Spannable)preview.getText();
         previewText.setSpan(buildSenderSpan(), 0, beforePreviewText.length() + sigil.length(),
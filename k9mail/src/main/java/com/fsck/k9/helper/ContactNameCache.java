@@ -0,0 +1,87 @@
+package com.fsck.k9.helper;
+
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.provider.ContactsContract;
+import android.support.annotation.VisibleForTesting;
+import android.util.LruCache;
+
+
+/**
+ * Process-wide cache of the display names of contacts, keyed by email address.
+ *
+ * <p>
+ * Negative results are cached as well, so addresses that don't belong to a contact don't cause a query to the
+ * contacts provider every time a message list row is bound. The whole cache is dropped whenever the contacts
+ * provider reports a change.
+ * </p>
+ */
+class ContactNameCache {
+    private static final int MAX_ENTRIES = 500;
+
+    /**
+     * Marker stored for addresses that are known not to belong to a contact. {@link LruCache} doesn't support
+     * {@code null} values.
+     */
+    private static final String NO_NAME = "";
+
+    private static ContactNameCache sInstance;
+
+    static synchronized ContactNameCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ContactNameCache();
+            sInstance.registerContentObserver(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+
+    private final LruCache<String, String> names = new LruCache<String, String>(MAX_ENTRIES);
+
+
+    @VisibleForTesting
+    ContactNameCache() {
+    }
+
+    private void registerContentObserver(Context context) {
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                clear();
+            }
+        };
+        context.getContentResolver().registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true, observer);
+    }
+
+    /**
+     * Check whether a lookup result for the given address is cached.
+     */
+    boolean contains(String address) {
+        return names.get(address) != null;
+    }
+
+    /**
+     * Get the cached name of the contact the email address belongs to.
+     *
+     * @return The contact's name, or {@code null} if the address doesn't belong to a contact or the lookup result
+     *         isn't cached. Use {@link #contains(String)} to distinguish between these cases.
+     */
+    String getName(String address) {
+        String name = names.get(address);
+        return (name == null || NO_NAME.equals(name)) ? null : name;
+    }
+
+    /**
+     * Store the result of a contact lookup.
+     *
+     * @param name The contact's name, or {@code null} if the address doesn't belong to a contact.
+     */
+    void put(String address, String name) {
+        names.put(address, (name == null) ? NO_NAME : name);
+    }
+
+    void clear() {
+        names.evictAll();
+    }
+}
@@ -1,12 +1,21 @@
 package com.fsck.k9.helper;
 
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.provider.ContactsContract;
+import android.support.annotation.VisibleForTesting;
 import timber.log.Timber;
 import android.provider.ContactsContract.CommonDataKinds.Photo;
 
@@ -46,6 +55,23 @@ public class Contacts {
      */
     protected static final int CONTACT_ID_INDEX = 2;
 
+    /**
+     * Columns to load when looking up the names for a batch of email addresses.
+     */
+    private static final String[] NAME_BATCH_PROJECTION = {
+            ContactsContract.CommonDataKinds.Email.ADDRESS,
+            ContactsContract.Contacts.DISPLAY_NAME
+    };
+
+    private static final int NAME_BATCH_ADDRESS_INDEX = 0;
+    private static final int NAME_BATCH_NAME_INDEX = 1;
+
+    /**
+     * Maximum number of addresses to look up with a single query. SQLite limits the number of host parameters in a
+     * statement to 999.
+     */
+    private static final int NAME_BATCH_SIZE = 100;
+
 
     /**
      * Get instance of the Contacts class.
@@ -63,6 +89,7 @@ public class Contacts {
 
     protected Context mContext;
     protected ContentResolver mContentResolver;
+    private ContactNameCache mNameCache;
 
 
     /**
@@ -71,8 +98,14 @@ public class Contacts {
      * @param context A {@link Context} instance.
      */
     protected Contacts(Context context) {
+        this(context, ContactNameCache.getInstance(context));
+    }
+
+    @VisibleForTesting
+    Contacts(Context context, ContactNameCache nameCache) {
         mContext = context;
         mContentResolver = context.getContentResolver();
+        mNameCache = nameCache;
     }
 
     /**
@@ -163,6 +196,11 @@ public class Contacts {
     /**
      * Get the name of the contact an email address belongs to.
      *
+     * <p>
+     * Addresses are matched the same way as in {@link #prefetchNamesForAddresses(Collection)}, so prefetching doesn't
+     * change the result.
+     * </p>
+     *
      * @param address The email address to search for.
      * @return The name of the contact the email address belongs to. Or
      *      <tt>null</tt> if there's no matching contact.
@@ -172,18 +210,89 @@ public class Contacts {
             return null;
         }
 
-        final Cursor c = getContactByAddress(address);
+        if (!mNameCache.contains(address)) {
+            queryNames(Collections.singletonList(address));
+        }
 
-        String name = null;
-        if (c != null) {
-            if (c.getCount() > 0) {
-                c.moveToFirst();
-                name = c.getString(NAME_INDEX);
+        return mNameCache.getName(address);
+    }
+
+    /**
+     * Look up the names of the contacts the given email addresses belong to and cache the results.
+     *
+     * <p>
+     * Addresses whose names are already cached are skipped. The remaining ones are looked up using as few queries as
+     * possible, so that subsequent calls to {@link #getNameForAddress(String)} can be answered from the cache.
+     * </p>
+     *
+     * @param addresses The email addresses to look up.
+     */
+    public void prefetchNamesForAddresses(Collection<String> addresses) {
+        List<String> missing = new ArrayList<>();
+        for (String address : addresses) {
+            if (address != null && !mNameCache.contains(address) && !missing.contains(address)) {
+                missing.add(address);
             }
+        }
+
+        for (int start = 0; start < missing.size(); start += NAME_BATCH_SIZE) {
+            int end = Math.min(start + NAME_BATCH_SIZE, missing.size());
+            queryNames(missing.subList(start, end));
+        }
+    }
+
+    /**
+     * Look up the names for the given addresses and store the results in the name cache.
+     *
+     * <p>
+     * Email addresses are compared case-insensitively. If an address belongs to more than one contact, the first one
+     * in {@link #SORT_ORDER} wins.
+     * </p>
+     */
+    private void queryNames(List<String> addresses) {
+        String[] selectionArgs = new String[addresses.size()];
+        StringBuilder selection = new StringBuilder("lower(")
+                .append(ContactsContract.CommonDataKinds.Email.ADDRESS)
+                .append(") IN (");
+        for (int i = 0, len = addresses.size(); i < len; i++) {
+            selection.append((i == 0) ? "?" : ",?");
+            selectionArgs[i] = addresses.get(i).toLowerCase(Locale.US);
+        }
+        selection.append(")");
+
+        Cursor c;
+        try {
+            c = mContentResolver.query(ContactsContract.CommonDataKinds.Email.CONTENT_URI, NAME_BATCH_PROJECTION,
+                    selection.toString(), selectionArgs, SORT_ORDER);
+        } catch (Exception e) {
+            Timber.e(e, "Couldn't fetch names for %d addresses", addresses.size());
+            return;
+        }
+
+        if (c == null) {
+            return;
+        }
+
+        // The sort order puts the best match for every address first
+        Map<String, String> names = new HashMap<>();
+        try {
+            while (c.moveToNext()) {
+                String address = c.getString(NAME_BATCH_ADDRESS_INDEX);
+                if (address == null) {
+                    continue;
+                }
+                String key = address.toLowerCase(Locale.US);
+                if (!names.containsKey(key)) {
+                    names.put(key, c.getString(NAME_BATCH_NAME_INDEX));
+                }
+            }
+        } finally {
             c.close();
         }
 
-        return name;
+        for (String address : addresses) {
+            mNameCache.put(address, names.get(address.toLowerCase(Locale.US)));
+        }
     }
 
     /**
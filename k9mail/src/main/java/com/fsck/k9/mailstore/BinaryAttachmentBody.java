@@ -10,7 +10,7 @@ import org.apache.james.mime4j.util.MimeUtil;
 
 import com.fsck.k9.mail.Body;
 import com.fsck.k9.mail.MessagingException;
-import com.fsck.k9.mail.filter.Base64OutputStream;
+import com.fsck.k9.mail.filter.Base64EncoderOutputStream;
 
 /**
  * Superclass for attachments that contain binary data.
@@ -28,7 +28,7 @@ abstract class BinaryAttachmentBody implements Body {
         try {
             boolean closeStream = false;
             if (MimeUtil.isBase64Encoding(mEncoding)) {
-                out = new Base64OutputStream(out);
+                out = new Base64EncoderOutputStream(out);
                 closeStream = true;
             } else if (MimeUtil.isQuotedPrintableEncoded(mEncoding)){
                 out = new QuotedPrintableOutputStream(out, false);
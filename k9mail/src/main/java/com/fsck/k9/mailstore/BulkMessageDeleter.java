@@ -0,0 +1,144 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.fsck.k9.mailstore.LocalFolder.DataLocation;
+
+
+/**
+ * Deletes a set of messages with a fixed number of SQL statements.
+ *
+ * <p>
+ * The result is the same as calling {@link LocalMessage#destroy()} for each of the messages. Messages that have
+ * children in the thread structure are turned into empty placeholder messages. All other messages are deleted together
+ * with their empty parent messages that don't have any children left.
+ * </p><p>
+ * Message part files stored on disk aren't deleted. The caller should remove them once the transaction has been
+ * committed.
+ * </p>
+ */
+class BulkMessageDeleter {
+    /**
+     * Maximum number of messages to delete in one transaction.
+     */
+    static final int MAX_MESSAGES_PER_TRANSACTION = 250;
+
+
+    private BulkMessageDeleter() {
+    }
+
+    /**
+     * Splits a list of message IDs into chunks of at most {@value #MAX_MESSAGES_PER_TRANSACTION} IDs, so each chunk
+     * can be deleted in its own transaction.
+     */
+    static List<List<Long>> splitIntoChunks(List<Long> messageIds) {
+        List<List<Long>> chunks = new ArrayList<>();
+        for (int start = 0; start < messageIds.size(); start += MAX_MESSAGES_PER_TRANSACTION) {
+            int end = Math.min(start + MAX_MESSAGES_PER_TRANSACTION, messageIds.size());
+            chunks.add(messageIds.subList(start, end));
+        }
+        return chunks;
+    }
+
+    /**
+     * Deletes the messages with the given database IDs.
+     *
+     * <p>
+     * This should be called inside a transaction. To keep transactions short, pass the chunks returned by
+     * {@link #splitIntoChunks(List)}.
+     * </p>
+     *
+     * @return The IDs of the deleted message parts whose data is stored on disk.
+     */
+    static List<String> deleteMessages(SQLiteDatabase db, List<Long> messageIds) {
+        if (messageIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        String ids = TextUtils.join(",", messageIds);
+
+        List<String> partIdsOnDisk = queryStrings(db, "SELECT id FROM message_parts " +
+                "WHERE data_location = " + DataLocation.ON_DISK + " AND root IN " +
+                "(SELECT message_part_id FROM messages WHERE id IN (" + ids + "))");
+
+        db.execSQL("DELETE FROM message_parts WHERE root IN " +
+                "(SELECT message_part_id FROM messages WHERE id IN (" + ids + "))");
+        db.execSQL("DELETE FROM messages_fulltext WHERE docid IN (" + ids + ")");
+
+        // Messages with children in the thread structure are replaced by empty messages
+        db.execSQL("INSERT OR REPLACE INTO messages (id, folder_id, deleted, message_id, empty) " +
+                "SELECT id, folder_id, 0, message_id, 1 FROM messages " +
+                "WHERE id IN (" + ids + ") AND " + hasThreadChildren("messages.id"));
+
+        List<Long> emptyParentIds = getEmptyThreadParents(db,
+                "SELECT id FROM messages WHERE id IN (" + ids + ") AND empty = 0");
+
+        // Delete from 'messages' first, so the triggers can still find the thread of a message
+        db.execSQL("DELETE FROM messages WHERE id IN (" + ids + ") AND empty = 0");
+        db.execSQL("DELETE FROM threads WHERE message_id IN (" + ids + ") AND " +
+                "message_id NOT IN (SELECT id FROM messages WHERE id IN (" + ids + "))");
+
+        // Walk up the thread trees and delete all empty parents without children
+        while (!emptyParentIds.isEmpty()) {
+            String parentIds = TextUtils.join(",", emptyParentIds);
+            List<Long> childlessIds = queryLongs(db, "SELECT id FROM messages " +
+                    "WHERE id IN (" + parentIds + ") AND NOT " + hasThreadChildren("messages.id"));
+            if (childlessIds.isEmpty()) {
+                break;
+            }
+
+            String deleteIds = TextUtils.join(",", childlessIds);
+            emptyParentIds = getEmptyThreadParents(db, deleteIds);
+
+            db.execSQL("DELETE FROM messages WHERE id IN (" + deleteIds + ")");
+            db.execSQL("DELETE FROM threads WHERE message_id IN (" + deleteIds + ")");
+        }
+
+        return partIdsOnDisk;
+    }
+
+    private static String hasThreadChildren(String messageIdColumn) {
+        return "EXISTS (SELECT 1 FROM threads t1 JOIN threads t2 ON (t2.parent = t1.id) " +
+                "WHERE t1.message_id = " + messageIdColumn + ")";
+    }
+
+    private static List<Long> getEmptyThreadParents(SQLiteDatabase db, String messageIds) {
+        return queryLongs(db, "SELECT DISTINCT m.id " +
+                "FROM threads t1 " +
+                "JOIN threads t2 ON (t1.parent = t2.id) " +
+                "JOIN messages m ON (t2.message_id = m.id) " +
+                "WHERE t1.message_id IN (" + messageIds + ") AND m.empty = 1");
+    }
+
+    private static List<Long> queryLongs(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            List<Long> result = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                result.add(cursor.getLong(0));
+            }
+            return result;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static List<String> queryStrings(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            List<String> result = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                result.add(cursor.getString(0));
+            }
+            return result;
+        } finally {
+            cursor.close();
+        }
+    }
+}
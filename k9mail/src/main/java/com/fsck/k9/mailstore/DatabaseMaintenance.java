@@ -0,0 +1,263 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.File;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.SystemClock;
+import timber.log.Timber;
+
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+
+
+/**
+ * Database maintenance that doesn't block other users of the database for long.
+ *
+ * <p>
+ * Unlike {@link LocalStore#compact()}, which rewrites the whole database with {@code VACUUM}, free pages are
+ * returned to the file system a couple of hundred at a time using {@code auto_vacuum=INCREMENTAL}. Every step runs
+ * in its own transaction. Maintenance also merges the segments of the full-text index and updates the statistics
+ * used by the query planner.
+ * </p><p>
+ * New databases are created with {@code auto_vacuum=INCREMENTAL}. Older databases are switched by the first
+ * maintenance run. That takes a full {@code VACUUM}, so maintenance should only be run while the device is idle.
+ * </p>
+ */
+public class DatabaseMaintenance {
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    private static final int VACUUM_PAGES_PER_STEP = 256;
+    private static final int MAX_VACUUM_STEPS = 256;
+    private static final String FULLTEXT_MERGE_COMMAND = "merge=200,8";
+    private static final int MAX_FULLTEXT_MERGE_STEPS = 50;
+
+
+    private final LockableDatabase database;
+
+
+    DatabaseMaintenance(LockableDatabase database) {
+        this.database = database;
+    }
+
+    Result run() throws MessagingException {
+        long startTime = SystemClock.elapsedRealtime();
+
+        boolean incrementalAutoVacuum = database.execute(false, new DbCallback<Boolean>() {
+            @Override
+            public Boolean doDbWork(SQLiteDatabase db) {
+                return isIncrementalAutoVacuumEnabled(db);
+            }
+        });
+
+        if (!incrementalAutoVacuum) {
+            // The VACUUM can take a while. Don't hold the storage lock meanwhile, so the storage can be unmounted.
+            incrementalAutoVacuum = database.executeWithoutLock(new DbCallback<Boolean>() {
+                @Override
+                public Boolean doDbWork(SQLiteDatabase db) {
+                    return enableIncrementalAutoVacuum(db);
+                }
+            });
+        }
+
+        long sizeBefore = getDatabaseSize();
+
+        int fulltextMergeSteps = mergeFulltextIndex();
+
+        database.execute(false, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) {
+                db.execSQL("ANALYZE");
+                return null;
+            }
+        });
+
+        // Last, so the pages freed by the steps above are reclaimed as well
+        int vacuumSteps = 0;
+        if (incrementalAutoVacuum) {
+            while (vacuumSteps < MAX_VACUUM_STEPS && reclaimFreePages()) {
+                vacuumSteps++;
+            }
+        }
+
+        long sizeAfter = getDatabaseSize();
+        long freeBytes = database.execute(false, new DbCallback<Long>() {
+            @Override
+            public Long doDbWork(SQLiteDatabase db) {
+                return longForPragma(db, "freelist_count") * longForPragma(db, "page_size");
+            }
+        });
+
+        return new Result(sizeBefore - sizeAfter, freeBytes, vacuumSteps, fulltextMergeSteps,
+                SystemClock.elapsedRealtime() - startTime);
+    }
+
+    /**
+     * Switches the database to {@code auto_vacuum=INCREMENTAL}.
+     *
+     * <p>
+     * This needs a {@code VACUUM} of the whole database, so it can't be run inside a transaction. It's skipped if
+     * there isn't enough free space for a copy of the database and its journal.
+     * </p>
+     *
+     * @return {@code true} if the database uses {@code auto_vacuum=INCREMENTAL}.
+     */
+    static boolean enableIncrementalAutoVacuum(SQLiteDatabase db) {
+        if (isIncrementalAutoVacuumEnabled(db)) {
+            return true;
+        }
+
+        File databaseFile = new File(db.getPath());
+        if (databaseFile.exists() && databaseFile.getUsableSpace() < 2 * databaseFile.length()) {
+            Timber.w("Not enough free space to enable incremental vacuum for %s", databaseFile);
+            return false;
+        }
+
+        try {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            return isIncrementalAutoVacuumEnabled(db);
+        } catch (SQLiteException | IllegalStateException e) {
+            // IllegalStateException: the database was closed, e.g. because the storage was unmounted
+            Timber.w(e, "Couldn't enable incremental vacuum");
+            return false;
+        }
+    }
+
+    private static boolean isIncrementalAutoVacuumEnabled(SQLiteDatabase db) {
+        return longForPragma(db, "auto_vacuum") == AUTO_VACUUM_INCREMENTAL;
+    }
+
+    private boolean reclaimFreePages() throws MessagingException {
+        return database.execute(true, new DbCallback<Boolean>() {
+            @Override
+            public Boolean doDbWork(SQLiteDatabase db) {
+                if (longForPragma(db, "freelist_count") == 0) {
+                    return false;
+                }
+
+                // The pragma only frees one page per step of the statement, so it has to be run to completion.
+                // execSQL() would only step once.
+                Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_PAGES_PER_STEP + ")", null);
+                try {
+                    while (cursor.moveToNext()) {
+                        // Nothing to do
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                return true;
+            }
+        });
+    }
+
+    private int mergeFulltextIndex() throws MessagingException {
+        int steps = 0;
+        try {
+            while (steps < MAX_FULLTEXT_MERGE_STEPS && mergeFulltextIndexStep()) {
+                steps++;
+            }
+        } catch (SQLiteException e) {
+            // The 'merge' command needs SQLite 3.7.15. Older versions can only merge the whole index at once.
+            Timber.d(e, "Incremental merge of full-text index not supported");
+            database.execute(false, new DbCallback<Void>() {
+                @Override
+                public Void doDbWork(SQLiteDatabase db) {
+                    db.execSQL("INSERT INTO messages_fulltext (messages_fulltext) VALUES ('optimize')");
+                    return null;
+                }
+            });
+            steps++;
+        }
+
+        return steps;
+    }
+
+    /**
+     * @return {@code true} if there might be more segments to merge.
+     */
+    private boolean mergeFulltextIndexStep() throws MessagingException {
+        return database.execute(true, new DbCallback<Boolean>() {
+            @Override
+            public Boolean doDbWork(SQLiteDatabase db) {
+                long changesBefore = DatabaseUtils.longForQuery(db, "SELECT total_changes()", null);
+                db.execSQL("INSERT INTO messages_fulltext (messages_fulltext) VALUES ('" +
+                        FULLTEXT_MERGE_COMMAND + "')");
+                long changesAfter = DatabaseUtils.longForQuery(db, "SELECT total_changes()", null);
+
+                // Fewer than two changes means there was nothing left to merge
+                return changesAfter - changesBefore >= 2;
+            }
+        });
+    }
+
+    private long getDatabaseSize() throws MessagingException {
+        return database.execute(false, new DbCallback<Long>() {
+            @Override
+            public Long doDbWork(SQLiteDatabase db) {
+                return longForPragma(db, "page_count") * longForPragma(db, "page_size");
+            }
+        });
+    }
+
+    private static long longForPragma(SQLiteDatabase db, String pragma) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA " + pragma, null);
+    }
+
+
+    /**
+     * What a maintenance run did.
+     */
+    public static class Result {
+        private final long reclaimedBytes;
+        private final long freeBytes;
+        private final int vacuumSteps;
+        private final int fulltextMergeSteps;
+        private final long durationMillis;
+
+
+        Result(long reclaimedBytes, long freeBytes, int vacuumSteps, int fulltextMergeSteps, long durationMillis) {
+            this.reclaimedBytes = reclaimedBytes;
+            this.freeBytes = freeBytes;
+            this.vacuumSteps = vacuumSteps;
+            this.fulltextMergeSteps = fulltextMergeSteps;
+            this.durationMillis = durationMillis;
+        }
+
+        /**
+         * Returns by how many bytes the database file shrank.
+         */
+        public long getReclaimedBytes() {
+            return reclaimedBytes;
+        }
+
+        /**
+         * Returns the size of the free pages that are still part of the database file.
+         */
+        public long getFreeBytes() {
+            return freeBytes;
+        }
+
+        public int getVacuumSteps() {
+            return vacuumSteps;
+        }
+
+        public int getFulltextMergeSteps() {
+            return fulltextMergeSteps;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "reclaimed " + reclaimedBytes + " bytes in " + vacuumSteps + " steps, " + freeBytes +
+                    " bytes still free, " + fulltextMergeSteps + " full-text merge steps, took " + durationMillis +
+                    " ms";
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.fsck.k9.mailstore;
+
+
+/**
+ * Receives progress updates while an account's database is being upgraded.
+ *
+ * <p>
+ * Only long-running migrations report their progress. Methods are called on the thread performing the upgrade.
+ * </p>
+ *
+ * @see LocalStore#getInstance(com.fsck.k9.Account, android.content.Context, DatabaseUpgradeListener)
+ */
+public interface DatabaseUpgradeListener {
+    void onUpgradeProgress(int progress, int progressEnd);
+}
@@ -0,0 +1,101 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.Map;
+
+import android.support.annotation.VisibleForTesting;
+import android.util.LruCache;
+
+
+/**
+ * In-memory cache of the HTML that {@link MessageViewInfoExtractor} prepared for displaying a message.
+ *
+ * <p>
+ * Entries are keyed by account and message database ID, and only match as long as the message still has the same
+ * root message part, i.e. until the message content is stored again (e.g. after downloading the rest of the message).
+ * The display settings the HTML was created with are stored as well, so changing the theme doesn't return stale
+ * HTML. Nothing is written to disk, and the results of decrypting messages must never be put in this cache.
+ * </p><p>
+ * {@link LocalMessage} and {@link LocalFolder} remove entries of messages that are deleted.
+ * </p>
+ */
+class DisplayHtmlCache {
+    private static final int MAX_CACHE_SIZE_CHARS = 1024 * 1024;
+
+    private static DisplayHtmlCache sInstance;
+
+    static synchronized DisplayHtmlCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new DisplayHtmlCache(MAX_CACHE_SIZE_CHARS);
+        }
+        return sInstance;
+    }
+
+
+    private final LruCache<String, Entry> entries;
+
+
+    @VisibleForTesting
+    DisplayHtmlCache(int maxSizeChars) {
+        entries = new LruCache<String, Entry>(maxSizeChars) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.html.length();
+            }
+        };
+    }
+
+    /**
+     * Get the cached display HTML of a message.
+     *
+     * @param displaySettings
+     *         The display settings that influence the HTML, e.g. the theme.
+     *
+     * @return The cached HTML or {@code null} if there's no matching entry.
+     */
+    String get(LocalMessage message, String displaySettings) {
+        Entry entry = entries.get(createKey(message.getAccount().getUuid(), message.getId()));
+        if (entry == null || entry.messagePartId != message.getMessagePartId() ||
+                !entry.displaySettings.equals(displaySettings)) {
+            return null;
+        }
+
+        return entry.html;
+    }
+
+    void put(LocalMessage message, String displaySettings, String html) {
+        String key = createKey(message.getAccount().getUuid(), message.getId());
+        entries.put(key, new Entry(message.getMessagePartId(), displaySettings, html));
+    }
+
+    void remove(String accountUuid, long messageId) {
+        entries.remove(createKey(accountUuid, messageId));
+    }
+
+    void removeAccount(String accountUuid) {
+        String keyPrefix = accountUuid + ":";
+        for (Map.Entry<String, Entry> entry : entries.snapshot().entrySet()) {
+            String key = entry.getKey();
+            if (key.startsWith(keyPrefix)) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    private static String createKey(String accountUuid, long messageId) {
+        return accountUuid + ":" + messageId;
+    }
+
+
+    private static class Entry {
+        final long messagePartId;
+        final String displaySettings;
+        final String html;
+
+        Entry(long messagePartId, String displaySettings, String html) {
+            this.messagePartId = messagePartId;
+            this.displaySettings = displaySettings;
+            this.html = html;
+        }
+    }
+}
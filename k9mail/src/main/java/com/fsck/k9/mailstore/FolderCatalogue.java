@@ -0,0 +1,123 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * In-memory copy of the {@code folders} table of one account.
+ *
+ * <p>
+ * The catalogue is loaded lazily by {@link LocalStore} and kept up to date by the code writing to the
+ * {@code folders} table. Changes to a single folder replace its record, everything else (creating folders, schema
+ * upgrades, ...) simply invalidates the catalogue so it is reloaded the next time it's needed.
+ * </p>
+ * <p>
+ * Every change increments a generation counter. A load that was started before a change is discarded by
+ * {@link #setRecords(List, int)} so a slow reader can't overwrite newer data with what it read earlier.
+ * </p>
+ */
+class FolderCatalogue {
+    private List<FolderRecord> records;
+    private int generation;
+
+
+    /**
+     * Get the records of all folders, ordered by name.
+     *
+     * @return An unmodifiable list, or {@code null} if the catalogue hasn't been loaded.
+     */
+    synchronized List<FolderRecord> getRecords() {
+        return records;
+    }
+
+    synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Store the result of loading the {@code folders} table.
+     *
+     * @param loadGeneration The value of {@link #getGeneration()} before the table was read.
+     */
+    synchronized void setRecords(List<FolderRecord> loadedRecords, int loadGeneration) {
+        if (loadGeneration == generation) {
+            records = Collections.unmodifiableList(new ArrayList<>(loadedRecords));
+        }
+    }
+
+    synchronized FolderRecord findByName(String name) {
+        if (records == null) {
+            return null;
+        }
+
+        for (FolderRecord record : records) {
+            if (record.name.equals(name)) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    synchronized FolderRecord findById(long id) {
+        if (records == null) {
+            return null;
+        }
+
+        for (FolderRecord record : records) {
+            if (record.id == id) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replace the record of a folder after one of its columns was updated.
+     */
+    synchronized void update(FolderRecord updatedRecord) {
+        generation++;
+        if (records == null) {
+            return;
+        }
+
+        List<FolderRecord> newRecords = new ArrayList<>(records);
+        for (int i = 0, size = newRecords.size(); i < size; i++) {
+            if (newRecords.get(i).id == updatedRecord.id) {
+                if (!newRecords.get(i).name.equals(updatedRecord.name)) {
+                    // The sort order might have changed
+                    records = null;
+                    return;
+                }
+
+                newRecords.set(i, updatedRecord);
+                records = Collections.unmodifiableList(newRecords);
+                return;
+            }
+        }
+
+        records = null;
+    }
+
+    synchronized void remove(long id) {
+        generation++;
+        if (records == null) {
+            return;
+        }
+
+        List<FolderRecord> newRecords = new ArrayList<>(records.size());
+        for (FolderRecord record : records) {
+            if (record.id != id) {
+                newRecords.add(record);
+            }
+        }
+        records = Collections.unmodifiableList(newRecords);
+    }
+
+    synchronized void invalidate() {
+        generation++;
+        records = null;
+    }
+}
@@ -0,0 +1,79 @@
+package com.fsck.k9.mailstore;
+
+
+import android.database.Cursor;
+
+import com.fsck.k9.mail.Folder.FolderClass;
+import com.fsck.k9.mailstore.LocalFolder.MoreMessages;
+
+
+/**
+ * Immutable copy of a row of the {@code folders} table.
+ *
+ * @see FolderCatalogue
+ */
+class FolderRecord {
+    final long id;
+    final String name;
+    final int visibleLimit;
+    final long lastChecked;
+    final String status;
+    final String pushState;
+    final long lastPushed;
+    final boolean integrate;
+    final boolean inTopGroup;
+    final FolderClass syncClass;
+    final FolderClass pushClass;
+    final FolderClass displayClass;
+    final FolderClass notifyClass;
+    final MoreMessages moreMessages;
+    final int emptySyncCount;
+
+
+    FolderRecord(long id, String name, int visibleLimit, long lastChecked, String status, String pushState,
+            long lastPushed, boolean integrate, boolean inTopGroup, FolderClass syncClass, FolderClass pushClass,
+            FolderClass displayClass, FolderClass notifyClass, MoreMessages moreMessages, int emptySyncCount) {
+        this.id = id;
+        this.name = name;
+        this.visibleLimit = visibleLimit;
+        this.lastChecked = lastChecked;
+        this.status = status;
+        this.pushState = pushState;
+        this.lastPushed = lastPushed;
+        this.integrate = integrate;
+        this.inTopGroup = inTopGroup;
+        this.syncClass = syncClass;
+        this.pushClass = pushClass;
+        this.displayClass = displayClass;
+        this.notifyClass = notifyClass;
+        this.moreMessages = moreMessages;
+        this.emptySyncCount = emptySyncCount;
+    }
+
+    /**
+     * Create a record from the current row of a cursor using the {@link LocalStore#GET_FOLDER_COLS} projection.
+     */
+    static FolderRecord fromCursor(Cursor cursor) {
+        return new FolderRecord(
+                cursor.getInt(LocalStore.FOLDER_ID_INDEX),
+                cursor.getString(LocalStore.FOLDER_NAME_INDEX),
+                cursor.getInt(LocalStore.FOLDER_VISIBLE_LIMIT_INDEX),
+                cursor.getLong(LocalStore.FOLDER_LAST_CHECKED_INDEX),
+                cursor.getString(LocalStore.FOLDER_STATUS_INDEX),
+                cursor.getString(LocalStore.FOLDER_PUSH_STATE_INDEX),
+                cursor.getLong(LocalStore.FOLDER_LAST_PUSHED_INDEX),
+                cursor.getInt(LocalStore.FOLDER_INTEGRATE_INDEX) == 1,
+                cursor.getInt(LocalStore.FOLDER_TOP_GROUP_INDEX) == 1,
+                getFolderClass(cursor, LocalStore.FOLDER_SYNC_CLASS_INDEX),
+                getFolderClass(cursor, LocalStore.FOLDER_PUSH_CLASS_INDEX),
+                getFolderClass(cursor, LocalStore.FOLDER_DISPLAY_CLASS_INDEX),
+                getFolderClass(cursor, LocalStore.FOLDER_NOTIFY_CLASS_INDEX),
+                MoreMessages.fromDatabaseName(cursor.getString(LocalStore.MORE_MESSAGES_INDEX)),
+                cursor.getInt(LocalStore.FOLDER_EMPTY_SYNC_COUNT_INDEX));
+    }
+
+    private static FolderClass getFolderClass(Cursor cursor, int columnIndex) {
+        String folderClass = cursor.getString(columnIndex);
+        return (folderClass == null) ? FolderClass.NO_CLASS : FolderClass.valueOf(folderClass);
+    }
+}
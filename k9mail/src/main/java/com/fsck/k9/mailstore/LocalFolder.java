@@ -26,6 +26,7 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.support.annotation.NonNull;
+import android.text.TextUtils;
 import timber.log.Timber;
 
 import com.fsck.k9.Account;
@@ -93,6 +94,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
     // know whether or not an unread message added to the local folder is actually "new" or not.
     private Integer mLastUid = null;
     private MoreMessages moreMessages = MoreMessages.UNKNOWN;
+    private int mEmptySyncCount = 0;
 
     public LocalFolder(LocalStore localStore, String name) {
         super();
@@ -146,6 +148,14 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
             close();
         }
 
+        FolderCatalogue folderCatalogue = localStore.getFolderCatalogue();
+        FolderRecord record = (mName != null) ? folderCatalogue.findByName(mName) :
+                folderCatalogue.findById(mFolderId);
+        if (record != null) {
+            open(record);
+            return;
+        }
+
         try {
             this.localStore.database.execute(false, new DbCallback<Void>() {
                 @Override
@@ -184,28 +194,27 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
     }
 
     void open(Cursor cursor) throws MessagingException {
-        mFolderId = cursor.getInt(LocalStore.FOLDER_ID_INDEX);
-        mName = cursor.getString(LocalStore.FOLDER_NAME_INDEX);
-        mVisibleLimit = cursor.getInt(LocalStore.FOLDER_VISIBLE_LIMIT_INDEX);
-        mPushState = cursor.getString(LocalStore.FOLDER_PUSH_STATE_INDEX);
-        super.setStatus(cursor.getString(LocalStore.FOLDER_STATUS_INDEX));
+        open(FolderRecord.fromCursor(cursor));
+    }
+
+    void open(FolderRecord record) {
+        mFolderId = record.id;
+        mName = record.name;
+        mVisibleLimit = record.visibleLimit;
+        mPushState = record.pushState;
+        super.setStatus(record.status);
         // Only want to set the local variable stored in the super class.  This class
         // does a DB update on setLastChecked
-        super.setLastChecked(cursor.getLong(LocalStore.FOLDER_LAST_CHECKED_INDEX));
-        super.setLastPush(cursor.getLong(LocalStore.FOLDER_LAST_PUSHED_INDEX));
-        mInTopGroup = cursor.getInt(LocalStore.FOLDER_TOP_GROUP_INDEX) == 1;
-        mIntegrate = cursor.getInt(LocalStore.FOLDER_INTEGRATE_INDEX) == 1;
-        String noClass = FolderClass.NO_CLASS.toString();
-        String displayClass = cursor.getString(LocalStore.FOLDER_DISPLAY_CLASS_INDEX);
-        mDisplayClass = Folder.FolderClass.valueOf((displayClass == null) ? noClass : displayClass);
-        String notifyClass = cursor.getString(LocalStore.FOLDER_NOTIFY_CLASS_INDEX);
-        mNotifyClass = Folder.FolderClass.valueOf((notifyClass == null) ? noClass : notifyClass);
-        String pushClass = cursor.getString(LocalStore.FOLDER_PUSH_CLASS_INDEX);
-        mPushClass = Folder.FolderClass.valueOf((pushClass == null) ? noClass : pushClass);
-        String syncClass = cursor.getString(LocalStore.FOLDER_SYNC_CLASS_INDEX);
-        mSyncClass = Folder.FolderClass.valueOf((syncClass == null) ? noClass : syncClass);
-        String moreMessagesValue = cursor.getString(LocalStore.MORE_MESSAGES_INDEX);
-        moreMessages = MoreMessages.fromDatabaseName(moreMessagesValue);
+        super.setLastChecked(record.lastChecked);
+        super.setLastPush(record.lastPushed);
+        mInTopGroup = record.inTopGroup;
+        mIntegrate = record.integrate;
+        mDisplayClass = record.displayClass;
+        mNotifyClass = record.notifyClass;
+        mPushClass = record.pushClass;
+        mSyncClass = record.syncClass;
+        moreMessages = record.moreMessages;
+        mEmptySyncCount = record.emptySyncCount;
     }
 
     @Override
@@ -401,13 +410,11 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                 return ;
             }
             open(OPEN_MODE_RW);
-            List<? extends Message> messages = getMessages(null, false);
-            for (int i = mVisibleLimit; i < messages.size(); i++) {
-                if (listener != null) {
-                    listener.messageRemoved(messages.get(i));
-                }
-                messages.get(i).destroy();
-            }
+            List<Long> messageIds = getMessageIds("SELECT id FROM messages " +
+                    "WHERE folder_id = ? AND empty = 0 AND deleted = 0 " +
+                    "ORDER BY date DESC LIMIT -1 OFFSET " + mVisibleLimit,
+                    new String[] { Long.toString(mFolderId) });
+            destroyMessagesById(messageIds, listener);
         }
     }
 
@@ -452,6 +459,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                         throw new WrappedException(e);
                     }
                     db.execSQL("UPDATE folders SET " + column + " = ? WHERE id = ?", new Object[] { value, mFolderId });
+                    updateFolderCatalogue(db);
                     return null;
                 }
             });
@@ -460,6 +468,44 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         }
     }
 
+    private void updateFolderCatalogue(SQLiteDatabase db) {
+        FolderCatalogue folderCatalogue = localStore.getFolderCatalogue();
+
+        Cursor cursor = db.rawQuery("SELECT " + LocalStore.GET_FOLDER_COLS + " FROM folders WHERE folders.id = ?",
+                new String[] { Long.toString(mFolderId) });
+        try {
+            if (cursor.moveToFirst()) {
+                folderCatalogue.update(FolderRecord.fromCursor(cursor));
+            } else {
+                folderCatalogue.invalidate();
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Get the number of consecutive synchronizations that didn't find any new messages in this folder.
+     */
+    public int getEmptySyncCount() {
+        return mEmptySyncCount;
+    }
+
+    /**
+     * Update the arrival history of this folder after a successful synchronization.
+     *
+     * @param newMessageCount The number of messages downloaded by the synchronization, whether they are read or not.
+     */
+    public void recordSyncResult(int newMessageCount) throws MessagingException {
+        int emptySyncCount = (newMessageCount > 0) ? 0 : mEmptySyncCount + 1;
+        if (emptySyncCount == mEmptySyncCount) {
+            return;
+        }
+
+        mEmptySyncCount = emptySyncCount;
+        updateFolderColumn("empty_sync_count", emptySyncCount);
+    }
+
     public String getPushState() {
         return mPushState;
     }
@@ -935,6 +981,48 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         }
     }
 
+    /**
+     * Get the most recent messages whose structure is known but where the contents of at least one part haven't been
+     * downloaded yet.
+     *
+     * @param limit
+     *         The maximum number of messages to return.
+     *
+     * @return The messages, newest first.
+     */
+    public List<LocalMessage> getMessagesWithMissingParts(final int limit) throws MessagingException {
+        try {
+            return localStore.database.execute(false, new DbCallback<List<LocalMessage>>() {
+                @Override
+                public List<LocalMessage> doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
+                    try {
+                        open(OPEN_MODE_RO);
+                        return LocalFolder.this.localStore.getMessages(null, LocalFolder.this,
+                                "SELECT " + LocalStore.GET_MESSAGES_COLS +
+                                "FROM messages " +
+                                "LEFT JOIN message_parts ON (message_parts.id = messages.message_part_id) " +
+                                "LEFT JOIN threads ON (threads.message_id = messages.id) " +
+                                "WHERE messages.id IN (" +
+                                    "SELECT messages.id FROM messages " +
+                                    "JOIN message_parts ON (message_parts.id = messages.message_part_id) " +
+                                    "WHERE folder_id = ? AND empty = 0 AND deleted = 0 AND " +
+                                    "message_parts.data_location = " + DataLocation.CHILD_PART_CONTAINS_DATA + " AND " +
+                                    "messages.message_part_id IN (" +
+                                        "SELECT root FROM message_parts " +
+                                        "WHERE data_location = " + DataLocation.MISSING + ") " +
+                                    "ORDER BY date DESC LIMIT " + limit + ") " +
+                                "ORDER BY date DESC",
+                                new String[] { Long.toString(mFolderId) });
+                    } catch (MessagingException e) {
+                        throw new WrappedException(e);
+                    }
+                }
+            });
+        } catch (WrappedException e) {
+            throw(MessagingException) e.getCause();
+        }
+    }
+
     public List<String> getAllMessageUids() throws MessagingException {
         try {
             return  localStore.database.execute(false, new DbCallback<List<String>>() {
@@ -1187,23 +1275,90 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
     }
 
     public void destroyMessages(final List<? extends Message> messages) {
+        List<Long> messageIds = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            messageIds.add(((LocalMessage) message).getId());
+        }
+
         try {
-            this.localStore.database.execute(true, new DbCallback<Void>() {
+            destroyMessagesById(messageIds, null);
+        } catch (MessagingException e) {
+            throw new WrappedException(e);
+        }
+    }
+
+    /**
+     * Deletes messages in chunks of {@value BulkMessageDeleter#MAX_MESSAGES_PER_TRANSACTION}.
+     *
+     * <p>
+     * Every chunk is deleted in its own transaction, so other database users don't have to wait for all of the
+     * messages to be deleted. Message part files are removed after the transaction of a chunk has been committed.
+     * </p>
+     *
+     * @param messageIds
+     *         The database IDs of the messages to delete.
+     * @param listener
+     *         If not {@code null}, this is notified about every message before it is deleted.
+     */
+    private void destroyMessagesById(List<Long> messageIds, MessageRemovalListener listener)
+            throws MessagingException {
+        if (messageIds.isEmpty()) {
+            return;
+        }
+
+        for (final List<Long> chunk : BulkMessageDeleter.splitIntoChunks(messageIds)) {
+            if (listener != null) {
+                for (LocalMessage message : getMessagesById(chunk)) {
+                    listener.messageRemoved(message);
+                }
+            }
+
+            List<String> partIdsOnDisk = localStore.database.execute(true, new DbCallback<List<String>>() {
                 @Override
-                public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
-                    for (Message message : messages) {
-                        try {
-                            message.destroy();
-                        } catch (MessagingException e) {
-                            throw new WrappedException(e);
-                        }
-                    }
-                    return null;
+                public List<String> doDbWork(final SQLiteDatabase db) {
+                    return BulkMessageDeleter.deleteMessages(db, chunk);
                 }
             });
-        } catch (MessagingException e) {
-            throw new WrappedException(e);
+
+            deleteMessagePartFiles(partIdsOnDisk);
+
+            String accountUuid = getAccount().getUuid();
+            DisplayHtmlCache displayHtmlCache = DisplayHtmlCache.getInstance();
+            for (long messageId : chunk) {
+                displayHtmlCache.remove(accountUuid, messageId);
+            }
         }
+
+        localStore.notifyChange();
+    }
+
+    private List<LocalMessage> getMessagesById(List<Long> messageIds) throws MessagingException {
+        return localStore.getMessages(null, this,
+                "SELECT " + LocalStore.GET_MESSAGES_COLS +
+                "FROM messages " +
+                "LEFT JOIN message_parts ON (message_parts.id = messages.message_part_id) " +
+                "LEFT JOIN threads ON (threads.message_id = messages.id) " +
+                "WHERE messages.id IN (" + TextUtils.join(",", messageIds) + ") " +
+                "ORDER BY date DESC",
+                null);
+    }
+
+    private List<Long> getMessageIds(final String query, final String[] selectionArgs) throws MessagingException {
+        return localStore.database.execute(false, new DbCallback<List<Long>>() {
+            @Override
+            public List<Long> doDbWork(final SQLiteDatabase db) {
+                Cursor cursor = db.rawQuery(query, selectionArgs);
+                try {
+                    List<Long> messageIds = new ArrayList<>(cursor.getCount());
+                    while (cursor.moveToNext()) {
+                        messageIds.add(cursor.getLong(0));
+                    }
+                    return messageIds;
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
     }
 
     private ThreadInfo getThreadInfo(SQLiteDatabase db, String messageId, boolean onlyEmpty) {
@@ -1739,19 +1894,11 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
     public void clearMessagesOlderThan(long cutoff) throws MessagingException {
         open(OPEN_MODE_RO);
 
-        List<? extends Message> messages  = this.localStore.getMessages(null, this,
-                "SELECT " + LocalStore.GET_MESSAGES_COLS +
-                "FROM messages " +
-                "LEFT JOIN message_parts ON (message_parts.id = messages.message_part_id) " +
-                "LEFT JOIN threads ON (threads.message_id = messages.id) " +
+        List<Long> messageIds = getMessageIds("SELECT id FROM messages " +
                 "WHERE empty = 0 AND (folder_id = ? and date < ?)",
                 new String[] { Long.toString(mFolderId), Long.toString(cutoff) });
 
-        for (Message message : messages) {
-            message.destroy();
-        }
-
-        this.localStore.notifyChange();
+        destroyMessagesById(messageIds, null);
     }
 
     public void clearAllMessages() throws MessagingException {
@@ -1792,6 +1939,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
             throw(MessagingException) e.getCause();
         }
 
+        DisplayHtmlCache.getInstance().removeAccount(getAccount().getUuid());
         this.localStore.notifyChange();
 
         setPushState(null);
@@ -1818,12 +1966,15 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                     }
                     db.execSQL("DELETE FROM folders WHERE id = ?", new Object[]
                                { Long.toString(mFolderId), });
+                    localStore.getFolderCatalogue().remove(mFolderId);
                     return null;
                 }
             });
         } catch (WrappedException e) {
             throw(MessagingException) e.getCause();
         }
+
+        DisplayHtmlCache.getInstance().removeAccount(getAccount().getUuid());
     }
 
     @Override
@@ -1864,23 +2015,31 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         });
     }
 
+    private void deleteMessagePartFiles(List<String> messagePartIds) {
+        for (String messagePartId : messagePartIds) {
+            File file = localStore.getAttachmentFile(messagePartId);
+            if (file.exists()) {
+                if (!file.delete() && K9.isDebug()) {
+                    Timber.d("Couldn't delete message part file: %s", file.getAbsolutePath());
+                }
+            }
+        }
+    }
+
     private void deleteMessagePartsFromDisk(SQLiteDatabase db, long rootMessagePartId) {
         Cursor cursor = db.query("message_parts", new String[] { "id" },
                 "root = ? AND data_location = " + DataLocation.ON_DISK,
                 new String[] { Long.toString(rootMessagePartId) }, null, null, null);
+        List<String> messagePartIds = new ArrayList<>();
         try {
             while (cursor.moveToNext()) {
-                String messagePartId = cursor.getString(0);
-                File file = localStore.getAttachmentFile(messagePartId);
-                if (file.exists()) {
-                    if (!file.delete() && K9.isDebug()) {
-                        Timber.d("Couldn't delete message part file: %s", file.getAbsolutePath());
-                    }
-                }
+                messagePartIds.add(cursor.getString(0));
             }
         } finally {
             cursor.close();
         }
+
+        deleteMessagePartFiles(messagePartIds);
     }
 
     @Override
@@ -331,6 +331,7 @@ public class LocalMessage extends MimeMessage {
             throw (MessagingException) e.getCause();
         }
 
+        DisplayHtmlCache.getInstance().remove(getAccountUuid(), mId);
         localStore.notifyChange();
     }
 
@@ -437,6 +438,7 @@ public class LocalMessage extends MimeMessage {
             throw(MessagingException) e.getCause();
         }
 
+        DisplayHtmlCache.getInstance().remove(getAccountUuid(), mId);
         this.localStore.notifyChange();
     }
 
@@ -42,12 +42,13 @@ import com.fsck.k9.mail.BodyPart;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.FetchProfile.Item;
 import com.fsck.k9.mail.Flag;
-import com.fsck.k9.mail.Folder;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Multipart;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.Store;
+import com.fsck.k9.mail.filter.Base64DecoderInputStream;
+import com.fsck.k9.mail.filter.QuotedPrintableDecoderInputStream;
 import com.fsck.k9.mailstore.LocalFolder.DataLocation;
 import com.fsck.k9.mailstore.LocalFolder.MoreMessages;
 import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
@@ -65,8 +66,6 @@ import com.fsck.k9.search.SearchSpecification.Attribute;
 import com.fsck.k9.search.SearchSpecification.SearchField;
 import com.fsck.k9.search.SqlQueryBuilder;
 import org.apache.commons.io.IOUtils;
-import org.apache.james.mime4j.codec.Base64InputStream;
-import org.apache.james.mime4j.codec.QuotedPrintableInputStream;
 import org.apache.james.mime4j.util.MimeUtil;
 import org.openintents.openpgp.util.OpenPgpApi.OpenPgpDataSource;
 
@@ -105,7 +104,8 @@ public class LocalStore extends Store implements Serializable {
 
     static final String GET_FOLDER_COLS =
         "folders.id, name, visible_limit, last_updated, status, push_state, last_pushed, " +
-        "integrate, top_group, poll_class, push_class, display_class, notify_class, more_messages";
+        "integrate, top_group, poll_class, push_class, display_class, notify_class, more_messages, " +
+        "empty_sync_count";
 
     static final int FOLDER_ID_INDEX = 0;
     static final int FOLDER_NAME_INDEX = 1;
@@ -121,6 +121,7 @@ public class LocalStore extends Store implements Serializable {
     static final int FOLDER_DISPLAY_CLASS_INDEX = 11;
     static final int FOLDER_NOTIFY_CLASS_INDEX = 12;
     static final int MORE_MESSAGES_INDEX = 13;
+    static final int FOLDER_EMPTY_SYNC_COUNT_INDEX = 14;
 
     static final String[] UID_CHECK_PROJECTION = { "uid" };
 
@@ -153,7 +154,7 @@ public class LocalStore extends Store implements Serializable {
      */
     private static final int THREAD_FLAG_UPDATE_BATCH_SIZE = 500;
 
-    public static final int DB_VERSION = 60;
+    public static final int DB_VERSION = 63;
 
 
     public static String getColumnNameForFlag(Flag flag) {
@@ -190,15 +191,18 @@ public class LocalStore extends Store implements Serializable {
     private final AttachmentCounter attachmentCounter;
     private final PendingCommandSerializer pendingCommandSerializer;
     final AttachmentInfoExtractor attachmentInfoExtractor;
+    private final FolderCatalogue folderCatalogue = new FolderCatalogue();
 
     /**
      * local://localhost/path/to/database/uuid.db
-     * This constructor is only used by {@link LocalStore#getInstance(Account, Context)}
+     * This constructor is only used by {@link LocalStore#getInstance(Account, Context, DatabaseUpgradeListener)}
      * @throws UnavailableStorageException if not {@link StorageProvider#isReady(Context)}
      */
-    private LocalStore(final Account account, final Context context) throws MessagingException {
+    private LocalStore(final Account account, final Context context, DatabaseUpgradeListener upgradeListener)
+            throws MessagingException {
         mAccount = account;
-        database = new LockableDatabase(context, account.getUuid(), new StoreSchemaDefinition(this));
+        database = new LockableDatabase(context, account.getUuid(),
+                new StoreSchemaDefinition(this, upgradeListener));
 
         this.context = context;
         mContentResolver = context.getContentResolver();
@@ -212,6 +216,9 @@ public class LocalStore extends Store implements Serializable {
         attachmentInfoExtractor = AttachmentInfoExtractor.getInstance();
 
         database.open();
+
+        // Migrations might have loaded the folder catalogue before changing the folders table
+        folderCatalogue.invalidate();
     }
 
     /**
@@ -222,6 +229,22 @@ public class LocalStore extends Store implements Serializable {
      */
     public static LocalStore getInstance(Account account, Context context)
             throws MessagingException {
+        return getInstance(account, context, null);
+    }
+
+    /**
+     * Get an instance of a local mail store, reporting the progress to {@code upgradeListener} if the database needs
+     * to be upgraded.
+     *
+     * <p>
+     * The listener is ignored if the instance already exists or another thread is creating it.
+     * </p>
+     *
+     * @throws UnavailableStorageException
+     *          if not {@link StorageProvider#isReady(Context)}
+     */
+    public static LocalStore getInstance(Account account, Context context, DatabaseUpgradeListener upgradeListener)
+            throws MessagingException {
 
         String accountUuid = account.getUuid();
 
@@ -236,7 +259,7 @@ public class LocalStore extends Store implements Serializable {
             if (store == null) {
                 // Creating a LocalStore instance will create or upgrade the database if
                 // necessary. This could take some time.
-                store = new LocalStore(account, context);
+                store = new LocalStore(account, context, upgradeListener);
 
                 sLocalStores.put(accountUuid, store);
             }
@@ -300,6 +323,35 @@ public class LocalStore extends Store implements Serializable {
         });
     }
 
+    /**
+     * Returns the decoded size of all attachments whose content has been downloaded.
+     *
+     * <p>
+     * The {@code type} column of {@code message_parts} is always {@code MessagePartType.UNKNOWN}, so attachments are
+     * told apart from message text by their MIME type alone. Text attachments are therefore not counted, but the
+     * header of every part doesn't have to be searched for a content disposition. Parts that only hold the content of
+     * their children (multiparts, nested messages) aren't counted either.
+     * </p>
+     */
+    public long getDownloadedAttachmentSize() throws MessagingException {
+        return database.execute(false, new DbCallback<Long>() {
+            @Override
+            public Long doDbWork(final SQLiteDatabase db) {
+                Cursor cursor = db.rawQuery("SELECT SUM(decoded_body_size) FROM message_parts " +
+                        "WHERE data_location IN (?, ?) AND (mime_type IS NULL OR mime_type NOT LIKE 'text/%')",
+                        new String[] {
+                                Integer.toString(DataLocation.IN_DATABASE),
+                                Integer.toString(DataLocation.ON_DISK)
+                        });
+                try {
+                    return cursor.moveToFirst() ? cursor.getLong(0) : 0L;
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
     public void compact() throws MessagingException {
         if (K9.isDebug()) {
             Timber.i("Before compaction size = %d", getSize());
@@ -318,6 +370,17 @@ public class LocalStore extends Store implements Serializable {
         }
     }
 
+    /**
+     * Reclaims unused space in small steps and updates the full-text index and the statistics of the query planner.
+     *
+     * <p>
+     * Unlike {@link #compact()} this doesn't block other users of the database for long.
+     * </p>
+     */
+    public DatabaseMaintenance.Result performMaintenance() throws MessagingException {
+        return new DatabaseMaintenance(database).run();
+    }
+
 
     public void clear() throws MessagingException {
         if (K9.isDebug()) {
@@ -395,41 +458,55 @@ public class LocalStore extends Store implements Serializable {
         return new LocalFolder(this, name);
     }
 
-    // TODO this takes about 260-300ms, seems slow.
     @Override
     public List<LocalFolder> getPersonalNamespaces(boolean forceListAll) throws MessagingException {
-        final List<LocalFolder> folders = new LinkedList<>();
-        try {
-            database.execute(false, new DbCallback < List <? extends Folder >> () {
-                @Override
-                public List <? extends Folder > doDbWork(final SQLiteDatabase db) throws WrappedException {
-                    Cursor cursor = null;
+        List<FolderRecord> records = getFolderRecords();
 
-                    try {
-                        cursor = db.rawQuery("SELECT " + GET_FOLDER_COLS + " FROM folders " +
-                                "ORDER BY name ASC", null);
-                        while (cursor.moveToNext()) {
-                            if (cursor.isNull(FOLDER_ID_INDEX)) {
-                                continue;
-                            }
-                            String folderName = cursor.getString(FOLDER_NAME_INDEX);
-                            LocalFolder folder = new LocalFolder(LocalStore.this, folderName);
-                            folder.open(cursor);
-
-                            folders.add(folder);
+        List<LocalFolder> folders = new LinkedList<>();
+        for (FolderRecord record : records) {
+            LocalFolder folder = new LocalFolder(this, record.name);
+            folder.open(record);
+
+            folders.add(folder);
+        }
+        return folders;
+    }
+
+    private List<FolderRecord> getFolderRecords() throws MessagingException {
+        List<FolderRecord> records = folderCatalogue.getRecords();
+        if (records != null) {
+            return records;
+        }
+
+        final int generation = folderCatalogue.getGeneration();
+        List<FolderRecord> loadedRecords = database.execute(false, new DbCallback<List<FolderRecord>>() {
+            @Override
+            public List<FolderRecord> doDbWork(final SQLiteDatabase db) throws WrappedException {
+                Cursor cursor = null;
+                try {
+                    cursor = db.rawQuery("SELECT " + GET_FOLDER_COLS + " FROM folders " +
+                            "ORDER BY name ASC", null);
+
+                    List<FolderRecord> records = new ArrayList<>(cursor.getCount());
+                    while (cursor.moveToNext()) {
+                        if (cursor.isNull(FOLDER_ID_INDEX)) {
+                            continue;
                         }
-                        return folders;
-                    } catch (MessagingException e) {
-                        throw new WrappedException(e);
-                    } finally {
-                        Utility.closeQuietly(cursor);
+                        records.add(FolderRecord.fromCursor(cursor));
                     }
+                    return records;
+                } finally {
+                    Utility.closeQuietly(cursor);
                 }
-            });
-        } catch (WrappedException e) {
-            throw(MessagingException) e.getCause();
-        }
-        return folders;
+            }
+        });
+
+        folderCatalogue.setRecords(loadedRecords, generation);
+        return loadedRecords;
+    }
+
+    FolderCatalogue getFolderCatalogue() {
+        return folderCatalogue;
     }
 
     @Override
@@ -438,15 +515,20 @@ public class LocalStore extends Store implements Serializable {
 
     public void delete() throws UnavailableStorageException {
         database.delete();
+        folderCatalogue.invalidate();
+        DisplayHtmlCache.getInstance().removeAccount(uUid);
     }
 
     public void recreate() throws UnavailableStorageException {
         database.recreate();
+        folderCatalogue.invalidate();
+        DisplayHtmlCache.getInstance().removeAccount(uUid);
     }
 
     private void deleteAllMessageDataFromDisk() throws MessagingException {
         markAllMessagePartsDataAsMissing();
         deleteAllMessagePartsDataFromDisk();
+        DisplayHtmlCache.getInstance().removeAccount(uUid);
     }
 
     private void markAllMessagePartsDataAsMissing() throws MessagingException {
@@ -488,6 +570,7 @@ public class LocalStore extends Store implements Serializable {
                 return null;
             }
         });
+        folderCatalogue.invalidate();
     }
 
     public List<PendingCommand> getPendingCommands() throws MessagingException {
@@ -695,6 +778,50 @@ public class LocalStore extends Store implements Serializable {
         };
     }
 
+    /**
+     * Returns the file containing the decoded contents of an attachment, if there is one.
+     *
+     * <p>
+     * Only attachments stored on disk without a transfer encoding can be read directly from their file. All other
+     * attachments have to be decoded or reassembled using {@link #getAttachmentDataSource(String)}.
+     * </p>
+     *
+     * @return The attachment file, or {@code null} if the contents of the attachment need to be transformed.
+     */
+    @Nullable
+    public File getDecodedAttachmentFile(final String partId) throws MessagingException {
+        return database.execute(false, new DbCallback<File>() {
+            @Override
+            public File doDbWork(final SQLiteDatabase db) throws WrappedException {
+                Cursor cursor = db.query("message_parts",
+                        new String[] { "data_location", "encoding" },
+                        "id = ?", new String[] { partId },
+                        null, null, null);
+                try {
+                    if (!cursor.moveToFirst()) {
+                        return null;
+                    }
+
+                    int location = cursor.getInt(0);
+                    String encoding = cursor.getString(1);
+                    if (location != DataLocation.ON_DISK || !isIdentityEncoding(encoding)) {
+                        return null;
+                    }
+
+                    File file = getAttachmentFile(partId);
+                    return file.exists() ? file : null;
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    private static boolean isIdentityEncoding(@Nullable String encoding) {
+        return encoding == null || MimeUtil.ENC_7BIT.equalsIgnoreCase(encoding) ||
+                MimeUtil.ENC_8BIT.equalsIgnoreCase(encoding) || MimeUtil.ENC_BINARY.equalsIgnoreCase(encoding);
+    }
+
     private void writeAttachmentDataToOutputStream(final String partId, final OutputStream outputStream)
             throws IOException {
         try {
@@ -870,7 +997,7 @@ public class LocalStore extends Store implements Serializable {
 
     InputStream getDecodingInputStream(final InputStream rawInputStream, @Nullable String encoding) {
         if (MimeUtil.ENC_BASE64.equals(encoding)) {
-            return new Base64InputStream(rawInputStream) {
+            return new Base64DecoderInputStream(rawInputStream) {
                 @Override
                 public void close() throws IOException {
                     super.close();
@@ -879,7 +1006,7 @@ public class LocalStore extends Store implements Serializable {
             };
         }
         if (MimeUtil.ENC_QUOTED_PRINTABLE.equals(encoding)) {
-            return new QuotedPrintableInputStream(rawInputStream) {
+            return new QuotedPrintableDecoderInputStream(rawInputStream) {
                 @Override
                 public void close() throws IOException {
                     super.close();
@@ -949,6 +1076,7 @@ public class LocalStore extends Store implements Serializable {
                 return null;
             }
         });
+        folderCatalogue.invalidate();
     }
 
 
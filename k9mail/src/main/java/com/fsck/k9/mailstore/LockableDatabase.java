@@ -301,6 +301,34 @@ public class LockableDatabase {
         }
     }
 
+    /**
+     * Execute a DB callback without locking the DB storage.
+     *
+     * <p>
+     * This is only meant for long-running statements like {@code VACUUM} that mustn't keep the storage from being
+     * unmounted. The database may be closed while the callback runs, so the callback has to handle the resulting
+     * exceptions. Calls from within a transaction aren't allowed.
+     * </p>
+     *
+     * @param callback
+     *            Never <code>null</code>.
+     * @return Whatever {@link DbCallback#doDbWork(SQLiteDatabase)} returns.
+     * @throws UnavailableStorageException
+     *            If the database isn't open.
+     */
+    <T> T executeWithoutLock(final DbCallback<T> callback) throws MessagingException {
+        if (inTransaction.get() != null) {
+            throw new IllegalStateException("executeWithoutLock() can't be called inside a transaction");
+        }
+
+        final SQLiteDatabase db = mDb;
+        if (db == null || !db.isOpen()) {
+            throw new UnavailableStorageException("Database " + uUid + " isn't open");
+        }
+
+        return callback.doDbWork(db);
+    }
+
     /**
      * @param newProviderId
      *            Never <code>null</code>.
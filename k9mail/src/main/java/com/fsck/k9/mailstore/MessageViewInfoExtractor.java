@@ -12,6 +12,7 @@ import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
 
 import com.fsck.k9.Globals;
+import com.fsck.k9.K9;
 import com.fsck.k9.R;
 import com.fsck.k9.mail.Address;
 import com.fsck.k9.mail.Flag;
@@ -50,21 +51,31 @@ public class MessageViewInfoExtractor {
     private final Context context;
     private final AttachmentInfoExtractor attachmentInfoExtractor;
     private final HtmlProcessor htmlProcessor;
+    @Nullable
+    private final DisplayHtmlCache displayHtmlCache;
 
 
     public static MessageViewInfoExtractor getInstance() {
         Context context = Globals.getContext();
         AttachmentInfoExtractor attachmentInfoExtractor = AttachmentInfoExtractor.getInstance();
         HtmlProcessor htmlProcessor = HtmlProcessor.newInstance();
-        return new MessageViewInfoExtractor(context, attachmentInfoExtractor, htmlProcessor);
+        DisplayHtmlCache displayHtmlCache = DisplayHtmlCache.getInstance();
+        return new MessageViewInfoExtractor(context, attachmentInfoExtractor, htmlProcessor, displayHtmlCache);
     }
 
     @VisibleForTesting
     MessageViewInfoExtractor(Context context, AttachmentInfoExtractor attachmentInfoExtractor,
             HtmlProcessor htmlProcessor) {
+        this(context, attachmentInfoExtractor, htmlProcessor, null);
+    }
+
+    @VisibleForTesting
+    MessageViewInfoExtractor(Context context, AttachmentInfoExtractor attachmentInfoExtractor,
+            HtmlProcessor htmlProcessor, @Nullable DisplayHtmlCache displayHtmlCache) {
         this.context = context;
         this.attachmentInfoExtractor = attachmentInfoExtractor;
         this.htmlProcessor = htmlProcessor;
+        this.displayHtmlCache = displayHtmlCache;
     }
 
     @WorkerThread
@@ -88,9 +99,31 @@ public class MessageViewInfoExtractor {
             extraParts = null;
         }
 
+        boolean isMessageIncomplete = !message.isSet(Flag.X_DOWNLOADED_FULL) ||
+                MessageExtractor.hasMissingParts(message);
+
+        // Only complete messages without crypto results are cached, so decrypted content is never kept around
+        LocalMessage cacheableMessage = null;
+        boolean hasCryptoResults = cryptoMessageParts != null || (annotations != null && !annotations.isEmpty());
+        if (displayHtmlCache != null && !hasCryptoResults && !isMessageIncomplete &&
+                message instanceof LocalMessage) {
+            cacheableMessage = (LocalMessage) message;
+        }
+
         List<AttachmentViewInfo> attachmentInfos = new ArrayList<>();
-        ViewableExtractedText viewable = extractViewableAndAttachments(
-                Collections.singletonList(rootPart), attachmentInfos);
+        String displaySettings = getDisplaySettings();
+        String html = (cacheableMessage != null) ? displayHtmlCache.get(cacheableMessage, displaySettings) : null;
+        if (html != null) {
+            findViewablesAndAttachments(Collections.singletonList(rootPart), attachmentInfos);
+        } else {
+            ViewableExtractedText viewable = extractViewableAndAttachments(
+                    Collections.singletonList(rootPart), attachmentInfos);
+            html = viewable.html;
+
+            if (cacheableMessage != null) {
+                displayHtmlCache.put(cacheableMessage, displaySettings, html);
+            }
+        }
 
         List<AttachmentViewInfo> extraAttachmentInfos = new ArrayList<>();
         String extraViewableText = null;
@@ -102,15 +135,18 @@ public class MessageViewInfoExtractor {
 
         AttachmentResolver attachmentResolver = AttachmentResolver.createFromPart(rootPart);
 
-        boolean isMessageIncomplete = !message.isSet(Flag.X_DOWNLOADED_FULL) ||
-                MessageExtractor.hasMissingParts(message);
-
-        return MessageViewInfo.createWithExtractedContent(message, isMessageIncomplete, rootPart, viewable.html,
+        return MessageViewInfo.createWithExtractedContent(message, isMessageIncomplete, rootPart, html,
                 attachmentInfos, cryptoResultAnnotation, attachmentResolver, extraViewableText, extraAttachmentInfos);
     }
 
     private ViewableExtractedText extractViewableAndAttachments(List<Part> parts,
             List<AttachmentViewInfo> attachmentInfos) throws MessagingException {
+        List<Viewable> viewableParts = findViewablesAndAttachments(parts, attachmentInfos);
+        return extractTextFromViewables(viewableParts);
+    }
+
+    private List<Viewable> findViewablesAndAttachments(List<Part> parts, List<AttachmentViewInfo> attachmentInfos)
+            throws MessagingException {
         ArrayList<Viewable> viewableParts = new ArrayList<>();
         ArrayList<Part> attachments = new ArrayList<>();
 
@@ -119,7 +155,14 @@ public class MessageViewInfoExtractor {
         }
 
         attachmentInfos.addAll(attachmentInfoExtractor.extractAttachmentInfoForView(attachments));
-        return extractTextFromViewables(viewableParts);
+        return viewableParts;
+    }
+
+    /**
+     * Returns the settings that {@link HtmlProcessor#processForDisplay(String)} and {@link HtmlConverter} depend on.
+     */
+    private static String getDisplaySettings() {
+        return K9.getK9MessageViewTheme() + "," + K9.messageViewFixedWidthFont();
     }
 
     /**
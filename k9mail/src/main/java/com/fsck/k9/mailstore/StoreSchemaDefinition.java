@@ -23,11 +23,20 @@ import static java.util.Locale.US;
 
 
 class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
+    private static final String THREAD_SUMMARIES_COLUMNS = "folder_id, root, message_id, date, internal_date, " +
+            "thread_count, read, flagged, answered, forwarded, attachment_count";
+
     private final LocalStore localStore;
+    private final DatabaseUpgradeListener upgradeListener;
 
 
     StoreSchemaDefinition(LocalStore localStore) {
+        this(localStore, null);
+    }
+
+    StoreSchemaDefinition(LocalStore localStore, DatabaseUpgradeListener upgradeListener) {
         this.localStore = localStore;
+        this.upgradeListener = upgradeListener;
     }
 
     @Override
@@ -37,6 +46,13 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
 
     @Override
     public void doDbUpgrade(final SQLiteDatabase db) {
+        if (db.getVersion() == 0) {
+            // Android creates the android_metadata table when opening the database, so setting auto_vacuum before
+            // creating our tables isn't enough. The VACUUM needed for the switch can't run inside the upgrade
+            // transaction, but it's cheap as long as the database is this small.
+            DatabaseMaintenance.enableIncrementalAutoVacuum(db);
+        }
+
         try {
             upgradeDatabase(db);
         } catch (Exception e) {
@@ -60,7 +76,7 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
             if (db.getVersion() < 29) {
                 dbCreateDatabaseFromScratch(db);
             } else {
-                RealMigrationsHelper migrationsHelper = new RealMigrationsHelper(localStore);
+                RealMigrationsHelper migrationsHelper = new RealMigrationsHelper(localStore, upgradeListener);
                 Migrations.upgradeDatabase(db, migrationsHelper);
             }
 
@@ -94,7 +110,8 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "push_class TEXT, " +
                 "display_class TEXT, " +
                 "notify_class TEXT default '"+ Folder.FolderClass.INHERITED.name() + "', " +
-                "more_messages TEXT default \"unknown\"" +
+                "more_messages TEXT default \"unknown\", " +
+                "empty_sync_count INTEGER default 0" +
                 ")");
 
         db.execSQL("CREATE INDEX IF NOT EXISTS folder_name ON folders (name)");
@@ -155,6 +172,9 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "UPDATE message_parts SET root=id WHERE root IS NULL AND ROWID = NEW.ROWID; " +
                 "END");
 
+        db.execSQL("DROP INDEX IF EXISTS message_parts_root");
+        db.execSQL("CREATE INDEX IF NOT EXISTS message_parts_root ON message_parts (root)");
+
         db.execSQL("CREATE INDEX IF NOT EXISTS msg_uid ON messages (uid, folder_id)");
         db.execSQL("DROP INDEX IF EXISTS msg_folder_id");
         db.execSQL("DROP INDEX IF EXISTS msg_folder_id_date");
@@ -214,15 +234,113 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
 
         db.execSQL("DROP TABLE IF EXISTS messages_fulltext");
         db.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 (fulltext)");
+
+        db.execSQL("DROP TABLE IF EXISTS thread_summaries");
+        db.execSQL("CREATE TABLE thread_summaries (" +
+                "id INTEGER PRIMARY KEY, " +
+                "folder_id INTEGER, " +
+                "root INTEGER, " +
+                "message_id INTEGER, " +
+                "date INTEGER, " +
+                "internal_date INTEGER, " +
+                "thread_count INTEGER, " +
+                "read INTEGER, " +
+                "flagged INTEGER, " +
+                "answered INTEGER, " +
+                "forwarded INTEGER, " +
+                "attachment_count INTEGER" +
+                ")");
+
+        db.execSQL("DROP INDEX IF EXISTS thread_summaries_folder_id_root");
+        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS thread_summaries_folder_id_root " +
+                "ON thread_summaries (folder_id, root)");
+
+        db.execSQL("DROP INDEX IF EXISTS thread_summaries_folder_id_date");
+        db.execSQL("CREATE INDEX IF NOT EXISTS thread_summaries_folder_id_date ON thread_summaries (folder_id, date)");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summaries_message_insert");
+        db.execSQL("CREATE TRIGGER thread_summaries_message_insert " +
+                "AFTER INSERT ON messages " +
+                "BEGIN " +
+                updateThreadSummaries("NEW.folder_id", "SELECT root FROM threads WHERE message_id = NEW.id") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summaries_message_update");
+        db.execSQL("CREATE TRIGGER thread_summaries_message_update " +
+                "AFTER UPDATE OF folder_id, date, internal_date, attachment_count, deleted, empty, read, flagged, " +
+                "answered, forwarded ON messages " +
+                "WHEN OLD.folder_id IS NOT NEW.folder_id OR OLD.date IS NOT NEW.date OR " +
+                "OLD.internal_date IS NOT NEW.internal_date OR OLD.attachment_count IS NOT NEW.attachment_count OR " +
+                "OLD.deleted IS NOT NEW.deleted OR OLD.empty IS NOT NEW.empty OR OLD.read IS NOT NEW.read OR " +
+                "OLD.flagged IS NOT NEW.flagged OR OLD.answered IS NOT NEW.answered OR " +
+                "OLD.forwarded IS NOT NEW.forwarded " +
+                "BEGIN " +
+                updateThreadSummaries("NEW.folder_id", "SELECT root FROM threads WHERE message_id = NEW.id") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summaries_message_move");
+        db.execSQL("CREATE TRIGGER thread_summaries_message_move " +
+                "AFTER UPDATE OF folder_id ON messages " +
+                "WHEN OLD.folder_id IS NOT NEW.folder_id " +
+                "BEGIN " +
+                updateThreadSummaries("OLD.folder_id", "SELECT root FROM threads WHERE message_id = OLD.id") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summaries_message_delete");
+        db.execSQL("CREATE TRIGGER thread_summaries_message_delete " +
+                "AFTER DELETE ON messages " +
+                "BEGIN " +
+                updateThreadSummaries("OLD.folder_id", "SELECT root FROM threads WHERE message_id = OLD.id") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summaries_thread_insert");
+        db.execSQL("CREATE TRIGGER thread_summaries_thread_insert " +
+                "AFTER INSERT ON threads " +
+                "BEGIN " +
+                updateThreadSummaries("(SELECT folder_id FROM messages WHERE id = NEW.message_id)", "NEW.root") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summaries_thread_update");
+        db.execSQL("CREATE TRIGGER thread_summaries_thread_update " +
+                "AFTER UPDATE OF message_id, root ON threads " +
+                "WHEN OLD.message_id IS NOT NEW.message_id OR OLD.root IS NOT NEW.root " +
+                "BEGIN " +
+                updateThreadSummaries("(SELECT folder_id FROM messages WHERE id = OLD.message_id)", "OLD.root") +
+                updateThreadSummaries("(SELECT folder_id FROM messages WHERE id = NEW.message_id)", "NEW.root") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summaries_thread_delete");
+        db.execSQL("CREATE TRIGGER thread_summaries_thread_delete " +
+                "AFTER DELETE ON threads " +
+                "BEGIN " +
+                updateThreadSummaries("(SELECT folder_id FROM messages WHERE id = OLD.message_id)", "OLD.root") +
+                "END");
+    }
+
+    private static String updateThreadSummaries(String folderId, String roots) {
+        return "DELETE FROM thread_summaries WHERE folder_id = " + folderId + " AND root IN (" + roots + "); " +
+                "INSERT INTO thread_summaries (" + THREAD_SUMMARIES_COLUMNS + ") " +
+                "SELECT m.folder_id, t.root, " +
+                "(SELECT lm.id FROM threads lt JOIN messages lm ON (lm.id = lt.message_id) " +
+                "WHERE lt.root = t.root AND lm.folder_id = m.folder_id AND lm.deleted = 0 AND lm.empty = 0 " +
+                "ORDER BY lm.date DESC, lm.id DESC LIMIT 1), " +
+                "MAX(m.date), MAX(m.internal_date), COUNT(*), MIN(m.read), MAX(m.flagged), MIN(m.answered), " +
+                "MIN(m.forwarded), SUM(m.attachment_count) " +
+                "FROM threads t JOIN messages m ON (m.id = t.message_id) " +
+                "WHERE t.root IN (" + roots + ") AND m.folder_id = " + folderId + " AND " +
+                "m.deleted = 0 AND m.empty = 0 " +
+                "GROUP BY t.root; ";
     }
 
 
     private static class RealMigrationsHelper implements MigrationsHelper {
         private final LocalStore localStore;
+        private final DatabaseUpgradeListener upgradeListener;
 
 
-        public RealMigrationsHelper(LocalStore localStore) {
+        public RealMigrationsHelper(LocalStore localStore, DatabaseUpgradeListener upgradeListener) {
             this.localStore = localStore;
+            this.upgradeListener = upgradeListener;
         }
 
         @Override
@@ -249,6 +367,22 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
         public String serializeFlags(List<Flag> flags) {
             return LocalStore.serializeFlags(flags);
         }
+
+        @Override
+        public void commitCheckpoint(SQLiteDatabase db, int completedVersion) {
+            // Commit the transaction started by upgradeDatabase() and start a new one for the remaining work
+            db.setVersion(completedVersion);
+            db.setTransactionSuccessful();
+            db.endTransaction();
+            db.beginTransaction();
+        }
+
+        @Override
+        public void reportProgress(int progress, int progressEnd) {
+            if (upgradeListener != null) {
+                upgradeListener.onUpgradeProgress(progress, progressEnd);
+            }
+        }
     }
 
 }
@@ -11,6 +11,7 @@ import java.util.regex.Pattern;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.support.annotation.NonNull;
@@ -37,6 +38,13 @@ class MigrationTo51 {
     private static final int DATA_LOCATION__IN_DATABASE = 1;
     private static final int DATA_LOCATION__ON_DISK = 2;
 
+    /**
+     * Number of messages that are migrated before the work done so far is committed.
+     */
+    private static final int MIGRATION_BATCH_SIZE = 500;
+    private static final String MIGRATION_STATE_TABLE = "migration_51_state";
+    private static final String ATTACHMENT_MOVES_TABLE = "migration_51_attachment_moves";
+
     /**
      * This method converts from the old message table structure to the new one.
      *
@@ -57,90 +65,193 @@ class MigrationTo51 {
      *      attachments are present, just insert that.
      *    + otherwise, use multipart/mixed, adding attachments after textual content
      *    + revert content:// URIs in htmlContent to original cid: URIs.
+     *
+     * Messages are migrated in batches and the work is committed after every batch (see
+     * {@link MigrationsHelper#commitCheckpoint(SQLiteDatabase, int)}), so an interrupted migration continues
+     * where it left off instead of starting over.
      */
     public static void db51MigrateMessageFormat(SQLiteDatabase db, MigrationsHelper migrationsHelper) {
-        renameOldMessagesTableAndCreateNew(db);
-
-        copyMessageMetadataToNewTable(db);
-
-        File attachmentDirNew, attachmentDirOld;
         Account account = migrationsHelper.getAccount();
-        attachmentDirNew = StorageManager.getInstance(K9.app).getAttachmentDirectory(
+        File attachmentDirNew = StorageManager.getInstance(K9.app).getAttachmentDirectory(
                 account.getUuid(), account.getLocalStorageProviderId());
-        attachmentDirOld = renameOldAttachmentDirAndCreateNew(account, attachmentDirNew);
 
-        Cursor msgCursor = db.query("messages_old",
-                new String[] { "id", "flags", "html_content", "text_content", "mime_type", "attachment_count" },
-                null, null, null, null, null);
-        try {
-            Timber.d("migrating %d messages", msgCursor.getCount());
-            ContentValues cv = new ContentValues();
-            while (msgCursor.moveToNext()) {
-                long messageId = msgCursor.getLong(0);
-                String messageFlags = msgCursor.getString(1);
-                String htmlContent = msgCursor.getString(2);
-                String textContent = msgCursor.getString(3);
-                String mimeType = msgCursor.getString(4);
-                int attachmentCount = msgCursor.getInt(5);
+        if (isMigrationInProgress(db)) {
+            Timber.d("Resuming interrupted migration");
+        } else {
+            renameOldMessagesTableAndCreateNew(db);
 
-                try {
-                    updateFlagsForMessage(db, messageId, messageFlags, migrationsHelper);
-                    MimeHeader mimeHeader = loadHeaderFromHeadersTable(db, messageId);
-
-                    MimeStructureState structureState = MimeStructureState.getNewRootState();
-
-                    boolean messageHadSpecialFormat = false;
-
-                    // we do not rely on the protocol parameter here but guess by the multipart structure
-                    boolean isMaybePgpMimeEncrypted = attachmentCount == 2
-                            && MimeUtil.isSameMimeType(mimeType, "multipart/encrypted");
-                    if (isMaybePgpMimeEncrypted) {
-                        MimeStructureState maybeStructureState =
-                                migratePgpMimeEncryptedContent(db, messageId, attachmentDirOld, attachmentDirNew,
-                                        mimeHeader, structureState);
-                        if (maybeStructureState != null) {
-                            structureState = maybeStructureState;
-                            messageHadSpecialFormat = true;
-                        }
-                    }
+            copyMessageMetadataToNewTable(db);
 
-                    if (!messageHadSpecialFormat) {
-                        boolean isSimpleStructured = attachmentCount == 0 &&
-                                Utility.isAnyMimeType(mimeType, "text/plain", "text/html", "multipart/alternative");
-                        if (isSimpleStructured) {
-                            structureState = migrateSimpleMailContent(db, htmlContent, textContent,
-                                    mimeType, mimeHeader, structureState);
-                        } else {
-                            mimeType = "multipart/mixed";
-                            structureState =
-                                    migrateComplexMailContent(db, attachmentDirOld, attachmentDirNew, messageId,
-                                            htmlContent, textContent, mimeHeader, structureState);
-                        }
-                    }
+            File attachmentDirOld = new File(attachmentDirNew.getParent(),
+                    account.getUuid() + ".old_attach-" + System.currentTimeMillis());
+            createMigrationStateTables(db, attachmentDirOld);
 
-                    cv.clear();
-                    cv.put("mime_type", mimeType);
-                    cv.put("message_part_id", structureState.rootPartId);
-                    cv.put("attachment_count", attachmentCount);
-                    db.update("messages", cv, "id = ?", new String[] { Long.toString(messageId) });
-                } catch (IOException e) {
-                    Timber.e(e, "error inserting into database");
-                }
+            // Only rename the attachment directory after the name of the old directory has been committed
+            migrationsHelper.commitCheckpoint(db, 50);
+        }
+
+        File attachmentDirOld = new File(loadMigrationState(db, "attachment_dir_old"));
+        boolean isAttachmentDirRenamed = "1".equals(loadMigrationState(db, "attachment_dir_renamed"));
+        if (!isAttachmentDirRenamed) {
+            if (!attachmentDirOld.exists()) {
+                renameOldAttachmentDirAndCreateNew(attachmentDirOld, attachmentDirNew);
             }
 
-        } finally {
-            msgCursor.close();
+            saveMigrationState(db, "attachment_dir_renamed", "1");
+            migrationsHelper.commitCheckpoint(db, 50);
         }
 
+        AttachmentMoves attachmentMoves = new AttachmentMoves(db, attachmentDirOld, attachmentDirNew);
+        migrateMessages(db, migrationsHelper, attachmentMoves);
+
         cleanUpOldAttachmentDirectory(attachmentDirOld);
 
         dropOldMessagesTable(db);
     }
 
-    @NonNull
-    private static File renameOldAttachmentDirAndCreateNew(Account account, File attachmentDirNew) {
-        File attachmentDirOld = new File(attachmentDirNew.getParent(),
-                account.getUuid() + ".old_attach-" + System.currentTimeMillis());
+    /**
+     * Migrate the messages in batches of {@link #MIGRATION_BATCH_SIZE} and commit the work after every batch.
+     *
+     * <p>
+     * If the app is killed in the middle of the migration the next upgrade attempt continues with the first message
+     * after the last committed batch.
+     * </p>
+     */
+    private static void migrateMessages(SQLiteDatabase db, MigrationsHelper migrationsHelper,
+            AttachmentMoves attachmentMoves) {
+
+        long lastMigratedMessageId = Long.parseLong(loadMigrationState(db, "last_message_id"));
+        int messageCount = (int) DatabaseUtils.queryNumEntries(db, "messages_old");
+        int migratedMessageCount = (int) DatabaseUtils.queryNumEntries(db, "messages_old", "id <= ?",
+                new String[] { Long.toString(lastMigratedMessageId) });
+
+        Timber.d("migrating %d messages, %d of them were migrated before", messageCount, migratedMessageCount);
+        migrationsHelper.reportProgress(migratedMessageCount, messageCount);
+
+        // Finish moving the attachments of a batch that was committed right before the migration was interrupted
+        attachmentMoves.moveCommittedAttachments();
+
+        ContentValues cv = new ContentValues();
+        boolean hasMoreMessages = true;
+        while (hasMoreMessages) {
+            Cursor msgCursor = db.query("messages_old",
+                    new String[] { "id", "flags", "html_content", "text_content", "mime_type", "attachment_count" },
+                    "id > ?", new String[] { Long.toString(lastMigratedMessageId) }, null, null, "id",
+                    Integer.toString(MIGRATION_BATCH_SIZE));
+            try {
+                hasMoreMessages = msgCursor.getCount() == MIGRATION_BATCH_SIZE;
+                while (msgCursor.moveToNext()) {
+                    long messageId = msgCursor.getLong(0);
+                    String messageFlags = msgCursor.getString(1);
+                    String htmlContent = msgCursor.getString(2);
+                    String textContent = msgCursor.getString(3);
+                    String mimeType = msgCursor.getString(4);
+                    int attachmentCount = msgCursor.getInt(5);
+
+                    migrateMessage(db, migrationsHelper, attachmentMoves, cv, messageId, messageFlags, htmlContent,
+                            textContent, mimeType, attachmentCount);
+
+                    lastMigratedMessageId = messageId;
+                    migratedMessageCount++;
+                }
+            } finally {
+                msgCursor.close();
+            }
+
+            saveMigrationState(db, "last_message_id", Long.toString(lastMigratedMessageId));
+            migrationsHelper.commitCheckpoint(db, 50);
+
+            attachmentMoves.moveCommittedAttachments();
+            migrationsHelper.reportProgress(migratedMessageCount, messageCount);
+        }
+    }
+
+    private static void migrateMessage(SQLiteDatabase db, MigrationsHelper migrationsHelper,
+            AttachmentMoves attachmentMoves, ContentValues cv, long messageId, String messageFlags,
+            String htmlContent, String textContent, String mimeType, int attachmentCount) {
+        try {
+            updateFlagsForMessage(db, messageId, messageFlags, migrationsHelper);
+            MimeHeader mimeHeader = loadHeaderFromHeadersTable(db, messageId);
+
+            MimeStructureState structureState = MimeStructureState.getNewRootState();
+
+            boolean messageHadSpecialFormat = false;
+
+            // we do not rely on the protocol parameter here but guess by the multipart structure
+            boolean isMaybePgpMimeEncrypted = attachmentCount == 2
+                    && MimeUtil.isSameMimeType(mimeType, "multipart/encrypted");
+            if (isMaybePgpMimeEncrypted) {
+                MimeStructureState maybeStructureState =
+                        migratePgpMimeEncryptedContent(db, messageId, attachmentMoves, mimeHeader, structureState);
+                if (maybeStructureState != null) {
+                    structureState = maybeStructureState;
+                    messageHadSpecialFormat = true;
+                }
+            }
+
+            if (!messageHadSpecialFormat) {
+                boolean isSimpleStructured = attachmentCount == 0 &&
+                        Utility.isAnyMimeType(mimeType, "text/plain", "text/html", "multipart/alternative");
+                if (isSimpleStructured) {
+                    structureState = migrateSimpleMailContent(db, htmlContent, textContent,
+                            mimeType, mimeHeader, structureState);
+                } else {
+                    mimeType = "multipart/mixed";
+                    structureState = migrateComplexMailContent(db, attachmentMoves, messageId, htmlContent,
+                            textContent, mimeHeader, structureState);
+                }
+            }
+
+            cv.clear();
+            cv.put("mime_type", mimeType);
+            cv.put("message_part_id", structureState.rootPartId);
+            cv.put("attachment_count", attachmentCount);
+            db.update("messages", cv, "id = ?", new String[] { Long.toString(messageId) });
+        } catch (IOException e) {
+            Timber.e(e, "error inserting into database");
+        }
+    }
+
+    private static boolean isMigrationInProgress(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[] { MIGRATION_STATE_TABLE });
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void createMigrationStateTables(SQLiteDatabase db, File attachmentDirOld) {
+        db.execSQL("CREATE TABLE " + MIGRATION_STATE_TABLE + " (name TEXT PRIMARY KEY, value TEXT)");
+        db.execSQL("CREATE TABLE " + ATTACHMENT_MOVES_TABLE + " (source TEXT, destination TEXT)");
+
+        saveMigrationState(db, "attachment_dir_old", attachmentDirOld.getAbsolutePath());
+        saveMigrationState(db, "attachment_dir_renamed", "0");
+        saveMigrationState(db, "last_message_id", "-1");
+    }
+
+    private static String loadMigrationState(SQLiteDatabase db, String name) {
+        Cursor cursor = db.query(MIGRATION_STATE_TABLE, new String[] { "value" }, "name = ?", new String[] { name },
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                throw new IllegalStateException("Missing migration state: " + name);
+            }
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void saveMigrationState(SQLiteDatabase db, String name, String value) {
+        ContentValues cv = new ContentValues();
+        cv.put("name", name);
+        cv.put("value", value);
+        db.replace(MIGRATION_STATE_TABLE, null, cv);
+    }
+
+    private static void renameOldAttachmentDirAndCreateNew(File attachmentDirOld, File attachmentDirNew) {
         boolean moveOk = attachmentDirNew.renameTo(attachmentDirOld);
         if (!moveOk) {
             // TODO escalate?
@@ -151,7 +262,6 @@ class MigrationTo51 {
             // TODO escalate?
             Timber.e("Error creating new attachment dir!");
         }
-        return attachmentDirOld;
     }
 
     private static void dropOldMessagesTable(SQLiteDatabase db) {
@@ -159,6 +269,8 @@ class MigrationTo51 {
         db.execSQL("DROP TABLE messages_old");
         db.execSQL("DROP TABLE attachments");
         db.execSQL("DROP TABLE headers");
+        db.execSQL("DROP TABLE " + MIGRATION_STATE_TABLE);
+        db.execSQL("DROP TABLE " + ATTACHMENT_MOVES_TABLE);
     }
 
     private static void cleanUpOldAttachmentDirectory(File attachmentDirOld) {
@@ -253,7 +365,7 @@ class MigrationTo51 {
 
     @Nullable
     private static MimeStructureState migratePgpMimeEncryptedContent(SQLiteDatabase db, long messageId,
-            File attachmentDirOld, File attachmentDirNew, MimeHeader mimeHeader, MimeStructureState structureState) {
+            AttachmentMoves attachmentMoves, MimeHeader mimeHeader, MimeStructureState structureState) {
 
         Timber.d("Attempting to migrate multipart/encrypted as pgp/mime");
 
@@ -322,12 +434,12 @@ class MigrationTo51 {
             structureState = structureState.nextMultipartChild(rootMessagePartId);
 
             structureState =
-                    insertMimeAttachmentPart(db, attachmentDirOld, attachmentDirNew, structureState, firstPartId,
+                    insertMimeAttachmentPart(db, attachmentMoves, structureState, firstPartId,
                             firstPartSize, firstPartName, "application/pgp-encrypted", firstPartStoreData,
                             firstPartContentUriString, null, null);
 
             structureState =
-                    insertMimeAttachmentPart(db, attachmentDirOld, attachmentDirNew, structureState, secondPartId,
+                    insertMimeAttachmentPart(db, attachmentMoves, structureState, secondPartId,
                             secondPartSize, secondPartName, "application/octet-stream", secondPartStoreData,
                             secondPartContentUriString, null, null);
         } finally {
@@ -339,7 +451,7 @@ class MigrationTo51 {
     }
 
     private static MimeStructureState migrateComplexMailContent(SQLiteDatabase db,
-            File attachmentDirOld, File attachmentDirNew, long messageId, String htmlContent, String textContent,
+            AttachmentMoves attachmentMoves, long messageId, String htmlContent, String textContent,
             MimeHeader mimeHeader, MimeStructureState structureState) throws IOException {
         Timber.d("Processing mail with complex data structure as multipart/mixed");
 
@@ -375,7 +487,7 @@ class MigrationTo51 {
             structureState = insertTextualPartIntoDatabase(db, structureState, null, htmlContent, true);
         }
 
-        structureState = insertAttachments(db, attachmentDirOld, attachmentDirNew, messageId, structureState);
+        structureState = insertAttachments(db, attachmentMoves, messageId, structureState);
 
         return structureState;
     }
@@ -415,7 +527,7 @@ class MigrationTo51 {
         }
     }
 
-    private static MimeStructureState insertAttachments(SQLiteDatabase db, File attachmentDirOld, File attachmentDirNew,
+    private static MimeStructureState insertAttachments(SQLiteDatabase db, AttachmentMoves attachmentMoves,
             long messageId, MimeStructureState structureState) {
         Cursor cursor = db.query("attachments",
                 new String[] {
@@ -436,7 +548,7 @@ class MigrationTo51 {
                 String contentDisposition = cursor.getString(7);
 
                 structureState =
-                        insertMimeAttachmentPart(db, attachmentDirOld, attachmentDirNew, structureState, id, size, name,
+                        insertMimeAttachmentPart(db, attachmentMoves, structureState, id, size, name,
                                 mimeType, storeData, contentUriString, contentId, contentDisposition);
 
             }
@@ -447,8 +559,8 @@ class MigrationTo51 {
         return structureState;
     }
 
-    private static MimeStructureState insertMimeAttachmentPart(SQLiteDatabase db, File attachmentDirOld,
-            File attachmentDirNew, MimeStructureState structureState, long id, int size, String name, String mimeType,
+    private static MimeStructureState insertMimeAttachmentPart(SQLiteDatabase db, AttachmentMoves attachmentMoves,
+            MimeStructureState structureState, long id, int size, String name, String mimeType,
             String storeData, String contentUriString, String contentId, String contentDisposition) {
 
         Timber.d("processing attachment %d, %s, %s, %s, %s",
@@ -481,7 +593,7 @@ class MigrationTo51 {
                 String attachmentId = pathSegments.get(1);
                 boolean isMatchingAttachmentId = Long.parseLong(attachmentId) == id;
 
-                File attachmentFile = new File(attachmentDirOld, attachmentId);
+                File attachmentFile = attachmentMoves.getOldAttachmentFile(attachmentId);
                 boolean isExistingAttachmentFile = attachmentFile.exists();
 
                 if (!isMatchingAttachmentId) {
@@ -524,10 +636,7 @@ class MigrationTo51 {
         structureState = structureState.nextChild(partId);
 
         if (attachmentFileToMove != null) {
-            boolean moveOk = attachmentFileToMove.renameTo(new File(attachmentDirNew, Long.toString(partId)));
-            if (!moveOk) {
-                Timber.e("Moving attachment to new dir failed!");
-            }
+            attachmentMoves.add(attachmentFileToMove, partId);
         }
         return structureState;
     }
@@ -739,4 +848,57 @@ class MigrationTo51 {
             return new MimeStructureState(rootPartId, null, prevParentId, nextOrder);
         }
     }
+
+    /**
+     * Moves attachment files from the old to the new attachment directory once the message parts referencing them
+     * have been committed.
+     *
+     * <p>
+     * Pending moves are recorded in the database in the same transaction as the message parts. So if a batch is rolled
+     * back the files are still found in the old directory, and if the app is killed after the commit the moves are
+     * completed when the migration is resumed.
+     * </p>
+     */
+    private static class AttachmentMoves {
+        private final SQLiteDatabase db;
+        private final File attachmentDirOld;
+        private final File attachmentDirNew;
+
+
+        AttachmentMoves(SQLiteDatabase db, File attachmentDirOld, File attachmentDirNew) {
+            this.db = db;
+            this.attachmentDirOld = attachmentDirOld;
+            this.attachmentDirNew = attachmentDirNew;
+        }
+
+        File getOldAttachmentFile(String attachmentId) {
+            return new File(attachmentDirOld, attachmentId);
+        }
+
+        void add(File attachmentFile, long partId) {
+            ContentValues cv = new ContentValues();
+            cv.put("source", attachmentFile.getAbsolutePath());
+            cv.put("destination", new File(attachmentDirNew, Long.toString(partId)).getAbsolutePath());
+            db.insert(ATTACHMENT_MOVES_TABLE, null, cv);
+        }
+
+        void moveCommittedAttachments() {
+            Cursor cursor = db.query(ATTACHMENT_MOVES_TABLE, new String[] { "source", "destination" },
+                    null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    File source = new File(cursor.getString(0));
+                    File destination = new File(cursor.getString(1));
+
+                    if (source.exists() && !source.renameTo(destination)) {
+                        Timber.e("Moving attachment to new dir failed!");
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+
+            db.delete(ATTACHMENT_MOVES_TABLE, null, null);
+        }
+    }
 }
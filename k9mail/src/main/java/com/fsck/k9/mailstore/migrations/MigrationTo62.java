@@ -0,0 +1,122 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo62 {
+    private static final String SUMMARY_COLUMNS = "folder_id, root, message_id, date, internal_date, thread_count, " +
+            "read, flagged, answered, forwarded, attachment_count";
+
+
+    static void createThreadSummariesTable(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS thread_summaries");
+        db.execSQL("CREATE TABLE thread_summaries (" +
+                "id INTEGER PRIMARY KEY, " +
+                "folder_id INTEGER, " +
+                "root INTEGER, " +
+                "message_id INTEGER, " +
+                "date INTEGER, " +
+                "internal_date INTEGER, " +
+                "thread_count INTEGER, " +
+                "read INTEGER, " +
+                "flagged INTEGER, " +
+                "answered INTEGER, " +
+                "forwarded INTEGER, " +
+                "attachment_count INTEGER" +
+                ")");
+
+        db.execSQL("DROP INDEX IF EXISTS thread_summaries_folder_id_root");
+        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS thread_summaries_folder_id_root " +
+                "ON thread_summaries (folder_id, root)");
+
+        db.execSQL("DROP INDEX IF EXISTS thread_summaries_folder_id_date");
+        db.execSQL("CREATE INDEX IF NOT EXISTS thread_summaries_folder_id_date ON thread_summaries (folder_id, date)");
+
+        db.execSQL("INSERT INTO thread_summaries (" + SUMMARY_COLUMNS + ") " +
+                "SELECT m.folder_id, t.root, " +
+                "(SELECT lm.id FROM threads lt JOIN messages lm ON (lm.id = lt.message_id) " +
+                "WHERE lt.root = t.root AND lm.folder_id = m.folder_id AND lm.deleted = 0 AND lm.empty = 0 " +
+                "ORDER BY lm.date DESC, lm.id DESC LIMIT 1), " +
+                "MAX(m.date), MAX(m.internal_date), COUNT(*), MIN(m.read), MAX(m.flagged), MIN(m.answered), " +
+                "MIN(m.forwarded), SUM(m.attachment_count) " +
+                "FROM threads t JOIN messages m ON (m.id = t.message_id) " +
+                "WHERE m.deleted = 0 AND m.empty = 0 AND t.root IS NOT NULL " +
+                "GROUP BY m.folder_id, t.root");
+    }
+
+    static void createThreadSummariesTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summaries_message_insert");
+        db.execSQL("CREATE TRIGGER thread_summaries_message_insert " +
+                "AFTER INSERT ON messages " +
+                "BEGIN " +
+                updateThreadSummaries("NEW.folder_id", "SELECT root FROM threads WHERE message_id = NEW.id") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summaries_message_update");
+        db.execSQL("CREATE TRIGGER thread_summaries_message_update " +
+                "AFTER UPDATE OF folder_id, date, internal_date, attachment_count, deleted, empty, read, flagged, " +
+                "answered, forwarded ON messages " +
+                "WHEN OLD.folder_id IS NOT NEW.folder_id OR OLD.date IS NOT NEW.date OR " +
+                "OLD.internal_date IS NOT NEW.internal_date OR OLD.attachment_count IS NOT NEW.attachment_count OR " +
+                "OLD.deleted IS NOT NEW.deleted OR OLD.empty IS NOT NEW.empty OR OLD.read IS NOT NEW.read OR " +
+                "OLD.flagged IS NOT NEW.flagged OR OLD.answered IS NOT NEW.answered OR " +
+                "OLD.forwarded IS NOT NEW.forwarded " +
+                "BEGIN " +
+                updateThreadSummaries("NEW.folder_id", "SELECT root FROM threads WHERE message_id = NEW.id") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summaries_message_move");
+        db.execSQL("CREATE TRIGGER thread_summaries_message_move " +
+                "AFTER UPDATE OF folder_id ON messages " +
+                "WHEN OLD.folder_id IS NOT NEW.folder_id " +
+                "BEGIN " +
+                updateThreadSummaries("OLD.folder_id", "SELECT root FROM threads WHERE message_id = OLD.id") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summaries_message_delete");
+        db.execSQL("CREATE TRIGGER thread_summaries_message_delete " +
+                "AFTER DELETE ON messages " +
+                "BEGIN " +
+                updateThreadSummaries("OLD.folder_id", "SELECT root FROM threads WHERE message_id = OLD.id") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summaries_thread_insert");
+        db.execSQL("CREATE TRIGGER thread_summaries_thread_insert " +
+                "AFTER INSERT ON threads " +
+                "BEGIN " +
+                updateThreadSummaries("(SELECT folder_id FROM messages WHERE id = NEW.message_id)", "NEW.root") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summaries_thread_update");
+        db.execSQL("CREATE TRIGGER thread_summaries_thread_update " +
+                "AFTER UPDATE OF message_id, root ON threads " +
+                "WHEN OLD.message_id IS NOT NEW.message_id OR OLD.root IS NOT NEW.root " +
+                "BEGIN " +
+                updateThreadSummaries("(SELECT folder_id FROM messages WHERE id = OLD.message_id)", "OLD.root") +
+                updateThreadSummaries("(SELECT folder_id FROM messages WHERE id = NEW.message_id)", "NEW.root") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summaries_thread_delete");
+        db.execSQL("CREATE TRIGGER thread_summaries_thread_delete " +
+                "AFTER DELETE ON threads " +
+                "BEGIN " +
+                updateThreadSummaries("(SELECT folder_id FROM messages WHERE id = OLD.message_id)", "OLD.root") +
+                "END");
+    }
+
+    private static String updateThreadSummaries(String folderId, String roots) {
+        return "DELETE FROM thread_summaries WHERE folder_id = " + folderId + " AND root IN (" + roots + "); " +
+                "INSERT INTO thread_summaries (" + SUMMARY_COLUMNS + ") " +
+                "SELECT m.folder_id, t.root, " +
+                "(SELECT lm.id FROM threads lt JOIN messages lm ON (lm.id = lt.message_id) " +
+                "WHERE lt.root = t.root AND lm.folder_id = m.folder_id AND lm.deleted = 0 AND lm.empty = 0 " +
+                "ORDER BY lm.date DESC, lm.id DESC LIMIT 1), " +
+                "MAX(m.date), MAX(m.internal_date), COUNT(*), MIN(m.read), MAX(m.flagged), MIN(m.answered), " +
+                "MIN(m.forwarded), SUM(m.attachment_count) " +
+                "FROM threads t JOIN messages m ON (m.id = t.message_id) " +
+                "WHERE t.root IN (" + roots + ") AND m.folder_id = " + folderId + " AND " +
+                "m.deleted = 0 AND m.empty = 0 " +
+                "GROUP BY t.root; ";
+    }
+}
@@ -75,6 +75,13 @@ public class Migrations {
                 MigrationTo59.addMissingIndexes(db);
             case 59:
                 MigrationTo60.migratePendingCommands(db);
+            case 60:
+                MigrationTo61.addEmptySyncCountColumnToFoldersTable(db);
+            case 61:
+                MigrationTo62.createThreadSummariesTable(db);
+                MigrationTo62.createThreadSummariesTriggers(db);
+            case 62:
+                MigrationTo63.addMessagePartsRootIndex(db);
         }
     }
 }
@@ -4,6 +4,7 @@ package com.fsck.k9.mailstore.migrations;
 import java.util.List;
 
 import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
 
 import com.fsck.k9.Account;
 import com.fsck.k9.mail.Flag;
@@ -20,4 +21,23 @@ public interface MigrationsHelper {
     Account getAccount();
     Context getContext();
     String serializeFlags(List<Flag> flags);
+
+    /**
+     * Commit the changes made so far.
+     *
+     * <p>
+     * Long-running migrations call this after every batch of work. If the upgrade is interrupted afterwards it will
+     * start with the migration following {@code completedVersion} the next time the database is opened. So the
+     * calling migration has to be able to resume from the committed state.
+     * </p>
+     *
+     * @param completedVersion
+     *         The database version reached by all migrations before the calling one.
+     */
+    void commitCheckpoint(SQLiteDatabase db, int completedVersion);
+
+    /**
+     * Report the progress of a long-running migration.
+     */
+    void reportProgress(int progress, int progressEnd);
 }
@@ -49,7 +49,7 @@ public class MessageFulltextCreator {
             return text;
         }
 
-        return HtmlConverter.htmlToText(text);
+        return HtmlConverter.htmlToText(text, MAX_CHARACTERS_CHECKED_FOR_FTS);
     }
 
     private boolean hasEmptyBody(Part textPart) {
@@ -33,7 +33,7 @@ class PreviewTextExtractor {
             return text;
         }
 
-        return HtmlConverter.htmlToText(text);
+        return HtmlConverter.htmlToText(text, MAX_CHARACTERS_CHECKED_FOR_PREVIEW);
     }
 
     private String stripTextForPreview(String text) {
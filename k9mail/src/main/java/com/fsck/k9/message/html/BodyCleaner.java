@@ -0,0 +1,116 @@
+package com.fsck.k9.message.html;
+
+
+import java.util.List;
+
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.DataNode;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+
+
+/**
+ * Removes everything from the body of a document that isn't allowed by a {@link SanitizerWhitelist}.
+ *
+ * <p>
+ * The result is the same as the body of the document created by {@link org.jsoup.safety.Cleaner}, but the element is
+ * cleaned in place while walking it once instead of copying the allowed nodes to a new document. Elements that aren't
+ * allowed are replaced by their children. Attributes that aren't allowed, comments and the content of elements like
+ * {@code <script>} are removed.
+ * </p>
+ */
+class BodyCleaner {
+    private final SanitizerWhitelist whitelist;
+
+
+    BodyCleaner(SanitizerWhitelist whitelist) {
+        this.whitelist = whitelist;
+    }
+
+    public void clean(Element body) {
+        removeAllAttributes(body);
+
+        Node node = firstChild(body);
+        while (node != null) {
+            if (node instanceof Element) {
+                node = cleanElement((Element) node, body);
+            } else if (node instanceof TextNode) {
+                node = cleanTextNode((TextNode) node, body);
+            } else if (node instanceof DataNode && whitelist.isSafeTag(node.parent().nodeName())) {
+                node = nextNode(node, body);
+            } else {
+                // Comments, XML declarations, and the like
+                Node next = nextNode(node, body);
+                node.remove();
+                node = next;
+            }
+        }
+    }
+
+    private Node cleanElement(Element element, Element body) {
+        if (whitelist.isSafeTag(element.tagName())) {
+            removeUnsafeAttributes(element);
+
+            Node firstChild = firstChild(element);
+            return (firstChild != null) ? firstChild : nextNode(element, body);
+        }
+
+        // The data of elements that aren't allowed (e.g. scripts) has to go before the children are moved up, so it
+        // can't end up inside an allowed element.
+        List<Node> children = element.childNodes();
+        for (int i = children.size() - 1; i >= 0; i--) {
+            Node child = children.get(i);
+            if (child instanceof DataNode) {
+                child.remove();
+            }
+        }
+
+        Node firstChild = firstChild(element);
+        Node next = (firstChild != null) ? firstChild : nextNode(element, body);
+        element.unwrap();
+        return next;
+    }
+
+    private Node cleanTextNode(TextNode textNode, Element body) {
+        Node next = nextNode(textNode, body);
+        if (textNode.getClass() != TextNode.class) {
+            // Like Cleaner, turn special text nodes (e.g. CDATA sections) into plain text
+            textNode.replaceWith(new TextNode(textNode.getWholeText(), textNode.baseUri()));
+        }
+        return next;
+    }
+
+    private void removeUnsafeAttributes(Element element) {
+        String tagName = element.tagName();
+        for (Attribute attribute : element.attributes().asList()) {
+            if (!whitelist.isSafeAttribute(tagName, element, attribute)) {
+                element.removeAttr(attribute.getKey());
+            }
+        }
+    }
+
+    private static void removeAllAttributes(Element element) {
+        for (Attribute attribute : element.attributes().asList()) {
+            element.removeAttr(attribute.getKey());
+        }
+    }
+
+    private static Node firstChild(Node node) {
+        return (node.childNodeSize() > 0) ? node.childNode(0) : null;
+    }
+
+    /**
+     * Returns the node following {@code node} in document order, without descending into {@code node}.
+     */
+    private static Node nextNode(Node node, Node root) {
+        while (node != root) {
+            Node sibling = node.nextSibling();
+            if (sibling != null) {
+                return sibling;
+            }
+            node = node.parent();
+        }
+        return null;
+    }
+}
@@ -3,29 +3,31 @@ package com.fsck.k9.message.html;
 
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.jsoup.safety.Cleaner;
-import org.jsoup.safety.Whitelist;
+import org.jsoup.nodes.Element;
 
 
 public class HtmlSanitizer {
     private final HeadCleaner headCleaner;
-    private final Cleaner cleaner;
+    private final BodyCleaner bodyCleaner;
 
     HtmlSanitizer() {
-        Whitelist whitelist = Whitelist.relaxed()
-                .addTags("font")
-                .addAttributes("table", "align", "bgcolor", "border", "cellpadding", "cellspacing", "width")
-                .addAttributes(":all", "class", "style", "id")
-                .addProtocols("img", "src", "http", "https", "cid", "data");
-
-        cleaner = new Cleaner(whitelist);
         headCleaner = new HeadCleaner();
+        bodyCleaner = new BodyCleaner(new SanitizerWhitelist());
     }
 
     public Document sanitize(String html) {
         Document dirtyDocument = Jsoup.parse(html);
-        Document cleanedDocument = cleaner.clean(dirtyDocument);
+        Document cleanedDocument = Document.createShell(dirtyDocument.baseUri());
         headCleaner.clean(dirtyDocument, cleanedDocument);
+
+        // Frameset documents don't have a body. The cleaned document keeps its empty one.
+        Element body = dirtyDocument.body();
+        if (body != null && "body".equals(body.tagName())) {
+            // The body makes up most of the document, so it is cleaned in place instead of being copied
+            bodyCleaner.clean(body);
+            cleanedDocument.body().replaceWith(body);
+        }
+
         return cleanedDocument;
     }
 }
@@ -0,0 +1,270 @@
+package com.fsck.k9.message.html;
+
+
+import java.util.Locale;
+
+import org.jsoup.parser.Parser;
+
+
+/**
+ * Converts HTML to plain text in a single pass over the input.
+ *
+ * <p>
+ * The output matches what {@link android.text.Html#fromHtml(String)} used to produce for us: whitespace is collapsed,
+ * paragraph-like elements are separated by an empty line, {@code <br>} is turned into a line break and {@code <hr>}
+ * into a line of underscores. The content of {@code <style>}, {@code <script>} and {@code <title>} elements is
+ * dropped. Images and non-breaking spaces are turned into spaces. No intermediate object graph is built and the
+ * conversion stops as soon as the requested number of characters has been produced.
+ * </p>
+ */
+class HtmlToTextConverter {
+    private static final String HORIZONTAL_RULE = "_____________________________________________\r\n";
+    private static final char OBJECT_CHARACTER = '\uFFFC';
+    private static final char NBSP_CHARACTER = '\u00A0';
+    private static final char REPLACEMENT_CHARACTER = ' ';
+
+
+    private final String html;
+    private final int length;
+    private final int maxLength;
+    private final StringBuilder text;
+    private int position;
+    private int ignoredDepth;
+    private int openParagraphs;
+    // The character the original parser would have seen last, before images and NBSPs are replaced with spaces
+    private char lastCharacter = '\n';
+
+
+    static String convert(String html, int maxLength) {
+        return new HtmlToTextConverter(html, maxLength).convert();
+    }
+
+    private HtmlToTextConverter(String html, int maxLength) {
+        this.html = html;
+        this.maxLength = maxLength;
+        length = html.length();
+        text = new StringBuilder(Math.min(length, maxLength));
+    }
+
+    private String convert() {
+        while (position < length && text.length() < maxLength) {
+            int tagStart = html.indexOf('<', position);
+            if (tagStart == -1) {
+                appendText(position, length);
+                position = length;
+            } else {
+                appendText(position, tagStart);
+                position = tagStart;
+                parseMarkup();
+            }
+        }
+
+        if (text.length() >= maxLength) {
+            text.setLength(maxLength);
+        } else if (openParagraphs > 0 && ignoredDepth == 0) {
+            // Elements that are still open are closed at the end of the document
+            handleParagraph();
+        }
+
+        return text.toString();
+    }
+
+    private void parseMarkup() {
+        int next = position + 1;
+        char c = (next < length) ? html.charAt(next) : 0;
+
+        if (html.startsWith("!--", next)) {
+            position = skipPast("-->", next + 3);
+        } else if (c == '!' || c == '?') {
+            position = skipPast(">", next);
+        } else if (c == '/' && next + 1 < length && isLetter(html.charAt(next + 1))) {
+            int nameEnd = findNameEnd(next + 1);
+            String name = html.substring(next + 1, nameEnd).toLowerCase(Locale.US);
+            position = skipPast(">", nameEnd);
+            handleEndTag(name);
+        } else if (isLetter(c)) {
+            int nameEnd = findNameEnd(next);
+            String name = html.substring(next, nameEnd).toLowerCase(Locale.US);
+            int tagEnd = findTagEnd(nameEnd);
+            boolean selfClosing = tagEnd > nameEnd && tagEnd < length && html.charAt(tagEnd - 1) == '/';
+            position = Math.min(tagEnd + 1, length);
+
+            handleStartTag(name);
+            if (selfClosing) {
+                handleEndTag(name);
+            } else if ("script".equals(name) || "style".equals(name)) {
+                // The content of these elements isn't markup, so skip straight to the end tag
+                int endTag = indexOfIgnoreCase("</" + name, position);
+                position = (endTag == -1) ? length : skipPast(">", endTag);
+                handleEndTag(name);
+            }
+        } else {
+            appendText(position, next);
+            position = next;
+        }
+    }
+
+    private void handleStartTag(String name) {
+        if (isIgnoredContentTag(name)) {
+            ignoredDepth++;
+        } else if (ignoredDepth > 0) {
+            return;
+        } else if ("br".equals(name)) {
+            appendCharacter('\n', '\n');
+        } else if (isParagraphTag(name)) {
+            openParagraphs++;
+            handleParagraph();
+        } else if ("img".equals(name)) {
+            appendCharacter(REPLACEMENT_CHARACTER, OBJECT_CHARACTER);
+        } else if ("hr".equals(name)) {
+            text.append(HORIZONTAL_RULE);
+            lastCharacter = '\n';
+        }
+    }
+
+    private void handleEndTag(String name) {
+        if (isIgnoredContentTag(name)) {
+            if (ignoredDepth > 0) {
+                ignoredDepth--;
+            }
+        } else if (ignoredDepth == 0 && isParagraphTag(name)) {
+            if (openParagraphs > 0) {
+                openParagraphs--;
+            }
+            handleParagraph();
+        }
+    }
+
+    private void handleParagraph() {
+        int textLength = text.length();
+        if (textLength >= 1 && text.charAt(textLength - 1) == '\n') {
+            if (textLength >= 2 && text.charAt(textLength - 2) == '\n') {
+                return;
+            }
+            appendCharacter('\n', '\n');
+        } else if (textLength != 0) {
+            appendCharacter('\n', '\n');
+            appendCharacter('\n', '\n');
+        }
+    }
+
+    private void appendText(int start, int end) {
+        if (ignoredDepth > 0 || start == end) {
+            return;
+        }
+
+        int ampersand = html.indexOf('&', start);
+        if (ampersand != -1 && ampersand < end) {
+            String decoded = Parser.unescapeEntities(html.substring(start, end), false);
+            appendCharacters(decoded, 0, decoded.length());
+        } else {
+            appendCharacters(html, start, end);
+        }
+    }
+
+    private void appendCharacters(String source, int start, int end) {
+        for (int i = start; i < end && text.length() < maxLength; i++) {
+            char c = source.charAt(i);
+            if (c == '\r') {
+                // Line breaks are normalized to LF
+                if (i + 1 < end && source.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                c = '\n';
+            }
+
+            if (c == ' ' || c == '\n') {
+                if (lastCharacter != ' ' && lastCharacter != '\n') {
+                    appendCharacter(' ', ' ');
+                }
+            } else if (c == NBSP_CHARACTER) {
+                appendCharacter(REPLACEMENT_CHARACTER, NBSP_CHARACTER);
+            } else {
+                appendCharacter(c, c);
+            }
+        }
+    }
+
+    private void appendCharacter(char output, char original) {
+        text.append(output);
+        lastCharacter = original;
+    }
+
+    private int findNameEnd(int start) {
+        int i = start;
+        while (i < length) {
+            char c = html.charAt(i);
+            if (c == '>' || c == '/' || Character.isWhitespace(c)) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private int findTagEnd(int start) {
+        char quote = 0;
+        boolean afterEquals = false;
+        for (int i = start; i < length; i++) {
+            char c = html.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '>') {
+                return i;
+            } else if (afterEquals && (c == '"' || c == '\'')) {
+                // Only attribute values can be quoted
+                quote = c;
+                afterEquals = false;
+            } else if (c == '=') {
+                afterEquals = true;
+            } else if (!Character.isWhitespace(c)) {
+                afterEquals = false;
+            }
+        }
+        return length;
+    }
+
+    private int skipPast(String delimiter, int start) {
+        int index = html.indexOf(delimiter, start);
+        return (index == -1) ? length : index + delimiter.length();
+    }
+
+    private int indexOfIgnoreCase(String needle, int start) {
+        int needleLength = needle.length();
+        for (int i = start, end = length - needleLength; i <= end; i++) {
+            if (html.regionMatches(true, i, needle, 0, needleLength)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isIgnoredContentTag(String name) {
+        return "style".equals(name) || "script".equals(name) || "title".equals(name);
+    }
+
+    private static boolean isParagraphTag(String name) {
+        switch (name) {
+            case "p":
+            case "div":
+            case "blockquote":
+            case "h1":
+            case "h2":
+            case "h3":
+            case "h4":
+            case "h5":
+            case "h6": {
+                return true;
+            }
+            default: {
+                return false;
+            }
+        }
+    }
+}
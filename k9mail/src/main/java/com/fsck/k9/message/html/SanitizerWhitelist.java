@@ -0,0 +1,64 @@
+package com.fsck.k9.message.html;
+
+
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Element;
+import org.jsoup.safety.Whitelist;
+
+
+/**
+ * The tags, attributes and protocols allowed in sanitized messages.
+ *
+ * <p>
+ * This is {@link Whitelist#relaxed()} with a couple of additions. It extends {@link Whitelist} to make the checks
+ * available to {@link BodyCleaner}.
+ * </p>
+ */
+class SanitizerWhitelist extends Whitelist {
+    SanitizerWhitelist() {
+        addTags("a", "b", "blockquote", "br", "caption", "cite", "code", "col", "colgroup", "dd", "div", "dl", "dt",
+                "em", "h1", "h2", "h3", "h4", "h5", "h6", "i", "img", "li", "ol", "p", "pre", "q", "small", "span",
+                "strike", "strong", "sub", "sup", "table", "tbody", "td", "tfoot", "th", "thead", "tr", "u", "ul");
+        addAttributes("a", "href", "title");
+        addAttributes("blockquote", "cite");
+        addAttributes("col", "span", "width");
+        addAttributes("colgroup", "span", "width");
+        addAttributes("img", "align", "alt", "height", "src", "title", "width");
+        addAttributes("ol", "start", "type");
+        addAttributes("q", "cite");
+        addAttributes("table", "summary", "width");
+        addAttributes("td", "abbr", "axis", "colspan", "rowspan", "width");
+        addAttributes("th", "abbr", "axis", "colspan", "rowspan", "scope", "width");
+        addAttributes("ul", "type");
+        addProtocols("a", "href", "ftp", "http", "https", "mailto");
+        addProtocols("blockquote", "cite", "http", "https");
+        addProtocols("cite", "cite", "http", "https");
+        addProtocols("img", "src", "http", "https");
+        addProtocols("q", "cite", "http", "https");
+
+        addTags("font");
+        addAttributes("table", "align", "bgcolor", "border", "cellpadding", "cellspacing", "width");
+        addAttributes(":all", "class", "style", "id");
+        addProtocols("img", "src", "http", "https", "cid", "data");
+    }
+
+    // The overrides don't change the checks. They only make the protected methods of Whitelist accessible to the
+    // classes in this package, i.e. BodyCleaner.
+    @Override
+    protected boolean isSafeTag(String tag) {
+        return super.isSafeTag(tag);
+    }
+
+    /**
+     * Checks whether an attribute is allowed.
+     *
+     * <p>
+     * Like {@link org.jsoup.safety.Cleaner} this replaces the value of attributes with protocol restrictions with the
+     * absolute URL, if it can be resolved.
+     * </p>
+     */
+    @Override
+    protected boolean isSafeAttribute(String tagName, Element element, Attribute attribute) {
+        return super.isSafeAttribute(tagName, element, attribute);
+    }
+}
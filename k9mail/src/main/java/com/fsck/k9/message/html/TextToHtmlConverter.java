@@ -0,0 +1,313 @@
+package com.fsck.k9.message.html;
+
+
+import java.util.regex.Pattern;
+
+
+/**
+ * Converts plain text to HTML, turning quoted lines into nested blockquotes, linkifying URIs and replacing supported
+ * emoji with images.
+ *
+ * <p>
+ * Escaping, quote handling, emoji substitution and the cleanup of line breaks at the end of blockquotes are done while
+ * walking the text once. The horizontal rule pattern and the linkifier only run if the text contains something they
+ * could match.
+ * </p>
+ */
+class TextToHtmlConverter {
+    private static final int MAX_SMART_HTMLIFY_MESSAGE_LENGTH = 1024 * 256;
+    // Number of extra bytes to allocate in a string buffer for htmlification.
+    private static final int TEXT_TO_HTML_EXTRA_BUFFER_LENGTH = 512;
+
+    private static final String HTML_BLOCKQUOTE_COLOR_TOKEN = "$$COLOR$$";
+    private static final String HTML_BLOCKQUOTE_START = "<blockquote class=\"gmail_quote\" " +
+            "style=\"margin: 0pt 0pt 1ex 0.8ex; border-left: 1px solid $$COLOR$$; padding-left: 1ex;\">";
+    private static final String HTML_BLOCKQUOTE_END = "</blockquote>";
+    private static final String HTML_NEWLINE = "<br />";
+    // We use a token for '>' which can't occur in htmlified text because &gt; is valid within links (where > is not),
+    // and linkifying links would include it. The token is changed back to &gt; after the linkification is done.
+    private static final String GT_TOKEN = "<gt>";
+    private static final String GT_ENTITY = "&gt;";
+    // All supported emoji are in the range U+FE000 to U+FEFFF, i.e. their high surrogates are in this range
+    private static final char EMOJI_HIGH_SURROGATE_START = '\uDBB8';
+    private static final char EMOJI_HIGH_SURROGATE_END = '\uDBBB';
+    private static final Pattern ASCII_PATTERN_FOR_HR = Pattern.compile(
+            "(^|\\Q" + HTML_NEWLINE + "\\E)\\s*((\\Q" + HTML_NEWLINE + "\\E)*" +
+            "((((\\Q" + HTML_NEWLINE + "\\E){0,2}([-=_]{3,})(\\Q" + HTML_NEWLINE +
+            "\\E){0,2})|(([-=_]{2,} ?)(8&lt;|<gt>8|%&lt;|<gt>%)" +
+            "( ?[-=_]{2,})))+(\\Q" + HTML_NEWLINE + "\\E|$)))");
+
+
+    private final String text;
+    private final StringBuilder buff;
+    // Number of line breaks written since anything else was written
+    private int trailingNewlines;
+    private boolean hasHorizontalRuleCandidate;
+
+
+    static String convert(String text) {
+        // Our HTMLification code is somewhat memory intensive
+        // and was causing lots of OOM errors on the market
+        // if the message is big and plain text, just do
+        // a trivial htmlification
+        if (text.length() > MAX_SMART_HTMLIFY_MESSAGE_LENGTH) {
+            return simpleTextToHtml(text);
+        }
+
+        return new TextToHtmlConverter(text).convert();
+    }
+
+    /**
+     * Naively convert a text string into an HTML document.
+     *
+     * <p>
+     * This escapes HTML entities, converts line breaks and replaces emoji in a single pass, without quote handling or
+     * linkification.
+     * </p>
+     */
+    private static String simpleTextToHtml(String text) {
+        StringBuilder buff = new StringBuilder(text.length() + TEXT_TO_HTML_EXTRA_BUFFER_LENGTH);
+
+        buff.append(HtmlConverter.htmlifyMessageHeader());
+
+        for (int index = 0, length = text.length(); index < length; index++) {
+            char c = text.charAt(index);
+            switch (c) {
+                case '<': {
+                    buff.append("&lt;");
+                    break;
+                }
+                case '>': {
+                    buff.append("&gt;");
+                    break;
+                }
+                case '&': {
+                    buff.append("&amp;");
+                    break;
+                }
+                case '\'': {
+                    buff.append("&#39;");
+                    break;
+                }
+                case '"': {
+                    buff.append("&quot;");
+                    break;
+                }
+                case '\n': {
+                    // pine treats <br> as two newlines, but <br/> as one newline.  Use <br/> so our messages aren't
+                    // doublespaced.
+                    buff.append(HTML_NEWLINE);
+                    break;
+                }
+                case '\r': {
+                    break;
+                }
+                default: {
+                    if (!Character.isLowSurrogate(c) || !replaceEmoji(buff, c)) {
+                        buff.append(c);
+                    }
+                }
+            }
+        }
+
+        buff.append(HtmlConverter.htmlifyMessageFooter());
+
+        return buff.toString();
+    }
+
+    private TextToHtmlConverter(String text) {
+        this.text = text;
+        buff = new StringBuilder(text.length() + TEXT_TO_HTML_EXTRA_BUFFER_LENGTH);
+    }
+
+    private String convert() {
+        boolean isStartOfLine = true;  // Are we currently at the start of a line?
+        int spaces = 0;
+        int quoteDepth = 0; // Number of DIVs deep we are.
+        int quotesThisLine = 0; // How deep we should be quoting for this line.
+        for (int index = 0, length = text.length(); index < length; index++) {
+            char c = text.charAt(index);
+            if (isStartOfLine) {
+                switch (c) {
+                    case ' ': {
+                        spaces++;
+                        break;
+                    }
+                    case '>': {
+                        quotesThisLine++;
+                        spaces = 0;
+                        break;
+                    }
+                    default: {
+                        appendBlockquotes(quotesThisLine, quoteDepth);
+                        quoteDepth = quotesThisLine;
+
+                        appendSpaces(spaces);
+                        spaces = 0;
+
+                        appendChar(c);
+                        if (c == '\n') {
+                            quotesThisLine = 0;
+                        } else {
+                            isStartOfLine = false;
+                        }
+                        break;
+                    }
+                }
+            } else {
+                appendChar(c);
+                if (c == '\n') {
+                    isStartOfLine = true;
+                    quotesThisLine = 0;
+                }
+            }
+        }
+
+        // Close off any quotes we may have opened.
+        appendBlockquotes(0, quoteDepth);
+
+        CharSequence html = buff;
+        if (hasHorizontalRuleCandidate) {
+            html = ASCII_PATTERN_FOR_HR.matcher(buff).replaceAll("<hr>");
+        }
+
+        // All supported URI schemes end with a colon
+        if (text.indexOf(':') != -1) {
+            StringBuffer linkified = new StringBuffer(html.length() + TEXT_TO_HTML_EXTRA_BUFFER_LENGTH);
+            UriLinkifier.linkifyText(html.toString(), linkified);
+            html = linkified;
+        }
+
+        StringBuilder result = new StringBuilder(html.length() + TEXT_TO_HTML_EXTRA_BUFFER_LENGTH);
+        result.append(HtmlConverter.htmlifyMessageHeader());
+        appendReplacingGtTokens(result, html);
+        result.append(HtmlConverter.htmlifyMessageFooter());
+
+        return result.toString();
+    }
+
+    private void appendChar(char c) {
+        switch (c) {
+            case '&': {
+                append("&amp;");
+                break;
+            }
+            case '<': {
+                append("&lt;");
+                break;
+            }
+            case '>': {
+                append(GT_TOKEN);
+                break;
+            }
+            case '\r': {
+                break;
+            }
+            case '\n': {
+                // pine treats <br> as two newlines, but <br/> as one newline.  Use <br/> so our messages aren't
+                // doublespaced.
+                buff.append(HTML_NEWLINE);
+                trailingNewlines++;
+                break;
+            }
+            default: {
+                // The high surrogate was appended like any other character and reset trailingNewlines
+                if (Character.isLowSurrogate(c) && replaceEmoji(buff, c)) {
+                    break;
+                }
+                int length = buff.length();
+                if (isHorizontalRuleChar(c) && length > 0 && isHorizontalRuleChar(buff.charAt(length - 1))) {
+                    hasHorizontalRuleCandidate = true;
+                }
+                buff.append(c);
+                trailingNewlines = 0;
+                break;
+            }
+        }
+    }
+
+    private void append(String string) {
+        buff.append(string);
+        trailingNewlines = 0;
+    }
+
+    private void appendSpaces(int spaces) {
+        for (int i = 0; i < spaces; i++) {
+            buff.append(' ');
+        }
+        if (spaces > 0) {
+            trailingNewlines = 0;
+        }
+    }
+
+    private void appendBlockquotes(int quotesThisLine, int quoteDepth) {
+        // Add/remove blockquotes by comparing this line's quotes to the previous line's quotes.
+        if (quotesThisLine > quoteDepth) {
+            for (int i = quoteDepth; i < quotesThisLine; i++) {
+                append(HTML_BLOCKQUOTE_START.replace(HTML_BLOCKQUOTE_COLOR_TOKEN, HtmlConverter.getQuoteColor(i + 1)));
+            }
+        } else if (quotesThisLine < quoteDepth) {
+            // Make newlines at the end of blockquotes nicer by putting newlines beyond the first one outside of the
+            // blockquote. The first one is dropped because the end of the blockquote already starts a new line.
+            int movedNewlines = 0;
+            if (trailingNewlines > 1) {
+                buff.setLength(buff.length() - trailingNewlines * HTML_NEWLINE.length());
+                movedNewlines = trailingNewlines - 1;
+            }
+
+            for (int i = quoteDepth; i > quotesThisLine; i--) {
+                buff.append(HTML_BLOCKQUOTE_END);
+                for (; movedNewlines > 0; movedNewlines--) {
+                    buff.append(HTML_NEWLINE);
+                }
+            }
+            trailingNewlines = 0;
+        }
+    }
+
+    /**
+     * Replaces the high surrogate at the end of {@code buff} and the given low surrogate with an image if together they
+     * form a supported emoji.
+     *
+     * @return {@code true} if the emoji was replaced, {@code false} if nothing was changed.
+     */
+    private static boolean replaceEmoji(StringBuilder buff, char lowSurrogate) {
+        int length = buff.length();
+        if (length == 0) {
+            return false;
+        }
+
+        char highSurrogate = buff.charAt(length - 1);
+        if (highSurrogate < EMOJI_HIGH_SURROGATE_START || highSurrogate > EMOJI_HIGH_SURROGATE_END) {
+            return false;
+        }
+
+        String emoji = HtmlConverter.getEmojiForCodePoint(Character.toCodePoint(highSurrogate, lowSurrogate));
+        if (emoji == null) {
+            return false;
+        }
+
+        buff.setLength(length - 1);
+        buff.append("<img src=\"file:///android_asset/emoticons/").append(emoji).append(".gif\" alt=\"")
+                .append(emoji).append("\" />");
+        return true;
+    }
+
+    private static boolean isHorizontalRuleChar(char c) {
+        return c == '-' || c == '=' || c == '_';
+    }
+
+    private static void appendReplacingGtTokens(StringBuilder output, CharSequence html) {
+        int tokenLength = GT_TOKEN.length();
+        int start = 0;
+        for (int i = 0, end = html.length() - tokenLength; i <= end; i++) {
+            if (html.charAt(i) == '<' && html.charAt(i + 1) == 'g' && html.charAt(i + 2) == 't' &&
+                    html.charAt(i + 3) == '>') {
+                output.append(html, start, i).append(GT_ENTITY);
+                i += tokenLength - 1;
+                start = i + 1;
+            }
+        }
+        output.append(html, start, html.length());
+    }
+}
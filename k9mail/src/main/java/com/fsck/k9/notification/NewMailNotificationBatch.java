@@ -0,0 +1,99 @@
+package com.fsck.k9.notification;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.mailstore.LocalMessage;
+
+
+/**
+ * Collects the messages of a synchronization that should trigger a new mail notification.
+ * <p>
+ * Instead of updating the notifications for every single message the collected messages are handed to
+ * {@link NotificationController} in batches: at the latest {@link #MAX_BATCH_DURATION} after the first message of the
+ * current batch was added, and when {@link #flush()} is called at the end of the synchronization. The deadline is
+ * enforced by a timer, so a lone message isn't held back until the synchronization is done.
+ * </p>
+ */
+public class NewMailNotificationBatch {
+    @VisibleForTesting
+    static final long MAX_BATCH_DURATION = 2000;
+
+    private static Handler sFlushHandler;
+
+
+    private final NotificationController controller;
+    private final Account account;
+    private final int previousUnreadMessageCount;
+    private final Handler flushHandler;
+    private final List<LocalMessage> messages = new ArrayList<LocalMessage>();
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private long batchStartTime;
+
+
+    public NewMailNotificationBatch(NotificationController controller, Account account, int previousUnreadMessageCount) {
+        this(controller, account, previousUnreadMessageCount, getFlushHandler());
+    }
+
+    @VisibleForTesting
+    NewMailNotificationBatch(NotificationController controller, Account account, int previousUnreadMessageCount,
+            Handler flushHandler) {
+        this.controller = controller;
+        this.account = account;
+        this.previousUnreadMessageCount = previousUnreadMessageCount;
+        this.flushHandler = flushHandler;
+    }
+
+    private static synchronized Handler getFlushHandler() {
+        if (sFlushHandler == null) {
+            HandlerThread thread = new HandlerThread("NewMailNotificationBatch");
+            thread.start();
+            sFlushHandler = new Handler(thread.getLooper());
+        }
+        return sFlushHandler;
+    }
+
+    public synchronized void add(LocalMessage message) {
+        long now = getTime();
+        if (messages.isEmpty()) {
+            batchStartTime = now;
+            flushHandler.postDelayed(flushRunnable, MAX_BATCH_DURATION);
+        }
+
+        messages.add(message);
+
+        if (now - batchStartTime >= MAX_BATCH_DURATION) {
+            flush();
+        }
+    }
+
+    public synchronized void flush() {
+        flushHandler.removeCallbacks(flushRunnable);
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        List<LocalMessage> batch = new ArrayList<LocalMessage>(messages);
+        messages.clear();
+
+        // Still holding the lock, so batches are always handed over in the order they were collected
+        controller.addNewMailNotifications(account, batch, previousUnreadMessageCount);
+    }
+
+    @VisibleForTesting
+    long getTime() {
+        return SystemClock.elapsedRealtime();
+    }
+}
@@ -1,6 +1,12 @@
 package com.fsck.k9.notification;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 import android.app.Notification;
 import android.support.v4.app.NotificationManagerCompat;
 import android.util.SparseArray;
@@ -49,18 +55,51 @@ class NewMailNotifications {
     }
 
     public void addNewMailNotification(Account account, LocalMessage message, int unreadMessageCount) {
-        NotificationContent content = contentCreator.createFromMessage(account, message);
+        addNewMailNotifications(account, Collections.singletonList(message), unreadMessageCount);
+    }
+
+    /**
+     * Add notifications for a batch of new messages.
+     * <p>
+     * Stacked notifications are only posted for the messages that are still displayed after the whole batch has been
+     * added, and the summary notification is rebuilt once per batch rather than once per message.
+     * </p>
+     */
+    public void addNewMailNotifications(Account account, List<LocalMessage> messages, int unreadMessageCount) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        List<NotificationContent> contents = new ArrayList<NotificationContent>(messages.size());
+        for (LocalMessage message : messages) {
+            contents.add(contentCreator.createFromMessage(account, message));
+        }
 
         synchronized (lock) {
             NotificationData notificationData = getOrCreateNotificationData(account, unreadMessageCount);
-            AddNotificationResult result = notificationData.addNotificationContent(content);
 
-            if (result.shouldCancelNotification()) {
-                int notificationId = result.getNotificationId();
+            Set<Integer> notificationIdsToCancel = new LinkedHashSet<Integer>();
+            SparseArray<NotificationHolder> holdersToCreate = new SparseArray<NotificationHolder>();
+            for (NotificationContent content : contents) {
+                AddNotificationResult result = notificationData.addNotificationContent(content);
+                NotificationHolder holder = result.getNotificationHolder();
+
+                if (result.shouldCancelNotification()) {
+                    notificationIdsToCancel.add(result.getNotificationId());
+                }
+
+                // A later message in this batch might reuse the notification ID. Only the latest holder is shown.
+                holdersToCreate.put(holder.notificationId, holder);
+            }
+
+            for (int notificationId : notificationIdsToCancel) {
                 cancelNotification(notificationId);
             }
 
-            createStackedNotification(account, result.getNotificationHolder());
+            for (int i = 0, size = holdersToCreate.size(); i < size; i++) {
+                createStackedNotification(account, holdersToCreate.valueAt(i));
+            }
+
             createSummaryNotification(account, notificationData, false);
         }
     }
@@ -1,6 +1,8 @@
 package com.fsck.k9.notification;
 
 
+import java.util.List;
+
 import android.content.Context;
 import android.net.Uri;
 import android.os.Build;
@@ -105,6 +107,10 @@ public class NotificationController {
         newMailNotifications.addNewMailNotification(account, message, previousUnreadMessageCount);
     }
 
+    public void addNewMailNotifications(Account account, List<LocalMessage> messages, int previousUnreadMessageCount) {
+        newMailNotifications.addNewMailNotifications(account, messages, previousUnreadMessageCount);
+    }
+
     public void removeNewMailNotification(Account account, MessageReference messageReference) {
         newMailNotifications.removeNewMailNotification(account, messageReference);
     }
@@ -9,6 +9,7 @@ import java.util.Set;
 import java.util.TreeMap;
 
 import com.fsck.k9.Account;
+import com.fsck.k9.Account.AttachmentPrefetch;
 import com.fsck.k9.Account.DeletePolicy;
 import com.fsck.k9.Account.Expunge;
 import com.fsck.k9.Account.FolderMode;
@@ -53,6 +54,13 @@ public class AccountSettings {
         s.put("archiveFolderName", Settings.versions(
                 new V(1, new StringSetting("Archive"))
         ));
+        s.put("attachmentPrefetch", Settings.versions(
+                new V(49, new EnumSetting<>(AttachmentPrefetch.class, Account.DEFAULT_ATTACHMENT_PREFETCH))
+        ));
+        s.put("attachmentPrefetchBudgetMb", Settings.versions(
+                new V(49, new IntegerResourceSetting(Account.DEFAULT_ATTACHMENT_PREFETCH_BUDGET_MB,
+                        R.array.account_settings_attachment_prefetch_budget_values))
+        ));
         s.put("autoExpandFolderName", Settings.versions(
                 new V(1, new StringSetting("INBOX"))
         ));
@@ -112,6 +120,10 @@ public class AccountSettings {
         s.put("markMessageAsReadOnView", Settings.versions(
                 new V(7, new BooleanSetting(true))
         ));
+        s.put("maxFolderCheckIntervalMinutes", Settings.versions(
+                new V(48, new IntegerResourceSetting(Account.DEFAULT_MAX_FOLDER_CHECK_INTERVAL_MINUTES,
+                        R.array.account_settings_max_folder_check_interval_values))
+        ));
         s.put("maxPushFolders", Settings.versions(
                 new V(1, new IntegerRangeSetting(0, 100, 10))
         ));
@@ -14,6 +14,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
 
 import android.content.Context;
@@ -163,7 +164,7 @@ public class SettingsExporter {
                 exportAccounts = accountUuids;
             }
 
-            Map<String, Object> prefs = new TreeMap<String, Object>(storage.getAll());
+            SortedMap<String, Object> prefs = new TreeMap<String, Object>(storage.getAll());
 
             if (includeGlobals) {
                 serializer.startTag(null, GLOBAL_ELEMENT);
@@ -216,7 +217,7 @@ public class SettingsExporter {
         }
     }
 
-    private static void writeAccount(XmlSerializer serializer, Account account, Map<String, Object> prefs)
+    private static void writeAccount(XmlSerializer serializer, Account account, SortedMap<String, Object> prefs)
             throws IOException {
 
         Set<Integer> identities = new HashSet<>();
@@ -299,7 +300,7 @@ public class SettingsExporter {
 
         // Write account settings
         serializer.startTag(null, SETTINGS_ELEMENT);
-        for (Map.Entry<String, Object> entry : prefs.entrySet()) {
+        for (Map.Entry<String, Object> entry : getEntriesWithPrefix(prefs, accountUuid + ".").entrySet()) {
             String key = entry.getKey();
             String valueString = entry.getValue().toString();
             String[] comps = key.split("\\.", 2);
@@ -384,7 +385,7 @@ public class SettingsExporter {
     }
 
     private static void writeIdentity(XmlSerializer serializer, String accountUuid, String identity,
-            Map<String, Object> prefs) throws IOException {
+            SortedMap<String, Object> prefs) throws IOException {
 
         serializer.startTag(null, IDENTITY_ELEMENT);
 
@@ -413,7 +414,7 @@ public class SettingsExporter {
 
         // Write identity settings
         serializer.startTag(null, SETTINGS_ELEMENT);
-        for (Map.Entry<String, Object> entry : prefs.entrySet()) {
+        for (Map.Entry<String, Object> entry : getEntriesWithPrefix(prefs, prefix).entrySet()) {
             String key = entry.getKey();
             String valueString = entry.getValue().toString();
             String[] comps = key.split("\\.");
@@ -454,13 +455,15 @@ public class SettingsExporter {
     }
 
     private static void writeFolder(XmlSerializer serializer, String accountUuid, String folder,
-            Map<String, Object> prefs) throws IOException {
+            SortedMap<String, Object> prefs) throws IOException {
 
         serializer.startTag(null, FOLDER_ELEMENT);
         serializer.attribute(null, NAME_ATTRIBUTE, folder);
 
-        // Write folder settings
-        for (Map.Entry<String, Object> entry : prefs.entrySet()) {
+        // Write folder settings. The prefix also matches folders whose name starts with "<folder>." so we still have
+        // to check the folder name below.
+        String prefix = accountUuid + "." + folder + ".";
+        for (Map.Entry<String, Object> entry : getEntriesWithPrefix(prefs, prefix).entrySet()) {
             String key = entry.getKey();
             String valueString = entry.getValue().toString();
             int indexOfFirstDot = key.indexOf('.');
@@ -501,6 +504,13 @@ public class SettingsExporter {
         serializer.endTag(null, FOLDER_ELEMENT);
     }
 
+    /**
+     * Get a view of all preference entries whose key starts with {@code prefix} without iterating over all entries.
+     */
+    private static SortedMap<String, Object> getEntriesWithPrefix(SortedMap<String, Object> prefs, String prefix) {
+        return prefs.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
     private static void writeElement(XmlSerializer serializer, String elementName, String value)
             throws IllegalArgumentException, IllegalStateException, IOException {
         if (value != null) {
@@ -7,8 +7,10 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import android.content.Context;
@@ -161,113 +163,70 @@ public class SettingsImporter {
      * @throws SettingsImportExportException
      *         In case of an error.
      */
-    public static ImportResults importSettings(Context context, InputStream inputStream, boolean globalSettings,
-            List<String> accountUuids, boolean overwrite) throws SettingsImportExportException {
+    public static ImportResults importSettings(final Context context, InputStream inputStream, boolean globalSettings,
+            final List<String> accountUuids, final boolean overwrite) throws SettingsImportExportException {
 
+        Preferences preferences = Preferences.getPreferences(context);
         try {
             boolean globalSettingsImported = false;
-            List<AccountDescriptionPair> importedAccounts = new ArrayList<>();
-            List<AccountDescription> erroneousAccounts = new ArrayList<>();
-
-            Imported imported = parseSettings(inputStream, globalSettings, accountUuids, false);
+            final List<AccountDescriptionPair> importedAccounts = new ArrayList<>();
+            final List<AccountDescription> erroneousAccounts = new ArrayList<>();
+
+            final Storage storage = preferences.getStorage();
+            final ExistingAccounts existingAccounts = ExistingAccounts.load(preferences);
+            final Set<String> foundAccountUuids = new HashSet<>();
+
+            // Accounts are staged one at a time while the file is being read, so we never have to keep more than one
+            // parsed account in memory. Nothing is committed before the whole file has been read successfully.
+            final StorageEditor editor = storage.edit();
+            ImportedAccountHandler accountHandler = new ImportedAccountHandler() {
+                @Override
+                public void handleAccount(int contentVersion, ImportedAccount account) {
+                    foundAccountUuids.add(account.uuid);
+                    stageAccount(context, storage, editor, contentVersion, account, overwrite, existingAccounts,
+                            importedAccounts, erroneousAccounts);
+                }
+            };
 
-            Preferences preferences = Preferences.getPreferences(context);
-            Storage storage = preferences.getStorage();
+            Imported imported = parseSettings(inputStream, globalSettings, accountUuids, false, accountHandler);
 
             if (globalSettings) {
-                try {
-                    StorageEditor editor = storage.edit();
-                    if (imported.globalSettings != null) {
-                        importGlobalSettings(storage, editor, imported.contentVersion, imported.globalSettings);
-                    } else {
-                        Timber.w("Was asked to import global settings but none found.");
-                    }
-                    if (editor.commit()) {
-                        Timber.v("Committed global settings to the preference storage.");
-                        globalSettingsImported = true;
-                    } else {
-                        Timber.v("Failed to commit global settings to the preference storage");
-                    }
-                } catch (Exception e) {
-                    Timber.e(e, "Exception while importing global settings");
+                if (imported.globalSettings != null) {
+                    globalSettingsImported = stageGlobalSettings(storage, editor, imported.contentVersion,
+                            imported.globalSettings);
+                } else {
+                    Timber.w("Was asked to import global settings but none found.");
                 }
             }
 
             if (accountUuids != null && accountUuids.size() > 0) {
                 if (imported.accounts != null) {
                     for (String accountUuid : accountUuids) {
-                        if (imported.accounts.containsKey(accountUuid)) {
-                            ImportedAccount account = imported.accounts.get(accountUuid);
-                            try {
-                                StorageEditor editor = storage.edit();
-
-                                AccountDescriptionPair importResult = importAccount(context, editor,
-                                        imported.contentVersion, account, overwrite);
-
-                                if (editor.commit()) {
-                                    Timber.v("Committed settings for account \"%s\" to the settings database.",
-                                            importResult.imported.name);
-
-                                    // Add UUID of the account we just imported to the list of
-                                    // account UUIDs
-                                    if (!importResult.overwritten) {
-                                        editor = storage.edit();
-
-                                        String newUuid = importResult.imported.uuid;
-                                        String oldAccountUuids = storage.getString("accountUuids", "");
-                                        String newAccountUuids = (oldAccountUuids.length() > 0) ?
-                                                oldAccountUuids + "," + newUuid : newUuid;
-
-                                        putString(editor, "accountUuids", newAccountUuids);
-
-                                        if (!editor.commit()) {
-                                            throw new SettingsImportExportException("Failed to set account UUID list");
-                                        }
-                                    }
-
-                                    // Reload accounts
-                                    preferences.loadAccounts();
-
-                                    importedAccounts.add(importResult);
-                                } else {
-                                    Timber.w("Error while committing settings for account \"%s\" to the settings " +
-                                            "database.", importResult.original.name);
-
-                                    erroneousAccounts.add(importResult.original);
-                                }
-                            } catch (InvalidSettingValueException e) {
-                                Timber.e(e, "Encountered invalid setting while importing account \"%s\"",
-                                        account.name);
-
-                                erroneousAccounts.add(new AccountDescription(account.name, account.uuid));
-                            } catch (Exception e) {
-                                Timber.e(e, "Exception while importing account \"%s\"", account.name);
-                                erroneousAccounts.add(new AccountDescription(account.name, account.uuid));
-                            }
-                        } else {
+                        if (!foundAccountUuids.contains(accountUuid)) {
                             Timber.w("Was asked to import account with UUID %s. But this account wasn't found.",
                                     accountUuid);
                         }
                     }
 
-                    StorageEditor editor = storage.edit();
+                    // Add the UUIDs of the new accounts to the list of account UUIDs
+                    String allAccountUuids = existingAccounts.getAccountUuids();
+                    if (allAccountUuids.length() > 0) {
+                        putString(editor, "accountUuids", allAccountUuids);
+                    }
 
                     String defaultAccountUuid = storage.getString("defaultAccountUuid", null);
                     if (defaultAccountUuid == null) {
                         putString(editor, "defaultAccountUuid", accountUuids.get(0));
                     }
-
-                    if (!editor.commit()) {
-                        throw new SettingsImportExportException("Failed to set default account");
-                    }
                 } else {
                     Timber.w("Was asked to import at least one account but none found.");
                 }
             }
 
-            preferences.loadAccounts();
-            K9.loadPrefs(preferences);
-            K9.setServicesEnabled(context);
+            if (!editor.commit()) {
+                throw new SettingsImportExportException("Failed to commit imported settings");
+            }
+            Timber.v("Committed imported settings to the preference storage.");
 
             return new ImportResults(globalSettingsImported, importedAccounts, erroneousAccounts);
 
@@ -275,6 +234,59 @@ public class SettingsImporter {
             throw e;
         } catch (Exception e) {
             throw new SettingsImportExportException(e);
+        } finally {
+            preferences.loadAccounts();
+            K9.loadPrefs(preferences);
+            K9.setServicesEnabled(context);
+        }
+    }
+
+    /**
+     * Write the global settings to {@code editor} if all of them could be converted.
+     *
+     * @return {@code true} if the global settings were staged, {@code false} otherwise.
+     */
+    private static boolean stageGlobalSettings(Storage storage, StorageEditor editor, int contentVersion,
+            ImportedSettings settings) {
+        try {
+            StorageEditor globalEditor = storage.edit();
+            importGlobalSettings(storage, globalEditor, contentVersion, settings);
+            editor.putAll(globalEditor);
+            return true;
+        } catch (Exception e) {
+            Timber.e(e, "Exception while importing global settings");
+            return false;
+        }
+    }
+
+    /**
+     * Write the settings of one account to {@code editor} if all of them could be converted.
+     *
+     * <p>
+     * The account is first written to an editor of its own, so an account that fails validation halfway through
+     * doesn't leave any settings behind.
+     * </p>
+     */
+    private static void stageAccount(Context context, Storage storage, StorageEditor editor, int contentVersion,
+            ImportedAccount account, boolean overwrite, ExistingAccounts existingAccounts,
+            List<AccountDescriptionPair> importedAccounts, List<AccountDescription> erroneousAccounts) {
+        try {
+            StorageEditor accountEditor = storage.edit();
+
+            AccountDescriptionPair importResult = importAccount(context, accountEditor, contentVersion, account,
+                    overwrite, existingAccounts);
+
+            editor.putAll(accountEditor);
+            if (!importResult.overwritten) {
+                existingAccounts.addAccountUuid(importResult.imported.uuid);
+            }
+            importedAccounts.add(importResult);
+        } catch (InvalidSettingValueException e) {
+            Timber.e(e, "Encountered invalid setting while importing account \"%s\"", account.name);
+            erroneousAccounts.add(new AccountDescription(account.name, account.uuid));
+        } catch (Exception e) {
+            Timber.e(e, "Exception while importing account \"%s\"", account.name);
+            erroneousAccounts.add(new AccountDescription(account.name, account.uuid));
         }
     }
 
@@ -304,12 +316,12 @@ public class SettingsImporter {
     }
 
     private static AccountDescriptionPair importAccount(Context context, StorageEditor editor, int contentVersion,
-            ImportedAccount account, boolean overwrite) throws InvalidSettingValueException {
+            ImportedAccount account, boolean overwrite, ExistingAccounts existingAccounts)
+            throws InvalidSettingValueException {
 
         AccountDescription original = new AccountDescription(account.name, account.uuid);
 
         Preferences prefs = Preferences.getPreferences(context);
-        List<Account> accounts = prefs.getAccounts();
 
         String uuid = account.uuid;
         Account existingAccount = prefs.getAccount(uuid);
@@ -323,12 +335,12 @@ public class SettingsImporter {
 
         // Make sure the account name is unique
         String accountName = account.name;
-        if (isAccountNameUsed(accountName, accounts)) {
+        if (existingAccounts.isAccountNameUsed(accountName)) {
             // Account name is already in use. So generate a new one by appending " (x)", where x is the first
             // number >= 1 that results in an unused account name.
-            for (int i = 1; i <= accounts.size(); i++) {
+            for (int i = 1; i <= existingAccounts.getAccountNameCount(); i++) {
                 accountName = account.name + " (" + i + ")";
-                if (!isAccountNameUsed(accountName, accounts)) {
+                if (!existingAccounts.isAccountNameUsed(accountName)) {
                     break;
                 }
             }
@@ -412,7 +424,7 @@ public class SettingsImporter {
 
         // If it's a new account generate and write a new "accountNumber"
         if (!mergeImportedAccount) {
-            int newAccountNumber = Account.generateAccountNumber(prefs);
+            int newAccountNumber = existingAccounts.generateAccountNumber();
             putString(editor, accountKeyPrefix + "accountNumber", Integer.toString(newAccountNumber));
         }
 
@@ -433,6 +445,8 @@ public class SettingsImporter {
 
         //TODO: sync folder settings with localstore?
 
+        existingAccounts.addAccountName(accountName);
+
         AccountDescription imported = new AccountDescription(accountName, uuid);
         return new AccountDescriptionPair(original, imported, mergeImportedAccount);
     }
@@ -564,19 +578,6 @@ public class SettingsImporter {
         }
     }
 
-    private static boolean isAccountNameUsed(String name, List<Account> accounts) {
-        for (Account account : accounts) {
-            if (account == null) {
-                continue;
-            }
-
-            if (account.getDescription().equals(name)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private static boolean isIdentityDescriptionUsed(String description, List<Identity> identities) {
         for (Identity identity : identities) {
             if (identity.getDescription().equals(description)) {
@@ -622,6 +623,18 @@ public class SettingsImporter {
     @VisibleForTesting
     static Imported parseSettings(InputStream inputStream, boolean globalSettings, List<String> accountUuids,
             boolean overview) throws SettingsImportExportException {
+        return parseSettings(inputStream, globalSettings, accountUuids, overview, null);
+    }
+
+    /**
+     * Parse an import stream.
+     *
+     * @param accountHandler
+     *         If not {@code null} the selected accounts are passed to this handler as soon as they have been read.
+     *         They won't be included in {@link Imported#accounts} then.
+     */
+    private static Imported parseSettings(InputStream inputStream, boolean globalSettings, List<String> accountUuids,
+            boolean overview, ImportedAccountHandler accountHandler) throws SettingsImportExportException {
 
         if (!overview && accountUuids == null) {
             throw new IllegalArgumentException("Argument 'accountUuids' must not be null.");
@@ -640,7 +653,7 @@ public class SettingsImporter {
             while (eventType != XmlPullParser.END_DOCUMENT) {
                 if (eventType == XmlPullParser.START_TAG) {
                     if (SettingsExporter.ROOT_ELEMENT.equals(xpp.getName())) {
-                        imported = parseRoot(xpp, globalSettings, accountUuids, overview);
+                        imported = parseRoot(xpp, globalSettings, accountUuids, overview, accountHandler);
                     } else {
                         Timber.w("Unexpected start tag: %s", xpp.getName());
                     }
@@ -674,7 +687,8 @@ public class SettingsImporter {
     }
 
     private static Imported parseRoot(XmlPullParser xpp, boolean globalSettings, List<String> accountUuids,
-            boolean overview) throws XmlPullParserException, IOException, SettingsImportExportException {
+            boolean overview, ImportedAccountHandler accountHandler)
+            throws XmlPullParserException, IOException, SettingsImportExportException {
 
         Imported result = new Imported();
 
@@ -707,7 +721,8 @@ public class SettingsImporter {
                     }
                 } else if (SettingsExporter.ACCOUNTS_ELEMENT.equals(element)) {
                     if (result.accounts == null) {
-                        result.accounts = parseAccounts(xpp, accountUuids, overview);
+                        result.accounts = parseAccounts(xpp, accountUuids, overview, result.contentVersion,
+                                accountHandler);
                     } else {
                         Timber.w("More than one accounts element. Only using the first one!");
                     }
@@ -793,9 +808,11 @@ public class SettingsImporter {
     }
 
     private static Map<String, ImportedAccount> parseAccounts(XmlPullParser xpp, List<String> accountUuids,
-            boolean overview) throws XmlPullParserException, IOException {
+            boolean overview, int contentVersion, ImportedAccountHandler accountHandler)
+            throws XmlPullParserException, IOException {
 
         Map<String, ImportedAccount> accounts = null;
+        Set<String> handledAccountUuids = new HashSet<>();
 
         int eventType = xpp.next();
         while (!(eventType == XmlPullParser.END_TAG && SettingsExporter.ACCOUNTS_ELEMENT.equals(xpp.getName()))) {
@@ -810,6 +827,14 @@ public class SettingsImporter {
 
                     if (account == null) {
                         // Do nothing - parseAccount() already logged a message
+                    } else if (accountHandler != null) {
+                        if (!accountUuids.contains(account.uuid)) {
+                            // Do nothing - parseAccount() skipped this account
+                        } else if (handledAccountUuids.add(account.uuid)) {
+                            accountHandler.handleAccount(contentVersion, account);
+                        } else {
+                            Timber.w("Duplicate account entries with UUID %s. Ignoring!", account.uuid);
+                        }
                     } else if (!accounts.containsKey(account.uuid)) {
                         accounts.put(account.uuid, account);
                     } else {
@@ -1068,6 +1093,66 @@ public class SettingsImporter {
         }
     }
 
+    private interface ImportedAccountHandler {
+        void handleAccount(int contentVersion, ImportedAccount account);
+    }
+
+    /**
+     * Keeps track of the accounts in the preference storage while importing.
+     *
+     * <p>
+     * Accounts imported earlier in the same run are taken into account without reloading all accounts from
+     * {@link Preferences} after every imported account.
+     * </p>
+     */
+    private static class ExistingAccounts {
+        private final Set<String> accountNames = new HashSet<>();
+        private final List<Integer> accountNumbers = new ArrayList<>();
+        private String accountUuids;
+
+
+        static ExistingAccounts load(Preferences preferences) {
+            ExistingAccounts existingAccounts = new ExistingAccounts();
+            for (Account account : preferences.getAccounts()) {
+                if (account == null) {
+                    continue;
+                }
+
+                existingAccounts.accountNames.add(account.getDescription());
+                existingAccounts.accountNumbers.add(account.getAccountNumber());
+            }
+            existingAccounts.accountUuids = preferences.getStorage().getString("accountUuids", "");
+
+            return existingAccounts;
+        }
+
+        boolean isAccountNameUsed(String name) {
+            return accountNames.contains(name);
+        }
+
+        int getAccountNameCount() {
+            return accountNames.size();
+        }
+
+        void addAccountName(String name) {
+            accountNames.add(name);
+        }
+
+        int generateAccountNumber() {
+            int accountNumber = Account.findNewAccountNumber(accountNumbers);
+            accountNumbers.add(accountNumber);
+            return accountNumber;
+        }
+
+        String getAccountUuids() {
+            return accountUuids;
+        }
+
+        void addAccountUuid(String uuid) {
+            accountUuids = (accountUuids.length() > 0) ? accountUuids + "," + uuid : uuid;
+        }
+    }
+
     @VisibleForTesting
     static class Imported {
         public int contentVersion;
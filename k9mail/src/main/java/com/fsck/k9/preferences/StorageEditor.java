@@ -39,6 +39,14 @@ public class StorageEditor {
         }
     }
 
+    /**
+     * Copy the pending changes of another editor to this one.
+     */
+    void putAll(StorageEditor other) {
+        removals.addAll(other.removals);
+        changes.putAll(other.changes);
+    }
+
     public boolean commit() {
         try {
             commitChanges();
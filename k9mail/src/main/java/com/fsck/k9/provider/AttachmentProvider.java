@@ -1,6 +1,7 @@
 package com.fsck.k9.provider;
 
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.List;
@@ -13,6 +14,7 @@ import android.net.Uri;
 import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import timber.log.Timber;
 
 import com.fsck.k9.Account;
@@ -162,12 +164,9 @@ public class AttachmentProvider extends ContentProvider {
     @Nullable
     private ParcelFileDescriptor openAttachment(String accountUuid, String attachmentId) {
         try {
-            OpenPgpDataSource openPgpDataSource = getAttachmentDataSource(accountUuid, attachmentId);
-            if (openPgpDataSource == null) {
-                Timber.e("Error getting data source for attachment (part doesn't exist?)");
-                return null;
-            }
-            return openPgpDataSource.startPumpThread();
+            final Account account = Preferences.getPreferences(getContext()).getAccount(accountUuid);
+            LocalStore localStore = LocalStore.getInstance(account, getContext());
+            return openAttachment(localStore, attachmentId);
         } catch (MessagingException e) {
             Timber.e(e, "Error getting InputStream for attachment");
             return null;
@@ -177,10 +176,21 @@ public class AttachmentProvider extends ContentProvider {
         }
     }
 
+    @VisibleForTesting
     @Nullable
-    private OpenPgpDataSource getAttachmentDataSource(String accountUuid, String attachmentId) throws MessagingException {
-        final Account account = Preferences.getPreferences(getContext()).getAccount(accountUuid);
-        LocalStore localStore = LocalStore.getInstance(account, getContext());
-        return localStore.getAttachmentDataSource(attachmentId);
+    static ParcelFileDescriptor openAttachment(LocalStore localStore, String attachmentId)
+            throws MessagingException, IOException {
+        // Attachments stored without transfer encoding are served as seekable file descriptors
+        File file = localStore.getDecodedAttachmentFile(attachmentId);
+        if (file != null) {
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+
+        OpenPgpDataSource openPgpDataSource = localStore.getAttachmentDataSource(attachmentId);
+        if (openPgpDataSource == null) {
+            Timber.e("Error getting data source for attachment (part doesn't exist?)");
+            return null;
+        }
+        return openPgpDataSource.startPumpThread();
     }
 }
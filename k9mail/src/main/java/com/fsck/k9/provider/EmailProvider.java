@@ -50,6 +50,12 @@ public class EmailProvider extends ContentProvider {
 
     public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY);
 
+    /**
+     * Query parameter of the {@code messages} and {@code messages/threaded} URIs to only return the given number of
+     * rows.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
 
     /*
      * Constants that are used for the URI matching.
@@ -111,6 +117,14 @@ public class EmailProvider extends ContentProvider {
 
     private static final String THREADS_TABLE = "threads";
 
+    private static final String THREAD_SUMMARIES_TABLE = "thread_summaries";
+
+    /**
+     * The selection used for a single folder. Threaded lists with this selection are read from the thread summaries
+     * maintained by database triggers instead of being aggregated over all messages of the folder.
+     */
+    private static final String FOLDER_SELECTION = MessageColumns.FOLDER_ID + " = ?";
+
     static {
         UriMatcher matcher = URI_MATCHER;
 
@@ -236,9 +250,18 @@ public class EmailProvider extends ContentProvider {
                 String[] dbProjection = dbColumnNames.toArray(new String[0]);
 
                 if (match == MESSAGES) {
-                    cursor = getMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder);
+                    String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+                    cursor = getMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder, limit);
                 } else if (match == MESSAGES_THREADED) {
-                    cursor = getThreadedMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder);
+                    String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+                    // Only a selection that is exactly FOLDER_SELECTION can be served from the thread summaries.
+                    // Anything else, e.g. a folder combined with further conditions, is aggregated over the messages.
+                    if (FOLDER_SELECTION.equals(selection)) {
+                        cursor = getThreadSummaries(accountUuid, dbProjection, selectionArgs, sortOrder, limit);
+                    } else {
+                        cursor = getThreadedMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder,
+                                limit);
+                    }
                 } else if (match == MESSAGES_THREAD) {
                     String threadId = segments.get(3);
                     cursor = getThread(accountUuid, dbProjection, threadId, sortOrder);
@@ -284,8 +307,37 @@ public class EmailProvider extends ContentProvider {
         throw new RuntimeException("not implemented yet");
     }
 
+    /**
+     * Validates the value of {@link #QUERY_PARAMETER_LIMIT} before it's appended to a query.
+     *
+     * @return The limit as a string or {@code null} if no limit was requested.
+     *
+     * @throws IllegalArgumentException
+     *         If the limit is not a non-negative number.
+     */
+    private static String parseLimit(String limitParameter) {
+        if (limitParameter == null) {
+            return null;
+        }
+
+        int limit;
+        try {
+            limit = Integer.parseInt(limitParameter);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit: " + limitParameter, e);
+        }
+
+        if (limit < 0) {
+            throw new IllegalArgumentException("Invalid limit: " + limitParameter);
+        }
+
+        return Integer.toString(limit);
+    }
+
     protected Cursor getMessages(String accountUuid, final String[] projection, final String selection,
-            final String[] selectionArgs, final String sortOrder) {
+            final String[] selectionArgs, final String sortOrder, String limitParameter) {
+
+        final String limit = parseLimit(limitParameter);
 
         Account account = getAccount(accountUuid);
         LockableDatabase database = getDatabase(account);
@@ -333,10 +385,15 @@ public class EmailProvider extends ContentProvider {
                         query.append(SqlQueryBuilder.addPrefixToSelection(FIXUP_MESSAGES_COLUMNS, "m.", where));
                         query.append(" ORDER BY ");
                         query.append(SqlQueryBuilder.addPrefixToSelection(FIXUP_MESSAGES_COLUMNS, "m.", sortOrder));
+                        if (limit != null) {
+                            query.append(" LIMIT ");
+                            query.append(limit);
+                        }
 
                         cursor = db.rawQuery(query.toString(), selectionArgs);
                     } else {
-                        cursor = db.query(MESSAGES_TABLE, projection, where, selectionArgs, null, null, sortOrder);
+                        cursor = db.query(MESSAGES_TABLE, projection, where, selectionArgs, null, null, sortOrder,
+                                limit);
                     }
 
                     return cursor;
@@ -350,7 +407,9 @@ public class EmailProvider extends ContentProvider {
     }
 
     protected Cursor getThreadedMessages(String accountUuid, final String[] projection, final String selection,
-            final String[] selectionArgs, final String sortOrder) {
+            final String[] selectionArgs, final String sortOrder, String limitParameter) {
+
+        final String limit = parseLimit(limitParameter);
 
         Account account = getAccount(accountUuid);
         LockableDatabase database = getDatabase(account);
@@ -414,6 +473,11 @@ public class EmailProvider extends ContentProvider {
                                 FIXUP_AGGREGATED_MESSAGES_COLUMNS, "a.", sortOrder));
                     }
 
+                    if (limit != null) {
+                        query.append(" LIMIT ");
+                        query.append(limit);
+                    }
+
                     return db.rawQuery(query.toString(), selectionArgs);
                 }
             });
@@ -476,6 +540,93 @@ public class EmailProvider extends ContentProvider {
         query.append(" GROUP BY t." + ThreadColumns.ROOT);
     }
 
+    /**
+     * Returns the threads of a single folder from the thread summaries table.
+     *
+     * <p>
+     * This is only used when the selection passed to {@link #query(Uri, String[], String, String[], String)} is
+     * exactly {@link #FOLDER_SELECTION}, so {@code selectionArgs} has to contain the folder ID and nothing else. The
+     * rows are the same as those {@link #getThreadedMessages(String, String[], String, String[], String, String)}
+     * returns for that selection.
+     * </p>
+     */
+    protected Cursor getThreadSummaries(String accountUuid, final String[] projection, final String[] selectionArgs,
+            final String sortOrder, String limitParameter) {
+
+        final String limit = parseLimit(limitParameter);
+
+        Account account = getAccount(accountUuid);
+        LockableDatabase database = getDatabase(account);
+
+        try {
+            return database.execute(false, new DbCallback<Cursor>() {
+                @Override
+                public Cursor doDbWork(SQLiteDatabase db) throws WrappedException,
+                        UnavailableStorageException {
+
+                    StringBuilder query = new StringBuilder();
+                    query.append("SELECT ");
+                    boolean first = true;
+                    for (String columnName : projection) {
+                        if (!first) {
+                            query.append(",");
+                        } else {
+                            first = false;
+                        }
+
+                        if (MessageColumns.ID.equals(columnName)) {
+                            query.append("m." + MessageColumns.ID + " AS " + MessageColumns.ID);
+                        } else if (THREAD_AGGREGATION_FUNCS.containsKey(columnName) ||
+                                SpecialColumns.THREAD_COUNT.equals(columnName) ||
+                                ThreadColumns.ROOT.equals(columnName)) {
+                            query.append("s.");
+                            query.append(columnName);
+                            query.append(" AS ");
+                            query.append(columnName);
+                        } else if (Utility.arrayContains(FOLDERS_COLUMNS, columnName)) {
+                            query.append(columnName);
+                        } else {
+                            query.append("m.");
+                            query.append(columnName);
+                            query.append(" AS ");
+                            query.append(columnName);
+                        }
+                    }
+
+                    query.append(" FROM " + THREAD_SUMMARIES_TABLE + " s " +
+                            "JOIN " + MESSAGES_TABLE + " m " +
+                            "ON (m." + MessageColumns.ID + " = s." + MessageColumns.MESSAGE_ID + ") ");
+
+                    if (Utility.arrayContainsAny(projection, (Object[]) FOLDERS_COLUMNS)) {
+                        query.append("LEFT JOIN " + FOLDERS_TABLE + " f " +
+                                "ON (m." + MessageColumns.FOLDER_ID + " = f." + FolderColumns.ID + ") ");
+                    }
+
+                    query.append("WHERE s." + FOLDER_SELECTION);
+
+                    if (!TextUtils.isEmpty(sortOrder)) {
+                        String summarySortOrder = SqlQueryBuilder.addPrefixToSelection(
+                                FIXUP_AGGREGATED_MESSAGES_COLUMNS, "s.", sortOrder);
+                        query.append(" ORDER BY ");
+                        query.append(SqlQueryBuilder.addPrefixToSelection(
+                                FIXUP_MESSAGES_COLUMNS, "m.", summarySortOrder));
+                    }
+
+                    if (limit != null) {
+                        query.append(" LIMIT ");
+                        query.append(limit);
+                    }
+
+                    return db.rawQuery(query.toString(), selectionArgs);
+                }
+            });
+        } catch (UnavailableStorageException e) {
+            throw new RuntimeException("Storage not available", e);
+        } catch (MessagingException e) {
+            throw new RuntimeException("messaging exception", e);
+        }
+    }
+
     protected Cursor getThread(String accountUuid, final String[] projection, final String threadId,
             final String sortOrder) {
 
@@ -3,15 +3,17 @@ package com.fsck.k9.provider;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -20,20 +22,23 @@ import android.app.Application;
 import android.content.ContentProvider;
 import android.content.ContentResolver;
 import android.content.ContentValues;
-import android.content.Context;
 import android.content.UriMatcher;
+import android.database.AbstractCursor;
 import android.database.CharArrayBuffer;
 import android.database.ContentObserver;
 import android.database.CrossProcessCursor;
 import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
 import android.database.CursorWindow;
 import android.database.DataSetObserver;
+import android.database.DatabaseUtils;
 import android.database.MatrixCursor;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Bundle;
 import android.provider.BaseColumns;
+import android.support.annotation.VisibleForTesting;
 import timber.log.Timber;
 
 import com.fsck.k9.Account;
@@ -41,24 +46,27 @@ import com.fsck.k9.AccountStats;
 import com.fsck.k9.BuildConfig;
 import com.fsck.k9.K9;
 import com.fsck.k9.Preferences;
-import com.fsck.k9.activity.FolderInfoHolder;
-import com.fsck.k9.activity.MessageInfoHolder;
 import com.fsck.k9.activity.MessageReference;
 import com.fsck.k9.controller.MessagingController;
 import com.fsck.k9.controller.SimpleMessagingListener;
+import com.fsck.k9.helper.MergeCursor;
 import com.fsck.k9.helper.MessageHelper;
-import com.fsck.k9.mail.Flag;
-import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.Address;
 import com.fsck.k9.mail.MessagingException;
-import com.fsck.k9.mailstore.LocalFolder;
-import com.fsck.k9.mailstore.LocalMessage;
+import com.fsck.k9.search.LocalSearch;
 import com.fsck.k9.search.SearchAccount;
+import com.fsck.k9.search.SqlQueryBuilder;
 
 
 public class MessageProvider extends ContentProvider {
     public static final String AUTHORITY = BuildConfig.APPLICATION_ID + ".messageprovider";
     public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY);
 
+    /**
+     * Query parameter of the {@code inbox_messages} URI to only return the given number of newest messages.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
     private static final String[] DEFAULT_MESSAGE_PROJECTION = new String[] {
             MessageColumns._ID,
             MessageColumns.SEND_DATE,
@@ -79,6 +87,39 @@ public class MessageProvider extends ContentProvider {
             UnreadColumns.UNREAD
     };
 
+    @VisibleForTesting
+    static final String[] INBOX_MESSAGES_PROJECTION = new String[] {
+            EmailProvider.MessageColumns.ID,
+            EmailProvider.MessageColumns.UID,
+            EmailProvider.MessageColumns.DATE,
+            EmailProvider.MessageColumns.SUBJECT,
+            EmailProvider.MessageColumns.SENDER_LIST,
+            EmailProvider.MessageColumns.TO_LIST,
+            EmailProvider.MessageColumns.PREVIEW,
+            EmailProvider.MessageColumns.READ,
+            EmailProvider.MessageColumns.FLAGGED,
+            EmailProvider.MessageColumns.ATTACHMENT_COUNT,
+            EmailProvider.SpecialColumns.FOLDER_NAME,
+            EmailProvider.SpecialColumns.ACCOUNT_UUID
+    };
+    private static final int ID_COLUMN = 0;
+    private static final int UID_COLUMN = 1;
+    private static final int DATE_COLUMN = 2;
+    private static final int SUBJECT_COLUMN = 3;
+    private static final int SENDER_LIST_COLUMN = 4;
+    private static final int TO_LIST_COLUMN = 5;
+    private static final int PREVIEW_COLUMN = 6;
+    private static final int READ_COLUMN = 7;
+    private static final int FLAGGED_COLUMN = 8;
+    private static final int ATTACHMENT_COUNT_COLUMN = 9;
+    private static final int FOLDER_NAME_COLUMN = 10;
+    private static final int ACCOUNT_UUID_COLUMN = 11;
+
+    private static final String INBOX_MESSAGES_SORT_ORDER =
+            EmailProvider.MessageColumns.DATE + " DESC, " + EmailProvider.MessageColumns.ID + " DESC";
+
+    private static final int MAX_OPEN_CURSORS = 4;
+
 
     private UriMatcher uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
     private List<QueryHandler> queryHandlers = new ArrayList<QueryHandler>();
@@ -87,7 +128,7 @@ public class MessageProvider extends ContentProvider {
     /**
      * How many simultaneous cursors we can afford to expose at once
      */
-    Semaphore semaphore = new Semaphore(1);
+    Semaphore semaphore = new Semaphore(MAX_OPEN_CURSORS);
 
     ScheduledExecutorService scheduledPool = Executors.newScheduledThreadPool(1);
 
@@ -233,16 +274,44 @@ public class MessageProvider extends ContentProvider {
     }
 
 
-    public static class ReverseDateComparator implements Comparator<MessageInfoHolder> {
+    /**
+     * Parses the value of {@link #QUERY_PARAMETER_LIMIT}.
+     *
+     * @return The maximum number of messages to return. {@code 0} if no limit was requested.
+     *
+     * @throws IllegalArgumentException
+     *         If the limit is not a non-negative number.
+     */
+    @VisibleForTesting
+    static int parseLimit(String limitParameter) {
+        if (limitParameter == null) {
+            return 0;
+        }
+
+        int limit;
+        try {
+            limit = Integer.parseInt(limitParameter);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit: " + limitParameter, e);
+        }
+
+        if (limit < 0) {
+            throw new IllegalArgumentException("Invalid limit: " + limitParameter);
+        }
+
+        return limit;
+    }
+
+    /**
+     * Orders rows of cursors using {@link #INBOX_MESSAGES_PROJECTION} newest first.
+     */
+    @VisibleForTesting
+    static class ReverseDateComparator implements Comparator<Cursor> {
         @Override
-        public int compare(MessageInfoHolder object2, MessageInfoHolder object1) {
-            if (object1.compareDate == null) {
-                return (object2.compareDate == null ? 0 : 1);
-            } else if (object2.compareDate == null) {
-                return -1;
-            } else {
-                return object1.compareDate.compareTo(object2.compareDate);
-            }
+        public int compare(Cursor cursor1, Cursor cursor2) {
+            long date1 = cursor1.getLong(DATE_COLUMN);
+            long date2 = cursor2.getLong(DATE_COLUMN);
+            return (date1 > date2) ? -1 : ((date1 == date2) ? 0 : 1);
         }
     }
 
@@ -351,253 +420,336 @@ public class MessageProvider extends ContentProvider {
     }
 
     /**
-     * Extracts a value from an object.
+     * Retrieve messages from the integrated inbox.
+     *
+     * <p>
+     * Every account is queried through {@link EmailProvider} for the few columns needed, newest messages first. The
+     * resulting cursors are merged lazily and the requested columns are computed when a row is read.
+     * </p>
      */
-    public interface FieldExtractor<T, K> {
-        K getField(T source);
-    }
+    protected class MessagesQueryHandler implements QueryHandler {
 
-    /**
-     * Extracts the {@link LocalMessage#getId() ID} from the given {@link MessageInfoHolder}. The underlying
-     * {@link Message} is expected to be a {@link LocalMessage}.
-     */
-    public static class IdExtractor implements FieldExtractor<MessageInfoHolder, Long> {
         @Override
-        public Long getField(MessageInfoHolder source) {
-            return source.message.getId();
+        public String getPath() {
+            return "inbox_messages/";
         }
-    }
 
-    public static class CountExtractor<T> implements FieldExtractor<T, Integer> {
-        private Integer count;
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder)
+                throws Exception {
+            String limitParameter = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+            int limit = parseLimit(limitParameter);
 
-        public CountExtractor(int count) {
-            this.count = count;
-        }
+            String[] projectionToUse = (projection == null) ? DEFAULT_MESSAGE_PROJECTION : projection;
 
-        @Override
-        public Integer getField(T source) {
-            return count;
+            /*
+             * EmailProvider isn't exported, so third-party apps can't access it directly. For this to work we need to
+             * clear the calling identity.
+             */
+            long identityToken = Binder.clearCallingIdentity();
+            try {
+                return getMessages(projectionToUse, limit);
+            } finally {
+                Binder.restoreCallingIdentity(identityToken);
+            }
         }
-    }
 
-    public static class SubjectExtractor implements FieldExtractor<MessageInfoHolder, String> {
-        @Override
-        public String getField(MessageInfoHolder source) {
-            return source.message.getSubject();
-        }
-    }
+        protected Cursor getMessages(String[] projection, int limit) {
+            LocalSearch search = SearchAccount.createUnifiedInboxAccount(getContext()).getRelatedSearch();
+            Set<String> accountUuids = new HashSet<>(Arrays.asList(search.getAccountUuids()));
+            boolean allAccounts = search.searchAllAccounts();
 
-    public static class SendDateExtractor implements FieldExtractor<MessageInfoHolder, Long> {
-        @Override
-        public Long getField(MessageInfoHolder source) {
-            return source.message.getSentDate().getTime();
+            Map<String, Account> accounts = new HashMap<>();
+            List<Cursor> cursors = new ArrayList<>();
+            for (Account account : Preferences.getPreferences(getContext()).getAvailableAccounts()) {
+                if (!allAccounts && !accountUuids.contains(account.getUuid())) {
+                    continue;
+                }
+
+                try {
+                    Cursor cursor = getAccountMessages(account, search, limit);
+                    if (cursor != null) {
+                        accounts.put(account.getUuid(), account);
+                        cursors.add(cursor);
+                    }
+                } catch (Exception e) {
+                    Timber.e(e, "Unable to query messages of account %s", account.getDescription());
+                }
+            }
+
+            Cursor mergedCursor = new MergeCursor(cursors.toArray(new Cursor[cursors.size()]),
+                    new ReverseDateComparator());
+
+            return new MessageProjectionCursor(mergedCursor, projection, limit, accounts, messageHelper);
         }
-    }
 
-    public static class PreviewExtractor implements FieldExtractor<MessageInfoHolder, String> {
-        @Override
-        public String getField(MessageInfoHolder source) {
-            return source.message.getPreview();
+        private Cursor getAccountMessages(Account account, LocalSearch search, int limit) {
+            Uri.Builder uriBuilder = EmailProvider.CONTENT_URI.buildUpon()
+                    .appendPath("account")
+                    .appendPath(account.getUuid())
+                    .appendPath("messages");
+            if (limit > 0) {
+                uriBuilder.appendQueryParameter(EmailProvider.QUERY_PARAMETER_LIMIT, Integer.toString(limit));
+            }
+
+            StringBuilder query = new StringBuilder();
+            List<String> queryArgs = new ArrayList<>();
+            SqlQueryBuilder.buildWhereClause(account, search.getConditions(), query, queryArgs);
+
+            String selection = query.toString();
+            String[] selectionArgs = queryArgs.toArray(new String[queryArgs.size()]);
+
+            return getContext().getContentResolver().query(uriBuilder.build(), INBOX_MESSAGES_PROJECTION, selection,
+                    selectionArgs, INBOX_MESSAGES_SORT_ORDER);
         }
     }
 
-    public static class UriExtractor implements FieldExtractor<MessageInfoHolder, String> {
-        @Override
-        public String getField(MessageInfoHolder source) {
-            return source.uri;
+    /**
+     * Exposes the rows of a cursor using {@link #INBOX_MESSAGES_PROJECTION} with the columns of
+     * {@link MessageColumns}. Column values are computed from the current row only when they are read, so no message
+     * objects are created.
+     */
+    protected static class MessageProjectionCursor extends AbstractCursor {
+        private static final int FIELD_ID = 0;
+        private static final int FIELD_COUNT = 1;
+        private static final int FIELD_SUBJECT = 2;
+        private static final int FIELD_SENDER = 3;
+        private static final int FIELD_SENDER_ADDRESS = 4;
+        private static final int FIELD_SEND_DATE = 5;
+        private static final int FIELD_PREVIEW = 6;
+        private static final int FIELD_URI = 7;
+        private static final int FIELD_DELETE_URI = 8;
+        private static final int FIELD_UNREAD = 9;
+        private static final int FIELD_ACCOUNT = 10;
+        private static final int FIELD_ACCOUNT_COLOR = 11;
+        private static final int FIELD_ACCOUNT_NUMBER = 12;
+        private static final int FIELD_HAS_ATTACHMENTS = 13;
+        private static final int FIELD_HAS_STAR = 14;
+        private static final int FIELD_INCREMENT = 15;
+
+        private static final Map<String, Integer> FIELDS = new HashMap<>();
+        static {
+            FIELDS.put(MessageColumns._ID, FIELD_ID);
+            FIELDS.put(MessageColumns._COUNT, FIELD_COUNT);
+            FIELDS.put(MessageColumns.SUBJECT, FIELD_SUBJECT);
+            FIELDS.put(MessageColumns.SENDER, FIELD_SENDER);
+            FIELDS.put(MessageColumns.SENDER_ADDRESS, FIELD_SENDER_ADDRESS);
+            FIELDS.put(MessageColumns.SEND_DATE, FIELD_SEND_DATE);
+            FIELDS.put(MessageColumns.PREVIEW, FIELD_PREVIEW);
+            FIELDS.put(MessageColumns.URI, FIELD_URI);
+            FIELDS.put(MessageColumns.DELETE_URI, FIELD_DELETE_URI);
+            FIELDS.put(MessageColumns.UNREAD, FIELD_UNREAD);
+            FIELDS.put(MessageColumns.ACCOUNT, FIELD_ACCOUNT);
+            FIELDS.put(MessageColumns.ACCOUNT_COLOR, FIELD_ACCOUNT_COLOR);
+            FIELDS.put(MessageColumns.ACCOUNT_NUMBER, FIELD_ACCOUNT_NUMBER);
+            FIELDS.put(MessageColumns.HAS_ATTACHMENTS, FIELD_HAS_ATTACHMENTS);
+            FIELDS.put(MessageColumns.HAS_STAR, FIELD_HAS_STAR);
+            FIELDS.put(MessageColumns.INCREMENT, FIELD_INCREMENT);
+        }
+
+
+        private final Cursor cursor;
+        private final String[] columnNames;
+        private final int[] fields;
+        private final int count;
+        private final Map<String, Account> accounts;
+        private final MessageHelper messageHelper;
+        private Address[] from;
+        private CharSequence sender;
+
+
+        protected MessageProjectionCursor(Cursor cursor, String[] projection, int limit,
+                Map<String, Account> accounts, MessageHelper messageHelper) {
+            this.cursor = cursor;
+            this.accounts = accounts;
+            this.messageHelper = messageHelper;
+
+            int cursorCount = cursor.getCount();
+            count = (limit > 0) ? Math.min(limit, cursorCount) : cursorCount;
+
+            // Unknown and duplicate columns are left out
+            LinkedHashMap<String, Integer> resolvedFields = new LinkedHashMap<>();
+            for (String columnName : projection) {
+                Integer field = FIELDS.get(columnName);
+                if (field != null && !resolvedFields.containsKey(columnName)) {
+                    resolvedFields.put(columnName, field);
+                }
+            }
+
+            columnNames = resolvedFields.keySet().toArray(new String[resolvedFields.size()]);
+            fields = new int[columnNames.length];
+            int i = 0;
+            for (Integer field : resolvedFields.values()) {
+                fields[i++] = field;
+            }
         }
-    }
 
-    public static class DeleteUriExtractor implements FieldExtractor<MessageInfoHolder, String> {
         @Override
-        public String getField(MessageInfoHolder source) {
-            LocalMessage message = source.message;
-            int accountNumber = message.getAccount().getAccountNumber();
-            return CONTENT_URI.buildUpon()
-                    .appendPath("delete_message")
-                    .appendPath(Integer.toString(accountNumber))
-                    .appendPath(message.getFolder().getName())
-                    .appendPath(message.getUid())
-                    .build()
-                    .toString();
+        public int getCount() {
+            return count;
         }
-    }
 
-    public static class SenderExtractor implements FieldExtractor<MessageInfoHolder, CharSequence> {
         @Override
-        public CharSequence getField(MessageInfoHolder source) {
-            return source.sender;
+        public String[] getColumnNames() {
+            return columnNames;
         }
-    }
 
-    public static class SenderAddressExtractor implements FieldExtractor<MessageInfoHolder, String> {
         @Override
-        public String getField(MessageInfoHolder source) {
-            return source.senderAddress;
+        public boolean onMove(int oldPosition, int newPosition) {
+            from = null;
+            sender = null;
+            return cursor.moveToPosition(newPosition);
         }
-    }
 
-    public static class AccountExtractor implements FieldExtractor<MessageInfoHolder, String> {
         @Override
-        public String getField(MessageInfoHolder source) {
-            return source.message.getAccount().getDescription();
+        public String getString(int column) {
+            Object value = getValue(column);
+            return (value == null) ? null : value.toString();
         }
-    }
 
-    public static class AccountColorExtractor implements FieldExtractor<MessageInfoHolder, Integer> {
         @Override
-        public Integer getField(MessageInfoHolder source) {
-            return source.message.getAccount().getChipColor();
+        public short getShort(int column) {
+            return (short) getLong(column);
         }
-    }
 
-    public static class AccountNumberExtractor implements FieldExtractor<MessageInfoHolder, Integer> {
         @Override
-        public Integer getField(MessageInfoHolder source) {
-            return source.message.getAccount().getAccountNumber();
+        public int getInt(int column) {
+            return (int) getLong(column);
         }
-    }
 
-    public static class HasAttachmentsExtractor implements FieldExtractor<MessageInfoHolder, Boolean> {
         @Override
-        public Boolean getField(MessageInfoHolder source) {
-            return source.message.hasAttachments();
+        public long getLong(int column) {
+            Object value = getValue(column);
+            if (value == null) {
+                return 0;
+            } else if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            return Long.parseLong(value.toString());
         }
-    }
 
-    public static class HasStarExtractor implements FieldExtractor<MessageInfoHolder, Boolean> {
         @Override
-        public Boolean getField(MessageInfoHolder source) {
-            return source.message.isSet(Flag.FLAGGED);
+        public float getFloat(int column) {
+            return (float) getDouble(column);
         }
-    }
 
-    public static class UnreadExtractor implements FieldExtractor<MessageInfoHolder, Boolean> {
         @Override
-        public Boolean getField(MessageInfoHolder source) {
-            return !source.read;
+        public double getDouble(int column) {
+            Object value = getValue(column);
+            if (value == null) {
+                return 0;
+            } else if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            return Double.parseDouble(value.toString());
         }
-    }
-
-    /**
-     * @deprecated having an incremental value has no real interest, implemented for compatibility only
-     */
-    @Deprecated
-    public static class IncrementExtractor implements FieldExtractor<MessageInfoHolder, Integer> {
-        private int count = 0;
-
 
         @Override
-        public Integer getField(MessageInfoHolder source) {
-            return count++;
+        public boolean isNull(int column) {
+            return getValue(column) == null;
         }
-    }
-
-    /**
-     * Retrieve messages from the integrated inbox.
-     */
-    protected class MessagesQueryHandler implements QueryHandler {
 
         @Override
-        public String getPath() {
-            return "inbox_messages/";
+        public int getType(int column) {
+            return DatabaseUtils.getTypeOfObject(getValue(column));
         }
 
         @Override
-        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder)
-                throws Exception {
-            return getMessages(projection);
+        public void close() {
+            super.close();
+            cursor.close();
         }
 
-        protected MatrixCursor getMessages(String[] projection) throws InterruptedException {
-            BlockingQueue<List<MessageInfoHolder>> queue = new SynchronousQueue<List<MessageInfoHolder>>();
-
-            // new code for integrated inbox, only execute this once as it will be processed afterwards via the listener
-            SearchAccount integratedInboxAccount = SearchAccount.createUnifiedInboxAccount(getContext());
-            MessagingController msgController = MessagingController.getInstance(getContext());
-
-            msgController.searchLocalMessages(integratedInboxAccount.getRelatedSearch(),
-                    new MessageInfoHolderRetrieverListener(queue));
-
-            List<MessageInfoHolder> holders = queue.take();
-
-            // TODO add sort order parameter
-            Collections.sort(holders, new ReverseDateComparator());
-
-            String[] projectionToUse;
-            if (projection == null) {
-                projectionToUse = DEFAULT_MESSAGE_PROJECTION;
-            } else {
-                projectionToUse = projection;
+        private Object getValue(int column) {
+            if (column < 0 || column >= fields.length) {
+                throw new CursorIndexOutOfBoundsException("Requested column: " + column + ", # of columns: " +
+                        fields.length);
             }
+            checkPosition();
 
-            LinkedHashMap<String, FieldExtractor<MessageInfoHolder, ?>> extractors =
-                    resolveMessageExtractors(projectionToUse, holders.size());
-            int fieldCount = extractors.size();
-
-            String[] actualProjection = extractors.keySet().toArray(new String[fieldCount]);
-            MatrixCursor cursor = new MatrixCursor(actualProjection);
-
-            for (MessageInfoHolder holder : holders) {
-                Object[] o = new Object[fieldCount];
-
-                int i = 0;
-                for (FieldExtractor<MessageInfoHolder, ?> extractor : extractors.values()) {
-                    o[i] = extractor.getField(holder);
-                    i += 1;
+            switch (fields[column]) {
+                case FIELD_ID: {
+                    return cursor.getLong(ID_COLUMN);
+                }
+                case FIELD_COUNT: {
+                    return count;
+                }
+                case FIELD_SUBJECT: {
+                    return cursor.getString(SUBJECT_COLUMN);
+                }
+                case FIELD_SENDER: {
+                    return getSender().toString();
+                }
+                case FIELD_SENDER_ADDRESS: {
+                    Address[] fromAddresses = getFrom();
+                    // A reasonable fallback is whomever we were corresponding with
+                    return (fromAddresses.length > 0) ? fromAddresses[0].getAddress() : getSender().toString();
+                }
+                case FIELD_SEND_DATE: {
+                    return cursor.getLong(DATE_COLUMN);
+                }
+                case FIELD_PREVIEW: {
+                    return cursor.getString(PREVIEW_COLUMN);
+                }
+                case FIELD_URI: {
+                    return "email://messages/" + getAccount().getAccountNumber() + "/" +
+                            cursor.getString(FOLDER_NAME_COLUMN) + "/" + cursor.getString(UID_COLUMN);
+                }
+                case FIELD_DELETE_URI: {
+                    return CONTENT_URI.buildUpon()
+                            .appendPath("delete_message")
+                            .appendPath(Integer.toString(getAccount().getAccountNumber()))
+                            .appendPath(cursor.getString(FOLDER_NAME_COLUMN))
+                            .appendPath(cursor.getString(UID_COLUMN))
+                            .build()
+                            .toString();
+                }
+                case FIELD_UNREAD: {
+                    // Boolean columns have always been exposed as "true" and "false"
+                    return Boolean.toString(cursor.getInt(READ_COLUMN) != 1);
+                }
+                case FIELD_ACCOUNT: {
+                    return getAccount().getDescription();
+                }
+                case FIELD_ACCOUNT_COLOR: {
+                    return getAccount().getChipColor();
+                }
+                case FIELD_ACCOUNT_NUMBER: {
+                    return getAccount().getAccountNumber();
+                }
+                case FIELD_HAS_ATTACHMENTS: {
+                    return Boolean.toString(cursor.getInt(ATTACHMENT_COUNT_COLUMN) > 0);
+                }
+                case FIELD_HAS_STAR: {
+                    return Boolean.toString(cursor.getInt(FLAGGED_COLUMN) == 1);
+                }
+                case FIELD_INCREMENT: {
+                    return getPosition();
+                }
+                default: {
+                    throw new IllegalStateException("Unknown field: " + fields[column]);
                 }
-
-                cursor.addRow(o);
             }
+        }
 
-            return cursor;
+        private Account getAccount() {
+            return accounts.get(cursor.getString(ACCOUNT_UUID_COLUMN));
         }
 
-        protected LinkedHashMap<String, FieldExtractor<MessageInfoHolder, ?>> resolveMessageExtractors(
-                String[] projection, int count) {
-            LinkedHashMap<String, FieldExtractor<MessageInfoHolder, ?>> extractors =
-                    new LinkedHashMap<String, FieldExtractor<MessageInfoHolder, ?>>();
+        private Address[] getFrom() {
+            if (from == null) {
+                from = Address.unpack(cursor.getString(SENDER_LIST_COLUMN));
+            }
+            return from;
+        }
 
-            for (String field : projection) {
-                if (extractors.containsKey(field)) {
-                    continue;
-                }
-                if (MessageColumns._ID.equals(field)) {
-                    extractors.put(field, new IdExtractor());
-                } else if (MessageColumns._COUNT.equals(field)) {
-                    extractors.put(field, new CountExtractor<MessageInfoHolder>(count));
-                } else if (MessageColumns.SUBJECT.equals(field)) {
-                    extractors.put(field, new SubjectExtractor());
-                } else if (MessageColumns.SENDER.equals(field)) {
-                    extractors.put(field, new SenderExtractor());
-                } else if (MessageColumns.SENDER_ADDRESS.equals(field)) {
-                    extractors.put(field, new SenderAddressExtractor());
-                } else if (MessageColumns.SEND_DATE.equals(field)) {
-                    extractors.put(field, new SendDateExtractor());
-                } else if (MessageColumns.PREVIEW.equals(field)) {
-                    extractors.put(field, new PreviewExtractor());
-                } else if (MessageColumns.URI.equals(field)) {
-                    extractors.put(field, new UriExtractor());
-                } else if (MessageColumns.DELETE_URI.equals(field)) {
-                    extractors.put(field, new DeleteUriExtractor());
-                } else if (MessageColumns.UNREAD.equals(field)) {
-                    extractors.put(field, new UnreadExtractor());
-                } else if (MessageColumns.ACCOUNT.equals(field)) {
-                    extractors.put(field, new AccountExtractor());
-                } else if (MessageColumns.ACCOUNT_COLOR.equals(field)) {
-                    extractors.put(field, new AccountColorExtractor());
-                } else if (MessageColumns.ACCOUNT_NUMBER.equals(field)) {
-                    extractors.put(field, new AccountNumberExtractor());
-                } else if (MessageColumns.HAS_ATTACHMENTS.equals(field)) {
-                    extractors.put(field, new HasAttachmentsExtractor());
-                } else if (MessageColumns.HAS_STAR.equals(field)) {
-                    extractors.put(field, new HasStarExtractor());
-                } else if (MessageColumns.INCREMENT.equals(field)) {
-                    extractors.put(field, new IncrementExtractor());
-                }
+        private CharSequence getSender() {
+            if (sender == null) {
+                Address[] toAddresses = Address.unpack(cursor.getString(TO_LIST_COLUMN));
+                CharSequence displayName = messageHelper.getDisplayName(getAccount(), getFrom(), toAddresses);
+                sender = (displayName != null) ? displayName : "";
             }
-            return extractors;
+            return sender;
         }
     }
 
@@ -1075,42 +1227,4 @@ public class MessageProvider extends ContentProvider {
             return wrapped;
         }
     }
-
-    /**
-     * Synchronized listener used to retrieve {@link MessageInfoHolder}s using a given {@link BlockingQueue}.
-     */
-    protected class MessageInfoHolderRetrieverListener extends SimpleMessagingListener {
-        private final BlockingQueue<List<MessageInfoHolder>> queue;
-        private List<MessageInfoHolder> holders = new ArrayList<MessageInfoHolder>();
-
-
-        public MessageInfoHolderRetrieverListener(BlockingQueue<List<MessageInfoHolder>> queue) {
-            this.queue = queue;
-        }
-
-        @Override
-        public void listLocalMessagesAddMessages(Account account, String folderName, List<LocalMessage> messages) {
-            Context context = getContext();
-
-            for (LocalMessage message : messages) {
-                MessageInfoHolder messageInfoHolder = new MessageInfoHolder();
-                LocalFolder messageFolder = message.getFolder();
-                Account messageAccount = message.getAccount();
-
-                FolderInfoHolder folderInfoHolder = new FolderInfoHolder(context, messageFolder, messageAccount);
-                messageHelper.populate(messageInfoHolder, message, folderInfoHolder, messageAccount);
-
-                holders.add(messageInfoHolder);
-            }
-        }
-
-        @Override
-        public void searchStats(AccountStats stats) {
-            try {
-                queue.put(holders);
-            } catch (InterruptedException e) {
-                Timber.e(e, "Unable to return message list back to caller");
-            }
-        }
-    }
 }
@@ -0,0 +1,115 @@
+package com.fsck.k9.service;
+
+
+import android.app.AlarmManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+import timber.log.Timber;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.controller.MessagingController;
+import com.fsck.k9.mailstore.LocalStore;
+import com.fsck.k9.preferences.Storage;
+import com.fsck.k9.preferences.StorageEditor;
+
+
+/**
+ * Runs {@link LocalStore#performMaintenance()} for all accounts about once a day.
+ *
+ * <p>
+ * Maintenance only runs while the device is charging and the screen is off. Otherwise it's postponed by an hour.
+ * </p>
+ */
+public class DatabaseMaintenanceService extends CoreService {
+    private static final String ACTION_PERFORM_MAINTENANCE =
+            "com.fsck.k9.service.DatabaseMaintenanceService.performMaintenance";
+    private static final String LAST_MAINTENANCE = "DatabaseMaintenanceService.lastMaintenance";
+
+    private static final long MAINTENANCE_INTERVAL = AlarmManager.INTERVAL_DAY;
+    private static final long RETRY_INTERVAL = AlarmManager.INTERVAL_HOUR;
+    private static final int WAKE_LOCK_TIMEOUT = 30 * 60 * 1000;
+
+
+    public static void scheduleMaintenance(Context context) {
+        Storage storage = Preferences.getPreferences(context).getStorage();
+        long lastMaintenance = storage.getLong(LAST_MAINTENANCE, 0);
+
+        long nextTime = Math.max(lastMaintenance + MAINTENANCE_INTERVAL, System.currentTimeMillis() + RETRY_INTERVAL);
+        scheduleMaintenance(context, nextTime);
+    }
+
+    public static void cancelMaintenance(Context context) {
+        Timber.i("Canceling database maintenance");
+        BootReceiver.cancelIntent(context, createMaintenanceIntent(context));
+    }
+
+    private static void scheduleMaintenance(Context context, long atTime) {
+        Timber.i("Scheduling database maintenance for %tc", atTime);
+        BootReceiver.scheduleIntent(context, atTime, createMaintenanceIntent(context));
+    }
+
+    private static Intent createMaintenanceIntent(Context context) {
+        Intent intent = new Intent(context, DatabaseMaintenanceService.class);
+        intent.setAction(ACTION_PERFORM_MAINTENANCE);
+        return intent;
+    }
+
+    @Override
+    public int startService(Intent intent, int startId) {
+        if (ACTION_PERFORM_MAINTENANCE.equals(intent.getAction())) {
+            if (isChargingAndIdle()) {
+                performMaintenanceInBackground(startId);
+            } else {
+                Timber.i("Device is in use or not charging, postponing database maintenance");
+                scheduleMaintenance(this, System.currentTimeMillis() + RETRY_INTERVAL);
+            }
+        }
+
+        return START_NOT_STICKY;
+    }
+
+    private void performMaintenanceInBackground(int startId) {
+        execute(getApplication(), new Runnable() {
+            @Override
+            public void run() {
+                Context context = DatabaseMaintenanceService.this;
+                MessagingController controller = MessagingController.getInstance(getApplication());
+                for (Account account : Preferences.getPreferences(context).getAvailableAccounts()) {
+                    if (!isChargingAndIdle()) {
+                        Timber.i("Device is in use or not charging, stopping database maintenance");
+                        scheduleMaintenance(context, System.currentTimeMillis() + RETRY_INTERVAL);
+                        return;
+                    }
+
+                    controller.performDatabaseMaintenanceSynchronous(account);
+                }
+
+                long now = System.currentTimeMillis();
+                saveLastMaintenance(context, now);
+                scheduleMaintenance(context, now + MAINTENANCE_INTERVAL);
+            }
+        }, WAKE_LOCK_TIMEOUT, startId);
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean isChargingAndIdle() {
+        Intent batteryStatus = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        boolean charging = batteryStatus != null && batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        boolean screenOn = powerManager.isScreenOn();
+
+        return charging && !screenOn;
+    }
+
+    private static void saveLastMaintenance(Context context, long lastMaintenance) {
+        Storage storage = Preferences.getPreferences(context).getStorage();
+        StorageEditor editor = storage.edit();
+        editor.putLong(LAST_MAINTENANCE, lastMaintenance);
+        editor.commit();
+    }
+}
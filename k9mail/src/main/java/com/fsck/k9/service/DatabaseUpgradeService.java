@@ -1,6 +1,9 @@
 package com.fsck.k9.service;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.app.Service;
@@ -17,6 +20,8 @@ import com.fsck.k9.Preferences;
 import com.fsck.k9.activity.UpgradeDatabases;
 import com.fsck.k9.mail.power.TracingPowerManager;
 import com.fsck.k9.mail.power.TracingPowerManager.TracingWakeLock;
+import com.fsck.k9.mailstore.DatabaseUpgradeListener;
+import com.fsck.k9.mailstore.LocalStore;
 import com.fsck.k9.mailstore.UnavailableStorageException;
 
 /**
@@ -35,6 +40,8 @@ public class DatabaseUpgradeService extends Service {
      * <li>{@link #EXTRA_ACCOUNT_UUID}</li>
      * <li>{@link #EXTRA_PROGRESS}</li>
      * <li>{@link #EXTRA_PROGRESS_END}</li>
+     * <li>{@link #EXTRA_ACCOUNT_PROGRESS}</li>
+     * <li>{@link #EXTRA_ACCOUNT_PROGRESS_END}</li>
      * </ul>
      */
     public static final String ACTION_UPGRADE_PROGRESS = "DatabaseUpgradeService.upgradeProgress";
@@ -46,6 +53,9 @@ public class DatabaseUpgradeService extends Service {
 
     /**
      * UUID of the account whose database is currently being upgraded.
+     *
+     * <p>Databases of different accounts may be upgraded concurrently. This is the account that reported its
+     * progress last.</p>
      */
     public static final String EXTRA_ACCOUNT_UUID = "account_uuid";
 
@@ -64,6 +74,20 @@ public class DatabaseUpgradeService extends Service {
      */
     public static final String EXTRA_PROGRESS_END = "progress_end";
 
+    /**
+     * The upgrade progress of the account in {@link #EXTRA_ACCOUNT_UUID}.
+     *
+     * <p>Integer from {@code 0} to the value in {@link #EXTRA_ACCOUNT_PROGRESS_END} (inclusive).</p>
+     */
+    public static final String EXTRA_ACCOUNT_PROGRESS = "account_progress";
+
+    /**
+     * Number of items that will be upgraded in the database of the account in {@link #EXTRA_ACCOUNT_UUID}.
+     *
+     * <p>{@code 0} if the current migration doesn't report its progress.</p>
+     */
+    public static final String EXTRA_ACCOUNT_PROGRESS_END = "account_progress_end";
+
 
     /**
      * Action used to start this service.
@@ -74,6 +98,11 @@ public class DatabaseUpgradeService extends Service {
     private static final String WAKELOCK_TAG = "DatabaseUpgradeService";
     private static final long WAKELOCK_TIMEOUT = 10 * 60 * 1000;    // 10 minutes
 
+    /**
+     * Maximum number of account databases that are upgraded at the same time.
+     */
+    private static final int MAX_CONCURRENT_UPGRADES = 2;
+
 
     /**
      * Start {@link DatabaseUpgradeService}.
@@ -100,6 +129,8 @@ public class DatabaseUpgradeService extends Service {
     private String mAccountUuid;
     private int mProgress;
     private int mProgressEnd;
+    private int mAccountProgress;
+    private int mAccountProgressEnd;
 
     private TracingWakeLock mWakeLock;
 
@@ -128,7 +159,7 @@ public class DatabaseUpgradeService extends Service {
         } else {
             // We're already running, so don't start the upgrade process again. But send the current
             // progress via broadcast.
-            sendProgressBroadcast(mAccountUuid, mProgress, mProgressEnd);
+            sendProgressBroadcast();
         }
 
         return START_STICKY;
@@ -182,36 +213,75 @@ public class DatabaseUpgradeService extends Service {
         Preferences preferences = Preferences.getPreferences(this);
 
         List<Account> accounts = preferences.getAccounts();
-        mProgressEnd = accounts.size();
-        mProgress = 0;
+        synchronized (this) {
+            mProgressEnd = accounts.size();
+            mProgress = 0;
+        }
 
-        for (Account account : accounts) {
-            mAccountUuid = account.getUuid();
+        // Every account has its own database file, so the upgrades don't depend on each other
+        int threadCount = Math.max(1, Math.min(accounts.size(), MAX_CONCURRENT_UPGRADES));
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        for (final Account account : accounts) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    upgradeDatabase(account);
+                }
+            });
+        }
+        executor.shutdown();
 
-            sendProgressBroadcast(mAccountUuid, mProgress, mProgressEnd);
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Timber.e(e, "Interrupted while waiting for database upgrades to finish");
+            return;
+        }
 
-            try {
-                // Account.getLocalStore() is blocking and will upgrade the database if necessary
-                account.getLocalStore();
-            } catch (UnavailableStorageException e) {
-                Timber.e("Database unavailable");
-            } catch (Exception e) {
-                Timber.e(e, "Error while upgrading database");
-            }
+        K9.setDatabasesUpToDate(true);
+        sendUpgradeCompleteBroadcast();
+    }
 
+    private void upgradeDatabase(Account account) {
+        final String accountUuid = account.getUuid();
+
+        updateAccountProgress(accountUuid, 0, 0);
+
+        try {
+            // LocalStore.getInstance() is blocking and will upgrade the database if necessary
+            LocalStore.getInstance(account, getApplicationContext(), new DatabaseUpgradeListener() {
+                @Override
+                public void onUpgradeProgress(int progress, int progressEnd) {
+                    updateAccountProgress(accountUuid, progress, progressEnd);
+                }
+            });
+        } catch (UnavailableStorageException e) {
+            Timber.e("Database unavailable");
+        } catch (Exception e) {
+            Timber.e(e, "Error while upgrading database");
+        }
+
+        synchronized (this) {
             mProgress++;
         }
+    }
 
-        K9.setDatabasesUpToDate(true);
-        sendUpgradeCompleteBroadcast();
+    private synchronized void updateAccountProgress(String accountUuid, int accountProgress, int accountProgressEnd) {
+        mAccountUuid = accountUuid;
+        mAccountProgress = accountProgress;
+        mAccountProgressEnd = accountProgressEnd;
+
+        sendProgressBroadcast();
     }
 
-    private void sendProgressBroadcast(String accountUuid, int progress, int progressEnd) {
+    private synchronized void sendProgressBroadcast() {
         Intent intent = new Intent();
         intent.setAction(ACTION_UPGRADE_PROGRESS);
-        intent.putExtra(EXTRA_ACCOUNT_UUID, accountUuid);
-        intent.putExtra(EXTRA_PROGRESS, progress);
-        intent.putExtra(EXTRA_PROGRESS_END, progressEnd);
+        intent.putExtra(EXTRA_ACCOUNT_UUID, mAccountUuid);
+        intent.putExtra(EXTRA_PROGRESS, mProgress);
+        intent.putExtra(EXTRA_PROGRESS_END, mProgressEnd);
+        intent.putExtra(EXTRA_ACCOUNT_PROGRESS, mAccountProgress);
+        intent.putExtra(EXTRA_ACCOUNT_PROGRESS_END, mAccountProgressEnd);
 
         mLocalBroadcastManager.sendBroadcast(intent);
     }
@@ -38,6 +38,7 @@ import com.fsck.k9.R;
 import com.fsck.k9.activity.AlternateRecipientAdapter;
 import com.fsck.k9.activity.AlternateRecipientAdapter.AlternateRecipientListener;
 import com.fsck.k9.activity.compose.RecipientAdapter;
+import com.fsck.k9.activity.compose.RecipientIndex;
 import com.fsck.k9.activity.compose.RecipientLoader;
 import com.fsck.k9.mail.Address;
 import com.fsck.k9.view.RecipientSelectView.Recipient;
@@ -189,6 +190,10 @@ public class RecipientSelectView extends TokenCompleteTextView<Recipient> implem
 
     public void setLoaderManager(@Nullable LoaderManager loaderManager) {
         this.loaderManager = loaderManager;
+
+        if (loaderManager != null) {
+            RecipientIndex.getInstance(getContext()).preloadInBackground();
+        }
     }
 
     @Override
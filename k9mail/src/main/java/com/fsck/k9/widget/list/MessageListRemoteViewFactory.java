@@ -24,6 +24,11 @@ import com.fsck.k9.provider.MessageProvider;
 
 
 public class MessageListRemoteViewFactory implements RemoteViewsService.RemoteViewsFactory {
+    /**
+     * The maximum number of messages displayed in the widget.
+     */
+    private static final int MAX_MESSAGES = 100;
+
     private static String[] MAIL_LIST_PROJECTIONS = {
             MessageProvider.MessageColumns.SENDER,
             MessageProvider.MessageColumns.SEND_DATE,
@@ -31,13 +36,15 @@ public class MessageListRemoteViewFactory implements RemoteViewsService.RemoteVi
             MessageProvider.MessageColumns.PREVIEW,
             MessageProvider.MessageColumns.UNREAD,
             MessageProvider.MessageColumns.HAS_ATTACHMENTS,
-            MessageProvider.MessageColumns.URI
+            MessageProvider.MessageColumns.URI,
+            MessageProvider.MessageColumns._ID,
+            MessageProvider.MessageColumns.ACCOUNT_NUMBER
     };
 
 
     private final Context context;
     private final Calendar calendar;
-    private final ArrayList<MailItem> mailItems = new ArrayList<>(25);
+    private final ArrayList<MailItem> mailItems = new ArrayList<>(MAX_MESSAGES);
     private boolean senderAboveSubject;
     private int readTextColor;
     private int unreadTextColor;
@@ -68,7 +75,10 @@ public class MessageListRemoteViewFactory implements RemoteViewsService.RemoteVi
     private void loadMessageList() {
         mailItems.clear();
 
-        Uri unifiedInboxUri = MessageProvider.CONTENT_URI.buildUpon().appendPath("inbox_messages").build();
+        Uri unifiedInboxUri = MessageProvider.CONTENT_URI.buildUpon()
+                .appendPath("inbox_messages")
+                .appendQueryParameter(MessageProvider.QUERY_PARAMETER_LIMIT, Integer.toString(MAX_MESSAGES))
+                .build();
         Cursor cursor = context.getContentResolver().query(unifiedInboxUri, MAIL_LIST_PROJECTIONS, null, null, null);
 
         if (cursor == null) {
@@ -84,8 +94,11 @@ public class MessageListRemoteViewFactory implements RemoteViewsService.RemoteVi
                 boolean unread = toBoolean(cursor.getString(4));
                 boolean hasAttachment = toBoolean(cursor.getString(5));
                 Uri viewUri = Uri.parse(cursor.getString(6));
+                long messageId = cursor.getLong(7);
+                int accountNumber = cursor.getInt(8);
 
-                mailItems.add(new MailItem(sender, date, subject, preview, unread, hasAttachment, viewUri));
+                mailItems.add(new MailItem(createItemId(accountNumber, messageId), sender, date, subject, preview,
+                        unread, hasAttachment, viewUri));
             }
         } finally {
             cursor.close();
@@ -153,7 +166,7 @@ public class MessageListRemoteViewFactory implements RemoteViewsService.RemoteVi
 
     @Override
     public long getItemId(int position) {
-        return position;
+        return mailItems.get(position).id;
     }
 
     @Override
@@ -161,6 +174,14 @@ public class MessageListRemoteViewFactory implements RemoteViewsService.RemoteVi
         return true;
     }
 
+    /**
+     * Message database IDs are only unique within an account, so the account number is put in the upper bits to
+     * keep the IDs of the unified inbox stable and distinct across reloads.
+     */
+    private static long createItemId(int accountNumber, long messageId) {
+        return ((long) accountNumber << 40) | messageId;
+    }
+
     private CharSequence bold(String text) {
         SpannableString spannableString = new SpannableString(text);
         spannableString.setSpan(new StyleSpan(Typeface.BOLD), 0, text.length(), 0);
@@ -173,6 +194,7 @@ public class MessageListRemoteViewFactory implements RemoteViewsService.RemoteVi
 
 
     private class MailItem {
+        final long id;
         final long date;
         final String sender;
         final String preview;
@@ -182,8 +204,9 @@ public class MessageListRemoteViewFactory implements RemoteViewsService.RemoteVi
         final Uri uri;
 
 
-        MailItem(String sender, long date, String subject, String preview, boolean unread, boolean hasAttachment,
-                Uri viewUri) {
+        MailItem(long id, String sender, long date, String subject, String preview, boolean unread,
+                boolean hasAttachment, Uri viewUri) {
+            this.id = id;
             this.sender = sender;
             this.date = date;
             this.preview = preview;
@@ -13,22 +13,66 @@ import android.widget.RemoteViews;
 import com.fsck.k9.R;
 import com.fsck.k9.activity.MessageCompose;
 import com.fsck.k9.activity.MessageList;
+import com.fsck.k9.helper.Utility;
 
 
 public class MessageListWidgetProvider extends AppWidgetProvider {
     private static String ACTION_UPDATE_MESSAGE_LIST = "UPDATE_MESSAGE_LIST";
 
+    /**
+     * Requests for widget updates made within this time are combined into one update.
+     */
+    private static final long UPDATE_DELAY_MILLIS = 1000;
+
+
+    private static Context pendingUpdateContext;
+    private static final Runnable PENDING_UPDATE = new Runnable() {
+        @Override
+        public void run() {
+            Context context;
+            synchronized (MessageListWidgetProvider.class) {
+                context = pendingUpdateContext;
+                pendingUpdateContext = null;
+            }
+
+            if (context != null) {
+                sendMessageListWidgetUpdate(context);
+            }
+        }
+    };
+
 
+    /**
+     * Schedules a refresh of all message list widgets.
+     *
+     * <p>
+     * Synchronization reports many changes in quick succession. They are combined so the widgets reload their
+     * message list at most once per {@link #UPDATE_DELAY_MILLIS}.
+     * </p>
+     */
     public static void triggerMessageListWidgetUpdate(Context context) {
-        Context appContext = context.getApplicationContext();
+        synchronized (MessageListWidgetProvider.class) {
+            if (pendingUpdateContext != null) {
+                return;
+            }
+            pendingUpdateContext = context.getApplicationContext();
+        }
+
+        Utility.getMainThreadHandler().postDelayed(PENDING_UPDATE, UPDATE_DELAY_MILLIS);
+    }
+
+    private static void sendMessageListWidgetUpdate(Context appContext) {
         AppWidgetManager widgetManager = AppWidgetManager.getInstance(appContext);
         ComponentName widget = new ComponentName(appContext, MessageListWidgetProvider.class);
         int[] widgetIds = widgetManager.getAppWidgetIds(widget);
+        if (widgetIds.length == 0) {
+            return;
+        }
 
-        Intent intent = new Intent(context, MessageListWidgetProvider.class);
+        Intent intent = new Intent(appContext, MessageListWidgetProvider.class);
         intent.setAction(ACTION_UPDATE_MESSAGE_LIST);
         intent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, widgetIds);
-        context.sendBroadcast(intent);
+        appContext.sendBroadcast(intent);
     }
 
     @Override
@@ -0,0 +1,170 @@
+package com.fsck.k9.activity.compose;
+
+
+import java.util.List;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.view.RecipientSelectView.Recipient;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class RecipientIndexTest {
+    private static final String[] EMAIL_COLUMNS = {
+            "_id", "display_name", "lookup", "data1", "data2", "data3", "contact_id", "photo_thumb_uri"
+    };
+    private static final String[] NICKNAME_COLUMNS = { "contact_id", "data1" };
+
+
+    private FakeContactsProvider contactsProvider;
+    private RecipientIndex recipientIndex;
+
+
+    @Before
+    public void setUp() throws Exception {
+        contactsProvider = new FakeContactsProvider();
+        ShadowContentResolver.registerProvider(ContactsContract.AUTHORITY, contactsProvider);
+
+        recipientIndex = new RecipientIndex(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void search_shouldMatchNameAndEmailCaseInsensitively() throws Exception {
+        contactsProvider.addEmail(1, "Alice Anderson", "alice@example.org");
+        contactsProvider.addEmail(2, "Bob", "bob@ALICE.example");
+        contactsProvider.addEmail(3, "Carol", "carol@example.org");
+
+        List<Recipient> result = recipientIndex.search("alice");
+
+        assertEquals(2, result.size());
+        assertEquals("alice@example.org", result.get(0).address.getAddress());
+        assertEquals("bob@ALICE.example", result.get(1).address.getAddress());
+    }
+
+    @Test
+    public void search_withNicknameMatch_shouldListNicknameMatchesFirst() throws Exception {
+        contactsProvider.addEmail(1, "Ally Example", "ally@example.org");
+        contactsProvider.addEmail(2, "Robert", "robert@example.org");
+        contactsProvider.addNickname(2, "Ally's Bob");
+
+        List<Recipient> result = recipientIndex.search("ally");
+
+        assertEquals(2, result.size());
+        assertEquals("robert@example.org", result.get(0).address.getAddress());
+        assertEquals("Ally's Bob", result.get(0).address.getPersonal());
+        assertEquals("ally@example.org", result.get(1).address.getAddress());
+    }
+
+    @Test
+    public void search_shouldNotQueryContactsProviderAgain() throws Exception {
+        contactsProvider.addEmail(1, "Alice", "alice@example.org");
+
+        recipientIndex.search("ali");
+        int queryCount = contactsProvider.queryCount;
+        recipientIndex.search("alic");
+
+        assertEquals(queryCount, contactsProvider.queryCount);
+    }
+
+    @Test
+    public void search_afterInvalidate_shouldReloadContacts() throws Exception {
+        recipientIndex.search("alice");
+        contactsProvider.addEmail(1, "Alice", "alice@example.org");
+
+        recipientIndex.invalidate();
+        List<Recipient> result = recipientIndex.search("alice");
+
+        assertEquals(1, result.size());
+        assertTrue(result.get(0).contactId == 1L);
+    }
+
+    @Test
+    public void search_shouldSetAddressLabel() throws Exception {
+        contactsProvider.addEmail(1, "Alice", "alice@example.org");
+
+        List<Recipient> result = recipientIndex.search("alice");
+
+        assertEquals("Home", result.get(0).addressLabel);
+    }
+
+    @Test
+    public void getAddressLabel_withCustomType_shouldReturnCustomLabel() throws Exception {
+        String label = RecipientIndex.getAddressLabel(RuntimeEnvironment.application, Email.TYPE_CUSTOM, "Club");
+
+        assertEquals("Club", label);
+    }
+
+
+    static class FakeContactsProvider extends ContentProvider {
+        private final MatrixCursor emails = new MatrixCursor(EMAIL_COLUMNS);
+        private final MatrixCursor nicknames = new MatrixCursor(NICKNAME_COLUMNS);
+        private int nextId = 1;
+        int queryCount = 0;
+
+        void addEmail(long contactId, String name, String email) {
+            emails.addRow(new Object[] { nextId++, name, "lookup" + contactId, email, Email.TYPE_HOME, null,
+                    contactId, null });
+        }
+
+        void addNickname(long contactId, String nickname) {
+            nicknames.addRow(new Object[] { contactId, nickname });
+        }
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                String sortOrder) {
+            queryCount++;
+            MatrixCursor source = Email.CONTENT_URI.equals(uri) ? emails : nicknames;
+
+            MatrixCursor result = new MatrixCursor(source.getColumnNames());
+            for (source.moveToFirst(); !source.isAfterLast(); source.moveToNext()) {
+                Object[] row = new Object[source.getColumnCount()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = source.isNull(i) ? null : source.getString(i);
+                }
+                result.addRow(row);
+            }
+            return result;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package com.fsck.k9.cache;
 
 
+import android.database.MatrixCursor;
+
 import com.fsck.k9.K9RobolectricTestRunner;
 import com.fsck.k9.mailstore.LocalFolder;
 import com.fsck.k9.mailstore.LocalMessage;
+import com.fsck.k9.provider.EmailProvider.MessageColumns;
+import com.fsck.k9.provider.EmailProvider.ThreadColumns;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -12,8 +16,14 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RuntimeEnvironment;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -26,6 +36,15 @@ import static org.mockito.Mockito.when;
 
 @RunWith(K9RobolectricTestRunner.class)
 public class EmailProviderCacheTest {
+    private static final int WRITER_COUNT = 4;
+    private static final int READER_COUNT = 2;
+    private static final int MESSAGES_PER_WRITER = 10;
+    private static final int WRITES = 2000;
+    private static final String[] CURSOR_COLUMNS = {
+            MessageColumns.ID, MessageColumns.FOLDER_ID, ThreadColumns.ROOT, MessageColumns.READ,
+            MessageColumns.FLAGGED
+    };
+
 
     private EmailProviderCache cache;
     @Mock
@@ -139,4 +158,175 @@ public class EmailProviderCacheTest {
         assertFalse(result);
     }
 
+    @Test
+    public void removeValueForMessages_withVersionOfChange_removesValue() {
+        long version = cache.setValueForMessages(Collections.singletonList(1L), "read", "1");
+
+        cache.removeValueForMessages(Collections.singletonList(1L), "read", version);
+
+        assertNull(cache.getValueForMessage(1L, "read"));
+    }
+
+    @Test
+    public void removeValueForMessages_withVersionOfEarlierChange_keepsValueOfLaterChange() {
+        long version = cache.setValueForMessages(Collections.singletonList(1L), "read", "1");
+        cache.setValueForMessages(Collections.singletonList(1L), "read", "0");
+
+        cache.removeValueForMessages(Collections.singletonList(1L), "read", version);
+
+        assertEquals("0", cache.getValueForMessage(1L, "read"));
+    }
+
+    @Test
+    public void removeValueForMessages_keepsOtherColumns() {
+        long version = cache.setValueForMessages(Collections.singletonList(1L), "read", "1");
+        cache.setValueForMessages(Collections.singletonList(1L), "flagged", "1");
+
+        cache.removeValueForMessages(Collections.singletonList(1L), "read", version);
+
+        assertNull(cache.getValueForMessage(1L, "read"));
+        assertEquals("1", cache.getValueForMessage(1L, "flagged"));
+    }
+
+    @Test
+    public void removeValueForThreads_withVersionOfEarlierChange_keepsValueOfLaterChange() {
+        long version = cache.setValueForThreads(Collections.singletonList(1L), "flagged", "1");
+        cache.setValueForThreads(Collections.singletonList(1L), "flagged", "0");
+
+        cache.removeValueForThreads(Collections.singletonList(1L), "flagged", version);
+
+        assertEquals("0", cache.getValueForThread(1L, "flagged"));
+    }
+
+    @Test
+    public void getSnapshot_doesNotSeeLaterChanges() {
+        cache.setValueForMessages(Collections.singletonList(1L), "read", "1");
+        EmailProviderCache.Snapshot snapshot = cache.getSnapshot();
+
+        cache.setValueForMessages(Collections.singletonList(1L), "read", "0");
+        cache.hideMessages(Collections.singletonList(mockLocalMessage));
+
+        assertEquals("1", snapshot.getValueForMessage(1L, "read"));
+        assertFalse(snapshot.isMessageHidden(localMessageId, localMessageFolderId));
+    }
+
+    @Test
+    public void getSnapshot_withEmptyCache_hasNoValues() {
+        EmailProviderCache.Snapshot snapshot = cache.getSnapshot();
+
+        assertFalse(snapshot.hasValues());
+        assertFalse(snapshot.hasHiddenMessages());
+    }
+
+    @Test
+    public void cacheCursor_withConcurrentWriters_shouldNotLoseUpdatesOrReturnStaleValues() throws Exception {
+        final EmailProviderCache cache = new TestEmailProviderCache();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final Queue<String> failures = new ConcurrentLinkedQueue<>();
+
+        List<Thread> writers = new ArrayList<>();
+        for (int writer = 0; writer < WRITER_COUNT; writer++) {
+            final List<Long> messageIds = new ArrayList<>();
+            for (int i = 0; i < MESSAGES_PER_WRITER; i++) {
+                messageIds.add((long) (writer * MESSAGES_PER_WRITER + i));
+            }
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                        long previousReadVersion = -1;
+                        for (int i = 1; i <= WRITES; i++) {
+                            long readVersion = cache.setValueForMessages(messageIds, MessageColumns.READ,
+                                    Integer.toString(i));
+                            long flaggedVersion = cache.setValueForMessages(messageIds, MessageColumns.FLAGGED, "1");
+                            cache.removeValueForMessages(messageIds, MessageColumns.FLAGGED, flaggedVersion);
+                            // Must not remove the newer value set above
+                            cache.removeValueForMessages(messageIds, MessageColumns.READ, previousReadVersion);
+                            previousReadVersion = readVersion;
+                        }
+                    } catch (Throwable t) {
+                        failures.add("Writer failed: " + t);
+                    }
+                }
+            }));
+        }
+
+        List<Thread> readers = new ArrayList<>();
+        for (int reader = 0; reader < READER_COUNT; reader++) {
+            readers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                        EmailProviderCacheCursor cursor = new EmailProviderCacheCursor(createMessageCursor(), cache);
+                        int[] lastReadValues = new int[WRITER_COUNT * MESSAGES_PER_WRITER];
+                        do {
+                            cursor.moveToPosition(-1);
+                            while (cursor.moveToNext()) {
+                                int position = cursor.getPosition();
+                                int read = cursor.getInt(3);
+                                if (read < lastReadValues[position]) {
+                                    failures.add("Stale value for message " + position + ": " + read + " after " +
+                                            lastReadValues[position]);
+                                }
+                                lastReadValues[position] = read;
+
+                                int flagged = cursor.getInt(4);
+                                if (flagged != 0 && flagged != 1) {
+                                    failures.add("Unexpected flagged value " + flagged);
+                                }
+                            }
+                        } while (writing.get());
+                        cursor.close();
+                    } catch (Throwable t) {
+                        failures.add("Reader failed: " + t);
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : writers) {
+            thread.start();
+        }
+        for (Thread thread : readers) {
+            thread.start();
+        }
+        startSignal.countDown();
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        writing.set(false);
+        for (Thread thread : readers) {
+            thread.join();
+        }
+
+        assertEquals(Collections.emptyList(), new ArrayList<>(failures));
+        for (long messageId = 0; messageId < WRITER_COUNT * MESSAGES_PER_WRITER; messageId++) {
+            assertEquals(Integer.toString(WRITES), cache.getValueForMessage(messageId, MessageColumns.READ));
+            assertNull(cache.getValueForMessage(messageId, MessageColumns.FLAGGED));
+        }
+    }
+
+
+    private static MatrixCursor createMessageCursor() {
+        MatrixCursor cursor = new MatrixCursor(CURSOR_COLUMNS);
+        for (long messageId = 0; messageId < WRITER_COUNT * MESSAGES_PER_WRITER; messageId++) {
+            cursor.addRow(new Object[] { messageId, 1L, messageId, 0, 0 });
+        }
+        return cursor;
+    }
+
+
+    // Robolectric's content resolver doesn't expect notifications from several threads
+    static class TestEmailProviderCache extends EmailProviderCache {
+        TestEmailProviderCache() {
+            super(UUID.randomUUID().toString());
+        }
+
+        @Override
+        void notifyChange() {
+        }
+    }
 }
@@ -0,0 +1,238 @@
+package com.fsck.k9.controller;
+
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.ContentResolver;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.Account.AttachmentPrefetch;
+import com.fsck.k9.K9;
+import com.fsck.k9.K9.BACKGROUND_OPS;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.internet.MimeBodyPart;
+import com.fsck.k9.mail.internet.MimeMessage;
+import com.fsck.k9.mail.internet.MimeMultipart;
+import com.fsck.k9.mail.internet.TextBody;
+import com.fsck.k9.mailstore.LocalStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class AttachmentPrefetcherTest {
+    private static final long MB = 1024L * 1024L;
+
+
+    private TestAttachmentPrefetcher prefetcher;
+    private Account account;
+    private LocalStore localStore;
+
+
+    @Before
+    public void setUp() throws Exception {
+        prefetcher = new TestAttachmentPrefetcher();
+        localStore = mock(LocalStore.class);
+        account = mock(Account.class);
+        when(account.getLocalStore()).thenReturn(localStore);
+        when(account.getAttachmentPrefetchBudgetMb()).thenReturn(10);
+        K9.setBackgroundOps(BACKGROUND_OPS.ALWAYS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        K9.setBackgroundOps(BACKGROUND_OPS.WHEN_CHECKED_AUTO_SYNC);
+        ContentResolver.setMasterSyncAutomatically(true);
+    }
+
+    @Test
+    public void getRemainingBudget_shouldOnlyCountDownloadedAttachments() throws Exception {
+        when(localStore.getSize()).thenReturn(100 * MB);
+        when(localStore.getDownloadedAttachmentSize()).thenReturn(4 * MB);
+
+        long remainingBytes = prefetcher.getRemainingBudget(account);
+
+        assertEquals(6 * MB, remainingBytes);
+        verify(localStore, never()).getSize();
+    }
+
+    @Test
+    public void getRemainingBudget_withBudgetUsedUp_shouldNotBePositive() throws Exception {
+        when(localStore.getDownloadedAttachmentSize()).thenReturn(12 * MB);
+
+        long remainingBytes = prefetcher.getRemainingBudget(account);
+
+        assertTrue(remainingBytes <= 0);
+    }
+
+    @Test
+    public void getBudget_calledForSeveralFolders_shouldShareBudgetOfAccount() throws Exception {
+        when(account.getUuid()).thenReturn("account");
+        when(localStore.getDownloadedAttachmentSize()).thenReturn(4 * MB);
+
+        AtomicLong budget = prefetcher.getBudget(account);
+        budget.addAndGet(-5 * MB);
+        AtomicLong otherBudget = prefetcher.getBudget(account);
+
+        assertSame(budget, otherBudget);
+        assertEquals(MB, otherBudget.get());
+        verify(localStore, times(1)).getDownloadedAttachmentSize();
+    }
+
+    @Test
+    public void getBudget_withOtherAccount_shouldReturnSeparateBudget() throws Exception {
+        when(account.getUuid()).thenReturn("account");
+        Account otherAccount = mock(Account.class);
+        when(otherAccount.getUuid()).thenReturn("other");
+        when(otherAccount.getLocalStore()).thenReturn(localStore);
+        when(otherAccount.getAttachmentPrefetchBudgetMb()).thenReturn(20);
+
+        AtomicLong budget = prefetcher.getBudget(account);
+        AtomicLong otherBudget = prefetcher.getBudget(otherAccount);
+
+        assertEquals(10 * MB, budget.get());
+        assertEquals(20 * MB, otherBudget.get());
+    }
+
+    @Test
+    public void isPrefetchAllowed_withPolicyNever_shouldReturnFalse() throws Exception {
+        when(account.getAttachmentPrefetch()).thenReturn(AttachmentPrefetch.NEVER);
+
+        assertFalse(prefetcher.isPrefetchAllowed(account));
+    }
+
+    @Test
+    public void isPrefetchAllowed_withPolicyAlwaysOnMeteredNetwork_shouldReturnTrue() throws Exception {
+        when(account.getAttachmentPrefetch()).thenReturn(AttachmentPrefetch.ALWAYS);
+        prefetcher.metered = true;
+
+        assertTrue(prefetcher.isPrefetchAllowed(account));
+    }
+
+    @Test
+    public void isPrefetchAllowed_withUnmeteredOnlyOnMeteredNetwork_shouldReturnFalse() throws Exception {
+        when(account.getAttachmentPrefetch()).thenReturn(AttachmentPrefetch.UNMETERED_ONLY);
+        prefetcher.metered = true;
+
+        assertFalse(prefetcher.isPrefetchAllowed(account));
+    }
+
+    @Test
+    public void isPrefetchAllowed_withUnmeteredOnlyOnUnmeteredNetwork_shouldReturnTrue() throws Exception {
+        when(account.getAttachmentPrefetch()).thenReturn(AttachmentPrefetch.UNMETERED_ONLY);
+
+        assertTrue(prefetcher.isPrefetchAllowed(account));
+    }
+
+    @Test
+    public void isPrefetchAllowed_withoutConnectivity_shouldReturnFalse() throws Exception {
+        when(account.getAttachmentPrefetch()).thenReturn(AttachmentPrefetch.ALWAYS);
+        prefetcher.connected = false;
+
+        assertFalse(prefetcher.isPrefetchAllowed(account));
+    }
+
+    @Test
+    public void isPrefetchAllowed_withBackgroundOpsNever_shouldReturnFalse() throws Exception {
+        when(account.getAttachmentPrefetch()).thenReturn(AttachmentPrefetch.ALWAYS);
+        K9.setBackgroundOps(BACKGROUND_OPS.NEVER);
+
+        assertFalse(prefetcher.isPrefetchAllowed(account));
+    }
+
+    @Test
+    public void isPrefetchAllowed_withAutoSyncDisabled_shouldReturnFalse() throws Exception {
+        when(account.getAttachmentPrefetch()).thenReturn(AttachmentPrefetch.ALWAYS);
+        K9.setBackgroundOps(BACKGROUND_OPS.WHEN_CHECKED_AUTO_SYNC);
+        ContentResolver.setMasterSyncAutomatically(false);
+
+        assertFalse(prefetcher.isPrefetchAllowed(account));
+    }
+
+    @Test
+    public void collectMissingParts_withDownloadedAndMissingParts_shouldReturnOnlyMissingParts() throws Exception {
+        MimeBodyPart textPart = new MimeBodyPart(new TextBody("text"), "text/plain");
+        textPart.setServerExtra("1");
+        MimeBodyPart attachment = new MimeBodyPart(null, "application/pdf");
+        attachment.setServerExtra("2");
+        MimeMessage message = createMultipartMessage(textPart, attachment);
+
+        List<Part> missingParts = AttachmentPrefetcher.collectMissingParts(message);
+
+        assertEquals(1, missingParts.size());
+        assertSame(attachment, missingParts.get(0));
+    }
+
+    @Test
+    public void collectMissingParts_withoutServerExtra_shouldIgnorePart() throws Exception {
+        MimeBodyPart attachment = new MimeBodyPart(null, "application/pdf");
+        MimeMessage message = createMultipartMessage(attachment);
+
+        List<Part> missingParts = AttachmentPrefetcher.collectMissingParts(message);
+
+        assertTrue(missingParts.isEmpty());
+    }
+
+    @Test
+    public void collectMissingParts_withNestedMessage_shouldReturnMissingPartsOfNestedMessage() throws Exception {
+        MimeBodyPart innerAttachment = new MimeBodyPart(null, "image/png");
+        innerAttachment.setServerExtra("2.2");
+        MimeMessage innerMessage = createMultipartMessage(innerAttachment);
+        MimeBodyPart messagePart = new MimeBodyPart(innerMessage, "message/rfc822");
+        MimeMessage message = createMultipartMessage(messagePart);
+
+        List<Part> missingParts = AttachmentPrefetcher.collectMissingParts(message);
+
+        assertEquals(1, missingParts.size());
+        assertSame(innerAttachment, missingParts.get(0));
+    }
+
+
+    private MimeMessage createMultipartMessage(MimeBodyPart... parts) throws Exception {
+        MimeMultipart multipart = new MimeMultipart("multipart/mixed", "boundary");
+        for (MimeBodyPart part : parts) {
+            multipart.addBodyPart(part);
+        }
+
+        MimeMessage message = new MimeMessage();
+        message.setBody(multipart);
+        return message;
+    }
+
+
+    static class TestAttachmentPrefetcher extends AttachmentPrefetcher {
+        boolean connected = true;
+        boolean metered = false;
+
+        TestAttachmentPrefetcher() {
+            super(RuntimeEnvironment.application, mock(MessagingController.class));
+        }
+
+        @Override
+        boolean hasConnectivity() {
+            return connected;
+        }
+
+        @Override
+        boolean isActiveNetworkMetered() {
+            return metered;
+        }
+    }
+}
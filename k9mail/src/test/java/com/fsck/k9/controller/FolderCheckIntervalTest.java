@@ -0,0 +1,79 @@
+package com.fsck.k9.controller;
+
+
+import com.fsck.k9.Account;
+import com.fsck.k9.mailstore.LocalFolder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+public class FolderCheckIntervalTest {
+    private static final long MINUTE = 60 * 1000;
+
+
+    @Test
+    public void calculateCheckInterval_withRecentMail_shouldReturnAccountInterval() throws Exception {
+        long interval = FolderCheckInterval.calculateCheckInterval(15 * MINUTE, 360 * MINUTE, 0);
+
+        assertEquals(15 * MINUTE, interval);
+    }
+
+    @Test
+    public void calculateCheckInterval_withinGracePeriod_shouldReturnAccountInterval() throws Exception {
+        long interval = FolderCheckInterval.calculateCheckInterval(15 * MINUTE, 360 * MINUTE, 2);
+
+        assertEquals(15 * MINUTE, interval);
+    }
+
+    @Test
+    public void calculateCheckInterval_afterGracePeriod_shouldDoubleIntervalPerEmptySync() throws Exception {
+        long interval = FolderCheckInterval.calculateCheckInterval(15 * MINUTE, 360 * MINUTE, 4);
+
+        assertEquals(60 * MINUTE, interval);
+    }
+
+    @Test
+    public void calculateCheckInterval_withManyEmptySyncs_shouldReturnMaxInterval() throws Exception {
+        long interval = FolderCheckInterval.calculateCheckInterval(15 * MINUTE, 360 * MINUTE, 1000);
+
+        assertEquals(360 * MINUTE, interval);
+    }
+
+    @Test
+    public void calculateCheckInterval_withAdaptionDisabled_shouldReturnAccountInterval() throws Exception {
+        long interval = FolderCheckInterval.calculateCheckInterval(15 * MINUTE, -MINUTE, 1000);
+
+        assertEquals(15 * MINUTE, interval);
+    }
+
+    @Test
+    public void getCheckInterval_withInbox_shouldReturnAccountInterval() throws Exception {
+        Account account = mock(Account.class);
+        when(account.getInboxFolderName()).thenReturn("INBOX");
+        when(account.getMaxFolderCheckIntervalMinutes()).thenReturn(360);
+        LocalFolder folder = mock(LocalFolder.class);
+        when(folder.getName()).thenReturn("INBOX");
+        when(folder.getEmptySyncCount()).thenReturn(1000);
+
+        long interval = FolderCheckInterval.getCheckInterval(account, folder, 15 * MINUTE);
+
+        assertEquals(15 * MINUTE, interval);
+    }
+
+    @Test
+    public void getCheckInterval_withQuietFolder_shouldReturnMaxInterval() throws Exception {
+        Account account = mock(Account.class);
+        when(account.getInboxFolderName()).thenReturn("INBOX");
+        when(account.getMaxFolderCheckIntervalMinutes()).thenReturn(360);
+        LocalFolder folder = mock(LocalFolder.class);
+        when(folder.getName()).thenReturn("Archive");
+        when(folder.getEmptySyncCount()).thenReturn(1000);
+
+        long interval = FolderCheckInterval.getCheckInterval(account, folder, 15 * MINUTE);
+
+        assertEquals(360 * MINUTE, interval);
+    }
+}
@@ -3,6 +3,7 @@ package com.fsck.k9.controller;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -15,6 +16,8 @@ import com.fsck.k9.Account;
 import com.fsck.k9.AccountStats;
 import com.fsck.k9.K9;
 import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingAppend;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingCommand;
 import com.fsck.k9.Preferences;
 import com.fsck.k9.helper.Contacts;
 import com.fsck.k9.mail.AuthenticationFailedException;
@@ -25,6 +28,7 @@ import com.fsck.k9.mail.Folder;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.NetworkStatistics;
 import com.fsck.k9.mail.Store;
 import com.fsck.k9.mail.Transport;
 import com.fsck.k9.mail.TransportProvider;
@@ -33,7 +37,6 @@ import com.fsck.k9.mailstore.LocalMessage;
 import com.fsck.k9.mailstore.LocalStore;
 import com.fsck.k9.mailstore.UnavailableStorageException;
 import com.fsck.k9.notification.NotificationController;
-import com.fsck.k9.search.LocalSearch;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -88,8 +91,6 @@ public class MessagingControllerTest {
     @Mock
     private SimpleMessagingListener listener;
     @Mock
-    private LocalSearch search;
-    @Mock
     private LocalFolder localFolder;
     @Mock
     private LocalFolder errorFolder;
@@ -113,8 +114,6 @@ public class MessagingControllerTest {
     private ArgumentCaptor<List<LocalFolder>> localFolderListCaptor;
     @Captor
     private ArgumentCaptor<FetchProfile> fetchProfileCaptor;
-    @Captor
-    private ArgumentCaptor<MessageRetrievalListener<LocalMessage>> messageRetrievalListenerCaptor;
 
     private Context appContext;
     private Set<Flag> reqFlags;
@@ -360,35 +359,6 @@ public class MessagingControllerTest {
         verify(listener, never()).listFoldersFinished(account);
     }
 
-    @Test
-    public void searchLocalMessagesSynchronous_shouldCallSearchForMessagesOnLocalStore()
-            throws Exception {
-        setAccountsInPreferences(Collections.singletonMap("1", account));
-        when(search.getAccountUuids()).thenReturn(new String[]{"allAccounts"});
-
-        controller.searchLocalMessagesSynchronous(search, listener);
-
-        verify(localStore).searchForMessages(any(MessageRetrievalListener.class), eq(search));
-    }
-
-    @Test
-    public void searchLocalMessagesSynchronous_shouldNotifyWhenStoreFinishesRetrievingAMessage()
-            throws Exception {
-        setAccountsInPreferences(Collections.singletonMap("1", account));
-        LocalMessage localMessage = mock(LocalMessage.class);
-        when(localMessage.getFolder()).thenReturn(localFolder);
-        when(search.getAccountUuids()).thenReturn(new String[]{"allAccounts"});
-        when(localStore.searchForMessages(any(MessageRetrievalListener.class), eq(search)))
-                .thenThrow(new MessagingException("Test"));
-
-        controller.searchLocalMessagesSynchronous(search, listener);
-
-        verify(localStore).searchForMessages(messageRetrievalListenerCaptor.capture(), eq(search));
-        messageRetrievalListenerCaptor.getValue().messageFinished(localMessage, 1, 1);
-        verify(listener).listLocalMessagesAddMessages(eq(account),
-                eq((String) null), eq(Collections.singletonList(localMessage)));
-    }
-
     private void setupRemoteSearch() throws Exception {
         setAccountsInPreferences(Collections.singletonMap("1", account));
         configureRemoteStoreWithFolder();
@@ -657,6 +627,51 @@ public class MessagingControllerTest {
                 "Exception: Message count -1 for folder Folder");
     }
 
+    @Test
+    public void synchronizeMailboxSynchronous_shouldReportStatistics() throws Exception {
+        messageCountInRemoteFolder(1);
+
+        controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, remoteFolder);
+
+        verify(listener).synchronizeMailboxStatistics(eq(account), eq(FOLDER_NAME), any(SyncStatistics.class));
+    }
+
+    @Test
+    public void synchronizeMailboxSynchronous_shouldReportNetworkTrafficOfRemoteStore() throws Exception {
+        messageCountInRemoteFolder(1);
+        configureRemoteStoreWithFolder();
+        final NetworkStatistics networkStatistics = new NetworkStatistics();
+        when(remoteStore.getNetworkStatistics()).thenReturn(networkStatistics);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                networkStatistics.addRoundTrip();
+                networkStatistics.addBytesSent(20);
+                networkStatistics.addBytesReceived(100);
+                return null;
+            }
+        }).when(remoteFolder).open(Folder.OPEN_MODE_RW);
+
+        controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, null);
+
+        ArgumentCaptor<SyncStatistics> statisticsCaptor = ArgumentCaptor.forClass(SyncStatistics.class);
+        verify(listener).synchronizeMailboxStatistics(eq(account), eq(FOLDER_NAME), statisticsCaptor.capture());
+        SyncStatistics statistics = statisticsCaptor.getValue();
+        assertEquals(1, statistics.getRoundTrips());
+        assertEquals(20, statistics.getBytesSent());
+        assertEquals(100, statistics.getBytesReceived());
+    }
+
+    @Test
+    public void messagesArrived_shouldReportStatistics() throws Exception {
+        configureRemoteStoreWithFolder();
+        controller.addListener(listener);
+
+        controller.messagesArrived(account, remoteFolder, Collections.<Message>emptyList(), false);
+
+        verify(listener).synchronizeMailboxStatistics(eq(account), eq(FOLDER_NAME), any(SyncStatistics.class));
+    }
+
     @Test
     public void synchronizeMailboxSynchronous_withRemoteFolderProvided_shouldNotOpenRemoteFolder() throws Exception {
         messageCountInRemoteFolder(1);
@@ -851,6 +866,67 @@ public class MessagingControllerTest {
         assertEquals(FetchProfile.Item.BODY_SANE, fetchProfileCaptor.getAllValues().get(3).get(0));
     }
 
+    @Test
+    public void synchronizeMailboxSynchronous_withOnlyReadNewMessages_shouldRecordDownloadedMessages()
+            throws Exception {
+        Message smallMessage = buildSmallNewMessage();
+        LocalMessage localMessage = mock(LocalMessage.class);
+        when(localMessage.isSet(Flag.SEEN)).thenReturn(true);
+        when(localFolder.storeSmallMessage(eq(smallMessage), any(Runnable.class))).thenReturn(localMessage);
+        messageCountInRemoteFolder(1);
+        hasUnsyncedRemoteMessage();
+        respondToFetchWithMessage(smallMessage);
+
+        controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, remoteFolder);
+
+        verify(listener).synchronizeMailboxFinished(account, FOLDER_NAME, 1, 0);
+        verify(localFolder).recordSyncResult(1);
+    }
+
+    @Test
+    public void synchronizeMailboxSynchronous_withoutNewMessages_shouldRecordEmptySync() throws Exception {
+        messageCountInRemoteFolder(0);
+
+        controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, remoteFolder);
+
+        verify(localFolder).recordSyncResult(0);
+    }
+
+    @Test
+    public void saveDraft_withQueuedAppendOfSameDraft_shouldReplaceQueuedAppend() throws Exception {
+        Message draft = mock(Message.class);
+        when(draft.getUid()).thenReturn(MESSAGE_UID1);
+        LocalMessage localDraft = mock(LocalMessage.class);
+        when(localDraft.getUid()).thenReturn(MESSAGE_UID1);
+        when(account.getDraftsFolderName()).thenReturn(FOLDER_NAME);
+        when(localFolder.getMessage(MESSAGE_UID1)).thenReturn(localDraft);
+        PendingCommand sameDraftAppend = PendingAppend.create(FOLDER_NAME, MESSAGE_UID1);
+        PendingCommand otherAppend = PendingAppend.create(FOLDER_NAME, "other-uid");
+        when(localStore.getPendingCommands()).thenReturn(Arrays.asList(sameDraftAppend, otherAppend));
+
+        controller.saveDraft(account, draft, MessagingController.INVALID_MESSAGE_ID, true);
+
+        verify(localStore).removePendingCommand(sameDraftAppend);
+        verify(localStore, never()).removePendingCommand(otherAppend);
+        ArgumentCaptor<PendingCommand> commandCaptor = ArgumentCaptor.forClass(PendingCommand.class);
+        verify(localStore).addPendingCommand(commandCaptor.capture());
+        PendingAppend queuedAppend = (PendingAppend) commandCaptor.getValue();
+        assertEquals(FOLDER_NAME, queuedAppend.folder);
+        assertEquals(MESSAGE_UID1, queuedAppend.uid);
+    }
+
+    @Test
+    public void saveDraft_withoutSaveRemotely_shouldNotQueueAppend() throws Exception {
+        Message draft = mock(Message.class);
+        when(draft.getUid()).thenReturn(MESSAGE_UID1);
+        when(account.getDraftsFolderName()).thenReturn(FOLDER_NAME);
+        when(localFolder.getMessage(MESSAGE_UID1)).thenReturn(mock(LocalMessage.class));
+
+        controller.saveDraft(account, draft, MessagingController.INVALID_MESSAGE_ID, false);
+
+        verify(localStore, never()).addPendingCommand(any(PendingCommand.class));
+    }
+
     private void setupAccountWithMessageToSend() throws MessagingException {
         when(account.getOutboxFolderName()).thenReturn(FOLDER_NAME);
         when(account.hasSentFolder()).thenReturn(true);
@@ -883,6 +959,21 @@ public class MessagingControllerTest {
         }).when(remoteFolder).fetch(any(List.class), any(FetchProfile.class), any(MessageRetrievalListener.class));
     }
 
+    private void respondToFetchWithMessage(final Message message) throws MessagingException {
+        doAnswer(new Answer() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                if (invocation.getArguments()[2] != null) {
+                    MessageRetrievalListener listener = (MessageRetrievalListener) invocation.getArguments()[2];
+                    listener.messageStarted("UID", 1, 1);
+                    listener.messageFinished(message, 1, 1);
+                    listener.messagesFinished(1);
+                }
+                return null;
+            }
+        }).when(remoteFolder).fetch(any(List.class), any(FetchProfile.class), any(MessageRetrievalListener.class));
+    }
+
     private Message buildSmallNewMessage() {
         Message message = mock(Message.class);
         when(message.olderThan(any(Date.class))).thenReturn(false);
@@ -0,0 +1,126 @@
+package com.fsck.k9.controller;
+
+
+import com.fsck.k9.controller.SyncStatistics.Phase;
+import com.fsck.k9.mail.NetworkStatistics;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class SyncStatisticsTest {
+    private TestSyncStatistics statistics;
+
+
+    @Before
+    public void setUp() {
+        statistics = new TestSyncStatistics();
+        statistics.startSync();
+    }
+
+    @Test
+    public void endPhase_shouldAddTimeSinceStartOfPhase() {
+        statistics.startPhase(Phase.UID_LIST);
+        statistics.time += 30;
+        statistics.endPhase(Phase.UID_LIST);
+
+        statistics.time += 5;
+        statistics.startPhase(Phase.UID_LIST);
+        statistics.time += 10;
+        statistics.endPhase(Phase.UID_LIST);
+
+        assertEquals(40, statistics.getDuration(Phase.UID_LIST));
+    }
+
+    @Test
+    public void startPhase_withRunningPhase_shouldPauseRunningPhase() {
+        statistics.startPhase(Phase.BODY_FETCH);
+        statistics.time += 100;
+        statistics.startPhase(Phase.LOCAL_SAVE);
+        statistics.time += 40;
+        statistics.endPhase(Phase.LOCAL_SAVE);
+        statistics.time += 10;
+        statistics.endPhase(Phase.BODY_FETCH);
+
+        assertEquals(110, statistics.getDuration(Phase.BODY_FETCH));
+        assertEquals(40, statistics.getDuration(Phase.LOCAL_SAVE));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void endPhase_withDifferentInnermostPhase_shouldThrow() {
+        statistics.startPhase(Phase.BODY_FETCH);
+        statistics.startPhase(Phase.LOCAL_SAVE);
+
+        statistics.endPhase(Phase.BODY_FETCH);
+    }
+
+    @Test
+    public void finishSync_withRunningPhases_shouldEndThem() {
+        statistics.time += 5;
+        statistics.startPhase(Phase.BODY_FETCH);
+        statistics.time += 20;
+        statistics.startPhase(Phase.LOCAL_SAVE);
+        statistics.time += 30;
+
+        statistics.finishSync();
+
+        assertEquals(20, statistics.getDuration(Phase.BODY_FETCH));
+        assertEquals(30, statistics.getDuration(Phase.LOCAL_SAVE));
+        assertEquals(55, statistics.getTotalDuration());
+    }
+
+    @Test
+    public void finishSync_shouldOnlyCountTrafficAfterSetNetworkStatistics() {
+        NetworkStatistics networkStatistics = new NetworkStatistics();
+        networkStatistics.addBytesSent(1000);
+        networkStatistics.addBytesReceived(2000);
+        networkStatistics.addRoundTrip();
+        statistics.setNetworkStatistics(networkStatistics);
+
+        networkStatistics.addBytesSent(10);
+        networkStatistics.addBytesReceived(200);
+        networkStatistics.addRoundTrip();
+        networkStatistics.addRoundTrip();
+        networkStatistics.addConnection(300);
+        statistics.finishSync();
+
+        assertEquals(10, statistics.getBytesSent());
+        assertEquals(200, statistics.getBytesReceived());
+        assertEquals(2, statistics.getRoundTrips());
+        assertEquals(1, statistics.getConnections());
+        assertEquals(300, statistics.getConnectTime());
+    }
+
+    @Test
+    public void finishSync_withoutNetworkStatistics_shouldReportNoTraffic() {
+        statistics.finishSync();
+
+        assertEquals(0, statistics.getBytesSent());
+        assertEquals(0, statistics.getBytesReceived());
+        assertEquals(0, statistics.getRoundTrips());
+    }
+
+    @Test
+    public void addDownloadedMessage_shouldCountMessages() {
+        statistics.addDownloadedMessage();
+        statistics.addDownloadedMessage();
+        statistics.finishSync();
+
+        assertEquals(2, statistics.getDownloadedMessages());
+    }
+
+
+    static class TestSyncStatistics extends SyncStatistics {
+        long time = 1000;
+
+        TestSyncStatistics() {
+            super("Folder");
+        }
+
+        @Override
+        long getTime() {
+            return time;
+        }
+    }
+}
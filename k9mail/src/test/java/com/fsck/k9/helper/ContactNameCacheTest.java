@@ -0,0 +1,59 @@
+package com.fsck.k9.helper;
+
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ContactNameCacheTest {
+    private ContactNameCache cache;
+
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new ContactNameCache();
+    }
+
+    @Test
+    public void getName_withUnknownAddress_shouldReturnNull() throws Exception {
+        assertFalse(cache.contains("alice@example.com"));
+        assertNull(cache.getName("alice@example.com"));
+    }
+
+    @Test
+    public void getName_withCachedName_shouldReturnName() throws Exception {
+        cache.put("alice@example.com", "Alice");
+
+        assertTrue(cache.contains("alice@example.com"));
+        assertEquals("Alice", cache.getName("alice@example.com"));
+    }
+
+    @Test
+    public void getName_withCachedMiss_shouldReturnNull() throws Exception {
+        cache.put("bob@example.com", null);
+
+        assertTrue(cache.contains("bob@example.com"));
+        assertNull(cache.getName("bob@example.com"));
+    }
+
+    @Test
+    public void clear_shouldRemoveAllEntries() throws Exception {
+        cache.put("alice@example.com", "Alice");
+        cache.put("bob@example.com", null);
+
+        cache.clear();
+
+        assertFalse(cache.contains("alice@example.com"));
+        assertFalse(cache.contains("bob@example.com"));
+    }
+}
@@ -0,0 +1,118 @@
+package com.fsck.k9.helper;
+
+
+import java.util.Arrays;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ContactsTest {
+    private ContentResolver contentResolver;
+    private ContactNameCache nameCache;
+    private Contacts contacts;
+
+
+    @Before
+    public void setUp() throws Exception {
+        contentResolver = mock(ContentResolver.class);
+        Context context = mock(Context.class);
+        when(context.getContentResolver()).thenReturn(contentResolver);
+        nameCache = new ContactNameCache();
+        contacts = new Contacts(context, nameCache);
+    }
+
+    @Test
+    public void prefetchNamesForAddresses_shouldCacheNamesAndMisses() throws Exception {
+        returnContacts(new String[] { "Alice@Example.com", "Alice" });
+
+        contacts.prefetchNamesForAddresses(Arrays.asList("alice@example.com", "bob@example.com"));
+
+        assertTrue(nameCache.contains("alice@example.com"));
+        assertEquals("Alice", nameCache.getName("alice@example.com"));
+        assertTrue(nameCache.contains("bob@example.com"));
+        assertNull(nameCache.getName("bob@example.com"));
+    }
+
+    @Test
+    public void prefetchNamesForAddresses_withSeveralMatches_shouldUseFirstRow() throws Exception {
+        returnContacts(new String[] { "alice@example.com", "Alice Work" },
+                new String[] { "alice@example.com", "Alice Home" });
+
+        contacts.prefetchNamesForAddresses(Arrays.asList("alice@example.com"));
+
+        assertEquals("Alice Work", nameCache.getName("alice@example.com"));
+    }
+
+    @Test
+    public void prefetchNamesForAddresses_shouldQueryOnlyOnceForAllAddresses() throws Exception {
+        returnContacts();
+
+        contacts.prefetchNamesForAddresses(Arrays.asList("a@example.com", "b@example.com", "c@example.com"));
+
+        verify(contentResolver, times(1)).query(eq(ContactsContract.CommonDataKinds.Email.CONTENT_URI),
+                any(String[].class), anyString(), any(String[].class), anyString());
+    }
+
+    @Test
+    public void getNameForAddress_shouldMatchLikePrefetch() throws Exception {
+        returnContacts(new String[] { "Alice@Example.com", "Alice" });
+        String name = contacts.getNameForAddress("alice@example.com");
+        nameCache.clear();
+
+        returnContacts(new String[] { "Alice@Example.com", "Alice" });
+        contacts.prefetchNamesForAddresses(Arrays.asList("alice@example.com"));
+
+        assertEquals("Alice", name);
+        assertEquals(name, nameCache.getName("alice@example.com"));
+        verify(contentResolver, times(2)).query(eq(ContactsContract.CommonDataKinds.Email.CONTENT_URI),
+                any(String[].class), anyString(), any(String[].class), anyString());
+    }
+
+    @Test
+    public void getNameForAddress_withPrefetchedName_shouldNotQuery() throws Exception {
+        returnContacts(new String[] { "alice@example.com", "Alice" });
+        contacts.prefetchNamesForAddresses(Arrays.asList("alice@example.com"));
+
+        String name = contacts.getNameForAddress("alice@example.com");
+
+        assertEquals("Alice", name);
+        verify(contentResolver, times(1)).query(any(Uri.class), any(String[].class), anyString(),
+                any(String[].class), anyString());
+    }
+
+
+    private void returnContacts(String[]... rows) {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                ContactsContract.CommonDataKinds.Email.ADDRESS,
+                ContactsContract.Contacts.DISPLAY_NAME
+        });
+        for (String[] row : rows) {
+            cursor.addRow(row);
+        }
+        when(contentResolver.query(any(Uri.class), any(String[].class), anyString(), any(String[].class),
+                anyString())).thenReturn(cursor);
+    }
+}
@@ -0,0 +1,262 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import android.app.Application;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.GlobalsHelper;
+import com.fsck.k9.K9;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.R;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mailstore.LocalFolder.DataLocation;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class BulkMessageDeleterTest {
+    private static final long FOLDER_ID = 1;
+
+
+    private SQLiteDatabase database;
+
+
+    @Before
+    public void setUp() throws MessagingException {
+        Application application = RuntimeEnvironment.application;
+        K9.app = application;
+        GlobalsHelper.setContext(application);
+        StorageManager.getInstance(application);
+
+        database = createDatabase();
+    }
+
+    @Test
+    public void deleteMessages_shouldDeleteMessagesAndTheirParts() {
+        long first = insertMessage(null, false, DataLocation.IN_DATABASE);
+        long second = insertMessage(null, false, DataLocation.IN_DATABASE);
+        long third = insertMessage(null, false, DataLocation.IN_DATABASE);
+
+        BulkMessageDeleter.deleteMessages(database, Arrays.asList(first, third));
+
+        assertEquals(Collections.singletonList(second), queryIds("SELECT id FROM messages"));
+        assertEquals(Collections.singletonList(second), queryIds("SELECT message_id FROM threads"));
+        assertEquals(1, count("SELECT COUNT(*) FROM message_parts"));
+        assertEquals(1, count("SELECT COUNT(*) FROM messages_fulltext"));
+    }
+
+    @Test
+    public void deleteMessages_shouldReturnIdsOfPartsStoredOnDisk() {
+        long inDatabase = insertMessage(null, false, DataLocation.IN_DATABASE);
+        long onDisk = insertMessage(null, false, DataLocation.ON_DISK);
+
+        List<String> partIds = BulkMessageDeleter.deleteMessages(database, Arrays.asList(inDatabase, onDisk));
+
+        assertEquals(Collections.singletonList(Long.toString(onDisk * 10)), partIds);
+    }
+
+    @Test
+    public void deleteMessages_withThreadChildren_shouldKeepEmptyMessage() {
+        long root = insertMessage(null, false, DataLocation.IN_DATABASE);
+        long reply = insertMessage(root, false, DataLocation.IN_DATABASE);
+
+        BulkMessageDeleter.deleteMessages(database, Collections.singletonList(root));
+
+        assertEquals(Arrays.asList(root, reply), queryIds("SELECT id FROM messages"));
+        assertEquals(Collections.singletonList(root), queryIds("SELECT id FROM messages WHERE empty = 1"));
+        assertEquals(Arrays.asList(root, reply), queryIds("SELECT message_id FROM threads"));
+        assertEquals(1, count("SELECT COUNT(*) FROM message_parts"));
+        assertEquals(1, count("SELECT COUNT(*) FROM messages_fulltext"));
+    }
+
+    @Test
+    public void deleteMessages_withEmptyParents_shouldDeleteEmptyParentsWithoutChildren() {
+        long emptyRoot = insertMessage(null, true, DataLocation.IN_DATABASE);
+        long emptyParent = insertMessage(emptyRoot, true, DataLocation.IN_DATABASE);
+        long reply = insertMessage(emptyParent, false, DataLocation.IN_DATABASE);
+
+        BulkMessageDeleter.deleteMessages(database, Collections.singletonList(reply));
+
+        assertEquals(0, count("SELECT COUNT(*) FROM messages"));
+        assertEquals(0, count("SELECT COUNT(*) FROM threads"));
+    }
+
+    @Test
+    public void deleteMessages_withEmptyParentWithOtherChildren_shouldKeepEmptyParent() {
+        long emptyRoot = insertMessage(null, true, DataLocation.IN_DATABASE);
+        long firstReply = insertMessage(emptyRoot, false, DataLocation.IN_DATABASE);
+        long secondReply = insertMessage(emptyRoot, false, DataLocation.IN_DATABASE);
+
+        BulkMessageDeleter.deleteMessages(database, Collections.singletonList(firstReply));
+
+        assertEquals(Arrays.asList(emptyRoot, secondReply), queryIds("SELECT id FROM messages"));
+    }
+
+    @Test
+    public void deleteMessages_withParentAndChild_shouldDeleteBoth() {
+        long root = insertMessage(null, false, DataLocation.IN_DATABASE);
+        long reply = insertMessage(root, false, DataLocation.IN_DATABASE);
+
+        BulkMessageDeleter.deleteMessages(database, Arrays.asList(root, reply));
+
+        assertEquals(0, count("SELECT COUNT(*) FROM messages"));
+        assertEquals(0, count("SELECT COUNT(*) FROM threads"));
+    }
+
+    @Test
+    public void deleteMessages_shouldUpdateThreadSummaries() {
+        long root = insertMessage(null, false, DataLocation.IN_DATABASE);
+        long reply = insertMessage(root, false, DataLocation.IN_DATABASE);
+
+        BulkMessageDeleter.deleteMessages(database, Collections.singletonList(reply));
+
+        assertEquals(Collections.singletonList(root), queryIds("SELECT message_id FROM thread_summaries"));
+    }
+
+    @Test
+    public void splitIntoChunks_shouldLimitMessagesPerTransaction() {
+        int maxMessages = BulkMessageDeleter.MAX_MESSAGES_PER_TRANSACTION;
+        List<Long> messageIds = new ArrayList<>();
+        for (long id = 1; id <= 2 * maxMessages + 10; id++) {
+            messageIds.add(id);
+        }
+
+        List<List<Long>> chunks = BulkMessageDeleter.splitIntoChunks(messageIds);
+
+        assertEquals(3, chunks.size());
+        assertEquals(maxMessages, chunks.get(0).size());
+        assertEquals(maxMessages, chunks.get(1).size());
+        assertEquals(10, chunks.get(2).size());
+        List<Long> joinedChunks = new ArrayList<>();
+        for (List<Long> chunk : chunks) {
+            joinedChunks.addAll(chunk);
+        }
+        assertEquals(messageIds, joinedChunks);
+    }
+
+    @Test
+    public void deleteMessages_withChunksOfLargeFolder_shouldPurgeToVisibleLimit() {
+        int visibleLimit = 25;
+        for (int i = 0; i < BulkMessageDeleter.MAX_MESSAGES_PER_TRANSACTION + 100 + visibleLimit; i++) {
+            insertMessage(null, false, DataLocation.IN_DATABASE);
+        }
+        List<Long> messageIds = queryIds("SELECT id FROM messages ORDER BY date DESC, id DESC " +
+                "LIMIT -1 OFFSET " + visibleLimit);
+
+        long maxDeletedPerTransaction = 0;
+        for (List<Long> chunk : BulkMessageDeleter.splitIntoChunks(messageIds)) {
+            long countBefore = count("SELECT COUNT(*) FROM messages");
+            database.beginTransaction();
+            try {
+                BulkMessageDeleter.deleteMessages(database, chunk);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            maxDeletedPerTransaction = Math.max(maxDeletedPerTransaction,
+                    countBefore - count("SELECT COUNT(*) FROM messages"));
+        }
+
+        assertEquals(BulkMessageDeleter.MAX_MESSAGES_PER_TRANSACTION, maxDeletedPerTransaction);
+        assertEquals(visibleLimit, count("SELECT COUNT(*) FROM messages"));
+        assertEquals(visibleLimit, count("SELECT COUNT(*) FROM message_parts"));
+    }
+
+
+    private long insertMessage(Long parentMessageId, boolean empty, int dataLocation) {
+        ContentValues messageValues = new ContentValues();
+        messageValues.put("folder_id", FOLDER_ID);
+        messageValues.put("date", System.currentTimeMillis());
+        messageValues.put("empty", empty ? 1 : 0);
+        long messageId = database.insert("messages", null, messageValues);
+
+        if (!empty) {
+            long messagePartId = messageId * 10;
+            ContentValues partValues = new ContentValues();
+            partValues.put("id", messagePartId);
+            partValues.put("type", 0);
+            partValues.put("parent", -1);
+            partValues.put("seq", 0);
+            partValues.put("data_location", dataLocation);
+            database.insert("message_parts", null, partValues);
+
+            ContentValues updateValues = new ContentValues();
+            updateValues.put("message_part_id", messagePartId);
+            database.update("messages", updateValues, "id = ?", new String[] { Long.toString(messageId) });
+
+            ContentValues fulltextValues = new ContentValues();
+            fulltextValues.put("docid", messageId);
+            fulltextValues.put("fulltext", "text");
+            database.insert("messages_fulltext", null, fulltextValues);
+        }
+
+        ContentValues threadValues = new ContentValues();
+        threadValues.put("message_id", messageId);
+        if (parentMessageId != null) {
+            threadValues.put("root", queryIds("SELECT root FROM threads WHERE message_id = " + parentMessageId).get(0));
+            threadValues.put("parent", queryIds("SELECT id FROM threads WHERE message_id = " + parentMessageId).get(0));
+        }
+        database.insert("threads", null, threadValues);
+
+        return messageId;
+    }
+
+    private List<Long> queryIds(String sql) {
+        Cursor cursor = database.rawQuery(sql, null);
+        try {
+            List<Long> ids = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long count(String sql) {
+        return DatabaseUtils.longForQuery(database, sql, null);
+    }
+
+    private SQLiteDatabase createDatabase() throws MessagingException {
+        Context context = mock(Context.class);
+        when(context.getString(R.string.special_mailbox_name_outbox)).thenReturn("Outbox");
+
+        Account account = mock(Account.class);
+        when(account.getInboxFolderName()).thenReturn("Inbox");
+        when(account.getLocalStorageProviderId()).thenReturn(StorageManager.InternalStorageProvider.ID);
+
+        LockableDatabase lockableDatabase = mock(LockableDatabase.class);
+        when(lockableDatabase.execute(anyBoolean(), any(LockableDatabase.DbCallback.class))).thenReturn(false);
+
+        LocalStore localStore = mock(LocalStore.class);
+        localStore.database = lockableDatabase;
+        when(localStore.getContext()).thenReturn(context);
+        when(localStore.getAccount()).thenReturn(account);
+
+        SQLiteDatabase database = SQLiteDatabase.create(null);
+        new StoreSchemaDefinition(localStore).doDbUpgrade(database);
+        return database;
+    }
+}
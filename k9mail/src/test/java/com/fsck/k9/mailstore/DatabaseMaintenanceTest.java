@@ -0,0 +1,174 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.File;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DatabaseMaintenanceTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SQLiteDatabase database;
+    private LockableDatabase lockableDatabase;
+    private DatabaseMaintenance databaseMaintenance;
+
+
+    @Before
+    public void setUp() throws Exception {
+        File databaseFile = new File(temporaryFolder.getRoot(), "test.db");
+        database = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
+        database.execSQL("CREATE TABLE messages (id INTEGER PRIMARY KEY, data TEXT)");
+        database.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 (fulltext)");
+
+        lockableDatabase = createLockableDatabase();
+        databaseMaintenance = new DatabaseMaintenance(lockableDatabase);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    @Test
+    public void enableIncrementalAutoVacuum_shouldSwitchExistingDatabaseToIncrementalAutoVacuum() {
+        boolean enabled = DatabaseMaintenance.enableIncrementalAutoVacuum(database);
+
+        assertTrue(enabled);
+        assertEquals(2, longForPragma("auto_vacuum"));
+    }
+
+    @Test
+    public void run_afterDeletingMessages_shouldReclaimFreePages() throws Exception {
+        DatabaseMaintenance.enableIncrementalAutoVacuum(database);
+        insertMessages(500);
+        database.execSQL("DELETE FROM messages");
+        long freePages = longForPragma("freelist_count");
+
+        DatabaseMaintenance.Result result = databaseMaintenance.run();
+
+        assertTrue(freePages > 0);
+        assertEquals(0, longForPragma("freelist_count"));
+        assertTrue(result.getReclaimedBytes() > 0);
+        assertEquals(0, result.getFreeBytes());
+    }
+
+    @Test
+    public void run_withoutIncrementalAutoVacuum_shouldEnableIt() throws Exception {
+        insertMessages(10);
+
+        DatabaseMaintenance.Result result = databaseMaintenance.run();
+
+        assertEquals(2, longForPragma("auto_vacuum"));
+        assertEquals(0, result.getFreeBytes());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void run_withoutIncrementalAutoVacuum_shouldVacuumWithoutStorageLock() throws Exception {
+        databaseMaintenance.run();
+
+        verify(lockableDatabase).executeWithoutLock(any(DbCallback.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void run_withIncrementalAutoVacuum_shouldNotVacuumWholeDatabase() throws Exception {
+        DatabaseMaintenance.enableIncrementalAutoVacuum(database);
+
+        databaseMaintenance.run();
+
+        verify(lockableDatabase, never()).executeWithoutLock(any(DbCallback.class));
+    }
+
+    @Test
+    public void run_shouldUpdateQueryPlannerStatistics() throws Exception {
+        database.execSQL("CREATE INDEX messages_data ON messages (data)");
+        insertMessages(10);
+
+        databaseMaintenance.run();
+
+        assertTrue(DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM sqlite_stat1", null) > 0);
+    }
+
+
+    private void insertMessages(int count) {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            data.append('x');
+        }
+
+        for (int i = 0; i < count; i++) {
+            ContentValues values = new ContentValues();
+            values.put("data", data.toString() + i);
+            long messageId = database.insert("messages", null, values);
+
+            ContentValues fulltextValues = new ContentValues();
+            fulltextValues.put("docid", messageId);
+            fulltextValues.put("fulltext", "message " + i);
+            database.insert("messages_fulltext", null, fulltextValues);
+        }
+    }
+
+    private long longForPragma(String pragma) {
+        return DatabaseUtils.longForQuery(database, "PRAGMA " + pragma, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private LockableDatabase createLockableDatabase() throws Exception {
+        LockableDatabase lockableDatabase = mock(LockableDatabase.class);
+        when(lockableDatabase.execute(anyBoolean(), any(DbCallback.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                boolean transactional = (Boolean) invocation.getArguments()[0];
+                DbCallback<Object> callback = (DbCallback<Object>) invocation.getArguments()[1];
+                if (!transactional) {
+                    return callback.doDbWork(database);
+                }
+
+                database.beginTransaction();
+                try {
+                    Object result = callback.doDbWork(database);
+                    database.setTransactionSuccessful();
+                    return result;
+                } finally {
+                    database.endTransaction();
+                }
+            }
+        });
+        when(lockableDatabase.executeWithoutLock(any(DbCallback.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                DbCallback<Object> callback = (DbCallback<Object>) invocation.getArguments()[0];
+                return callback.doDbWork(database);
+            }
+        });
+        return lockableDatabase;
+    }
+}
@@ -0,0 +1,113 @@
+package com.fsck.k9.mailstore;
+
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DisplayHtmlCacheTest {
+    private static final int MAX_CACHE_SIZE = 25;
+    private static final String ACCOUNT_UUID = "account";
+    private static final String OTHER_ACCOUNT_UUID = "other";
+    private static final String DISPLAY_SETTINGS = "LIGHT,false";
+
+
+    private DisplayHtmlCache cache;
+
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new DisplayHtmlCache(MAX_CACHE_SIZE);
+    }
+
+    @Test
+    public void get_withoutEntry_shouldReturnNull() throws Exception {
+        assertNull(cache.get(createMessage(ACCOUNT_UUID, 1, 10), DISPLAY_SETTINGS));
+    }
+
+    @Test
+    public void get_afterPut_shouldReturnStoredHtml() throws Exception {
+        cache.put(createMessage(ACCOUNT_UUID, 1, 10), DISPLAY_SETTINGS, "<p>one</p>");
+
+        assertEquals("<p>one</p>", cache.get(createMessage(ACCOUNT_UUID, 1, 10), DISPLAY_SETTINGS));
+    }
+
+    @Test
+    public void get_withNewRootPart_shouldReturnNull() throws Exception {
+        cache.put(createMessage(ACCOUNT_UUID, 1, 10), DISPLAY_SETTINGS, "<p>one</p>");
+
+        assertNull(cache.get(createMessage(ACCOUNT_UUID, 1, 11), DISPLAY_SETTINGS));
+    }
+
+    @Test
+    public void get_withOtherDisplaySettings_shouldReturnNull() throws Exception {
+        cache.put(createMessage(ACCOUNT_UUID, 1, 10), DISPLAY_SETTINGS, "<p>one</p>");
+
+        assertNull(cache.get(createMessage(ACCOUNT_UUID, 1, 10), "DARK,false"));
+    }
+
+    @Test
+    public void get_withSameMessageIdInOtherAccount_shouldReturnNull() throws Exception {
+        cache.put(createMessage(ACCOUNT_UUID, 1, 10), DISPLAY_SETTINGS, "<p>one</p>");
+
+        assertNull(cache.get(createMessage(OTHER_ACCOUNT_UUID, 1, 10), DISPLAY_SETTINGS));
+    }
+
+    @Test
+    public void remove_shouldDropEntryOfMessage() throws Exception {
+        cache.put(createMessage(ACCOUNT_UUID, 1, 10), DISPLAY_SETTINGS, "<p>one</p>");
+        cache.put(createMessage(ACCOUNT_UUID, 2, 20), DISPLAY_SETTINGS, "<p>two</p>");
+
+        cache.remove(ACCOUNT_UUID, 1);
+
+        assertNull(cache.get(createMessage(ACCOUNT_UUID, 1, 10), DISPLAY_SETTINGS));
+        assertEquals("<p>two</p>", cache.get(createMessage(ACCOUNT_UUID, 2, 20), DISPLAY_SETTINGS));
+    }
+
+    @Test
+    public void removeAccount_shouldOnlyDropEntriesOfAccount() throws Exception {
+        cache.put(createMessage(ACCOUNT_UUID, 1, 10), DISPLAY_SETTINGS, "<p>one</p>");
+        cache.put(createMessage(OTHER_ACCOUNT_UUID, 1, 10), DISPLAY_SETTINGS, "<p>other</p>");
+
+        cache.removeAccount(ACCOUNT_UUID);
+
+        assertNull(cache.get(createMessage(ACCOUNT_UUID, 1, 10), DISPLAY_SETTINGS));
+        assertEquals("<p>other</p>", cache.get(createMessage(OTHER_ACCOUNT_UUID, 1, 10), DISPLAY_SETTINGS));
+    }
+
+    @Test
+    public void put_exceedingMaxSize_shouldEvictLeastRecentlyUsedEntry() throws Exception {
+        cache.put(createMessage(ACCOUNT_UUID, 1, 10), DISPLAY_SETTINGS, "<p>one</p>");
+        cache.put(createMessage(ACCOUNT_UUID, 2, 20), DISPLAY_SETTINGS, "<p>two</p>");
+        cache.get(createMessage(ACCOUNT_UUID, 1, 10), DISPLAY_SETTINGS);
+
+        cache.put(createMessage(ACCOUNT_UUID, 3, 30), DISPLAY_SETTINGS, "<p>three</p>");
+
+        assertNull(cache.get(createMessage(ACCOUNT_UUID, 2, 20), DISPLAY_SETTINGS));
+        assertEquals("<p>one</p>", cache.get(createMessage(ACCOUNT_UUID, 1, 10), DISPLAY_SETTINGS));
+        assertEquals("<p>three</p>", cache.get(createMessage(ACCOUNT_UUID, 3, 30), DISPLAY_SETTINGS));
+    }
+
+
+    private LocalMessage createMessage(String accountUuid, long messageId, long messagePartId) {
+        Account account = mock(Account.class);
+        when(account.getUuid()).thenReturn(accountUuid);
+
+        LocalMessage message = mock(LocalMessage.class);
+        when(message.getAccount()).thenReturn(account);
+        when(message.getId()).thenReturn(messageId);
+        when(message.getMessagePartId()).thenReturn(messagePartId);
+        return message;
+    }
+}
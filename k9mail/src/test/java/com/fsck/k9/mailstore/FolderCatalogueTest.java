@@ -0,0 +1,102 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.fsck.k9.mail.Folder.FolderClass;
+import com.fsck.k9.mailstore.LocalFolder.MoreMessages;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+
+public class FolderCatalogueTest {
+    private FolderCatalogue folderCatalogue = new FolderCatalogue();
+
+
+    @Test
+    public void getRecords_withoutLoad_shouldReturnNull() throws Exception {
+        assertNull(folderCatalogue.getRecords());
+    }
+
+    @Test
+    public void setRecords_withCurrentGeneration_shouldStoreRecords() throws Exception {
+        int generation = folderCatalogue.getGeneration();
+
+        folderCatalogue.setRecords(Arrays.asList(createRecord(1, "INBOX", 25), createRecord(2, "Sent", 25)),
+                generation);
+
+        assertEquals(2, folderCatalogue.getRecords().size());
+        assertEquals(2, folderCatalogue.findByName("Sent").id);
+        assertEquals("INBOX", folderCatalogue.findById(1).name);
+    }
+
+    @Test
+    public void setRecords_afterInvalidate_shouldDiscardRecords() throws Exception {
+        int generation = folderCatalogue.getGeneration();
+        folderCatalogue.invalidate();
+
+        folderCatalogue.setRecords(Arrays.asList(createRecord(1, "INBOX", 25)), generation);
+
+        assertNull(folderCatalogue.getRecords());
+    }
+
+    @Test
+    public void setRecords_afterUpdate_shouldDiscardRecords() throws Exception {
+        int generation = folderCatalogue.getGeneration();
+        folderCatalogue.update(createRecord(1, "INBOX", 50));
+
+        folderCatalogue.setRecords(Arrays.asList(createRecord(1, "INBOX", 25)), generation);
+
+        assertNull(folderCatalogue.getRecords());
+    }
+
+    @Test
+    public void update_shouldReplaceRecord() throws Exception {
+        FolderRecord sent = createRecord(2, "Sent", 25);
+        folderCatalogue.setRecords(Arrays.asList(createRecord(1, "INBOX", 25), sent), 0);
+
+        folderCatalogue.update(createRecord(1, "INBOX", 50));
+
+        List<FolderRecord> records = folderCatalogue.getRecords();
+        assertEquals(50, records.get(0).visibleLimit);
+        assertSame(sent, records.get(1));
+    }
+
+    @Test
+    public void update_withRenamedFolder_shouldInvalidate() throws Exception {
+        folderCatalogue.setRecords(Arrays.asList(createRecord(1, "INBOX", 25)), 0);
+
+        folderCatalogue.update(createRecord(1, "Inbox", 25));
+
+        assertNull(folderCatalogue.getRecords());
+    }
+
+    @Test
+    public void update_withUnknownFolder_shouldInvalidate() throws Exception {
+        folderCatalogue.setRecords(Arrays.asList(createRecord(1, "INBOX", 25)), 0);
+
+        folderCatalogue.update(createRecord(2, "Sent", 25));
+
+        assertNull(folderCatalogue.getRecords());
+    }
+
+    @Test
+    public void remove_shouldRemoveRecord() throws Exception {
+        folderCatalogue.setRecords(Arrays.asList(createRecord(1, "INBOX", 25), createRecord(2, "Sent", 25)), 0);
+
+        folderCatalogue.remove(1);
+
+        assertEquals(1, folderCatalogue.getRecords().size());
+        assertNull(folderCatalogue.findByName("INBOX"));
+    }
+
+
+    private FolderRecord createRecord(long id, String name, int visibleLimit) {
+        return new FolderRecord(id, name, visibleLimit, 0, null, null, 0, false, false, FolderClass.NO_CLASS,
+                FolderClass.NO_CLASS, FolderClass.NO_CLASS, FolderClass.NO_CLASS, MoreMessages.UNKNOWN, 0);
+    }
+}
@@ -1,15 +1,33 @@
 package com.fsck.k9.mailstore;
 
 
+import java.io.File;
+import java.io.FileOutputStream;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.Folder.FolderType;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.internet.MimeBodyPart;
 import com.fsck.k9.mail.internet.MimeMessage;
 import com.fsck.k9.mail.internet.MimeMultipart;
+import com.fsck.k9.mailstore.LocalFolder.DataLocation;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
 
 import static org.junit.Assert.*;
 
 
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
 public class LocalStoreTest {
 
     @Test
@@ -80,4 +98,141 @@ public class LocalStoreTest {
 
         assertSame(needlePart, part);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getDecodedAttachmentFile_withUnencodedPartOnDisk_shouldReturnFile() throws Exception {
+        LocalStore localStore = createLocalStore();
+        long partId = insertPart(localStore, DataLocation.ON_DISK, "binary");
+        File file = writeAttachmentFile(localStore, partId);
+
+        File decodedFile = localStore.getDecodedAttachmentFile(Long.toString(partId));
+
+        assertEquals(file, decodedFile);
+    }
+
+    @Test
+    public void getDecodedAttachmentFile_withBase64PartOnDisk_shouldReturnNull() throws Exception {
+        LocalStore localStore = createLocalStore();
+        long partId = insertPart(localStore, DataLocation.ON_DISK, "base64");
+        writeAttachmentFile(localStore, partId);
+
+        File decodedFile = localStore.getDecodedAttachmentFile(Long.toString(partId));
+
+        assertNull(decodedFile);
+    }
+
+    @Test
+    public void getDecodedAttachmentFile_withPartInDatabase_shouldReturnNull() throws Exception {
+        LocalStore localStore = createLocalStore();
+        long partId = insertPart(localStore, DataLocation.IN_DATABASE, null);
+
+        File decodedFile = localStore.getDecodedAttachmentFile(Long.toString(partId));
+
+        assertNull(decodedFile);
+    }
+
+    @Test
+    public void getDownloadedAttachmentSize_shouldOnlyCountDownloadedNonTextParts() throws Exception {
+        LocalStore localStore = createLocalStore();
+        insertPart(localStore, DataLocation.ON_DISK, "application/pdf", 1000);
+        insertPart(localStore, DataLocation.IN_DATABASE, null, 200);
+        insertPart(localStore, DataLocation.IN_DATABASE, "text/plain", 30);
+        insertPart(localStore, DataLocation.MISSING, "image/png", 4000);
+        insertPart(localStore, DataLocation.CHILD_PART_CONTAINS_DATA, "multipart/mixed", 50000);
+
+        long size = localStore.getDownloadedAttachmentSize();
+
+        assertEquals(1200, size);
+    }
+
+    @Test
+    public void recordSyncResult_withEmptySyncs_shouldCountThem() throws Exception {
+        LocalFolder folder = createFolder(createLocalStore(), "Sent");
+
+        folder.recordSyncResult(0);
+        folder.recordSyncResult(0);
+
+        assertEquals(2, folder.getEmptySyncCount());
+    }
+
+    @Test
+    public void recordSyncResult_withDownloadedMessagesAfterEmptySyncs_shouldResetEmptySyncCount() throws Exception {
+        LocalStore localStore = createLocalStore();
+        LocalFolder folder = createFolder(localStore, "Sent");
+        folder.recordSyncResult(0);
+        folder.recordSyncResult(0);
+
+        folder.recordSyncResult(1);
+
+        LocalFolder reloadedFolder = localStore.getFolder("Sent");
+        reloadedFolder.open(Folder.OPEN_MODE_RO);
+        assertEquals(0, folder.getEmptySyncCount());
+        assertEquals(0, reloadedFolder.getEmptySyncCount());
+    }
+
+
+    private LocalStore createLocalStore() throws Exception {
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        preferences.loadAccounts();
+        Account account = preferences.newAccount();
+
+        StorageManager storageManager = StorageManager.getInstance(RuntimeEnvironment.application);
+        File databaseFile = storageManager.getDatabase(account.getUuid(), account.getLocalStorageProviderId());
+        assertTrue(databaseFile.getParentFile().isDirectory() || databaseFile.getParentFile().mkdirs());
+
+        return LocalStore.getInstance(account, RuntimeEnvironment.application);
+    }
+
+    private LocalFolder createFolder(LocalStore localStore, String name) throws Exception {
+        LocalFolder folder = localStore.getFolder(name);
+        folder.create(FolderType.HOLDS_MESSAGES);
+        folder.open(Folder.OPEN_MODE_RW);
+        return folder;
+    }
+
+    private void insertPart(LocalStore localStore, final int dataLocation, final String mimeType,
+            final long decodedBodySize) throws Exception {
+        localStore.database.execute(false, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) {
+                ContentValues values = new ContentValues();
+                values.put("type", 0);
+                values.put("parent", -1);
+                values.put("seq", 0);
+                values.put("mime_type", mimeType);
+                values.put("data_location", dataLocation);
+                values.put("decoded_body_size", decodedBodySize);
+                db.insert("message_parts", null, values);
+                return null;
+            }
+        });
+    }
+
+    private long insertPart(LocalStore localStore, final int dataLocation, final String encoding) throws Exception {
+        return localStore.database.execute(false, new DbCallback<Long>() {
+            @Override
+            public Long doDbWork(SQLiteDatabase db) {
+                ContentValues values = new ContentValues();
+                values.put("type", 0);
+                values.put("parent", -1);
+                values.put("seq", 0);
+                values.put("mime_type", "application/octet-stream");
+                values.put("encoding", encoding);
+                values.put("data_location", dataLocation);
+                return db.insert("message_parts", null, values);
+            }
+        });
+    }
+
+    private File writeAttachmentFile(LocalStore localStore, long partId) throws Exception {
+        File file = localStore.getAttachmentFile(Long.toString(partId));
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(new byte[] { 1, 2, 3 });
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+}
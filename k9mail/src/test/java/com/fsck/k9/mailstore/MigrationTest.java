@@ -8,8 +8,10 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.List;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 
 import com.fsck.k9.Account;
@@ -18,10 +20,14 @@ import com.fsck.k9.K9RobolectricTestRunner;
 import com.fsck.k9.Preferences;
 import com.fsck.k9.mail.BodyPart;
 import com.fsck.k9.mail.FetchProfile;
+import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Multipart;
 import com.fsck.k9.mail.internet.MessageExtractor;
 import com.fsck.k9.mail.internet.MimeHeader;
 import com.fsck.k9.mail.internet.MimeUtility;
+import com.fsck.k9.mailstore.migrations.Migrations;
+import com.fsck.k9.mailstore.migrations.MigrationsHelper;
+import com.fsck.k9.preferences.Storage;
 import org.apache.commons.io.IOUtils;
 import org.apache.james.mime4j.util.MimeUtil;
 import org.junit.Assert;
@@ -705,6 +711,63 @@ public class MigrationTest {
         Assert.assertEquals("image/jpeg", msgBody.getBodyPart(1).getMimeType());
     }
 
+    private void insertGeneratedPlaintextMessages(SQLiteDatabase db, int count) {
+        db.beginTransaction();
+        try {
+            for (int id = 1; id <= count; id++) {
+                db.execSQL("INSERT INTO messages (id, deleted, folder_id, uid, subject, date, flags, sender_list, " +
+                        "to_list, cc_list, bcc_list, reply_to_list, html_content, text_content, attachment_count, " +
+                        "internal_date, message_id, preview, mime_type, empty, read) " +
+                        "VALUES (?, 0, 16, ?, ?, ?, 'X_GOT_ALL_HEADERS,X_DOWNLOADED_FULL', 'look@my.amazin.horse;', " +
+                        "'valodim@mugenguild.com', '', '', '', ?, ?, 0, ?, ?, ?, 'text/plain', 0, 1)",
+                        new Object[] {
+                                id, Integer.toString(id), "message " + id, 1453380493000L + id,
+                                "<pre class=\"k9mail\">message " + id + "<br /></pre>", "message " + id + "\n",
+                                1453380499000L + id, "<" + id + "@littlepip>", "message " + id
+                        });
+                db.execSQL("INSERT INTO headers (message_id, name, value) VALUES (?, 'Subject', ?)",
+                        new Object[] { id, "message " + id });
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Test
+    public void migrateManyMessages_afterInterruption_shouldResumeMigration() throws Exception {
+        SQLiteDatabase db = createV50Database();
+        insertGeneratedPlaintextMessages(db, 1200);
+
+        db.beginTransaction();
+        try {
+            // The first two checkpoints are taken before any message is migrated
+            Migrations.upgradeDatabase(db, new InterruptingMigrationsHelper(3));
+            Assert.fail("Expected migration to be interrupted");
+        } catch (MigrationInterruptedException e) {
+            // expected
+        } finally {
+            db.endTransaction();
+        }
+        Assert.assertEquals(50, db.getVersion());
+        Assert.assertEquals(500, DatabaseUtils.queryNumEntries(db, "message_parts"));
+        db.close();
+
+        LocalStore localStore = LocalStore.getInstance(account, RuntimeEnvironment.application);
+
+        LocalFolder folder = localStore.getFolder("dev");
+        Assert.assertEquals(1200, folder.getMessageCount());
+        LocalMessage msg = folder.getMessage("1000");
+        FetchProfile fp = new FetchProfile();
+        fp.add(FetchProfile.Item.BODY);
+        folder.fetch(Collections.singletonList(msg), fp, null);
+        Assert.assertEquals("message 1000\r\n", MessageExtractor.getTextFromPart(msg));
+
+        db = RuntimeEnvironment.application.openOrCreateDatabase(databaseFile.getName(), Context.MODE_PRIVATE, null);
+        Assert.assertEquals(1200, DatabaseUtils.queryNumEntries(db, "message_parts"));
+        db.close();
+    }
+
     private void copyAttachmentFromFile(String resourceName, int attachmentId, int expectedFilesize) throws IOException {
         File resourceFile = new File(getClass().getResource("/attach/" + resourceName).getFile());
         File attachmentFile = new File(attachmentDir, Integer.toString(attachmentId));
@@ -716,6 +779,61 @@ public class MigrationTest {
         Assert.assertEquals(expectedFilesize, copied);
     }
 
+    private class InterruptingMigrationsHelper implements MigrationsHelper {
+        private final int interruptAfterCheckpoints;
+        private int checkpoints = 0;
+
+
+        InterruptingMigrationsHelper(int interruptAfterCheckpoints) {
+            this.interruptAfterCheckpoints = interruptAfterCheckpoints;
+        }
+
+        @Override
+        public LocalStore getLocalStore() {
+            return null;
+        }
+
+        @Override
+        public Storage getStorage() {
+            return Preferences.getPreferences(RuntimeEnvironment.application).getStorage();
+        }
+
+        @Override
+        public Account getAccount() {
+            return account;
+        }
+
+        @Override
+        public Context getContext() {
+            return RuntimeEnvironment.application;
+        }
+
+        @Override
+        public String serializeFlags(List<Flag> flags) {
+            return LocalStore.serializeFlags(flags);
+        }
+
+        @Override
+        public void commitCheckpoint(SQLiteDatabase db, int completedVersion) {
+            db.setVersion(completedVersion);
+            db.setTransactionSuccessful();
+            db.endTransaction();
+            db.beginTransaction();
+
+            checkpoints++;
+            if (checkpoints == interruptAfterCheckpoints) {
+                throw new MigrationInterruptedException();
+            }
+        }
+
+        @Override
+        public void reportProgress(int progress, int progressEnd) {
+        }
+    }
+
+    private static class MigrationInterruptedException extends RuntimeException {
+    }
+
     private Account getNewAccount() {
         Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
 
@@ -1,6 +1,7 @@
 package com.fsck.k9.mailstore;
 
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -10,6 +11,7 @@ import android.app.Application;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.text.TextUtils;
 
@@ -21,7 +23,9 @@ import com.fsck.k9.K9RobolectricTestRunner;
 import com.fsck.k9.R;
 import com.fsck.k9.mail.MessagingException;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
@@ -40,6 +44,9 @@ import static org.mockito.Mockito.when;
 @RunWith(K9RobolectricTestRunner.class)
 @Config(manifest = Config.NONE)
 public class StoreSchemaDefinitionTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private StoreSchemaDefinition storeSchemaDefinition;
 
 
@@ -135,6 +142,31 @@ public class StoreSchemaDefinitionTest {
         assertDatabaseIndexesEquals(newDatabase, upgradedDatabase);
     }
 
+    @Test
+    public void doDbUpgrade_withNewDatabase_shouldEnableIncrementalAutoVacuum() {
+        // Opening the database file creates android_metadata, like it does on the device
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(
+                new File(temporaryFolder.getRoot(), "new.db"), null);
+
+        try {
+            storeSchemaDefinition.doDbUpgrade(database);
+
+            assertEquals(2, DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null));
+            assertEquals(LocalStore.DB_VERSION, database.getVersion());
+        } finally {
+            database.close();
+        }
+    }
+
+    @Test
+    public void doDbUpgrade_fromV29_shouldLeaveAutoVacuumToMaintenance() {
+        SQLiteDatabase database = createV29Database();
+
+        storeSchemaDefinition.doDbUpgrade(database);
+
+        assertEquals(0, DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null));
+    }
+
 
     private SQLiteDatabase createV29Database() {
         SQLiteDatabase database = SQLiteDatabase.create(null);
@@ -0,0 +1,192 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MigrationTo62Test {
+    private static final long INBOX = 1;
+    private static final long ARCHIVE = 2;
+
+
+    private SQLiteDatabase database;
+
+
+    @Before
+    public void setUp() {
+        database = createV61Database();
+    }
+
+    @Test
+    public void createThreadSummariesTable_shouldSummarizeExistingThreads() {
+        long root = insertMessage(INBOX, 100, true, null);
+        long reply = insertMessage(INBOX, 200, false, root);
+        insertMessage(ARCHIVE, 300, true, root);
+
+        MigrationTo62.createThreadSummariesTable(database);
+
+        assertSummary(INBOX, root, reply, 200, 2, false);
+        assertSummary(ARCHIVE, root, reply + 1, 300, 1, true);
+    }
+
+    @Test
+    public void insertMessage_shouldUpdateThreadSummary() {
+        createThreadSummaries();
+        long root = insertMessage(INBOX, 100, true, null);
+
+        long reply = insertMessage(INBOX, 200, true, root);
+
+        assertSummary(INBOX, root, reply, 200, 2, true);
+    }
+
+    @Test
+    public void markMessageAsUnread_shouldUpdateThreadSummary() {
+        createThreadSummaries();
+        long root = insertMessage(INBOX, 100, true, null);
+        long reply = insertMessage(INBOX, 200, true, root);
+
+        database.execSQL("UPDATE messages SET read = 0 WHERE id = " + root);
+
+        assertSummary(INBOX, root, reply, 200, 2, false);
+    }
+
+    @Test
+    public void moveMessage_shouldUpdateThreadSummariesOfBothFolders() {
+        createThreadSummaries();
+        long root = insertMessage(INBOX, 100, true, null);
+        long reply = insertMessage(INBOX, 200, true, root);
+
+        database.execSQL("UPDATE messages SET folder_id = " + ARCHIVE + " WHERE id = " + reply);
+
+        assertSummary(INBOX, root, root, 100, 1, true);
+        assertSummary(ARCHIVE, root, reply, 200, 1, true);
+    }
+
+    @Test
+    public void deleteMessage_shouldUpdateThreadSummary() {
+        createThreadSummaries();
+        long root = insertMessage(INBOX, 100, true, null);
+        long reply = insertMessage(INBOX, 200, true, root);
+
+        database.execSQL("UPDATE messages SET deleted = 1 WHERE id = " + reply);
+
+        assertSummary(INBOX, root, root, 100, 1, true);
+    }
+
+    @Test
+    public void deleteAllMessagesOfThread_shouldRemoveThreadSummary() {
+        createThreadSummaries();
+        long root = insertMessage(INBOX, 100, true, null);
+
+        database.execSQL("DELETE FROM messages WHERE id = " + root);
+        database.execSQL("DELETE FROM threads WHERE message_id = " + root);
+
+        assertNoSummary(INBOX, root);
+    }
+
+    @Test
+    public void mergeThreads_shouldUpdateThreadSummaries() {
+        createThreadSummaries();
+        long firstRoot = insertMessage(INBOX, 100, true, null);
+        long secondRoot = insertMessage(INBOX, 200, false, null);
+
+        database.execSQL("UPDATE threads SET root = " + firstRoot + " WHERE root = " + secondRoot);
+
+        assertSummary(INBOX, firstRoot, secondRoot, 200, 2, false);
+        assertNoSummary(INBOX, secondRoot);
+    }
+
+
+    private void createThreadSummaries() {
+        MigrationTo62.createThreadSummariesTable(database);
+        MigrationTo62.createThreadSummariesTriggers(database);
+    }
+
+    private long insertMessage(long folderId, long date, boolean read, Long root) {
+        ContentValues messageValues = new ContentValues();
+        messageValues.put("folder_id", folderId);
+        messageValues.put("date", date);
+        messageValues.put("internal_date", date);
+        messageValues.put("attachment_count", 0);
+        messageValues.put("read", read ? 1 : 0);
+        long messageId = database.insert("messages", null, messageValues);
+
+        ContentValues threadValues = new ContentValues();
+        threadValues.put("message_id", messageId);
+        threadValues.put("root", root);
+        database.insert("threads", null, threadValues);
+
+        return messageId;
+    }
+
+    private void assertSummary(long folderId, long root, long messageId, long date, int threadCount, boolean read) {
+        Cursor cursor = querySummary(folderId, root);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(messageId, cursor.getLong(0));
+            assertEquals(date, cursor.getLong(1));
+            assertEquals(threadCount, cursor.getInt(2));
+            assertEquals(read, cursor.getInt(3) == 1);
+            assertFalse(cursor.moveToNext());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertNoSummary(long folderId, long root) {
+        Cursor cursor = querySummary(folderId, root);
+        try {
+            assertFalse(cursor.moveToFirst());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor querySummary(long folderId, long root) {
+        return database.rawQuery("SELECT message_id, date, thread_count, read FROM thread_summaries " +
+                "WHERE folder_id = ? AND root = ?", new String[] { Long.toString(folderId), Long.toString(root) });
+    }
+
+    private SQLiteDatabase createV61Database() {
+        SQLiteDatabase database = SQLiteDatabase.create(null);
+        database.execSQL("CREATE TABLE messages (" +
+                "id INTEGER PRIMARY KEY, " +
+                "deleted INTEGER default 0, " +
+                "folder_id INTEGER, " +
+                "date INTEGER, " +
+                "attachment_count INTEGER, " +
+                "internal_date INTEGER, " +
+                "empty INTEGER default 0, " +
+                "read INTEGER default 0, " +
+                "flagged INTEGER default 0, " +
+                "answered INTEGER default 0, " +
+                "forwarded INTEGER default 0" +
+                ")");
+        database.execSQL("CREATE TABLE threads (" +
+                "id INTEGER PRIMARY KEY, " +
+                "message_id INTEGER, " +
+                "root INTEGER, " +
+                "parent INTEGER" +
+                ")");
+        database.execSQL("CREATE TRIGGER set_thread_root " +
+                "AFTER INSERT ON threads " +
+                "BEGIN " +
+                "UPDATE threads SET root=id WHERE root IS NULL AND ROWID = NEW.ROWID; " +
+                "END");
+        return database;
+    }
+}
@@ -1,7 +1,10 @@
 package com.fsck.k9.message.html;
 
 
+import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
+import org.jsoup.safety.Cleaner;
+import org.jsoup.safety.Whitelist;
 import org.junit.Test;
 
 import static com.fsck.k9.message.html.HtmlProcessor.toCompactString;
@@ -9,6 +12,56 @@ import static org.junit.Assert.assertEquals;
 
 
 public class HtmlSanitizerTest {
+    private static final String[] CORPUS = {
+            "",
+            "Plain text",
+            "<p>Unclosed paragraph<div>and div",
+            "<!DOCTYPE html><html lang=\"en\" class=\"root\"><head><title>Title</title>" +
+                    "<style>body { color: red; }</style></head><body bgcolor=\"#fff\" onload=\"x()\">Text</body></html>",
+            "<html><head></head>\n<body>\n<center><table width=\"600\" align=\"center\" bgcolor=\"#ffffff\" " +
+                    "border=\"0\" cellpadding=\"0\" cellspacing=\"0\" style=\"max-width: 600px\"><tr>" +
+                    "<td valign=\"top\" class=\"header\"><a href=\"https://example.com/?utm_source=newsletter&amp;a=b\" " +
+                    "target=\"_blank\"><img src=\"https://example.com/logo.png\" width=\"200\" height=\"50\" " +
+                    "alt=\"Logo\" border=\"0\" style=\"display:block\"></a></td></tr><tr><td>" +
+                    "<font face=\"Arial\" size=\"2\" color=\"#333333\">Big <b>sale</b> &ndash; 50% off!</font>" +
+                    "</td></tr></table></center>\n<img src=\"https://tracker.example.com/open.gif\" width=\"1\" " +
+                    "height=\"1\"></body></html>",
+            "<html xmlns:o=\"urn:schemas-microsoft-com:office:office\"><head><!--[if gte mso 9]><xml>" +
+                    "<o:OfficeDocumentSettings></o:OfficeDocumentSettings></xml><![endif]--></head><body lang=\"EN-US\">" +
+                    "<div class=\"WordSection1\"><p class=\"MsoNormal\">Hi,<o:p></o:p></p>" +
+                    "<p class=\"MsoNormal\"><o:p>&nbsp;</o:p></p><p class=\"MsoNormal\">Regards<o:p></o:p></p>" +
+                    "</div></body></html>",
+            "<div>Before<script type=\"text/javascript\">document.write('<b>bold</b>');</script>After</div>",
+            "<div>Before<style>p { color: blue; }</style>After</div>",
+            "<p>A<!-- comment -->B<![CDATA[ data ]]>C<?php echo 1; ?>D</p>",
+            "<form action=\"http://example.com/\"><input type=\"text\" value=\"x\"><textarea>Text &lt;b&gt;</textarea>" +
+                    "<select><option>One</option></select><button onclick=\"x()\">Send</button></form>",
+            "<iframe src=\"http://example.com/\">Fallback</iframe><object data=\"x.swf\"><embed src=\"x.swf\">" +
+                    "</object><noscript><p>No script</p></noscript>",
+            "<a href=\"javascript:alert(1)\">js</a><a href=\"JAVASCRIPT:alert(1)\">JS</a><a href=\"/relative\">rel</a>" +
+                    "<a href=\"#anchor\">anchor</a><a href=\"mailto:alice@example.com\">mail</a>" +
+                    "<a href=\"ftp://example.com/file\" title=\"File\" onclick=\"x()\">ftp</a>",
+            "<img src=\"cid:part1.12345@example.com\"><img src=\"data:image/png;base64,iVBORw0KGgo=\">" +
+                    "<img src=\"HTTP://EXAMPLE.COM/IMAGE.PNG\"><img src=\"file:///etc/passwd\"><img src=\"image.png\">",
+            "<blockquote cite=\"http://example.com/\" type=\"cite\">Quote<q cite=\"javascript:x\">Inline</q></blockquote>",
+            "<table><caption>Caption</caption><colgroup span=\"2\"><col width=\"10\"></colgroup><thead><tr>" +
+                    "<th scope=\"col\" abbr=\"A\">Header</th></tr></thead><tbody><tr><td colspan=\"2\" nowrap>Cell" +
+                    "</td></tr></tbody><tfoot><tr><td>Foot</td></tr></tfoot></table>",
+            "<ul type=\"disc\"><li>One</li><li>Two<ol start=\"3\" type=\"a\"><li>Three</li></ol></li></ul>" +
+                    "<dl><dt>Term</dt><dd>Definition</dd></dl>",
+            "<h1 id=\"top\">Heading</h1><pre>  preformatted\n  text  </pre><code>code</code><sub>sub</sub>" +
+                    "<sup>sup</sup><small>small</small><strike>strike</strike><u>u</u><em>em</em><i>i</i>" +
+                    "<strong>strong</strong><cite>cite</cite><br clear=\"all\"><hr>",
+            "<span><custom-element attr=\"x\"><unknown><b>Nested</b> text</unknown></custom-element></span>",
+            "<marquee><blink><center><big>Old</big> <tt>school</tt></center></blink></marquee>",
+            "<svg><circle r=\"10\"></circle><text>SVG text</text></svg><math><mi>x</mi></math>",
+            "<frameset><frame src=\"http://example.com/\"></frameset>",
+            "<html><head><base href=\"http://example.com/\"></head><body><a href=\"relative\">link</a></body></html>",
+            "<body><p>One</p></body><p>After body</p><!-- trailing comment -->",
+            "<table><tr><td>1</td><b>Misnested</b><td>2</td></tr></table><b><i>Bold italic</b> italic</i>",
+            "&lt;script&gt;alert(1)&lt;/script&gt; &amp;amp; &quot;quoted&quot; &#x1F600;",
+    };
+
     private HtmlSanitizer htmlSanitizer = new HtmlSanitizer();
 
 
@@ -158,4 +211,71 @@ public class HtmlSanitizerTest {
                 "<tr><td>Hmailserver service shutdown:</td><td>Ok</td></tr>" +
                 "</tbody></table></body></html>", toCompactString(result));
     }
+
+    @Test
+    public void shouldRemoveScriptsAndKeepSurroundingText() {
+        String html = "<html><head></head><body><div>A<script>alert('<b>B</b>');</script>C</div></body></html>";
+
+        Document result = htmlSanitizer.sanitize(html);
+
+        assertEquals("<html><head></head><body><div>AC</div></body></html>", toCompactString(result));
+    }
+
+    @Test
+    public void shouldReplaceUnknownElementsWithTheirChildren() {
+        String html = "<html><head></head><body><center><p>One</p><p>Two</p></center></body></html>";
+
+        Document result = htmlSanitizer.sanitize(html);
+
+        assertEquals("<html><head></head><body><p>One</p><p>Two</p></body></html>", toCompactString(result));
+    }
+
+    @Test
+    public void shouldRemoveUnsafeAttributes() {
+        String html = "<html><head></head><body onload=\"x()\">" +
+                "<a href=\"javascript:x()\" onclick=\"x()\" title=\"Title\" style=\"color: red\">Link</a>" +
+                "</body></html>";
+
+        Document result = htmlSanitizer.sanitize(html);
+
+        assertEquals("<html><head></head><body><a title=\"Title\" style=\"color: red\">Link</a></body></html>",
+                toCompactString(result));
+    }
+
+    @Test
+    public void shouldProduceSameOutputAsCleaner() {
+        for (String html : CORPUS) {
+            assertEquals(html, toCompactString(sanitizeWithCleaner(html)),
+                    toCompactString(htmlSanitizer.sanitize(html)));
+        }
+    }
+
+    @Test
+    public void shouldProduceSameOutputAsCleanerForLargeDocument() {
+        StringBuilder html = new StringBuilder("<html><head><style>td { padding: 0; }</style></head><body>");
+        while (html.length() < 500 * 1024) {
+            for (String fragment : CORPUS) {
+                html.append("<table><tr><td><center>").append(fragment).append("</center></td></tr></table>");
+            }
+        }
+        html.append("</body></html>");
+        String input = html.toString();
+
+        assertEquals(toCompactString(sanitizeWithCleaner(input)), toCompactString(htmlSanitizer.sanitize(input)));
+    }
+
+
+    // How HtmlSanitizer worked before the body was cleaned in place
+    private static Document sanitizeWithCleaner(String html) {
+        Whitelist whitelist = Whitelist.relaxed()
+                .addTags("font")
+                .addAttributes("table", "align", "bgcolor", "border", "cellpadding", "cellspacing", "width")
+                .addAttributes(":all", "class", "style", "id")
+                .addProtocols("img", "src", "http", "https", "cid", "data");
+
+        Document dirtyDocument = Jsoup.parse(html);
+        Document cleanedDocument = new Cleaner(whitelist).clean(dirtyDocument);
+        new HeadCleaner().clean(dirtyDocument, cleanedDocument);
+        return cleanedDocument;
+    }
 }
@@ -0,0 +1,173 @@
+package com.fsck.k9.message.html;
+
+
+import java.util.Locale;
+
+import android.text.Annotation;
+import android.text.Editable;
+import android.text.Html;
+import android.text.Spannable;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.xml.sax.XMLReader;
+
+import static org.junit.Assert.assertEquals;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class HtmlToTextConverterTest {
+    private static final String[] CORPUS = {
+            "",
+            "Plain text",
+            "<b>The quick brown fox jumps over the lazy dog</b>",
+            "<p>First</p><p>Second</p>",
+            "<div>One</div><div>Two</div>Three",
+            "Line one<br>Line two<br/>Line three",
+            "  Leading and   trailing  whitespace  ",
+            "Line\r\nbreaks\rand\nspaces",
+            "<h1>Heading</h1><blockquote>Quote</blockquote>Text",
+            "<style>p { color: red; }</style><script>alert('<p>');</script>Text",
+            "<html><head><title>Title</title></head><body>Body</body></html>",
+            "A<!-- <p>comment</p> -->B",
+            "a&amp;b&lt;c&gt;d&quot;e&#65;&#x42;",
+            "non&nbsp;breaking&nbsp; space",
+            "Above<hr>Below",
+            "a<img src=\"image.png\"> b",
+            "<a href=\"http://example.com/\" title=\"a > b\">link</a> text",
+            "<p>Unclosed paragraph",
+            "<table><tr><td>Cell 1</td><td>Cell 2</td></tr></table>",
+            "<ul><li>Item 1</li><li>Item 2</li></ul>",
+            "<html><head><style type=\"text/css\">body { margin: 0; }</style></head><body>" +
+                    "<div>Hi Alice,</div><div><br></div><div>See you <b>tomorrow</b> at 10.</div>" +
+                    "<div><br></div><div>Bob</div><blockquote>On Monday Alice wrote:<br>&gt; Lunch?</blockquote>" +
+                    "</body></html>",
+    };
+
+
+    @Test
+    public void convert_withParagraphs_shouldSeparateWithEmptyLine() {
+        String result = HtmlToTextConverter.convert("<p>First</p><p>Second</p>", Integer.MAX_VALUE);
+
+        assertEquals("First\n\nSecond\n\n", result);
+    }
+
+    @Test
+    public void convert_withLineBreak_shouldInsertNewline() {
+        String result = HtmlToTextConverter.convert("Line one<br>Line two", Integer.MAX_VALUE);
+
+        assertEquals("Line one\nLine two", result);
+    }
+
+    @Test
+    public void convert_withWhitespace_shouldCollapseWhitespace() {
+        String result = HtmlToTextConverter.convert("  Some \n\n  text  ", Integer.MAX_VALUE);
+
+        assertEquals("Some text ", result);
+    }
+
+    @Test
+    public void convert_withStyleAndScript_shouldDropContent() {
+        String html = "<style>p { color: red; }</style><script>alert('<p>');</script>Text";
+
+        String result = HtmlToTextConverter.convert(html, Integer.MAX_VALUE);
+
+        assertEquals("Text", result);
+    }
+
+    @Test
+    public void convert_withTitle_shouldDropContent() {
+        String result = HtmlToTextConverter.convert("<title>Title</title>Text", Integer.MAX_VALUE);
+
+        assertEquals("Text", result);
+    }
+
+    @Test
+    public void convert_withComment_shouldDropComment() {
+        String result = HtmlToTextConverter.convert("A<!-- <p>comment</p> -->B", Integer.MAX_VALUE);
+
+        assertEquals("AB", result);
+    }
+
+    @Test
+    public void convert_withEntities_shouldDecodeEntities() {
+        String result = HtmlToTextConverter.convert("a&amp;b&lt;c&nbsp;d", Integer.MAX_VALUE);
+
+        assertEquals("a&b<c d", result);
+    }
+
+    @Test
+    public void convert_withHorizontalRule_shouldInsertUnderscores() {
+        String result = HtmlToTextConverter.convert("Above<hr>Below", Integer.MAX_VALUE);
+
+        assertEquals("Above_____________________________________________\r\nBelow", result);
+    }
+
+    @Test
+    public void convert_withImage_shouldInsertSpace() {
+        String result = HtmlToTextConverter.convert("a<img src=\"image.png\"> b", Integer.MAX_VALUE);
+
+        assertEquals("a  b", result);
+    }
+
+    @Test
+    public void convert_withQuotedGreaterThanInAttribute_shouldSkipWholeTag() {
+        String result = HtmlToTextConverter.convert("<a title=\"a > b\">link</a>", Integer.MAX_VALUE);
+
+        assertEquals("link", result);
+    }
+
+    @Test
+    public void convert_withMaxLength_shouldTruncate() {
+        String result = HtmlToTextConverter.convert("<p>abcdef</p><p>ghi</p>", 3);
+
+        assertEquals("abc", result);
+    }
+
+    @Test
+    public void convert_withCorpus_shouldMatchHtmlFromHtml() {
+        for (String html : CORPUS) {
+            assertEquals(html, legacyHtmlToText(html), HtmlToTextConverter.convert(html, Integer.MAX_VALUE));
+        }
+    }
+
+
+    private static String legacyHtmlToText(String html) {
+        return Html.fromHtml(html, null, new LegacyTagHandler()).toString()
+                .replace('\uFFFC', ' ')
+                .replace('\u00A0', ' ');
+    }
+
+    /**
+     * The tag handler {@code HtmlConverter.htmlToText()} used together with {@link Html#fromHtml(String)}.
+     */
+    private static class LegacyTagHandler implements Html.TagHandler {
+        @Override
+        public void handleTag(boolean opening, String tag, Editable output, XMLReader xmlReader) {
+            tag = tag.toLowerCase(Locale.US);
+            if (tag.equals("hr") && opening) {
+                output.append("_____________________________________________\r\n");
+            } else if (tag.equals("style") || tag.equals("script") || tag.equals("title")) {
+                handleIgnoredTag(opening, output);
+            }
+        }
+
+        private void handleIgnoredTag(boolean opening, Editable output) {
+            int len = output.length();
+            if (opening) {
+                output.setSpan(new Annotation("K9_ANNOTATION", "hiddenSpan"), len, len, Spannable.SPAN_MARK_MARK);
+            } else {
+                Annotation[] spans = output.getSpans(0, output.length(), Annotation.class);
+                if (spans.length > 0) {
+                    Annotation start = spans[spans.length - 1];
+                    int where = output.getSpanStart(start);
+                    output.removeSpan(start);
+                    output.delete(where, len);
+                }
+            }
+        }
+    }
+}
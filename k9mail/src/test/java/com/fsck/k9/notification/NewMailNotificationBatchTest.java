@@ -0,0 +1,135 @@
+package com.fsck.k9.notification;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.mailstore.LocalMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class NewMailNotificationBatchTest {
+    private static final int UNREAD_MESSAGE_COUNT = 23;
+
+    private NotificationController controller;
+    private Account account;
+    private TestNewMailNotificationBatch batch;
+
+
+    @Before
+    public void setUp() throws Exception {
+        controller = mock(NotificationController.class);
+        account = mock(Account.class);
+        Handler flushHandler = new Handler(Looper.getMainLooper());
+        batch = new TestNewMailNotificationBatch(controller, account, UNREAD_MESSAGE_COUNT, flushHandler);
+    }
+
+    @Test
+    public void add_withinBatchDuration_shouldNotNotify() throws Exception {
+        batch.add(mock(LocalMessage.class));
+        batch.time += NewMailNotificationBatch.MAX_BATCH_DURATION - 1;
+        batch.add(mock(LocalMessage.class));
+
+        verify(controller, never()).addNewMailNotifications(any(Account.class), anyListOf(LocalMessage.class),
+                anyInt());
+    }
+
+    @Test
+    public void add_afterBatchDuration_shouldNotifyForWholeBatch() throws Exception {
+        LocalMessage messageOne = mock(LocalMessage.class);
+        LocalMessage messageTwo = mock(LocalMessage.class);
+
+        batch.add(messageOne);
+        batch.time += NewMailNotificationBatch.MAX_BATCH_DURATION;
+        batch.add(messageTwo);
+
+        verify(controller).addNewMailNotifications(account, Arrays.asList(messageOne, messageTwo),
+                UNREAD_MESSAGE_COUNT);
+    }
+
+    @Test
+    public void add_withSingleMessage_shouldNotifyWhenBatchDurationHasPassed() throws Exception {
+        LocalMessage message = mock(LocalMessage.class);
+        batch.add(message);
+
+        ShadowLooper.idleMainLooper(NewMailNotificationBatch.MAX_BATCH_DURATION);
+
+        verify(controller).addNewMailNotifications(account, Collections.singletonList(message),
+                UNREAD_MESSAGE_COUNT);
+    }
+
+    @Test
+    public void add_withSingleMessage_shouldNotNotifyBeforeBatchDurationHasPassed() throws Exception {
+        batch.add(mock(LocalMessage.class));
+
+        ShadowLooper.idleMainLooper(NewMailNotificationBatch.MAX_BATCH_DURATION - 1);
+
+        verify(controller, never()).addNewMailNotifications(any(Account.class), anyListOf(LocalMessage.class),
+                anyInt());
+    }
+
+    @Test
+    public void flush_shouldCancelPendingDeadline() throws Exception {
+        LocalMessage message = mock(LocalMessage.class);
+        batch.add(message);
+        batch.flush();
+
+        ShadowLooper.idleMainLooper(NewMailNotificationBatch.MAX_BATCH_DURATION);
+
+        verify(controller, times(1)).addNewMailNotifications(any(Account.class), anyListOf(LocalMessage.class),
+                anyInt());
+    }
+
+    @Test
+    public void flush_shouldNotifyForCollectedMessages() throws Exception {
+        LocalMessage message = mock(LocalMessage.class);
+        batch.add(message);
+
+        batch.flush();
+
+        verify(controller).addNewMailNotifications(account, Collections.singletonList(message),
+                UNREAD_MESSAGE_COUNT);
+    }
+
+    @Test
+    public void flush_withoutMessages_shouldNotNotify() throws Exception {
+        batch.flush();
+
+        verify(controller, never()).addNewMailNotifications(any(Account.class), anyListOf(LocalMessage.class),
+                anyInt());
+    }
+
+
+    static class TestNewMailNotificationBatch extends NewMailNotificationBatch {
+        long time = 1000;
+
+        TestNewMailNotificationBatch(NotificationController controller, Account account,
+                int previousUnreadMessageCount, Handler flushHandler) {
+            super(controller, account, previousUnreadMessageCount, flushHandler);
+        }
+
+        @Override
+        long getTime() {
+            return time;
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package com.fsck.k9.preferences;
 
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import com.fsck.k9.Account;
@@ -18,6 +23,9 @@ import org.robolectric.RuntimeEnvironment;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 
 @SuppressWarnings("unchecked")
@@ -178,6 +186,140 @@ public class SettingsImporterTest {
                 .getAccount(validUUID).isEnabled());
     }
 
+    @Test
+    public void importSettings_withManyAccounts_shouldImportAllAccountsWithUniqueNamesAndNumbers()
+            throws SettingsImportExportException {
+        int accountCount = 100;
+        StringBuilder xml = new StringBuilder("<k9settings format=\"1\" version=\"1\"><accounts>");
+        List<String> accountUuids = new ArrayList<>();
+        for (int i = 0; i < accountCount; i++) {
+            String uuid = UUID.randomUUID().toString();
+            accountUuids.add(uuid);
+            xml.append("<account uuid=\"").append(uuid).append("\"><name>Account</name>" +
+                    "<incoming-server type=\"IMAP\">" +
+                        "<connection-security>SSL_TLS_REQUIRED</connection-security>" +
+                        "<username>user@gmail.com</username>" +
+                        "<authentication-type>PLAIN</authentication-type>" +
+                        "<host>googlemail.com</host>" +
+                    "</incoming-server>" +
+                    "<outgoing-server type=\"SMTP\">" +
+                        "<connection-security>SSL_TLS_REQUIRED</connection-security>" +
+                        "<username>user@googlemail.com</username>" +
+                        "<authentication-type>PLAIN</authentication-type>" +
+                        "<host>googlemail.com</host>" +
+                    "</outgoing-server>" +
+                    "<identities><identity><email>user@gmail.com</email></identity></identities>" +
+                    "</account>");
+        }
+        xml.append("</accounts></k9settings>");
+        InputStream inputStream = new StringInputStream(xml.toString());
+
+        SettingsImporter.ImportResults results = SettingsImporter.importSettings(
+                RuntimeEnvironment.application, inputStream, false, accountUuids, false);
+
+        assertEquals(0, results.erroneousAccounts.size());
+        assertEquals(accountCount, results.importedAccounts.size());
+        List<Account> accounts = Preferences.getPreferences(RuntimeEnvironment.application).getAccounts();
+        assertEquals(accountCount, accounts.size());
+        Set<String> accountNames = new HashSet<>();
+        Set<Integer> accountNumbers = new HashSet<>();
+        for (Account account : accounts) {
+            accountNames.add(account.getDescription());
+            accountNumbers.add(account.getAccountNumber());
+        }
+        assertEquals(accountCount, accountNames.size());
+        assertEquals(accountCount, accountNumbers.size());
+    }
+
+    @Test
+    public void importSettings_withMalformedFileAfterFirstAccount_shouldNotImportAnything() throws Exception {
+        String firstUuid = UUID.randomUUID().toString();
+        String secondUuid = UUID.randomUUID().toString();
+        InputStream inputStream = new StringInputStream("<k9settings format=\"1\" version=\"1\"><accounts>" +
+                createAccountXml(firstUuid, "First") +
+                "<account uuid=\"" + secondUuid + "\"><name>Second</name><incoming-server type=\"IMAP\">");
+        List<String> accountUuids = new ArrayList<>();
+        accountUuids.add(firstUuid);
+        accountUuids.add(secondUuid);
+
+        try {
+            SettingsImporter.importSettings(RuntimeEnvironment.application, inputStream, false, accountUuids, false);
+            fail("Expected exception");
+        } catch (SettingsImportExportException e) {
+            Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+            assertTrue(preferences.getAccounts().isEmpty());
+            assertNull(preferences.getStorage().getString(firstUuid + ".description", null));
+        }
+    }
+
+    @Test
+    public void importSettings_withExportedAccount_shouldRestoreAccount() throws Exception {
+        String uuid = UUID.randomUUID().toString();
+        InputStream inputStream = new StringInputStream("<k9settings format=\"1\" version=\"1\"><accounts>" +
+                createAccountXml(uuid, "Account") + "</accounts></k9settings>");
+        List<String> accountUuids = Collections.singletonList(uuid);
+        SettingsImporter.importSettings(RuntimeEnvironment.application, inputStream, false, accountUuids, false);
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        String storeUri = preferences.getAccount(uuid).getStoreUri();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        SettingsExporter.exportPreferences(RuntimeEnvironment.application, outputStream, false,
+                Collections.singleton(uuid));
+        deletePreExistingAccounts();
+        SettingsImporter.ImportResults results = SettingsImporter.importSettings(RuntimeEnvironment.application,
+                new ByteArrayInputStream(outputStream.toByteArray()), false, accountUuids, false);
+
+        assertEquals(1, results.importedAccounts.size());
+        Account account = preferences.getAccount(uuid);
+        assertEquals("Account", account.getDescription());
+        assertEquals(storeUri, account.getStoreUri());
+        assertEquals("user@gmail.com", account.getEmail());
+    }
+
+    @Test
+    public void importSettings_withExportOfManyAccounts_shouldRestoreAllAccountsAndFolderSettings()
+            throws Exception {
+        int accountCount = 100;
+        int folderCount = 5;
+        StringBuilder xml = new StringBuilder("<k9settings format=\"1\" version=\"1\"><accounts>");
+        List<String> accountUuids = new ArrayList<>();
+        for (int i = 0; i < accountCount; i++) {
+            String uuid = UUID.randomUUID().toString();
+            accountUuids.add(uuid);
+            xml.append(createAccountXml(uuid, "Account " + i, createFoldersXml(folderCount)));
+        }
+        xml.append("</accounts></k9settings>");
+        SettingsImporter.importSettings(RuntimeEnvironment.application, new StringInputStream(xml.toString()),
+                false, accountUuids, false);
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        List<String> storeUris = new ArrayList<>();
+        for (String uuid : accountUuids) {
+            storeUris.add(preferences.getAccount(uuid).getStoreUri());
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        SettingsExporter.exportPreferences(RuntimeEnvironment.application, outputStream, false,
+                new HashSet<>(accountUuids));
+        deletePreExistingAccounts();
+        SettingsImporter.ImportResults results = SettingsImporter.importSettings(RuntimeEnvironment.application,
+                new ByteArrayInputStream(outputStream.toByteArray()), false, accountUuids, false);
+
+        assertEquals(0, results.erroneousAccounts.size());
+        assertEquals(accountCount, results.importedAccounts.size());
+        assertEquals(accountCount, preferences.getAccounts().size());
+        Storage storage = preferences.getStorage();
+        for (int i = 0; i < accountCount; i++) {
+            String uuid = accountUuids.get(i);
+            Account account = preferences.getAccount(uuid);
+            assertEquals("Account " + i, account.getDescription());
+            assertEquals(storeUris.get(i), account.getStoreUri());
+            assertEquals("user@gmail.com", account.getEmail());
+            for (int j = 0; j < folderCount; j++) {
+                assertEquals("FIRST_CLASS", storage.getString(uuid + ".Folder" + j + ".displayMode", null));
+            }
+        }
+    }
+
     @Test
     public void getImportStreamContents_account() throws SettingsImportExportException {
         String validUUID = UUID.randomUUID().toString();
@@ -223,4 +365,37 @@ public class SettingsImporterTest {
         assertEquals("user@gmail.com", results.accounts.get(0).name);
         assertEquals(validUUID, results.accounts.get(0).uuid);
     }
+
+    private static String createAccountXml(String uuid, String name) {
+        return createAccountXml(uuid, name, "");
+    }
+
+    private static String createAccountXml(String uuid, String name, String foldersXml) {
+        return "<account uuid=\"" + uuid + "\"><name>" + name + "</name>" +
+                "<incoming-server type=\"IMAP\">" +
+                    "<connection-security>SSL_TLS_REQUIRED</connection-security>" +
+                    "<username>user@gmail.com</username>" +
+                    "<authentication-type>PLAIN</authentication-type>" +
+                    "<host>googlemail.com</host>" +
+                "</incoming-server>" +
+                "<outgoing-server type=\"SMTP\">" +
+                    "<connection-security>SSL_TLS_REQUIRED</connection-security>" +
+                    "<username>user@googlemail.com</username>" +
+                    "<authentication-type>PLAIN</authentication-type>" +
+                    "<host>googlemail.com</host>" +
+                "</outgoing-server>" +
+                "<identities><identity><email>user@gmail.com</email></identity></identities>" +
+                foldersXml +
+                "</account>";
+    }
+
+    private static String createFoldersXml(int folderCount) {
+        StringBuilder xml = new StringBuilder("<folders>");
+        for (int i = 0; i < folderCount; i++) {
+            xml.append("<folder name=\"Folder").append(i).append("\">" +
+                    "<value key=\"displayMode\">FIRST_CLASS</value>" +
+                    "</folder>");
+        }
+        return xml.append("</folders>").toString();
+    }
 }
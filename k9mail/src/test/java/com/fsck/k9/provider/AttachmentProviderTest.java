@@ -0,0 +1,88 @@
+package com.fsck.k9.provider;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import android.os.ParcelFileDescriptor;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.mailstore.LocalStore;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.openintents.openpgp.util.OpenPgpApi.OpenPgpDataSource;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class AttachmentProviderTest {
+    private static final String PART_ID = "42";
+
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private LocalStore localStore;
+
+
+    @Before
+    public void setUp() throws Exception {
+        localStore = mock(LocalStore.class);
+    }
+
+    @Test
+    public void openAttachment_withUnencodedPartOnDisk_shouldOpenFile() throws Exception {
+        File file = temporaryFolder.newFile(PART_ID);
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write("attachment".getBytes("US-ASCII"));
+        } finally {
+            outputStream.close();
+        }
+        when(localStore.getDecodedAttachmentFile(PART_ID)).thenReturn(file);
+
+        ParcelFileDescriptor fileDescriptor = AttachmentProvider.openAttachment(localStore, PART_ID);
+
+        // Only file descriptors of regular files have a size; pipes return -1
+        assertEquals(file.length(), fileDescriptor.getStatSize());
+        verify(localStore, never()).getAttachmentDataSource(anyString());
+        fileDescriptor.close();
+    }
+
+    @Test
+    public void openAttachment_withEncodedPart_shouldFallBackToPipe() throws Exception {
+        ParcelFileDescriptor readSide = mock(ParcelFileDescriptor.class);
+        OpenPgpDataSource dataSource = mock(OpenPgpDataSource.class);
+        when(dataSource.startPumpThread()).thenReturn(readSide);
+        when(localStore.getDecodedAttachmentFile(PART_ID)).thenReturn(null);
+        when(localStore.getAttachmentDataSource(PART_ID)).thenReturn(dataSource);
+
+        ParcelFileDescriptor fileDescriptor = AttachmentProvider.openAttachment(localStore, PART_ID);
+
+        assertSame(readSide, fileDescriptor);
+        verify(dataSource).startPumpThread();
+    }
+
+    @Test
+    public void openAttachment_withoutDataSource_shouldReturnNull() throws Exception {
+        when(localStore.getDecodedAttachmentFile(PART_ID)).thenReturn(null);
+        when(localStore.getAttachmentDataSource(PART_ID)).thenReturn(null);
+
+        ParcelFileDescriptor fileDescriptor = AttachmentProvider.openAttachment(localStore, PART_ID);
+
+        assertNull(fileDescriptor);
+    }
+}
@@ -0,0 +1,193 @@
+package com.fsck.k9.provider;
+
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mailstore.LocalFolder;
+import com.fsck.k9.mailstore.LocalStore;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.mailstore.StorageManager;
+import com.fsck.k9.provider.EmailProvider.MessageColumns;
+import com.fsck.k9.provider.EmailProvider.SpecialColumns;
+import com.fsck.k9.provider.EmailProvider.ThreadColumns;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class EmailProviderTest {
+    private static final String[] THREADED_PROJECTION = {
+            MessageColumns.ID,
+            MessageColumns.UID,
+            MessageColumns.SUBJECT,
+            MessageColumns.DATE,
+            MessageColumns.INTERNAL_DATE,
+            MessageColumns.READ,
+            MessageColumns.FLAGGED,
+            MessageColumns.ANSWERED,
+            MessageColumns.FORWARDED,
+            MessageColumns.ATTACHMENT_COUNT,
+            MessageColumns.FOLDER_ID,
+            ThreadColumns.ROOT,
+            SpecialColumns.THREAD_COUNT
+    };
+    private static final String SORT_ORDER = MessageColumns.DATE + " DESC";
+
+
+    private Account account;
+    private LocalStore localStore;
+    private EmailProvider emailProvider;
+
+
+    @Before
+    public void setUp() throws Exception {
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        preferences.loadAccounts();
+        account = preferences.newAccount();
+
+        StorageManager storageManager = StorageManager.getInstance(RuntimeEnvironment.application);
+        File databaseFile = storageManager.getDatabase(account.getUuid(), account.getLocalStorageProviderId());
+        assertTrue(databaseFile.getParentFile().isDirectory() || databaseFile.getParentFile().mkdirs());
+
+        localStore = LocalStore.getInstance(account, RuntimeEnvironment.application);
+
+        emailProvider = new EmailProvider();
+        emailProvider.attachInfo(RuntimeEnvironment.application, null);
+    }
+
+    @Test
+    public void getThreadSummaries_withMixedThreads_shouldReturnSameRowsAsGetThreadedMessages() throws Exception {
+        long folderId = createFolder("Inbox");
+        long otherFolderId = createFolder("Archive");
+
+        // A read root with an unread, flagged reply that has attachments
+        insertMessage(1, folderId, 1000, 1, 0, 0, 0, 0, 0);
+        insertMessage(2, folderId, 3000, 0, 1, 0, 0, 2, 0);
+        insertThread(101, 1, 101);
+        insertThread(102, 2, 101);
+
+        // An empty placeholder as root of a read message with an attachment
+        insertMessage(3, folderId, 0, 0, 0, 0, 0, 0, 1);
+        insertMessage(4, folderId, 2000, 1, 0, 0, 0, 1, 0);
+        insertThread(103, 3, 103);
+        insertThread(104, 4, 103);
+
+        // A thread that only contains a deleted message
+        insertMessage(5, folderId, 8000, 0, 0, 1, 0, 0, 0);
+        insertThread(105, 5, 105);
+
+        // An answered message with a newer deleted reply
+        insertMessage(6, folderId, 4000, 1, 0, 0, 1, 0, 0);
+        insertMessage(7, folderId, 5000, 0, 1, 1, 0, 0, 0);
+        insertThread(106, 6, 106);
+        insertThread(107, 7, 106);
+
+        // A thread with a newer reply in another folder
+        insertMessage(8, folderId, 6000, 0, 0, 0, 0, 0, 0);
+        insertMessage(9, otherFolderId, 7000, 1, 1, 0, 0, 3, 0);
+        insertThread(108, 8, 108);
+        insertThread(109, 9, 108);
+
+        String accountUuid = account.getUuid();
+        String[] selectionArgs = { Long.toString(folderId) };
+        List<String> threadedMessages = readRows(emailProvider.getThreadedMessages(accountUuid,
+                THREADED_PROJECTION, "folder_id = ?", selectionArgs, SORT_ORDER, null));
+        List<String> threadSummaries = readRows(emailProvider.getThreadSummaries(accountUuid,
+                THREADED_PROJECTION, selectionArgs, SORT_ORDER, null));
+
+        assertEquals(threadedMessages, threadSummaries);
+        assertEquals(4, threadSummaries.size());
+        assertEquals("8|uid8|Subject 8|6000|6000|0|0|0|0|0|" + folderId + "|108|1", threadSummaries.get(0));
+        assertEquals("6|uid6|Subject 6|4000|4000|1|0|1|0|0|" + folderId + "|106|1", threadSummaries.get(1));
+        assertEquals("2|uid2|Subject 2|3000|3000|0|1|0|0|2|" + folderId + "|101|2", threadSummaries.get(2));
+        assertEquals("4|uid4|Subject 4|2000|2000|1|0|0|0|1|" + folderId + "|103|1", threadSummaries.get(3));
+    }
+
+
+    private long createFolder(String name) throws Exception {
+        LocalFolder folder = localStore.getFolder(name);
+        folder.create(FolderType.HOLDS_MESSAGES);
+        folder.open(Folder.OPEN_MODE_RO);
+        return folder.getId();
+    }
+
+    private void insertMessage(final long id, final long folderId, final long date, final int read,
+            final int flagged, final int deleted, final int answered, final int attachmentCount, final int empty)
+            throws Exception {
+        localStore.getDatabase().execute(false, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) {
+                ContentValues values = new ContentValues();
+                values.put("id", id);
+                values.put("folder_id", folderId);
+                values.put("uid", "uid" + id);
+                values.put("subject", "Subject " + id);
+                values.put("date", date);
+                values.put("internal_date", date);
+                values.put("read", read);
+                values.put("flagged", flagged);
+                values.put("deleted", deleted);
+                values.put("answered", answered);
+                values.put("forwarded", 0);
+                values.put("attachment_count", attachmentCount);
+                values.put("empty", empty);
+                db.insert("messages", null, values);
+                return null;
+            }
+        });
+    }
+
+    private void insertThread(final long id, final long messageId, final long root) throws Exception {
+        localStore.getDatabase().execute(false, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) {
+                ContentValues values = new ContentValues();
+                values.put("id", id);
+                values.put("message_id", messageId);
+                values.put("root", root);
+                if (id != root) {
+                    values.put("parent", root);
+                }
+                db.insert("threads", null, values);
+                return null;
+            }
+        });
+    }
+
+    private static List<String> readRows(Cursor cursor) {
+        List<String> rows = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    if (i > 0) {
+                        row.append('|');
+                    }
+                    row.append(cursor.getString(i));
+                }
+                rows.add(row.toString());
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,252 @@
+package com.fsck.k9.provider;
+
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.helper.MergeCursor;
+import com.fsck.k9.helper.MessageHelper;
+import com.fsck.k9.mail.Address;
+import com.fsck.k9.provider.MessageProvider.MessageColumns;
+import com.fsck.k9.provider.MessageProvider.MessageProjectionCursor;
+import com.fsck.k9.provider.MessageProvider.ReverseDateComparator;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MessageProviderTest {
+    private static final String ACCOUNT_UUID = "account";
+    private static final String OTHER_ACCOUNT_UUID = "other";
+    private static final String SENDER = "Alice <alice@example.com>";
+    private static final String RECIPIENT = "Bob <bob@example.com>";
+
+
+    private Map<String, Account> accounts;
+    private MessageHelper messageHelper;
+
+
+    @Before
+    public void setUp() throws Exception {
+        accounts = new HashMap<>();
+        accounts.put(ACCOUNT_UUID, createAccount(ACCOUNT_UUID, 1, "Work", 0xff0000));
+        accounts.put(OTHER_ACCOUNT_UUID, createAccount(OTHER_ACCOUNT_UUID, 2, "Home", 0x00ff00));
+
+        messageHelper = mock(MessageHelper.class);
+        when(messageHelper.getDisplayName(any(Account.class), any(Address[].class), any(Address[].class)))
+                .thenReturn("Alice");
+    }
+
+    @Test
+    public void parseLimit_withoutParameter_shouldReturnZero() throws Exception {
+        assertEquals(0, MessageProvider.parseLimit(null));
+    }
+
+    @Test
+    public void parseLimit_withNumber_shouldReturnNumber() throws Exception {
+        assertEquals(100, MessageProvider.parseLimit("100"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseLimit_withNonNumber_shouldThrow() throws Exception {
+        MessageProvider.parseLimit("all");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseLimit_withNegativeNumber_shouldThrow() throws Exception {
+        MessageProvider.parseLimit("-1");
+    }
+
+    @Test
+    public void getColumnNames_shouldSkipUnknownAndDuplicateColumns() throws Exception {
+        MessageProjectionCursor cursor = createProjectionCursor(createMessageCursor(),
+                MessageColumns.SUBJECT, "unknown", MessageColumns.SUBJECT, MessageColumns.URI);
+
+        assertArrayEquals(new String[] { MessageColumns.SUBJECT, MessageColumns.URI }, cursor.getColumnNames());
+    }
+
+    @Test
+    public void getString_shouldReturnMessageColumns() throws Exception {
+        MatrixCursor messages = createMessageCursor();
+        addMessage(messages, 42, "uid42", 1000L, 0, 1, 2, ACCOUNT_UUID);
+        MessageProjectionCursor cursor = createProjectionCursor(messages,
+                MessageColumns._ID,
+                MessageColumns.SEND_DATE,
+                MessageColumns.SUBJECT,
+                MessageColumns.PREVIEW,
+                MessageColumns.SENDER,
+                MessageColumns.SENDER_ADDRESS,
+                MessageColumns.ACCOUNT,
+                MessageColumns.ACCOUNT_NUMBER,
+                MessageColumns.ACCOUNT_COLOR);
+
+        assertTrue(cursor.moveToFirst());
+        assertEquals(42L, cursor.getLong(0));
+        assertEquals(1000L, cursor.getLong(1));
+        assertEquals("Subject uid42", cursor.getString(2));
+        assertEquals("Preview uid42", cursor.getString(3));
+        assertEquals("Alice", cursor.getString(4));
+        assertEquals("alice@example.com", cursor.getString(5));
+        assertEquals("Work", cursor.getString(6));
+        assertEquals(1, cursor.getInt(7));
+        assertEquals(0xff0000, cursor.getInt(8));
+    }
+
+    @Test
+    public void getString_shouldReturnUris() throws Exception {
+        MatrixCursor messages = createMessageCursor();
+        addMessage(messages, 42, "uid42", 1000L, 0, 0, 0, ACCOUNT_UUID);
+        MessageProjectionCursor cursor = createProjectionCursor(messages,
+                MessageColumns.URI, MessageColumns.DELETE_URI);
+
+        assertTrue(cursor.moveToFirst());
+        assertEquals("email://messages/1/INBOX/uid42", cursor.getString(0));
+        assertEquals(MessageProvider.CONTENT_URI + "/delete_message/1/INBOX/uid42", cursor.getString(1));
+    }
+
+    @Test
+    public void getString_withUnreadFlaggedMessageWithAttachments_shouldReturnTrue() throws Exception {
+        MatrixCursor messages = createMessageCursor();
+        addMessage(messages, 42, "uid42", 1000L, 0, 1, 3, ACCOUNT_UUID);
+        MessageProjectionCursor cursor = createProjectionCursor(messages,
+                MessageColumns.UNREAD, MessageColumns.HAS_STAR, MessageColumns.HAS_ATTACHMENTS);
+
+        assertTrue(cursor.moveToFirst());
+        assertEquals("true", cursor.getString(0));
+        assertEquals("true", cursor.getString(1));
+        assertEquals("true", cursor.getString(2));
+    }
+
+    @Test
+    public void getString_withReadMessageWithoutFlagOrAttachments_shouldReturnFalse() throws Exception {
+        MatrixCursor messages = createMessageCursor();
+        addMessage(messages, 42, "uid42", 1000L, 1, 0, 0, ACCOUNT_UUID);
+        MessageProjectionCursor cursor = createProjectionCursor(messages,
+                MessageColumns.UNREAD, MessageColumns.HAS_STAR, MessageColumns.HAS_ATTACHMENTS);
+
+        assertTrue(cursor.moveToFirst());
+        assertEquals("false", cursor.getString(0));
+        assertEquals("false", cursor.getString(1));
+        assertEquals("false", cursor.getString(2));
+    }
+
+    @Test
+    public void getInt_shouldReturnCountAndIncrement() throws Exception {
+        MatrixCursor messages = createMessageCursor();
+        addMessage(messages, 2, "uid2", 2000L, 0, 0, 0, ACCOUNT_UUID);
+        addMessage(messages, 1, "uid1", 1000L, 0, 0, 0, ACCOUNT_UUID);
+        MessageProjectionCursor cursor = createProjectionCursor(messages,
+                MessageColumns._COUNT, MessageColumns.INCREMENT);
+
+        assertTrue(cursor.moveToPosition(1));
+        assertEquals(2, cursor.getInt(0));
+        assertEquals(1, cursor.getInt(1));
+    }
+
+    @Test
+    public void moveToNext_withSeveralAccounts_shouldReturnNewestMessagesFirst() throws Exception {
+        MatrixCursor messages = createMessageCursor();
+        addMessage(messages, 1, "uid3", 3000L, 0, 0, 0, ACCOUNT_UUID);
+        addMessage(messages, 2, "uid1", 1000L, 0, 0, 0, ACCOUNT_UUID);
+        MatrixCursor otherMessages = createMessageCursor();
+        addMessage(otherMessages, 1, "uid4", 4000L, 0, 0, 0, OTHER_ACCOUNT_UUID);
+        addMessage(otherMessages, 2, "uid2", 2000L, 0, 0, 0, OTHER_ACCOUNT_UUID);
+        Cursor mergedCursor = new MergeCursor(new Cursor[] { messages, otherMessages }, new ReverseDateComparator());
+
+        MessageProjectionCursor cursor = createProjectionCursor(mergedCursor,
+                MessageColumns.SEND_DATE, MessageColumns.ACCOUNT_NUMBER);
+
+        assertEquals(4, cursor.getCount());
+        long[] dates = new long[4];
+        int[] accountNumbers = new int[4];
+        while (cursor.moveToNext()) {
+            dates[cursor.getPosition()] = cursor.getLong(0);
+            accountNumbers[cursor.getPosition()] = cursor.getInt(1);
+        }
+        assertArrayEquals(new long[] { 4000L, 3000L, 2000L, 1000L }, dates);
+        assertArrayEquals(new int[] { 2, 1, 2, 1 }, accountNumbers);
+    }
+
+    @Test
+    public void getCount_withLimit_shouldOnlyReturnNewestMessagesOfAllAccounts() throws Exception {
+        MatrixCursor messages = createMessageCursor();
+        addMessage(messages, 1, "uid3", 3000L, 0, 0, 0, ACCOUNT_UUID);
+        addMessage(messages, 2, "uid1", 1000L, 0, 0, 0, ACCOUNT_UUID);
+        MatrixCursor otherMessages = createMessageCursor();
+        addMessage(otherMessages, 1, "uid4", 4000L, 0, 0, 0, OTHER_ACCOUNT_UUID);
+        addMessage(otherMessages, 2, "uid2", 2000L, 0, 0, 0, OTHER_ACCOUNT_UUID);
+        Cursor mergedCursor = new MergeCursor(new Cursor[] { messages, otherMessages }, new ReverseDateComparator());
+
+        MessageProjectionCursor cursor = new MessageProjectionCursor(mergedCursor,
+                new String[] { MessageColumns.SEND_DATE, MessageColumns._COUNT }, 3, accounts, messageHelper);
+
+        assertEquals(3, cursor.getCount());
+        assertTrue(cursor.moveToLast());
+        assertEquals(2000L, cursor.getLong(0));
+        assertEquals(3, cursor.getInt(1));
+        assertFalse(cursor.moveToNext());
+    }
+
+    @Test
+    public void getCount_withLimitAboveMessageCount_shouldReturnAllMessages() throws Exception {
+        MatrixCursor messages = createMessageCursor();
+        addMessage(messages, 1, "uid1", 1000L, 0, 0, 0, ACCOUNT_UUID);
+
+        MessageProjectionCursor cursor = new MessageProjectionCursor(messages,
+                new String[] { MessageColumns.SEND_DATE }, 100, accounts, messageHelper);
+
+        assertEquals(1, cursor.getCount());
+    }
+
+
+    private Account createAccount(String uuid, int accountNumber, String description, int chipColor) {
+        Account account = mock(Account.class);
+        when(account.getUuid()).thenReturn(uuid);
+        when(account.getAccountNumber()).thenReturn(accountNumber);
+        when(account.getDescription()).thenReturn(description);
+        when(account.getChipColor()).thenReturn(chipColor);
+        return account;
+    }
+
+    private MessageProjectionCursor createProjectionCursor(Cursor cursor, String... projection) {
+        return new MessageProjectionCursor(cursor, projection, 0, accounts, messageHelper);
+    }
+
+    private MatrixCursor createMessageCursor() {
+        return new MatrixCursor(MessageProvider.INBOX_MESSAGES_PROJECTION);
+    }
+
+    private void addMessage(MatrixCursor cursor, long id, String uid, long date, int read, int flagged,
+            int attachmentCount, String accountUuid) {
+        cursor.addRow(new Object[] {
+                id,
+                uid,
+                date,
+                "Subject " + uid,
+                Address.pack(Address.parse(SENDER)),
+                Address.pack(Address.parse(RECIPIENT)),
+                "Preview " + uid,
+                read,
+                flagged,
+                attachmentCount,
+                "INBOX",
+                accountUuid
+        });
+    }
+}